@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * AllocationBenchmark measures the number of bytes allocated on the heap while decoding .hesc files.
+ * It reports the allocation per decoded structure and per atom, both for the entire decode and for the
+ * coordinate walk only. The coordinate walk starts with the setModelCount callback, which is issued when the
+ * COORD record is read (compression methods 1 and 2), and should not allocate any objects. For the
+ * streaming layout (compression method 3), setModelCount is issued at the STRUCTURE record, and the 
+ * walk includes the reading of all chain chunks.
+ *
+ * Requires a JVM that supports com.sun.management.ThreadMXBean (e.g., HotSpot).
+ *
+ * Usage: AllocationBenchmark file.hesc.. [iterations]
+ *
+ * @author Peter Rose
+ *
+ */
+public class AllocationBenchmark implements StructureInflatorInterface {
+	private com.sun.management.ThreadMXBean threadBean;
+	private long threadId;
+	private long walkStart = 0;
+	private int atoms = 0;
+
+	public AllocationBenchmark() {
+		threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		threadId = Thread.currentThread().getId();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: AllocationBenchmark file.hesc.. [iterations]");
+			return;
+		}
+		int iterations = 20;
+		int fileCount = args.length;
+		if (! args[args.length-1].endsWith(CodecConstants.CODEC_FILE_EXTENSION)) {
+			iterations = Integer.parseInt(args[args.length-1]);
+			fileCount--;
+		}
+
+		AllocationBenchmark benchmark = new AllocationBenchmark();
+		System.out.println("file,atoms,bytes_per_decode,bytes_per_atom,walk_bytes_per_atom,ms_per_decode");
+		for (int i = 0; i < fileCount; i++) {
+			benchmark.run(new File(args[i]), iterations);
+		}
+	}
+
+	public void run(File file, int iterations) throws Exception {
+		byte[] data = readFile(file);
+		StructureInflator inflator = new StructureInflator(this);
+
+		// warm up, so that the measurement excludes class loading and JIT compilation
+		for (int i = 0; i < iterations; i++) {
+			inflator.read(data);
+		}
+
+		long total = 0;
+		long walk = 0;
+		long time = 0;
+		for (int i = 0; i < iterations; i++) {
+			atoms = 0;
+			long start = allocatedBytes();
+			long t = System.nanoTime();
+			inflator.read(data);
+			time += System.nanoTime() - t;
+			long end = allocatedBytes();
+			total += end - start;
+			walk += end - walkStart;
+		}
+		System.out.printf("%s,%d,%d,%.2f,%.2f,%.3f%n", file.getName(), atoms, total/iterations,
+				(double)total/iterations/atoms, (double)walk/iterations/atoms, time/(1E6*iterations));
+	}
+
+	private long allocatedBytes() {
+		return threadBean.getThreadAllocatedBytes(threadId);
+	}
+
+	public void setModelCount(int modelCount) {
+		walkStart = allocatedBytes();
+	}
+
+	public void setModelInfo(int modelNumber, int chainCount) {
+	}
+
+	public void setChainInfo(String chainId, int groupCount) {
+	}
+
+	public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+	}
+
+	public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+			float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+		atoms++;
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		try {
+			dis.readFully(data);
+		} finally {
+			dis.close();
+		}
+		return data;
+	}
+}
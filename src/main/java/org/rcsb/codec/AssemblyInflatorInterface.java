@@ -0,0 +1,25 @@
+package org.rcsb.codec;
+
+/**
+ * Optional extension of the StructureInflatorInterface. If the inflator passed to the StructureInflator 
+ * also implements this interface, the decoder generates the copies of the chains of a biological assembly
+ * from the operators of the ASSEMBLY record. The file contains only the asymmetric unit.
+ * <p>
+ * After the last chain of each model, setOperatorInfo is called once for each operator. If it returns true, the
+ * chains of the operator are transformed and reported as additional chains of the model (setChainInfo,
+ * setGroupInfo, setAtomInfo), with serial numbers that continue after the last atom of the model.
+ * The chain count passed to setModelInfo does not include these copies. Operators that are declined are
+ * not expanded, so the cost of decoding scales with the asymmetric unit and the requested copies only.
+ * 
+ * @author Peter Rose
+ *
+ */
+public interface AssemblyInflatorInterface {
+	/**
+	 * @param operatorId operator id
+	 * @param matrix rotation matrix (row-major, elements 0 - 8) and translation vector (elements 9 - 11), must not be modified
+	 * @param chainCount number of chains of the current model that the operator is applied to
+	 * @return true to receive the transformed copies of the chains, false to skip this operator
+	 */
+	boolean setOperatorInfo(String operatorId, double[] matrix, int chainCount);
+}
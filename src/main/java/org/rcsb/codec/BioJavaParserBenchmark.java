@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import org.biojava.bio.structure.Structure;
+import org.biojava.bio.structure.StructureTools;
+import org.biojava.bio.structure.io.FileParsingParameters;
+import org.biojava.bio.structure.io.PDBFileParser;
+import org.biojava.bio.structure.io.mmcif.SimpleMMcifConsumer;
+import org.biojava.bio.structure.io.mmcif.SimpleMMcifParser;
+
+/**
+ * BioJavaParserBenchmark compares the time to create a BioJava Structure from HESC files (using the
+ * BioJavaStructureInflator) with the time of the BioJava PDB and mmCIF file parsers for the same entries.
+ *
+ * The benchmark expects a directory with files named &lt;id&gt;.hesc and, for the same id, &lt;id&gt;.pdb[.gz] and/or
+ * &lt;id&gt;.cif[.gz]. All files are read into memory before the timing starts, so that only parsing and
+ * structure creation are measured.
+ *
+ * Usage: BioJavaParserBenchmark directory [iterations]
+ *
+ * @author Peter Rose
+ *
+ */
+public class BioJavaParserBenchmark {
+	private static final int WARMUP_ITERATIONS = 2;
+
+	private FileParsingParameters params;
+
+	public BioJavaParserBenchmark() {
+		params = new FileParsingParameters();
+		params.setAlignSeqRes(false);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: BioJavaParserBenchmark directory [iterations]");
+			return;
+		}
+		File dir = new File(args[0]);
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		BioJavaParserBenchmark benchmark = new BioJavaParserBenchmark();
+		benchmark.run(dir, iterations);
+	}
+
+	public void run(File dir, int iterations) throws Exception {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("BioJavaParserBenchmark: not a directory: " + dir);
+		}
+
+		System.out.println("id,atoms,hesc_ms,pdb_ms,cif_ms,pdb_speedup,cif_speedup");
+
+		double hescTotal = 0, pdbTotal = 0, cifTotal = 0;
+		for (File file: files) {
+			String name = file.getName();
+			if (! name.endsWith(CodecConstants.CODEC_FILE_EXTENSION)) {
+				continue;
+			}
+			String id = name.substring(0, name.length() - CodecConstants.CODEC_FILE_EXTENSION.length());
+
+			byte[] hesc = readFile(file);
+			File pdbFile = findFile(dir, id, ".pdb");
+			File cifFile = findFile(dir, id, ".cif");
+			byte[] pdb = pdbFile == null ? null : readFile(pdbFile);
+			byte[] cif = cifFile == null ? null : readFile(cifFile);
+
+			BioJavaStructureInflator builder = new BioJavaStructureInflator();
+			StructureInflator inflator = new StructureInflator(builder);
+			inflator.read(hesc);
+			int atoms = StructureTools.getNrAtoms(builder.getStructure());
+
+			double hescTime = timeHesc(hesc, iterations);
+			double pdbTime = pdb == null ? Double.NaN : timePdb(pdb, isGzipped(pdbFile), iterations);
+			double cifTime = cif == null ? Double.NaN : timeCif(cif, isGzipped(cifFile), iterations);
+
+			hescTotal += hescTime;
+			if (pdb != null) pdbTotal += pdbTime;
+			if (cif != null) cifTotal += cifTime;
+
+			System.out.printf("%s,%d,%.3f,%.3f,%.3f,%.1f,%.1f%n", id, atoms, hescTime, pdbTime, cifTime, pdbTime/hescTime, cifTime/hescTime);
+		}
+		System.out.printf("total,,%.3f,%.3f,%.3f,%.1f,%.1f%n", hescTotal, pdbTotal, cifTotal, pdbTotal/hescTotal, cifTotal/hescTotal);
+	}
+
+	private double timeHesc(byte[] data, int iterations) throws Exception {
+		BioJavaStructureInflator builder = new BioJavaStructureInflator();
+		StructureInflator inflator = new StructureInflator(builder);
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			inflator.read(data);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			inflator.read(data);
+			builder.getStructure();
+		}
+		return (System.nanoTime() - start)/(1000000.0 * iterations);
+	}
+
+	private double timePdb(byte[] data, boolean gzipped, int iterations) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			parsePdb(data, gzipped);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			parsePdb(data, gzipped);
+		}
+		return (System.nanoTime() - start)/(1000000.0 * iterations);
+	}
+
+	private double timeCif(byte[] data, boolean gzipped, int iterations) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			parseCif(data, gzipped);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			parseCif(data, gzipped);
+		}
+		return (System.nanoTime() - start)/(1000000.0 * iterations);
+	}
+
+	private Structure parsePdb(byte[] data, boolean gzipped) throws IOException {
+		PDBFileParser parser = new PDBFileParser();
+		parser.setFileParsingParameters(params);
+		return parser.parsePDBFile(openStream(data, gzipped));
+	}
+
+	private Structure parseCif(byte[] data, boolean gzipped) throws IOException {
+		SimpleMMcifParser parser = new SimpleMMcifParser();
+		SimpleMMcifConsumer consumer = new SimpleMMcifConsumer();
+		consumer.setFileParsingParameters(params);
+		parser.addMMcifConsumer(consumer);
+		parser.parse(new BufferedReader(new InputStreamReader(openStream(data, gzipped))));
+		return consumer.getStructure();
+	}
+
+	private static InputStream openStream(byte[] data, boolean gzipped) throws IOException {
+		InputStream in = new ByteArrayInputStream(data);
+		if (gzipped) {
+			in = new GZIPInputStream(in, 8192);
+		}
+		return in;
+	}
+
+	private static File findFile(File dir, String id, String extension) {
+		File file = new File(dir, id + extension + ".gz");
+		if (file.exists()) {
+			return file;
+		}
+		file = new File(dir, id + extension);
+		return file.exists() ? file : null;
+	}
+
+	private static boolean isGzipped(File file) {
+		return file.getName().endsWith(".gz");
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		try {
+			dis.readFully(data);
+		} finally {
+			dis.close();
+		}
+		return data;
+	}
+}
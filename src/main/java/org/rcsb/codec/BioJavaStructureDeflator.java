@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.biojava.bio.structure.AminoAcid;
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.Chain;
+import org.biojava.bio.structure.Group;
+import org.biojava.bio.structure.NucleotideImpl;
+import org.biojava.bio.structure.ResidueNumber;
+import org.biojava.bio.structure.Structure;
+
+/**
+ * BioJavaStructureDeflator passes a BioJava Structure to a StructureInflatorInterface, e.g., a StructureDeflator,
+ * with the same sequence of callbacks that the decoder issues. It is the inverse of the BioJavaStructureInflator.
+ * <p>
+ * Atoms of alternative location groups (Group.getAltLocs()) that are not part of the group itself are appended
+ * to the atoms of the group, so that all alternative locations are encoded.
+ * <p>
+ * Usage:
+ * <pre>
+ *    StructureDeflator deflator = StructureDeflator.open(new File("4HHB.hesc"));
+ *    new BioJavaStructureDeflator(deflator).deflate(structure);
+ *    deflator.writeStructure();
+ *    deflator.close();
+ * </pre>
+ *
+ * @author Peter Rose
+ *
+ */
+public class BioJavaStructureDeflator {
+	private StructureInflatorInterface inflator;
+	private Set<String> atomKeys = new HashSet<String>();
+	private List<Atom> altLocAtoms = new ArrayList<Atom>();
+
+	public BioJavaStructureDeflator(StructureInflatorInterface inflator) {
+		this.inflator = inflator;
+	}
+
+	/**
+	 * Passes all models, chains, groups, and atoms of a structure to the inflator.
+	 * @param structure BioJava structure
+	 */
+	public void deflate(Structure structure) {
+		int modelCount = structure.nrModels();
+		inflator.setModelCount(modelCount);
+
+		for (int m = 0; m < modelCount; m++) {
+			List<Chain> chains = structure.getModel(m);
+			inflator.setModelInfo(m + 1, chains.size());
+
+			for (Chain chain: chains) {
+				List<Group> groups = chain.getAtomGroups();
+				inflator.setChainInfo(chain.getChainID(), groups.size());
+
+				for (Group group: groups) {
+					deflateGroup(group);
+				}
+			}
+		}
+	}
+
+	private void deflateGroup(Group group) {
+		List<Atom> atoms = group.getAtoms();
+
+		// collect the atoms of the alternative location groups that are not part of the group
+		altLocAtoms.clear();
+		if (group.hasAltLoc()) {
+			atomKeys.clear();
+			for (Atom atom: atoms) {
+				atomKeys.add(getAtomKey(atom));
+			}
+			for (Group altLocGroup: group.getAltLocs()) {
+				for (Atom atom: altLocGroup.getAtoms()) {
+					if (atomKeys.add(getAtomKey(atom))) {
+						altLocAtoms.add(atom);
+					}
+				}
+			}
+		}
+
+		ResidueNumber residueNumber = group.getResidueNumber();
+		int groupNumber = residueNumber == null || residueNumber.getSeqNum() == null ? 0 : residueNumber.getSeqNum();
+		Character iCode = residueNumber == null ? null : residueNumber.getInsCode();
+		char insertionCode = iCode == null ? ' ' : iCode.charValue();
+		inflator.setGroupInfo(group.getPDBName(), groupNumber, insertionCode, getPolymerType(group), atoms.size() + altLocAtoms.size());
+
+		for (Atom atom: atoms) {
+			deflateAtom(atom);
+		}
+		for (Atom atom: altLocAtoms) {
+			deflateAtom(atom);
+		}
+	}
+
+	private void deflateAtom(Atom atom) {
+		Character altLoc = atom.getAltLoc();
+		String element = atom.getElement() == null ? "" : atom.getElement().name();
+		inflator.setAtomInfo(atom.getFullName(), atom.getPDBserial(), altLoc == null ? ' ' : altLoc.charValue(),
+				(float)atom.getX(), (float)atom.getY(), (float)atom.getZ(),
+				(float)atom.getOccupancy(), (float)atom.getTempFactor(), element.toUpperCase());
+	}
+
+	private static String getAtomKey(Atom atom) {
+		return atom.getName() + "\t" + atom.getAltLoc();
+	}
+
+	/**
+	 * Returns the polymer type as used by StructureInflatorInterface.setGroupInfo: 1 amino acid, 2 nucleotide, 0 other.
+	 */
+	private static int getPolymerType(Group group) {
+		if (group instanceof AminoAcid) {
+			return 1;
+		} else if (group instanceof NucleotideImpl) {
+			return 2;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biojava.bio.structure.AminoAcidImpl;
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.AtomImpl;
+import org.biojava.bio.structure.Chain;
+import org.biojava.bio.structure.ChainImpl;
+import org.biojava.bio.structure.Element;
+import org.biojava.bio.structure.Group;
+import org.biojava.bio.structure.HetatomImpl;
+import org.biojava.bio.structure.NucleotideImpl;
+import org.biojava.bio.structure.ResidueNumber;
+import org.biojava.bio.structure.Structure;
+import org.biojava.bio.structure.StructureImpl;
+import org.biojava.bio.structure.StructureTools;
+
+/**
+ * BioJavaStructureInflator builds a BioJava Structure from the callbacks of the StructureInflator.
+ *
+ * The chain, group and atom lists are pre-sized from the counts passed to setModelInfo, setChainInfo and
+ * setGroupInfo, and the atoms of a group are attached to the group in a single step once the group is complete.
+ * The decoder passes the same String instances for the atom names and elements of all groups that share
+ * a group template, therefore trimmed atom names and Element lookups are cached by identity and
+ * computed once per template and structure rather than once per atom.
+ *
+ * Note, alternative locations are stored as the altLoc of each atom within a single group; alternative location
+ * groups (Group.getAltLocs()) are not created.
+ *
+ * Usage:
+ * <pre>
+ *    BioJavaStructureInflator builder = new BioJavaStructureInflator();
+ *    StructureInflator inflator = new StructureInflator(builder);
+ *    inflator.read("4HHB.hesc");
+ *    Structure structure = builder.getStructure();
+ * </pre>
+ *
+ * @author Peter Rose
+ *
+ */
+public class BioJavaStructureInflator implements StructureInflatorInterface {
+	private Structure structure = null;
+	private List<Chain> modelChains = null;
+	private Chain chain = null;
+	private String chainId = null;
+	private Group group = null;
+	private List<Atom> atoms = null;
+	private int atomCount = 0;
+
+	// lookup caches keyed by the String instances provided by the decoder
+	private Map<String, Element> elements = new IdentityHashMap<String, Element>();
+	private Map<String, String> atomNames = new IdentityHashMap<String, String>();
+	private Map<String, String> chainIds = new HashMap<String, String>();
+	private Map<String, Character> aminoTypes = new HashMap<String, Character>();
+
+	/**
+	 * Returns the structure built from the last decoded HESC structure.
+	 * @return BioJava structure
+	 */
+	public Structure getStructure() {
+		finishModel();
+		return structure;
+	}
+
+	public void setModelCount(int modelCount) {
+		structure = new StructureImpl();
+		structure.setNmr(modelCount > 1);
+		modelChains = null;
+		chain = null;
+		group = null;
+		// the identity caches are only valid for the templates of a single structure
+		elements.clear();
+		atomNames.clear();
+	}
+
+	public void setModelInfo(int modelNumber, int chainCount) {
+		finishModel();
+		modelChains = new ArrayList<Chain>(chainCount);
+	}
+
+	public void setChainInfo(String chainId, int groupCount) {
+		this.chainId = getChainId(chainId);
+		chain = new ChainImpl();
+		chain.setChainID(this.chainId);
+		chain.setAtomGroups(new ArrayList<Group>(groupCount));
+		chain.setParent(structure);
+		modelChains.add(chain);
+	}
+
+	public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+		groupName = groupName.trim();
+
+		if (polymerType == 1) {
+			AminoAcidImpl aminoAcid = new AminoAcidImpl();
+			aminoAcid.setAminoType(getAminoType(groupName));
+			group = aminoAcid;
+		} else if (polymerType == 2) {
+			group = new NucleotideImpl();
+		} else {
+			group = new HetatomImpl();
+		}
+
+		group.setPDBName(groupName);
+		Character iCode = insertionCode == ' ' ? null : Character.valueOf(insertionCode);
+		group.setResidueNumber(new ResidueNumber(chainId, groupNumber, iCode));
+		group.setChain(chain);
+		chain.getAtomGroups().add(group);
+
+		atoms = new ArrayList<Atom>(atomCount);
+		this.atomCount = atomCount;
+		if (atomCount == 0) {
+			group.setAtoms(atoms);
+		}
+	}
+
+	public void setAtomInfo(String atomName, int serialNumber,
+			char alternativeLocationId, float x, float y, float z,
+			float occupancy, float temperatureFactor, String element) {
+		Atom atom = new AtomImpl();
+		atom.setFullName(atomName);
+		atom.setName(getAtomName(atomName));
+		atom.setPDBserial(serialNumber);
+		atom.setAltLoc(Character.valueOf(alternativeLocationId));
+		atom.setX(x);
+		atom.setY(y);
+		atom.setZ(z);
+		atom.setOccupancy(occupancy);
+		atom.setTempFactor(temperatureFactor);
+		atom.setElement(getElement(element));
+		atoms.add(atom);
+
+		// attach all atoms at once when the group is complete
+		if (atoms.size() == atomCount) {
+			group.setAtoms(atoms);
+		}
+	}
+
+	private void finishModel() {
+		if (modelChains != null) {
+			structure.addModel(modelChains);
+			modelChains = null;
+		}
+	}
+
+	private String getChainId(String id) {
+		String trimmed = chainIds.get(id);
+		if (trimmed == null) {
+			trimmed = id.trim();
+			chainIds.put(id, trimmed);
+		}
+		return trimmed;
+	}
+
+	private String getAtomName(String atomName) {
+		String trimmed = atomNames.get(atomName);
+		if (trimmed == null) {
+			trimmed = atomName.trim();
+			atomNames.put(atomName, trimmed);
+		}
+		return trimmed;
+	}
+
+	private Element getElement(String symbol) {
+		Element element = elements.get(symbol);
+		if (element == null) {
+			try {
+				element = Element.valueOfIgnoreCase(symbol);
+			} catch (IllegalArgumentException e) {
+				element = Element.R;
+			}
+			elements.put(symbol, element);
+		}
+		return element;
+	}
+
+	private Character getAminoType(String groupName) {
+		Character aminoType = aminoTypes.get(groupName);
+		if (aminoType == null) {
+			aminoType = StructureTools.get1LetterCode(groupName);
+			aminoTypes.put(groupName, aminoType);
+		}
+		return aminoType;
+	}
+}
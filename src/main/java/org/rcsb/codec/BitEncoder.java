@@ -3,10 +3,10 @@ package org.rcsb.codec;
 import java.util.Arrays;
 
 public class BitEncoder {
-	private static final int BYTE7_MIN_VALUE  =   -64;
-	private static final int BYTE7_MAX_VALUE  =    63;
-	private static final int BYTE12_MIN_VALUE = -2048;
-	private static final int BYTE12_MAX_VALUE =  2047;	
+	static final int BYTE7_MIN_VALUE  =   -64;
+	static final int BYTE7_MAX_VALUE  =    63;
+	static final int BYTE12_MIN_VALUE = -2048;
+	static final int BYTE12_MAX_VALUE =  2047;	
 	
 	/**
 	 * @param args
@@ -59,6 +59,60 @@ public class BitEncoder {
 		from4Bytes(buffer, distance, out);
 	}
 	
+	/**
+	 * Decodes the x, y, and z coordinate deltas (out[0], out[1], out[2]) from an encoded value 
+	 * without an intermediate byte buffer. This is equivalent to fromInt(value, distance, buffer, out).
+	 * @param value encoded value
+	 * @param distance bond length
+	 * @param out array of length 4
+	 */
+	public static void fromInt(int value, int distance, int[] out) {
+		decompressSigned4(value & 0xFFFFFFFFL, out);
+
+		int z = (int)Math.round(Math.sqrt(distance*distance - out[0]*out[0] - out[1]*out[1])) - out[2];
+		if (out[3] == -1) {
+			z *= -1;
+		}
+		out[2] = z;
+	}
+	
+	/**
+	 * Returns the deltaZ coordinate folded with the bond length (compression method 4). If the bond length is known 
+	 * and deltaX^2 + deltaY^2 <= bondLength^2, the magnitude of deltaZ is predicted from the bond length and
+	 * the result is 2*(|deltaZ| - predicted magnitude) + sign (1 for negative deltaZ). Otherwise deltaZ is returned.
+	 * For bonded atoms, the result is a small integer.
+	 * @param distance bond length, or 0 if unknown
+	 * @param x deltaX
+	 * @param y deltaY
+	 * @param z deltaZ
+	 * @return folded deltaZ
+	 */
+	public static int toFoldedZ(int distance, int x, int y, int z) {
+		long r2 = (long)distance*distance - (long)x*x - (long)y*y;
+		if (distance <= 0 || r2 < 0) {
+			return z;
+		}
+		int magnitude = (int)Math.round(Math.sqrt(r2));
+		return 2*(Math.abs(z) - magnitude) + (z < 0 ? 1 : 0);
+	}
+	
+	/**
+	 * Returns deltaZ from a folded deltaZ value (inverse of toFoldedZ).
+	 * @param distance bond length, or 0 if unknown
+	 * @param x deltaX
+	 * @param y deltaY
+	 * @param value folded deltaZ
+	 * @return deltaZ
+	 */
+	public static int fromFoldedZ(int distance, int x, int y, int value) {
+		long r2 = (long)distance*distance - (long)x*x - (long)y*y;
+		if (distance <= 0 || r2 < 0) {
+			return value;
+		}
+		int magnitude = (int)Math.round(Math.sqrt(r2)) + (value >> 1);
+		return (value & 1) == 0 ? magnitude : -magnitude;
+	}
+	
 	private static void from4Bytes(byte[] bytes, int distance, int[] out) {
 		long c4 = bytes4ToLong(bytes);
 		decompressSigned4(c4, out);
@@ -0,0 +1,25 @@
+package org.rcsb.codec;
+
+/**
+ * Optional extension of the StructureInflatorInterface. If the inflator passed to the StructureInflator 
+ * also implements this interface, the decoder reports the bonds between atoms:
+ * <ul>
+ * <li>the bonds of the bond tree of each group template (GINFO record), reported after the atoms of the group</li>
+ * <li>the polymer bond between the head atom of a group and the tail atom of the preceding group 
+ *     (peptide bond, phosphodiester bond), reported after the atoms of the group</li>
+ * <li>additional bonds within group templates (e.g., ring closures) from the BOND record, reported after the atoms of the group</li>
+ * <li>bonds between arbitrary atoms (e.g., disulfide bonds) from the BOND record, reported after the last chain of each model</li>
+ * </ul>
+ * Atoms are identified by the serial numbers passed to setAtomInfo for the current model.
+ * 
+ * @author Peter Rose
+ *
+ */
+public interface BondInflatorInterface {
+	/**
+	 * Bond order of a bond of the bond tree of a group template, for which the order is not encoded.
+	 */
+	int UNKNOWN_BOND_ORDER = 0;
+	
+	void setBondInfo(int atomSerialNumber1, int atomSerialNumber2, int bondOrder);
+}
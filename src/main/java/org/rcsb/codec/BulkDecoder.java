@@ -0,0 +1,184 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.util.Arrays;
+
+/**
+ * BulkDecoder implements the array operations of the decoder that can be vectorized: widening of 2-byte
+ * integers, unpacking of BitEncoder encoded coordinates, the conversion of integers to floats, and the
+ * transformation of coordinates by assembly operators.
+ *
+ * This class is the scalar implementation, which runs on any JDK. The multi-release jar contains a
+ * Vector API implementation (VectorBulkDecoder, in META-INF/versions/17) that is used if it can be loaded,
+ * i.e., on JDK 17 or later with the incubator module enabled (--add-modules jdk.incubator.vector).
+ * Before it is used, its results are compared to the scalar implementation. Set the system property
+ * org.rcsb.codec.scalar=true to disable the Vector API implementation.
+ *
+ * @author Peter Rose
+ *
+ */
+class BulkDecoder {
+	private static final String VECTOR_IMPLEMENTATION = "org.rcsb.codec.VectorBulkDecoder";
+	private static final BulkDecoder INSTANCE = create();
+
+	/**
+	 * @return the fastest bulk decoder available at runtime
+	 */
+	static BulkDecoder getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Converts big-endian 2-byte signed integers to integers.
+	 * @param src 2*count bytes
+	 * @param dst
+	 * @param count number of values
+	 */
+	void widenShorts(byte[] src, int[] dst, int count) {
+		for (int i = 0, j = 0; i < count; i++, j += 2) {
+			dst[i] = (short)((src[j] << 8) | (src[j+1] & 0xFF));
+		}
+	}
+
+	/**
+	 * Decodes the deltaX, deltaY, and deltaZ coordinates from BitEncoder encoded values.
+	 * This is equivalent to calling BitEncoder.fromInt for each value.
+	 * @param words encoded values
+	 * @param distances bond length for each encoded value
+	 * @param x decoded deltaX coordinates
+	 * @param y decoded deltaY coordinates
+	 * @param z decoded deltaZ coordinates
+	 * @param count number of values
+	 */
+	void unpackEncoded(int[] words, int[] distances, int[] x, int[] y, int[] z, int count) {
+		for (int i = 0; i < count; i++) {
+			int w = words[i];
+			int dx = zigzag(w & 0xFFF);
+			int dy = zigzag((w >>> 12) & 0xFFF);
+			int residual = zigzag((w >>> 24) & 0x7F);
+			int d = distances[i];
+
+			int dz = (int)Math.round(Math.sqrt(d*d - dx*dx - dy*dy)) - residual;
+			// the sign bit of the encoded value is the sign of deltaZ
+			if (w < 0) {
+				dz = -dz;
+			}
+			x[i] = dx;
+			y[i] = dy;
+			z[i] = dz;
+		}
+	}
+
+	/**
+	 * Multiplies integers by a factor and stores the result as floats.
+	 * @param src
+	 * @param factor
+	 * @param dst
+	 * @param count number of values
+	 */
+	void toFloat(int[] src, float factor, float[] dst, int count) {
+		for (int i = 0; i < count; i++) {
+			dst[i] = src[i] * factor;
+		}
+	}
+
+	/**
+	 * Applies a rotation and translation to coordinates: (tx, ty, tz) = R (x, y, z) + t.
+	 * @param matrix rotation matrix (row-major, elements 0 - 8) and translation vector (elements 9 - 11)
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param offset index of the first coordinate to be transformed
+	 * @param tx transformed x coordinates, starting at index 0
+	 * @param ty transformed y coordinates, starting at index 0
+	 * @param tz transformed z coordinates, starting at index 0
+	 * @param count number of coordinates
+	 */
+	void transform(double[] matrix, float[] x, float[] y, float[] z, int offset, float[] tx, float[] ty, float[] tz, int count) {
+		double m00 = matrix[0], m01 = matrix[1], m02 = matrix[2];
+		double m10 = matrix[3], m11 = matrix[4], m12 = matrix[5];
+		double m20 = matrix[6], m21 = matrix[7], m22 = matrix[8];
+		double t0 = matrix[9], t1 = matrix[10], t2 = matrix[11];
+		for (int i = 0, j = offset; i < count; i++, j++) {
+			double xj = x[j];
+			double yj = y[j];
+			double zj = z[j];
+			tx[i] = (float)(m00*xj + m01*yj + m02*zj + t0);
+			ty[i] = (float)(m10*xj + m11*yj + m12*zj + t1);
+			tz[i] = (float)(m20*xj + m21*yj + m22*zj + t2);
+		}
+	}
+
+	private static int zigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static BulkDecoder create() {
+		BulkDecoder scalar = new BulkDecoder();
+		if (Boolean.getBoolean("org.rcsb.codec.scalar")) {
+			return scalar;
+		}
+		try {
+			BulkDecoder vector = (BulkDecoder) Class.forName(VECTOR_IMPLEMENTATION).newInstance();
+			if (agrees(scalar, vector)) {
+				return vector;
+			}
+		} catch (Throwable e) {
+			// Vector API implementation not available (JDK < 17, incubator module not enabled, or API changes)
+		}
+		return scalar;
+	}
+
+	/**
+	 * Returns true if both implementations produce identical results for a set of test values.
+	 */
+	private static boolean agrees(BulkDecoder expected, BulkDecoder actual) {
+		int n = 67;
+		byte[] bytes = new byte[2*n];
+		int[] words = new int[n];
+		int[] distances = new int[n];
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			bytes[2*i] = (byte)(i*37);
+			bytes[2*i+1] = (byte)(i*101);
+			int[] out = new int[1];
+			int dx = (i * 97) % 1500 - 750;
+			int dy = (i * 61) % 1000 - 500;
+			int dz = (i % 2 == 0 ? 1 : -1) * (int)Math.round(Math.sqrt(Math.max(0, 1500*1500 - dx*dx - dy*dy)));
+			distances[i] = 1500 - i;
+			BitEncoder.toInt(distances[i], dx, dy, dz, out);
+			words[i] = out[0];
+			values[i] = i * 12345 - 400000;
+		}
+		return Arrays.equals(widen(expected, bytes, n), widen(actual, bytes, n)) &&
+				Arrays.equals(unpack(expected, words, distances), unpack(actual, words, distances)) &&
+				Arrays.equals(scale(expected, values), scale(actual, values));
+	}
+
+	private static int[] widen(BulkDecoder decoder, byte[] bytes, int n) {
+		int[] out = new int[n];
+		decoder.widenShorts(bytes, out, n);
+		return out;
+	}
+
+	private static int[] unpack(BulkDecoder decoder, int[] words, int[] distances) {
+		int n = words.length;
+		int[] out = new int[3*n];
+		int[] x = new int[n];
+		int[] y = new int[n];
+		int[] z = new int[n];
+		decoder.unpackEncoded(words, distances, x, y, z, n);
+		System.arraycopy(x, 0, out, 0, n);
+		System.arraycopy(y, 0, out, n, n);
+		System.arraycopy(z, 0, out, 2*n, n);
+		return out;
+	}
+
+	private static float[] scale(BulkDecoder decoder, int[] values) {
+		float[] out = new float[values.length];
+		decoder.toFloat(values, 0.001f, out, values.length);
+		return out;
+	}
+}
@@ -55,8 +55,93 @@ public final class CodecConstants {
 	 */
 	public static final byte TAIL = (1 << 4);
 
+	/**
+	 * Compression method 1: lossless encoding at the default precision (XYZ_SCALE, BO_SCALE).
+	 */
+	public static final int STANDARD_COMPRESSION = 1;
+	
+	/**
+	 * Compression method 2: same record layout as method 1, but the coordinates, b factors and occupancies
+	 * are quantized to the precision given in the PRECISION record, which must precede all other records.
+	 * Each value is rounded to the nearest multiple of 1/scale, so the absolute error of a decoded value is 
+	 * at most 0.5/scale (e.g., 0.005 A for a coordinate scale of 100, 0.05 for a b factor scale of 10).
+	 * Coordinates are stored as integer deltas between quantized positions, therefore the error does not
+	 * accumulate along a chain.
+	 */
+	public static final int LOSSY_COMPRESSION = 2;
+	
+	/**
+	 * Compression method 3: streaming layout. Topology and coordinate records are interleaved in chain-sized 
+	 * chunks, so that a decoder can emit the atoms of a chain as soon as its chunk has been read, and needs
+	 * memory proportional to the largest chain rather than to the whole structure. The PRECISION record is
+	 * optional, as for method 1.
+	 */
+	public static final int STREAMING_COMPRESSION = 3;
+	
+	/**
+	 * Compression method 4: record order of method 1, but the COORD, BFACTOR, and OCCUPANCY records are
+	 * encoded as blocks of bit-packed zigzag integers instead of shorts and integers with in-band markers.
+	 */
+	public static final int PACKED_COMPRESSION = 4;
+	
+	/**
+	 * Compression method 5: progressive layout. The atoms are divided into layers of increasing detail
+	 * (BACKBONE_LAYER, SIDE_CHAIN_LAYER, SOLVENT_LAYER), and the b factors, occupancies, and coordinates of each 
+	 * layer are stored in separate packed integer streams, so that a client can display the backbone trace
+	 * before the remaining layers have been read, or stop after the level of detail it needs.
+	 */
+	public static final int PROGRESSIVE_COMPRESSION = 5;
+	
+	/**
+	 * Compression method 6: reference-based encoding. The structure is encoded as a difference to a reference entry
+	 * (REFERENCE record), e.g., a point mutant, a complex with a different ligand, or a re-refinement of the same protein. 
+	 * The group templates of the reference are shared, groups can be copied from the chains of the reference (COPY record), 
+	 * and the coordinates and b factors of atoms that match an atom of the reference (MATCH record) are stored as 
+	 * differences to the matched atom. The decoder obtains the reference from a ReferenceResolver.
+	 */
+	public static final int REFERENCE_COMPRESSION = 6;
+	
+	/**
+	 * Compression method 7: predictive encoding. Record order and packed integer streams of method 4, but the atoms of
+	 * a group template are predicted from the bond length, bond angle, and torsion angle relative to three ancestor atoms 
+	 * in the bond tree (GEOMETRY record), and the COORD record contains only the residuals to the predicted positions.
+	 * Atoms of rigid fragments (rings, hydrogen atoms) are predicted almost exactly.
+	 */
+	public static final int PREDICTIVE_COMPRESSION = 7;
+	
+	/**
+	 * A factor that converts bond angles and torsion angles in degrees to integers (GEOMETRY record).
+	 */
+	public static final int ANGLE_SCALE = 100;
+	
+	/**
+	 * Maximum length of a chain of references (a reference entry can itself be encoded with a reference).
+	 */
+	public static final int MAX_REFERENCE_DEPTH = 8;
+	
+	/**
+	 * Layer of the polymer backbone trace atoms: head, tail, and trace atoms of amino acids and nucleotides.
+	 */
+	public static final int BACKBONE_LAYER = 0;
+	
+	/**
+	 * Layer of all other atoms, except hydrogen atoms and water molecules.
+	 */
+	public static final int SIDE_CHAIN_LAYER = 1;
+	
+	/**
+	 * Layer of hydrogen atoms and water molecules.
+	 */
+	public static final int SOLVENT_LAYER = 2;
+	
+	/**
+	 * Number of layers of the progressive layout.
+	 */
+	public static final int LAYER_COUNT = 3;
+	
 	/**
 	 * A factor that converts the x, y, and z coordinates of an atom to an integer without loss of precision.
+	 * This is the default coordinate scale, unless a PRECISION record specifies a different scale.
 	 */
 	public static final int XYZ_SCALE = 1000;
 	
@@ -67,24 +152,35 @@ public final class CodecConstants {
 	
 	/** 
 	 * A factor that converts the b factor (temperature factor) and occupancy value to an integer without loss of precision.
+	 * This is the default b factor and occupancy scale, unless a PRECISION record specifies a different scale.
 	 */
 	public static final int BO_SCALE = 100;
 	
 	/**
-	 * The precision of a b factor (temperature factor) and occupancy value. Note, new mmCIF files support a precision of 0.001
-	 * TODO need to check precision dynamically. It can't be a constant going forward.
+	 * The precision of a b factor (temperature factor) and occupancy value. Note, new mmCIF files support a precision of 0.001,
+	 * which can be preserved by specifying a b factor and occupancy scale of 1000 in the PRECISION record.
 	 */
 	public static final float BO_PRECISION = 0.01f;
 
+	/**
+	 * Standard peptide bond length (N - C) in Angstroms.
+	 */
+	public static final double PEPTIDE_BOND_DISTANCE = 1.325;
+	
+	/**
+	 * Standard nucleotide bond length (P - O3') in Angstroms.
+	 */
+	public static final double NUCLEOTIDE_BOND_DISTANCE = 1.6;
+	
 	/**
 	 * Standard peptide bond length (N - C) expressed as an integer.
 	 */
-	public static final int PEPTIDE_BOND_LENGTH = (int)Math.round(1.325 * XYZ_SCALE);
+	public static final int PEPTIDE_BOND_LENGTH = (int)Math.round(PEPTIDE_BOND_DISTANCE * XYZ_SCALE);
 	
 	/**
 	 * Standard nucleotide bond length (P - O3') expressed as an integer.
 	 */
-	public static final int NUCLEOTIDE_BOND_LENGTH = (int)Math.round(1.6 * XYZ_SCALE);
+	public static final int NUCLEOTIDE_BOND_LENGTH = (int)Math.round(NUCLEOTIDE_BOND_DISTANCE * XYZ_SCALE);
 	
 	/**
 	 * Atom name of the polymer head atom of an amino acid.
@@ -96,6 +192,11 @@ public final class CodecConstants {
 	 */
 	public static final String PEPTIDE_TAIL_ATOM_NAME = "C";
 	
+	/**
+	 * Atom name of the backbone trace atom of an amino acid.
+	 */
+	public static final String PEPTIDE_TRACE_ATOM_NAME = "CA";
+	
 	/**
 	 * Atom name of the polymer head atom of a nucleotide.
 	 */
@@ -106,6 +207,17 @@ public final class CodecConstants {
 	 */
 	public static final String NUCLEOTIDE_TAIL_ATOM_NAME = "O3'";
 	
+	/**
+	 * Atom name of the backbone trace atom of a nucleotide.
+	 */
+	public static final String NUCLEOTIDE_TRACE_ATOM_NAME = "C4'";
+	
+	/**
+	 * Group names of water molecules.
+	 */
+	public static final String WATER_GROUP_NAME = "HOH";
+	public static final String HEAVY_WATER_GROUP_NAME = "DOD";
+	
 	/**
 	 * Minimum value of a short (2 byte signed integer) used in the encoding of integer values.
 	 */
@@ -172,6 +284,31 @@ public final class CodecConstants {
 	 */
 	public static final byte STRUCTURE = 's';
 	
+	/**
+	 * An identifier for a precision record.
+	 */
+	public static final byte PRECISION = 'p';
+	
+	/**
+	 * An identifier for a layer record (progressive layout).
+	 */
+	public static final byte LAYER = 'l';
+	
+	/**
+	 * An identifier for a reference record (id of the reference entry, compression method 6).
+	 */
+	public static final byte REFERENCE = 'r';
+	
+	/**
+	 * An identifier for a copy record (groups copied from a chain of the reference entry, compression method 6).
+	 */
+	public static final byte COPY = 'k';
+	
+	/**
+	 * An identifier for a match record (reference atom matched by each atom, compression method 6).
+	 */
+	public static final byte MATCH = 'M';
+	
 	/**
 	 * An identifier for a model record.
 	 */
@@ -198,10 +335,25 @@ public final class CodecConstants {
 	public static final byte GROUP = 'g';
 
 	/**
-	 * An identifier of a bond record (reserved for the future).
+	 * An identifier of a bond record (bonds that are not part of the bond tree of the group templates).
 	 */
 	public static final byte BOND = 'B';
 	
+	/**
+	 * An identifier for an assembly record (operators that generate a biological assembly from the asymmetric unit).
+	 */
+	public static final byte ASSEMBLY = 'A';
+	
+	/**
+	 * An identifier for a geometry record (bond angles and torsion angles of a group template, compression method 7).
+	 */
+	public static final byte GEOMETRY = 'G';
+	
+	/**
+	 * An identifier for a spatial summary record (atom count, bounding box, and centroid of each model and chain).
+	 */
+	public static final byte SUMMARY = 'S';
+	
 	/**
 	 * An identifier for a coordinate record.
 	 */
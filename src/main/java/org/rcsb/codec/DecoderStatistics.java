@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.BFACTOR;
+import static org.rcsb.codec.CodecConstants.ENCODED_COORDINATE_TYPE;
+import static org.rcsb.codec.CodecConstants.INTEGER_COORDINATE_TYPE;
+import static org.rcsb.codec.CodecConstants.SHORT_COORDINATE_TYPE;
+
+/**
+ * DecoderStatistics counts the values of the integer streams with markers (BFACTOR and COORD records of compression
+ * methods 1 - 3) while a structure is decoded, and the bonded atoms whose coordinate deltas are not encoded as a single
+ * BitEncoder value because they exceed its 12 bit (deltaX, deltaY) or 7 bit (deltaZ residual) range (see HescAnalyzer).
+ *
+ * @author Peter Rose
+ *
+ */
+final class DecoderStatistics {
+	static final int SHORT_VALUES = 0;
+	static final int INTEGER_VALUES = 1;
+	static final int ENCODED_VALUES = 2;
+	static final int TYPE_SWITCHES = 3;
+
+	// value counts and type switches of the BFACTOR and COORD streams
+	final long[] bFactorCounts = new long[4];
+	final long[] coordCounts = new long[4];
+
+	// atoms with a reference atom, and those encoded as BitEncoder values or out of its range
+	long bondedAtoms = 0;
+	long encodedAtoms = 0;
+	long xyRangeMisses = 0;
+	long zRangeMisses = 0;
+
+	private long[] counts = coordCounts;
+	private int type = INTEGER_COORDINATE_TYPE;
+	private int[] encoded = new int[1];
+
+	/**
+	 * Starts counting the values of a stream. Streams start with integer values.
+	 * @param recordId BFACTOR or COORD
+	 */
+	void setStream(byte recordId) {
+		counts = recordId == BFACTOR ? bFactorCounts : coordCounts;
+		type = INTEGER_COORDINATE_TYPE;
+	}
+
+	/**
+	 * Counts a value of the current stream. Since each marker changes the value type, a change of the type between
+	 * two values is counted as a marker switch.
+	 * @param valueType type of the value
+	 */
+	void countValue(int valueType) {
+		if (valueType != type) {
+			counts[TYPE_SWITCHES]++;
+			type = valueType;
+		}
+		switch (valueType) {
+		case SHORT_COORDINATE_TYPE:
+			counts[SHORT_VALUES]++;
+			break;
+		case ENCODED_COORDINATE_TYPE:
+			counts[ENCODED_VALUES]++;
+			break;
+		default:
+			counts[INTEGER_VALUES]++;
+		}
+	}
+
+	/**
+	 * Counts an atom of the COORD stream.
+	 * @param bondLength bond length to the reference atom, or 0 if the atom has no reference atom
+	 * @param isEncoded true if the delta is encoded as a BitEncoder value
+	 * @param dx delta x (ignored for encoded atoms)
+	 * @param dy delta y (ignored for encoded atoms)
+	 * @param dz delta z (ignored for encoded atoms)
+	 */
+	void countAtom(int bondLength, boolean isEncoded, int dx, int dy, int dz) {
+		if (bondLength <= 0) {
+			return;
+		}
+		bondedAtoms++;
+		if (isEncoded) {
+			encodedAtoms++;
+		} else if (dx < BitEncoder.BYTE12_MIN_VALUE || dx > BitEncoder.BYTE12_MAX_VALUE
+				|| dy < BitEncoder.BYTE12_MIN_VALUE || dy > BitEncoder.BYTE12_MAX_VALUE) {
+			xyRangeMisses++;
+		} else if (! BitEncoder.toInt(bondLength, dx, dy, dz, encoded)) {
+			zRangeMisses++;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.CODEC_FILE_EXTENSION;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * DirectoryReferenceResolver reads reference entries from the .hesc files of a directory 
+ * (directory/referenceId.hesc).
+ *
+ * @author Peter Rose
+ *
+ */
+public class DirectoryReferenceResolver implements ReferenceResolver {
+	private File directory;
+
+	/**
+	 * @param directory directory that contains the .hesc files of the reference entries
+	 */
+	public DirectoryReferenceResolver(File directory) {
+		this.directory = directory;
+	}
+
+	public InputStream open(String referenceId) throws IOException {
+		return new FileInputStream(new File(directory, referenceId + CODEC_FILE_EXTENSION));
+	}
+}
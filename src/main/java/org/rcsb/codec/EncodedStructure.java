@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * EncodedStructure holds the uncompressed records of a single structure of a HESC stream, as returned by the
+ * HescStructureReader. The records are not decoded until inflate is called, so that structures can be read
+ * sequentially from a stream and decoded in parallel.
+ *
+ * @author Peter Rose
+ *
+ */
+public final class EncodedStructure {
+	private final long index;
+	private final byte majorVersion;
+	private final byte minorVersion;
+	private final int compressionMethod;
+	private final byte[] data;
+
+	/**
+	 * @param index position of the structure in the stream (0, 1, 2, ..)
+	 * @param majorVersion
+	 * @param minorVersion
+	 * @param compressionMethod
+	 * @param data records of the structure, including the END record
+	 */
+	EncodedStructure(long index, byte majorVersion, byte minorVersion, int compressionMethod, byte[] data) {
+		this.index = index;
+		this.majorVersion = majorVersion;
+		this.minorVersion = minorVersion;
+		this.compressionMethod = compressionMethod;
+		this.data = data;
+	}
+
+	/**
+	 * Decodes the structure.
+	 * @param inflator
+	 * @throws IOException
+	 */
+	public void inflate(StructureInflatorInterface inflator) throws IOException {
+		inflate(inflator, null, null);
+	}
+
+	/**
+	 * Decodes the structure.
+	 * @param inflator
+	 * @param resolver resolver for reference entries (compression method 6), or null
+	 * @throws IOException
+	 */
+	public void inflate(StructureInflatorInterface inflator, ReferenceResolver resolver) throws IOException {
+		inflate(inflator, resolver, null);
+	}
+
+	/**
+	 * Decodes the models, chains, groups, and atoms of the structure that are accepted by a filter.
+	 * @param inflator
+	 * @param filter filter, or null to pass all atoms
+	 * @throws IOException
+	 */
+	public void inflate(StructureInflatorInterface inflator, StructureFilter filter) throws IOException {
+		inflate(inflator, null, filter);
+	}
+
+	/**
+	 * Decodes the models, chains, groups, and atoms of the structure that are accepted by a filter.
+	 * @param inflator
+	 * @param resolver resolver for reference entries (compression method 6), or null
+	 * @param filter filter, or null to pass all atoms
+	 * @throws IOException
+	 */
+	public void inflate(StructureInflatorInterface inflator, ReferenceResolver resolver, StructureFilter filter) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		StructureDecoder decoder = StructureDecoder.getDecoder(majorVersion, minorVersion, compressionMethod, in, inflator, resolver);
+		if (filter != null && decoder instanceof StructureDecoderImpl1) {
+			((StructureDecoderImpl1) decoder).setFilter(filter);
+		}
+		decoder.decode();
+	}
+
+	/**
+	 * Reads the SUMMARY record of the structure without decoding the structure.
+	 * @return spatial summary, or null if the structure has no SUMMARY record
+	 * @throws IOException
+	 */
+	public SpatialSummary getSpatialSummary() throws IOException {
+		return SpatialSummary.read(new HescRecordReader(new DataInputStream(new ByteArrayInputStream(data))));
+	}
+
+	/**
+	 * @return the position of the structure in the stream (0, 1, 2, ..)
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the majorVersion
+	 */
+	public byte getMajorVersion() {
+		return majorVersion;
+	}
+
+	/**
+	 * @return the minorVersion
+	 */
+	public byte getMinorVersion() {
+		return minorVersion;
+	}
+
+	/**
+	 * @return the compressionMethod
+	 */
+	public int getCompressionMethod() {
+		return compressionMethod;
+	}
+
+	/**
+	 * @return the size of the uncompressed records in bytes
+	 */
+	public int getSize() {
+		return data.length;
+	}
+}
@@ -0,0 +1,693 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.CHAIN;
+import static org.rcsb.codec.CodecConstants.CODEC_FILE_EXTENSION;
+import static org.rcsb.codec.CodecConstants.COPY;
+import static org.rcsb.codec.CodecConstants.END;
+import static org.rcsb.codec.CodecConstants.GINFO;
+import static org.rcsb.codec.CodecConstants.GROUP;
+import static org.rcsb.codec.CodecConstants.MAX_REFERENCE_DEPTH;
+import static org.rcsb.codec.CodecConstants.REFERENCE;
+import static org.rcsb.codec.CodecConstants.REFERENCE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STRUCTURE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GroupIndex is an inverted index from group (residue, ligand) names to the entries that contain them.
+ * For each entry, it records the number of occurrences of the group in all models and the ids of the chains
+ * that contain it.
+ *
+ * The index is built by scanning .hesc files with the HescRecordReader. Only the group name of the GINFO records
+ * and the STRUCTURE, CHAIN, GROUP, REFERENCE, and COPY records are read, all other records are skipped.
+ * The index can be updated incrementally: entries that are already indexed are only scanned again if their file
+ * has been modified.
+ *
+ * A .hesc file that contains more than one structure (pack) is indexed as separate entries named
+ * &lt;file name&gt;/&lt;position&gt;, with the position starting at 1.
+ *
+ * The groups of an entry that uses reference-based compression (method 6) refer to the group templates of its
+ * reference entry, which are read with the ReferenceResolver set by setReferenceResolver. Without a resolver, such
+ * entries are recorded as skipped, and they are not scanned again unless their file is modified or they are removed.
+ * Files that cannot be read are reported to System.err and skipped by update.
+ *
+ * Index file format (gzip compressed):
+ * <pre>
+ * Magic number                : 4 bytes (HESI)
+ * Version                     : 1 byte
+ * Entry count                 : int
+ *   entry id                  : UTF
+ *   last modified             : long
+ *   indexed                   : boolean (false for skipped entries, since version 1)
+ * Group count                 : int
+ *   group name                : UTF
+ *   posting count             : int
+ *     entry ordinal           : int
+ *     occurrence count        : int
+ *     chain count             : short
+ *       chain id              : UTF
+ * </pre>
+ *
+ * Usage: GroupIndex indexFile update [-reference directory] directory..
+ *        GroupIndex indexFile query groupName..
+ *
+ * @author Peter Rose
+ *
+ */
+public class GroupIndex {
+	/**
+	 * Magic number of a group index file.
+	 */
+	public static final String INDEX_MAGIC_NUMBER = "HESI";
+
+	/**
+	 * Format version of a group index file.
+	 */
+	public static final byte INDEX_VERSION = 1;
+
+	// entry ids by ordinal, null for removed entries
+	private List<String> entryIds = new ArrayList<String>();
+	private List<Long> lastModified = new ArrayList<Long>();
+	// group names of the postings of each entry by ordinal, null for removed and skipped entries
+	private List<List<String>> entryGroups = new ArrayList<List<String>>();
+	private Map<String, Integer> entryOrdinals = new HashMap<String, Integer>();
+	// ordinals of the entries of each file (a single entry, or the entries of a pack) by file id
+	private Map<String, List<Integer>> fileOrdinals = new HashMap<String, List<Integer>>();
+	// postings are sorted by entry ordinal
+	private Map<String, List<Posting>> postings = new TreeMap<String, List<Posting>>();
+	private ReferenceResolver referenceResolver;
+
+	/**
+	 * An occurrence of a group in an entry.
+	 */
+	public class Posting {
+		private int entryOrdinal;
+		private int count;
+		private String[] chainIds;
+
+		private Posting(int entryOrdinal, int count, String[] chainIds) {
+			this.entryOrdinal = entryOrdinal;
+			this.count = count;
+			this.chainIds = chainIds;
+		}
+
+		/**
+		 * @return the id of the entry
+		 */
+		public String getEntryId() {
+			return entryIds.get(entryOrdinal);
+		}
+
+		/**
+		 * @return the number of occurrences of the group in all models of the entry
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the ids of the chains that contain the group
+		 */
+		public String[] getChainIds() {
+			return chainIds;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: GroupIndex indexFile update [-reference directory] directory..");
+			System.out.println("       GroupIndex indexFile query groupName..");
+			return;
+		}
+		File indexFile = new File(args[0]);
+		GroupIndex index = indexFile.exists() ? read(indexFile) : new GroupIndex();
+
+		if (args[1].equals("update")) {
+			int first = 2;
+			if (args[first].equals("-reference") && args.length > first + 1) {
+				index.setReferenceResolver(new DirectoryReferenceResolver(new File(args[first + 1])));
+				first += 2;
+			}
+			int count = 0;
+			long start = System.nanoTime();
+			for (int i = first; i < args.length; i++) {
+				count += index.update(new File(args[i]));
+			}
+			index.write(indexFile);
+			System.out.printf("Indexed %d entries in %.1f s%n", count, (System.nanoTime() - start)/1E9);
+		} else if (args[1].equals("query")) {
+			for (int i = 2; i < args.length; i++) {
+				for (Posting p: index.query(args[i])) {
+					StringBuilder chains = new StringBuilder();
+					for (String chainId: p.getChainIds()) {
+						if (chains.length() > 0) {
+							chains.append(',');
+						}
+						chains.append(chainId);
+					}
+					System.out.println(args[i] + "\t" + p.getEntryId() + "\t" + p.getCount() + "\t" + chains);
+				}
+			}
+		} else {
+			System.out.println("GroupIndex: invalid command: " + args[1]);
+		}
+	}
+
+	/**
+	 * Returns the occurrences of a group in the indexed entries.
+	 * @param groupName group name, e.g., HEM
+	 * @return list of postings, empty if the group does not occur in the index
+	 */
+	public List<Posting> query(String groupName) {
+		List<Posting> list = postings.get(groupName.trim());
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return the names of all indexed groups in alphabetical order
+	 */
+	public Set<String> getGroupNames() {
+		return Collections.unmodifiableSet(postings.keySet());
+	}
+
+	/**
+	 * @return the number of indexed entries, not including skipped entries
+	 */
+	public int getEntryCount() {
+		int count = 0;
+		for (Integer ordinal: entryOrdinals.values()) {
+			if (entryGroups.get(ordinal) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the ids of the entries with reference-based compression that have been skipped, since no
+	 * reference resolver was set, in the order they have been added
+	 */
+	public List<String> getSkippedEntryIds() {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < entryIds.size(); i++) {
+			if (entryIds.get(i) != null && entryGroups.get(i) == null) {
+				ids.add(entryIds.get(i));
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Sets the resolver of the reference entries of entries with reference-based compression (method 6).
+	 * Without a resolver, such entries are skipped.
+	 * @param referenceResolver
+	 */
+	public void setReferenceResolver(ReferenceResolver referenceResolver) {
+		this.referenceResolver = referenceResolver;
+	}
+
+	/**
+	 * Adds all .hesc files in a directory tree to the index. Files that are already indexed
+	 * and have not been modified since are skipped.
+	 * @param dir directory or .hesc file
+	 * @return the number of new or updated entries
+	 * @throws IOException
+	 */
+	public int update(File dir) throws IOException {
+		if (dir.isFile()) {
+			return tryAdd(dir) ? 1 : 0;
+		}
+		int count = 0;
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("GroupIndex: cannot read directory: " + dir);
+		}
+		for (File file: files) {
+			if (file.isDirectory()) {
+				count += update(file);
+			} else if (file.getName().endsWith(CODEC_FILE_EXTENSION)) {
+				count += tryAdd(file) ? 1 : 0;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the entries of a .hesc file to the index, and reports a file that cannot be read instead of failing.
+	 * @param file .hesc file
+	 * @return true if the file has been indexed
+	 */
+	private boolean tryAdd(File file) {
+		try {
+			return add(file);
+		} catch (IOException e) {
+			System.err.println("GroupIndex: cannot index file: " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Adds the entries of a .hesc file to the index, unless they are indexed already
+	 * and the file has not been modified since.
+	 * @param file .hesc file
+	 * @return true if entries of the file have been indexed
+	 * @throws IOException
+	 */
+	public boolean add(File file) throws IOException {
+		String name = file.getName();
+		String id = name.substring(0, name.length() - CODEC_FILE_EXTENSION.length());
+		long modified = file.lastModified();
+
+		List<Integer> ordinals = fileOrdinals.get(id);
+		if (ordinals != null) {
+			if (lastModified.get(ordinals.get(0)) == modified) {
+				return false;
+			}
+			remove(id);
+		}
+
+		boolean added = false;
+		HescRecordReader reader = HescRecordReader.open(file);
+		try {
+			// null for entries that are skipped
+			List<Map<String, Occurrence>> structures = new ArrayList<Map<String, Occurrence>>();
+			while (reader.readHeader()) {
+				if (reader.getCompressionMethod() == REFERENCE_COMPRESSION && referenceResolver == null) {
+					// group indices refer to the templates of the reference entry
+					reader.skipStructure();
+					structures.add(null);
+				} else {
+					structures.add(scan(reader, referenceResolver, 0).getOccurrences());
+				}
+			}
+			for (int i = 0; i < structures.size(); i++) {
+				String entryId = structures.size() == 1 ? id : id + "/" + (i + 1);
+				if (structures.get(i) == null) {
+					System.err.println("GroupIndex: skipped entry with reference-based compression: " + entryId);
+				} else {
+					added = true;
+				}
+				addEntry(entryId, modified, structures.get(i));
+			}
+		} finally {
+			reader.close();
+		}
+		return added;
+	}
+
+	/**
+	 * Removes an entry (or all entries of a pack) from the index.
+	 * @param id entry id, or the file id of a pack
+	 */
+	public void remove(String id) {
+		List<Integer> ordinals = fileOrdinals.remove(id);
+		if (ordinals != null) {
+			for (int ordinal: ordinals) {
+				removeEntry(ordinal);
+			}
+			return;
+		}
+
+		// an entry of a pack
+		Integer ordinal = entryOrdinals.get(id);
+		if (ordinal == null) {
+			return;
+		}
+		removeEntry(ordinal);
+		String fileId = getFileId(id);
+		ordinals = fileOrdinals.get(fileId);
+		ordinals.remove(ordinal);
+		if (ordinals.isEmpty()) {
+			fileOrdinals.remove(fileId);
+		}
+	}
+
+	/**
+	 * Removes an entry and its postings, but not its ordinal in the ordinals of its file.
+	 */
+	private void removeEntry(int ordinal) {
+		entryOrdinals.remove(entryIds.get(ordinal));
+		entryIds.set(ordinal, null);
+		List<String> groupNames = entryGroups.set(ordinal, null);
+		if (groupNames == null) {
+			return;
+		}
+		for (String groupName: groupNames) {
+			List<Posting> list = postings.get(groupName);
+			list.remove(findPosting(list, ordinal));
+			if (list.isEmpty()) {
+				postings.remove(groupName);
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the posting of an entry in a list of postings sorted by entry ordinal.
+	 */
+	private static int findPosting(List<Posting> list, int ordinal) {
+		int low = 0;
+		int high = list.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midOrdinal = list.get(mid).entryOrdinal;
+			if (midOrdinal < ordinal) {
+				low = mid + 1;
+			} else if (midOrdinal > ordinal) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		throw new IllegalStateException("GroupIndex: missing posting of entry: " + ordinal);
+	}
+
+	/**
+	 * Returns the id of the file of an entry, which is the part before the position for the entries of a pack.
+	 */
+	private static String getFileId(String entryId) {
+		int slash = entryId.lastIndexOf('/');
+		return slash < 0 ? entryId : entryId.substring(0, slash);
+	}
+
+	/**
+	 * Reads an index file.
+	 * @param file
+	 * @return group index
+	 * @throws IOException
+	 */
+	public static GroupIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 8192)));
+		try {
+			byte[] magic = new byte[INDEX_MAGIC_NUMBER.length()];
+			in.readFully(magic);
+			if (! new String(magic).equals(INDEX_MAGIC_NUMBER)) {
+				throw new IOException("GroupIndex: invalid index file: " + file);
+			}
+			// version 0 does not record skipped entries
+			byte version = in.readByte();
+			if (version < 0 || version > INDEX_VERSION) {
+				throw new IOException("GroupIndex: unsupported index file version: " + version);
+			}
+			GroupIndex index = new GroupIndex();
+			int entryCount = in.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				String entryId = in.readUTF();
+				long modified = in.readLong();
+				boolean indexed = version == 0 || in.readBoolean();
+				index.addOrdinal(entryId, modified, indexed ? new ArrayList<String>() : null);
+			}
+			int groupCount = in.readInt();
+			for (int i = 0; i < groupCount; i++) {
+				String groupName = in.readUTF();
+				int postingCount = in.readInt();
+				List<Posting> list = new ArrayList<Posting>(postingCount);
+				for (int j = 0; j < postingCount; j++) {
+					int ordinal = in.readInt();
+					if (ordinal < 0 || ordinal >= entryCount || index.entryGroups.get(ordinal) == null) {
+						throw new IOException("GroupIndex: invalid entry ordinal: " + ordinal);
+					}
+					index.entryGroups.get(ordinal).add(groupName);
+					int count = in.readInt();
+					String[] chainIds = new String[in.readShort()];
+					for (int k = 0; k < chainIds.length; k++) {
+						chainIds[k] = in.readUTF();
+					}
+					list.add(index.new Posting(ordinal, count, chainIds));
+				}
+				index.postings.put(groupName, list);
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the index to a file. The index is written to a temporary file first,
+	 * which then replaces the index file.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		// compact ordinals of removed entries
+		int[] ordinals = new int[entryIds.size()];
+		int entryCount = 0;
+		for (int i = 0; i < entryIds.size(); i++) {
+			ordinals[i] = entryIds.get(i) == null ? -1 : entryCount++;
+		}
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile), 8192)));
+		try {
+			out.writeBytes(INDEX_MAGIC_NUMBER);
+			out.writeByte(INDEX_VERSION);
+			out.writeInt(entryCount);
+			for (int i = 0; i < entryIds.size(); i++) {
+				if (entryIds.get(i) != null) {
+					out.writeUTF(entryIds.get(i));
+					out.writeLong(lastModified.get(i));
+					out.writeBoolean(entryGroups.get(i) != null);
+				}
+			}
+			// groups without postings are removed
+			out.writeInt(postings.size());
+			for (Map.Entry<String, List<Posting>> e: postings.entrySet()) {
+				List<Posting> list = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeInt(list.size());
+				for (Posting p: list) {
+					out.writeInt(ordinals[p.entryOrdinal]);
+					out.writeInt(p.count);
+					out.writeShort(p.chainIds.length);
+					for (String chainId: p.chainIds) {
+						out.writeUTF(chainId);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && ! file.delete()) {
+			throw new IOException("GroupIndex: cannot replace index file: " + file);
+		}
+		if (! tmpFile.renameTo(file)) {
+			throw new IOException("GroupIndex: cannot rename " + tmpFile + " to " + file);
+		}
+	}
+
+	/**
+	 * Adds an entry and its postings.
+	 * @param entryId
+	 * @param modified last modified time of the file
+	 * @param occurrences occurrences by group name, null for a skipped entry
+	 */
+	private void addEntry(String entryId, long modified, Map<String, Occurrence> occurrences) {
+		if (occurrences == null) {
+			addOrdinal(entryId, modified, null);
+			return;
+		}
+		int ordinal = addOrdinal(entryId, modified, new ArrayList<String>(occurrences.keySet()));
+		for (Map.Entry<String, Occurrence> e: occurrences.entrySet()) {
+			List<Posting> list = postings.get(e.getKey());
+			if (list == null) {
+				list = new ArrayList<Posting>();
+				postings.put(e.getKey(), list);
+			}
+			Occurrence o = e.getValue();
+			list.add(new Posting(ordinal, o.count, o.chainIds.toArray(new String[o.chainIds.size()])));
+		}
+	}
+
+	/**
+	 * Assigns the next ordinal to an entry, and adds it to the ordinals of its file.
+	 * @return the ordinal of the entry
+	 */
+	private int addOrdinal(String entryId, long modified, List<String> groupNames) {
+		int ordinal = entryIds.size();
+		entryIds.add(entryId);
+		lastModified.add(modified);
+		entryGroups.add(groupNames);
+		entryOrdinals.put(entryId, ordinal);
+		String fileId = getFileId(entryId);
+		List<Integer> ordinals = fileOrdinals.get(fileId);
+		if (ordinals == null) {
+			ordinals = new ArrayList<Integer>(1);
+			fileOrdinals.put(fileId, ordinals);
+		}
+		ordinals.add(ordinal);
+		return ordinal;
+	}
+
+	/**
+	 * Scans the topology records of a single structure. Only the group names of the GINFO records,
+	 * and the STRUCTURE, CHAIN, GROUP, REFERENCE, and COPY records are read.
+	 * @param reader record reader positioned after the header
+	 * @param referenceResolver resolver of reference entries, may be null if the structure has no reference entry
+	 * @param referenceDepth number of references that lead to this structure (0 for an indexed entry)
+	 * @return topology of the structure
+	 * @throws IOException
+	 */
+	private static Topology scan(HescRecordReader reader, ReferenceResolver referenceResolver, int referenceDepth) throws IOException {
+		DataInputStream in = reader.getDataInputStream();
+		Topology topology = new Topology();
+		Topology reference = null;
+		int[] referenceChainGroupStarts = null;
+		byte[] name = new byte[4];
+
+		byte recordId;
+		while ((recordId = reader.nextRecord()) != END) {
+			switch (recordId) {
+			case STRUCTURE:
+				topology.modelCount = in.readInt();
+				topology.homogeneousModel = in.readBoolean();
+				reader.skipFully(reader.getRecordLength() - 5);
+				break;
+			case CHAIN:
+				in.readInt(); // sequence index
+				in.readFully(name);
+				topology.chainIds.add(new String(name).trim());
+				topology.groupCounts.add(in.readInt());
+				reader.skipFully(reader.getRecordLength() - 12);
+				break;
+			case GROUP:
+				topology.groupIndices.add(in.readInt());
+				reader.skipFully(reader.getRecordLength() - 4);
+				break;
+			case GINFO:
+				in.readShort(); // atom count
+				in.readByte(); // flags
+				in.readFully(name, 0, 3);
+				topology.groupNames.add(new String(name, 0, 3).trim());
+				reader.skipFully(reader.getRecordLength() - 6);
+				break;
+			case REFERENCE:
+				byte[] id = new byte[reader.getRecordLength()];
+				in.readFully(id);
+				String referenceId = new String(id);
+				if (reference != null || ! topology.groupNames.isEmpty() || ! topology.chainIds.isEmpty()) {
+					throw new IOException("GroupIndex: REFERENCE record must precede the topology records: " + referenceId);
+				}
+				if (referenceResolver == null) {
+					throw new IOException("GroupIndex: no reference resolver for reference entry: " + referenceId);
+				}
+				if (referenceDepth >= MAX_REFERENCE_DEPTH) {
+					throw new IOException("GroupIndex: too many nested references: " + referenceId);
+				}
+				reference = scanReference(referenceId, referenceResolver, referenceDepth + 1);
+				// the group templates of the reference come first
+				topology.groupNames.addAll(reference.groupNames);
+				referenceChainGroupStarts = new int[reference.chainIds.size()];
+				for (int c = 0, g = 0; c < referenceChainGroupStarts.length; c++) {
+					referenceChainGroupStarts[c] = g;
+					g += reference.groupCounts.get(c);
+				}
+				break;
+			case COPY:
+				int chain = in.readInt();
+				int firstGroup = in.readInt();
+				int count = in.readInt();
+				reader.skipFully(reader.getRecordLength() - 12);
+				if (reference == null) {
+					throw new IOException("GroupIndex: COPY record without REFERENCE record");
+				}
+				if (chain < 0 || chain >= referenceChainGroupStarts.length || firstGroup < 0 || count < 0 ||
+						firstGroup + count > reference.groupCounts.get(chain)) {
+					throw new IOException("GroupIndex: COPY record references undefined groups of chain: " + chain);
+				}
+				int start = referenceChainGroupStarts[chain] + firstGroup;
+				topology.groupIndices.addAll(reference.groupIndices.subList(start, start + count));
+				break;
+			default:
+				reader.skipRecord();
+			}
+		}
+		return topology;
+	}
+
+	/**
+	 * Scans the topology of the first structure of a reference entry.
+	 */
+	private static Topology scanReference(String referenceId, ReferenceResolver referenceResolver, int referenceDepth) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(referenceResolver.open(referenceId), 8192);
+		HescRecordReader reader = new HescRecordReader(new DataInputStream(new BufferedInputStream(in)));
+		try {
+			if (! reader.readHeader()) {
+				throw new IOException("GroupIndex: empty reference entry: " + referenceId);
+			}
+			return scan(reader, referenceResolver, referenceDepth);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * The group names (by template index), chains, and group template indices of a structure. The chains of
+	 * a structure with homogeneous models are the chains of the first model.
+	 */
+	private static class Topology {
+		private int modelCount = 1;
+		private boolean homogeneousModel;
+		private List<String> groupNames = new ArrayList<String>();
+		private List<String> chainIds = new ArrayList<String>();
+		private List<Integer> groupCounts = new ArrayList<Integer>();
+		private List<Integer> groupIndices = new ArrayList<Integer>();
+
+		/**
+		 * @return occurrences in all models by group name
+		 * @throws IOException if the groups refer to undefined group templates
+		 */
+		private Map<String, Occurrence> getOccurrences() throws IOException {
+			Map<String, Occurrence> occurrences = new HashMap<String, Occurrence>();
+			int modelFactor = homogeneousModel ? modelCount : 1;
+			int groupIndex = 0;
+			for (int i = 0; i < chainIds.size(); i++) {
+				for (int j = 0; j < groupCounts.get(i); j++) {
+					if (groupIndex >= groupIndices.size()) {
+						throw new IOException("GroupIndex: missing GROUP record in chain: " + chainIds.get(i));
+					}
+					int index = groupIndices.get(groupIndex++);
+					if (index < 0 || index >= groupNames.size()) {
+						throw new IOException("GroupIndex: invalid group index: " + index);
+					}
+					String groupName = groupNames.get(index);
+					Occurrence o = occurrences.get(groupName);
+					if (o == null) {
+						o = new Occurrence();
+						occurrences.put(groupName, o);
+					}
+					o.count += modelFactor;
+					o.chainIds.add(chainIds.get(i));
+				}
+			}
+			return occurrences;
+		}
+	}
+
+	private static class Occurrence {
+		private int count;
+		private Set<String> chainIds = new LinkedHashSet<String>();
+	}
+}
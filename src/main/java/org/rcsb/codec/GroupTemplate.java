@@ -0,0 +1,308 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.AMINO_ACID;
+import static org.rcsb.codec.CodecConstants.BACKBONE_LAYER;
+import static org.rcsb.codec.CodecConstants.HEAD;
+import static org.rcsb.codec.CodecConstants.HEAVY_WATER_GROUP_NAME;
+import static org.rcsb.codec.CodecConstants.LAYER_COUNT;
+import static org.rcsb.codec.CodecConstants.NUCLEOTIDE;
+import static org.rcsb.codec.CodecConstants.NUCLEOTIDE_BOND_DISTANCE;
+import static org.rcsb.codec.CodecConstants.NUCLEOTIDE_TAIL_ATOM_NAME;
+import static org.rcsb.codec.CodecConstants.NUCLEOTIDE_TRACE_ATOM_NAME;
+import static org.rcsb.codec.CodecConstants.PEPTIDE_BOND_DISTANCE;
+import static org.rcsb.codec.CodecConstants.PEPTIDE_TAIL_ATOM_NAME;
+import static org.rcsb.codec.CodecConstants.PEPTIDE_TRACE_ATOM_NAME;
+import static org.rcsb.codec.CodecConstants.SIDE_CHAIN_LAYER;
+import static org.rcsb.codec.CodecConstants.SOLVENT_LAYER;
+import static org.rcsb.codec.CodecConstants.TAIL;
+import static org.rcsb.codec.CodecConstants.WATER_GROUP_NAME;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GroupTemplate holds the information of a GINFO record, i.e., the atoms of a group (residue) and the bond tree
+ * that is used to encode the atom coordinates as deltas. All data that the coordinate decoder needs per atom
+ * (trimmed atom names, alternative location ids, bond lengths, the index of the polymer tail atom) are
+ * computed once per template, so that decoding an atom requires no String operations or allocations.
+ *
+ * @author Peter Rose
+ *
+ */
+final class GroupTemplate {
+	final String groupName;
+	final char insertionCode;
+	final byte flags;
+	final int atomCount;
+
+	/**
+	 * 1: amino acid, 2: nucleotide, 0: other
+	 */
+	final int polymerType;
+	final boolean aminoAcid;
+	final boolean nucleotide;
+	final boolean hasHead;
+	final boolean hasTail;
+
+	/**
+	 * 4-character PDB atom names, including spaces.
+	 */
+	final String[] atomNames;
+	final String[] trimmedAtomNames;
+	final String[] elements;
+	final char[] altLocs;
+
+	/**
+	 * Index of the reference atom of each atom, or -1 if the atom has no reference atom in this group.
+	 */
+	final int[] references;
+
+	/**
+	 * Integer bond length to the reference atom of each atom.
+	 */
+	final int[] bondLengths;
+
+	/**
+	 * Integer bond length between the head atom (atom 0) and the tail atom of the preceding group,
+	 * or 0 if the group is not a polymer group.
+	 */
+	final int headBondLength;
+
+	/**
+	 * Index of the polymer tail atom (last atom with the tail atom name), or -1.
+	 */
+	final int tailAtomIndex;
+
+	/**
+	 * Layer of each atom in the progressive layout (BACKBONE_LAYER, SIDE_CHAIN_LAYER, SOLVENT_LAYER),
+	 * and the number of atoms in each layer.
+	 */
+	final byte[] layers;
+	final int[] layerAtomCounts;
+
+	/**
+	 * Additional bonds between atoms of this group that are not part of the bond tree, e.g., ring closures,
+	 * as pairs of atom indices (BOND record).
+	 */
+	int[] bonds = new int[0];
+	byte[] bondOrders = new byte[0];
+
+	/**
+	 * Ancestors of each atom that define the predicted position (compression method 7): the reference atom of the
+	 * reference atom (angle reference) and its reference atom (torsion reference), or -1 if the atom is not predicted.
+	 * The predicted position is stored in the local frame of the ancestors, scaled by the bond length.
+	 * All arrays are null if the template has no GEOMETRY record.
+	 */
+	int[] angleReferences = null;
+	int[] torsionReferences = null;
+	double[] localX = null;
+	double[] localY = null;
+	double[] localZ = null;
+
+	/**
+	 * @param groupName
+	 * @param insertionCode
+	 * @param flags AMINO_ACID, NUCLEOTIDE, NON_POLYMER, HEAD, TAIL flags
+	 * @param atomNames 4-character atom names
+	 * @param elements element symbols
+	 * @param altLocs alternative location ids
+	 * @param references index of the reference atom for each atom, or -1
+	 * @param bondLengths integer bond length to the reference atom for each atom
+	 * @param xyzScale coordinate scale used to express the standard polymer bond lengths as integers
+	 */
+	GroupTemplate(String groupName, char insertionCode, byte flags, String[] atomNames, String[] elements, char[] altLocs,
+			int[] references, int[] bondLengths, int xyzScale) {
+		this.groupName = groupName;
+		this.insertionCode = insertionCode;
+		this.flags = flags;
+		this.atomCount = atomNames.length;
+		this.atomNames = atomNames;
+		this.elements = elements;
+		this.altLocs = altLocs;
+		this.references = references;
+		this.bondLengths = bondLengths;
+
+		aminoAcid = (flags & AMINO_ACID) != 0;
+		nucleotide = (flags & NUCLEOTIDE) != 0;
+		hasHead = (flags & HEAD) != 0;
+		hasTail = (flags & TAIL) != 0;
+
+		if (aminoAcid) {
+			polymerType = 1;
+			headBondLength = (int)Math.round(PEPTIDE_BOND_DISTANCE * xyzScale);
+		} else if (nucleotide) {
+			polymerType = 2;
+			headBondLength = (int)Math.round(NUCLEOTIDE_BOND_DISTANCE * xyzScale);
+		} else {
+			polymerType = 0;
+			headBondLength = 0;
+		}
+
+		trimmedAtomNames = new String[atomCount];
+		for (int i = 0; i < atomCount; i++) {
+			trimmedAtomNames[i] = atomNames[i].trim();
+		}
+		tailAtomIndex = getTailAtomIndex(flags, Arrays.asList(trimmedAtomNames));
+
+		boolean water = groupName.equals(WATER_GROUP_NAME) || groupName.equals(HEAVY_WATER_GROUP_NAME);
+		layers = new byte[atomCount];
+		layerAtomCounts = new int[LAYER_COUNT];
+		for (int i = 0; i < atomCount; i++) {
+			if (water || elements[i].equals("H") || elements[i].equals("D")) {
+				layers[i] = SOLVENT_LAYER;
+			} else if ((i == 0 && hasHead) || i == tailAtomIndex ||
+					(aminoAcid && trimmedAtomNames[i].equals(PEPTIDE_TRACE_ATOM_NAME)) ||
+					(nucleotide && trimmedAtomNames[i].equals(NUCLEOTIDE_TRACE_ATOM_NAME))) {
+				layers[i] = BACKBONE_LAYER;
+			} else {
+				layers[i] = SIDE_CHAIN_LAYER;
+			}
+			layerAtomCounts[layers[i]]++;
+		}
+	}
+
+	/**
+	 * Returns the index of the polymer tail atom of a group: the last atom with the tail atom name of its polymer type.
+	 * @param flags AMINO_ACID, NUCLEOTIDE, NON_POLYMER, HEAD, TAIL flags
+	 * @param atomNames atom names, with or without padding
+	 * @return index of the tail atom, or -1
+	 */
+	static int getTailAtomIndex(byte flags, List<String> atomNames) {
+		String tailAtomName;
+		if ((flags & AMINO_ACID) != 0) {
+			tailAtomName = PEPTIDE_TAIL_ATOM_NAME;
+		} else if ((flags & NUCLEOTIDE) != 0) {
+			tailAtomName = NUCLEOTIDE_TAIL_ATOM_NAME;
+		} else {
+			return -1;
+		}
+		for (int i = atomNames.size() - 1; i >= 0; i--) {
+			if (atomNames.get(i).trim().equals(tailAtomName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the bond angles and torsion angles of the atoms (GEOMETRY record). Atom k is predicted if its bond angle is not 0
+	 * and it has three ancestors in the bond tree: its reference atom c, the reference atom b of c, and the reference atom a of b.
+	 * The bond angle is the angle b-c-k, and the torsion angle is the dihedral angle a-b-c-k.
+	 * @param angles bond angle of each atom in degrees * angleScale, or 0 if the atom is not predicted
+	 * @param torsions torsion angle of each atom in degrees * angleScale
+	 * @param angleScale
+	 */
+	void setGeometry(int[] angles, int[] torsions, int angleScale) {
+		angleReferences = new int[atomCount];
+		torsionReferences = new int[atomCount];
+		localX = new double[atomCount];
+		localY = new double[atomCount];
+		localZ = new double[atomCount];
+
+		for (int k = 0; k < atomCount; k++) {
+			int c = references[k];
+			int b = c >= 0 ? references[c] : -1;
+			int a = b >= 0 ? references[b] : -1;
+			if (angles[k] == 0 || a < 0) {
+				angleReferences[k] = -1;
+				torsionReferences[k] = -1;
+				continue;
+			}
+			angleReferences[k] = b;
+			torsionReferences[k] = a;
+
+			// StrictMath gives identical predictions in the encoder and the decoder on all platforms
+			double angle = StrictMath.toRadians(angles[k] / (double) angleScale);
+			double torsion = StrictMath.toRadians(torsions[k] / (double) angleScale);
+			double length = bondLengths[k];
+			localX[k] = -length * StrictMath.cos(angle);
+			localY[k] = length * StrictMath.sin(angle) * StrictMath.cos(torsion);
+			localZ[k] = length * StrictMath.sin(angle) * StrictMath.sin(torsion);
+		}
+	}
+
+	/**
+	 * Returns true if atom k is predicted from the positions of its ancestors (see setGeometry).
+	 * @param k atom index
+	 */
+	boolean isPredicted(int k) {
+		return torsionReferences != null && torsionReferences[k] >= 0;
+	}
+
+	/**
+	 * Predicts the integer coordinates of atom k from the coordinates of its ancestors, which must precede
+	 * atom k in the group (natural extension reference frame method).
+	 * <p>
+	 * The encoder and decoder must compute identical predictions. This method uses only double additions, 
+	 * multiplications, divisions, and StrictMath.sqrt, which are correctly rounded, on values far from the overflow 
+	 * and underflow limits, so the extended exponent range of non-strict arithmetic (before Java 17) cannot change
+	 * the result. The order of the operations must not be changed.
+	 * @param k atom index of a predicted atom
+	 * @param x integer x coordinates
+	 * @param y integer y coordinates
+	 * @param z integer z coordinates
+	 * @param start index of the first atom of the group in x, y, z
+	 * @param out predicted x, y, and z coordinates (array of length 3)
+	 */
+	void predict(int k, int[] x, int[] y, int[] z, int start, int[] out) {
+		int a = start + torsionReferences[k];
+		int b = start + angleReferences[k];
+		int c = start + references[k];
+
+		// unit vector from b to c
+		double bcx = x[c] - x[b];
+		double bcy = y[c] - y[b];
+		double bcz = z[c] - z[b];
+		double length = StrictMath.sqrt(bcx*bcx + bcy*bcy + bcz*bcz);
+
+		// normal of the plane a, b, c
+		double abx = x[b] - x[a];
+		double aby = y[b] - y[a];
+		double abz = z[b] - z[a];
+		double nx = aby*bcz - abz*bcy;
+		double ny = abz*bcx - abx*bcz;
+		double nz = abx*bcy - aby*bcx;
+		double nLength = StrictMath.sqrt(nx*nx + ny*ny + nz*nz);
+
+		if (length == 0 || nLength == 0) {
+			// collinear ancestors, the reference atom is the prediction
+			out[0] = x[c];
+			out[1] = y[c];
+			out[2] = z[c];
+			return;
+		}
+		bcx /= length;
+		bcy /= length;
+		bcz /= length;
+		nx /= nLength;
+		ny /= nLength;
+		nz /= nLength;
+
+		// third axis of the local frame
+		double mx = ny*bcz - nz*bcy;
+		double my = nz*bcx - nx*bcz;
+		double mz = nx*bcy - ny*bcx;
+
+		out[0] = x[c] + (int) Math.round(localX[k]*bcx + localY[k]*mx + localZ[k]*nx);
+		out[1] = y[c] + (int) Math.round(localX[k]*bcy + localY[k]*my + localZ[k]*ny);
+		out[2] = z[c] + (int) Math.round(localX[k]*bcz + localY[k]*mz + localZ[k]*nz);
+	}
+
+	/**
+	 * Adds a bond that is not part of the bond tree.
+	 * @param atom1 atom index
+	 * @param atom2 atom index
+	 * @param order bond order
+	 */
+	void addBond(int atom1, int atom2, byte order) {
+		int n = bondOrders.length;
+		bonds = Arrays.copyOf(bonds, 2*n + 2);
+		bondOrders = Arrays.copyOf(bondOrders, n + 1);
+		bonds[2*n] = atom1;
+		bonds[2*n+1] = atom2;
+		bondOrders[n] = order;
+	}
+}
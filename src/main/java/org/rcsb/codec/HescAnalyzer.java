@@ -0,0 +1,488 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HescAnalyzer reports where the bytes of .hesc files go. It reads the record framing of each structure
+ * (see HescRecordReader) and reports one row per file, compression method, and record type with these columns:
+ * <pre>
+ * records          number of records
+ * inflated_bytes   uncompressed size, including the record id and length
+ * deflated_bytes   size of the record compressed on its own (an estimate, since gzip compresses the whole stream)
+ * short_values     2 byte values of the BFACTOR or COORD integer streams (compression methods 1 - 3)
+ * int_values       4 byte values
+ * encoded_values   BitEncoder values (one per atom)
+ * marker_switches  changes of the value type, each of which costs a marker
+ * packed_values    values of the packed integer streams (compression methods 4 - 7)
+ * packed_bits      bits of the packed values, excluding the block headers
+ * bonded_atoms     atoms with a reference atom in the COORD stream (compression methods 1 - 3)
+ * encoded_atoms    bonded atoms encoded as BitEncoder values
+ * xy_range_misses  bonded atoms whose deltaX or deltaY exceeds the 12 bit range of a BitEncoder value
+ * z_range_misses   bonded atoms whose deltaZ residual exceeds the 7 bit range of a BitEncoder value
+ * </pre>
+ * The FILE row of each file contains the number of structures, the uncompressed size, and the size of the file.
+ * The value and atom counts require decoding the structure, the other columns are taken from the records only.
+ * Rows with the file name "*" contain the totals over all files. A summary, including the share of bonded atoms
+ * that exceed the BitEncoder range, is printed to System.err.
+ * <p>
+ * Directories are searched recursively for .hesc files, which are analyzed in parallel. Packs of several
+ * structures can be analyzed by passing the pack file itself.
+ * <p>
+ * Usage: HescAnalyzer fileOrDirectory [csv|json] [threads] [outputFile]
+ *
+ * @author Peter Rose
+ *
+ */
+public class HescAnalyzer {
+	public static final String[] COLUMNS = {"records", "inflated_bytes", "deflated_bytes",
+		"short_values", "int_values", "encoded_values", "marker_switches", "packed_values", "packed_bits",
+		"bonded_atoms", "encoded_atoms", "xy_range_misses", "z_range_misses"};
+
+	private static final int RECORDS = 0;
+	private static final int INFLATED_BYTES = 1;
+	private static final int DEFLATED_BYTES = 2;
+	private static final int SHORT_VALUES = 3;
+	private static final int PACKED_VALUES = 7;
+	private static final int PACKED_BITS = 8;
+	private static final int BONDED_ATOMS = 9;
+	private static final int ENCODED_ATOMS = 10;
+	private static final int XY_RANGE_MISSES = 11;
+	private static final int Z_RANGE_MISSES = 12;
+
+	private static final String FILE_ROW = "FILE";
+	private static final String TOTAL = "*";
+
+	private static final StructureInflatorInterface NO_INFLATOR = new StructureInflatorInterface() {
+		public void setModelCount(int modelCount) {}
+		public void setModelInfo(int modelNumber, int chainCount) {}
+		public void setChainInfo(String chainId, int groupCount) {}
+		public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {}
+		public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId, float x, float y, float z,
+				float occupancy, float temperatureFactor, String element) {}
+	};
+
+	private int threadCount;
+	private ConcurrentLinkedQueue<FileStatistics> results = new ConcurrentLinkedQueue<FileStatistics>();
+	private ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * @param threadCount number of threads
+	 */
+	public HescAnalyzer(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: HescAnalyzer fileOrDirectory [csv|json] [threads] [outputFile]");
+			return;
+		}
+		boolean json = args.length > 1 && args[1].equalsIgnoreCase("json");
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		HescAnalyzer analyzer = new HescAnalyzer(threads);
+		List<FileStatistics> statistics = analyzer.analyze(new File(args[0]));
+
+		PrintWriter writer = args.length > 3 ?
+				new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[3]), "UTF-8")) :
+				new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+		if (json) {
+			writeJson(statistics, writer);
+		} else {
+			writeCsv(statistics, writer);
+		}
+		writer.flush();
+		if (args.length > 3) {
+			writer.close();
+		}
+		printSummary(statistics.get(statistics.size() - 1));
+		for (String failure: analyzer.failures) {
+			System.err.println("failed: " + failure);
+		}
+	}
+
+	/**
+	 * Analyzes a .hesc file, or all .hesc files of a directory tree in parallel.
+	 * @param file file or directory
+	 * @return statistics of each file, ordered by file name, followed by the totals
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public List<FileStatistics> analyze(File file) throws IOException, InterruptedException {
+		if (! file.exists()) {
+			throw new IOException("HescAnalyzer: file not found: " + file);
+		}
+		results.clear();
+		failures.clear();
+		final boolean directory = file.isDirectory();
+		ParallelFileWalker<Worker> walker = new ParallelFileWalker<Worker>(threadCount, failures) {
+			@Override
+			protected Worker createWorker() {
+				return new Worker();
+			}
+
+			@Override
+			protected String getName(File f) {
+				// a file that is passed itself is analyzed regardless of its extension, e.g., a pack file
+				return ! directory || f.getName().endsWith(CODEC_FILE_EXTENSION) ? f.getPath() : null;
+			}
+
+			@Override
+			protected void process(Worker worker, String name, File f) throws IOException {
+				results.add(worker.analyze(f));
+			}
+		};
+		if (directory) {
+			walker.walk(file);
+		} else {
+			walker.processFile(file);
+		}
+
+		List<FileStatistics> statistics = new ArrayList<FileStatistics>(results);
+		Collections.sort(statistics, new Comparator<FileStatistics>() {
+			public int compare(FileStatistics s1, FileStatistics s2) {
+				return s1.file.compareTo(s2.file);
+			}
+		});
+		FileStatistics total = new FileStatistics(TOTAL);
+		for (FileStatistics s: statistics) {
+			total.add(s);
+		}
+		statistics.add(total);
+		return statistics;
+	}
+
+	/**
+	 * @return the files that could not be analyzed, with the cause of the failure
+	 */
+	public List<String> getFailures() {
+		return new ArrayList<String>(failures);
+	}
+
+	/**
+	 * Writes the statistics as comma separated values with a header line.
+	 */
+	public static void writeCsv(List<FileStatistics> statistics, PrintWriter writer) {
+		writer.print("file,method,record");
+		for (String column: COLUMNS) {
+			writer.print(',');
+			writer.print(column);
+		}
+		writer.print('\n');
+		for (FileStatistics s: statistics) {
+			for (Map.Entry<String, long[]> row: s.rows.entrySet()) {
+				writer.print(quoteCsv(s.file));
+				writer.print(',');
+				writer.print(row.getKey().replace('\t', ','));
+				for (long value: row.getValue()) {
+					writer.print(',');
+					writer.print(value);
+				}
+				writer.print('\n');
+			}
+		}
+	}
+
+	/**
+	 * Writes the statistics as a JSON array of rows.
+	 */
+	public static void writeJson(List<FileStatistics> statistics, PrintWriter writer) {
+		writer.print("[");
+		boolean first = true;
+		for (FileStatistics s: statistics) {
+			for (Map.Entry<String, long[]> row: s.rows.entrySet()) {
+				String[] key = row.getKey().split("\t");
+				writer.print(first ? "\n" : ",\n");
+				first = false;
+				writer.print("{\"file\":" + quoteJson(s.file) + ",\"method\":" + key[0] + ",\"record\":" + quoteJson(key[1]));
+				long[] values = row.getValue();
+				for (int i = 0; i < COLUMNS.length; i++) {
+					writer.print(",\"" + COLUMNS[i] + "\":" + values[i]);
+				}
+				writer.print("}");
+			}
+		}
+		writer.print("\n]\n");
+	}
+
+	private static void printSummary(FileStatistics total) {
+		long structures = 0;
+		long inflated = 0;
+		long compressed = 0;
+		long bonded = 0;
+		long xyMisses = 0;
+		long zMisses = 0;
+		for (Map.Entry<String, long[]> row: total.rows.entrySet()) {
+			long[] values = row.getValue();
+			if (row.getKey().endsWith("\t" + FILE_ROW)) {
+				structures += values[RECORDS];
+				inflated += values[INFLATED_BYTES];
+				compressed += values[DEFLATED_BYTES];
+			}
+			bonded += values[BONDED_ATOMS];
+			xyMisses += values[XY_RANGE_MISSES];
+			zMisses += values[Z_RANGE_MISSES];
+		}
+		System.err.printf("structures: %d, %.1f MB uncompressed, %.1f MB compressed%n", structures, inflated / 1E6, compressed / 1E6);
+		if (bonded > 0) {
+			System.err.printf("bonded atoms: %d, exceeding BitEncoder range: %.2f%% (deltaX/deltaY: %.2f%%, deltaZ: %.2f%%)%n",
+					bonded, 100.0 * (xyMisses + zMisses) / bonded, 100.0 * xyMisses / bonded, 100.0 * zMisses / bonded);
+		}
+	}
+
+	private static String quoteCsv(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+			return s;
+		}
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+
+	private static String quoteJson(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 32) {
+				sb.append(String.format("\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Returns the name of a record type, or the record id for unknown records.
+	 */
+	static String getRecordName(byte recordId) {
+		switch (recordId) {
+		case PRECISION: return "PRECISION";
+		case STRUCTURE: return "STRUCTURE";
+		case SUMMARY: return "SUMMARY";
+		case LAYER: return "LAYER";
+		case REFERENCE: return "REFERENCE";
+		case COPY: return "COPY";
+		case MATCH: return "MATCH";
+		case MODEL: return "MODEL";
+		case CHAIN: return "CHAIN";
+		case SEQUENCE: return "SEQUENCE";
+		case GINFO: return "GINFO";
+		case GROUP: return "GROUP";
+		case BOND: return "BOND";
+		case ASSEMBLY: return "ASSEMBLY";
+		case GEOMETRY: return "GEOMETRY";
+		case COORD: return "COORD";
+		case BFACTOR: return "BFACTOR";
+		case OCCUPANCY: return "OCCUPANCY";
+		default: return String.valueOf((char)recordId);
+		}
+	}
+
+	/**
+	 * Returns true if the integer records of a compression method contain packed integer streams.
+	 */
+	private static boolean isPacked(int compressionMethod) {
+		return compressionMethod == PACKED_COMPRESSION || compressionMethod == PROGRESSIVE_COMPRESSION
+				|| compressionMethod == REFERENCE_COMPRESSION || compressionMethod == PREDICTIVE_COMPRESSION;
+	}
+
+	/**
+	 * FileStatistics holds the rows of a file: the values of the COLUMNS for each compression method and record type.
+	 */
+	public static final class FileStatistics {
+		private final String file;
+		// method \t record name -> column values
+		private final Map<String, long[]> rows = new TreeMap<String, long[]>();
+
+		FileStatistics(String file) {
+			this.file = file;
+		}
+
+		/**
+		 * @return the file name, or "*" for the totals
+		 */
+		public String getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the values of a row.
+		 * @param compressionMethod
+		 * @param recordName e.g., "COORD", or "FILE"
+		 * @return values of the COLUMNS, or null if the file has no such records
+		 */
+		public long[] getRow(int compressionMethod, String recordName) {
+			return rows.get(compressionMethod + "\t" + recordName);
+		}
+
+		long[] row(int compressionMethod, String recordName) {
+			String key = compressionMethod + "\t" + recordName;
+			long[] values = rows.get(key);
+			if (values == null) {
+				values = new long[COLUMNS.length];
+				rows.put(key, values);
+			}
+			return values;
+		}
+
+		void add(FileStatistics other) {
+			for (Map.Entry<String, long[]> entry: other.rows.entrySet()) {
+				long[] values = rows.get(entry.getKey());
+				if (values == null) {
+					values = new long[COLUMNS.length];
+					rows.put(entry.getKey(), values);
+				}
+				for (int i = 0; i < values.length; i++) {
+					values[i] += entry.getValue()[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Worker holds the buffers and the deflater of one thread.
+	 */
+	private class Worker {
+		private byte[] data = new byte[1 << 20];
+		private byte[] deflated = new byte[65536];
+		private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+		FileStatistics analyze(File file) throws IOException {
+			int length = readFile(file);
+			FileStatistics statistics = new FileStatistics(file.getPath());
+
+			ByteArrayInputStream bytes = new ByteArrayInputStream(data, 0, length);
+			HescRecordReader reader = new HescRecordReader(new DataInputStream(bytes));
+			boolean first = true;
+			while (true) {
+				int structureStart = length - bytes.available();
+				if (! reader.readHeader()) {
+					break;
+				}
+				int method = reader.getCompressionMethod();
+				int dataStart = length - bytes.available();
+				boolean packed = isPacked(method);
+
+				byte recordId;
+				while ((recordId = reader.nextRecord()) != END) {
+					int recordLength = reader.getRecordLength();
+					int valueStart = length - bytes.available();
+					int recordStart = valueStart - (HescRecordReader.isShortRecord(recordId) ? 2 : 5);
+
+					long[] row = statistics.row(method, getRecordName(recordId));
+					row[RECORDS]++;
+					row[INFLATED_BYTES] += valueStart + recordLength - recordStart;
+					row[DEFLATED_BYTES] += deflate(recordStart, valueStart + recordLength - recordStart);
+					if (packed && (recordId == COORD || recordId == BFACTOR || recordId == OCCUPANCY || recordId == MATCH)
+							&& recordLength > 0) {
+						int valueEnd = Math.min(valueStart + recordLength, length);
+						row[PACKED_VALUES] += PackedIntegers.readCount(data, valueStart, valueEnd);
+						row[PACKED_BITS] += PackedIntegers.readBitCount(data, valueStart, valueEnd);
+					}
+					reader.skipRecord();
+				}
+
+				long[] row = statistics.row(method, FILE_ROW);
+				row[RECORDS]++;
+				row[INFLATED_BYTES] += length - bytes.available() - structureStart;
+				if (first) {
+					row[DEFLATED_BYTES] += file.length();
+					first = false;
+				}
+
+				if (! packed) {
+					decode(statistics, reader, method, dataStart, length - bytes.available() - dataStart);
+				}
+			}
+			return statistics;
+		}
+
+		/**
+		 * Decodes a structure with integer streams with markers and adds the value and atom counts.
+		 */
+		private void decode(FileStatistics statistics, HescRecordReader reader, int method, int offset, int length) throws IOException {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+			StructureDecoder decoder = StructureDecoder.getDecoder(reader.getMajorVersion(), reader.getMinorVersion(), method, in, NO_INFLATOR);
+			if (! (decoder instanceof StructureDecoderImpl1)) {
+				return;
+			}
+			DecoderStatistics counts = new DecoderStatistics();
+			((StructureDecoderImpl1) decoder).setStatistics(counts);
+			decoder.decode();
+
+			addValueCounts(statistics.row(method, getRecordName(BFACTOR)), counts.bFactorCounts);
+			long[] row = statistics.row(method, getRecordName(COORD));
+			addValueCounts(row, counts.coordCounts);
+			row[BONDED_ATOMS] += counts.bondedAtoms;
+			row[ENCODED_ATOMS] += counts.encodedAtoms;
+			row[XY_RANGE_MISSES] += counts.xyRangeMisses;
+			row[Z_RANGE_MISSES] += counts.zRangeMisses;
+		}
+
+		private void addValueCounts(long[] row, long[] counts) {
+			row[SHORT_VALUES + DecoderStatistics.SHORT_VALUES] += counts[DecoderStatistics.SHORT_VALUES];
+			row[SHORT_VALUES + DecoderStatistics.INTEGER_VALUES] += counts[DecoderStatistics.INTEGER_VALUES];
+			row[SHORT_VALUES + DecoderStatistics.ENCODED_VALUES] += counts[DecoderStatistics.ENCODED_VALUES];
+			row[SHORT_VALUES + DecoderStatistics.TYPE_SWITCHES] += counts[DecoderStatistics.TYPE_SWITCHES];
+		}
+
+		/**
+		 * Returns the size of a range of the data compressed on its own.
+		 */
+		private long deflate(int offset, int length) {
+			deflater.reset();
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			long size = 0;
+			while (! deflater.finished()) {
+				size += deflater.deflate(deflated);
+			}
+			return size;
+		}
+
+		/**
+		 * Reads the uncompressed content of a gzip compressed file into the data buffer.
+		 * @return number of bytes
+		 */
+		private int readFile(File file) throws IOException {
+			InputStream in = new GZIPInputStream(new FileInputStream(file), 65536);
+			try {
+				int length = 0;
+				for (int n; (n = in.read(data, length, data.length - length)) >= 0; ) {
+					length += n;
+					if (length == data.length) {
+						data = Arrays.copyOf(data, 2 * data.length);
+					}
+				}
+				return length;
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,449 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.BO_SCALE;
+import static org.rcsb.codec.CodecConstants.CODEC_FILE_EXTENSION;
+import static org.rcsb.codec.CodecConstants.MAJOR_VERSIONS;
+import static org.rcsb.codec.CodecConstants.MINOR_VERSIONS;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PREDICTIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PROGRESSIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STREAMING_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.biojava.bio.structure.Structure;
+import org.biojava.bio.structure.io.FileParsingParameters;
+import org.biojava.bio.structure.io.PDBFileParser;
+import org.biojava.bio.structure.io.mmcif.SimpleMMcifConsumer;
+import org.biojava.bio.structure.io.mmcif.SimpleMMcifParser;
+
+/**
+ * HescArchiveEncoder incrementally encodes a directory tree of PDB and mmCIF files (*.pdb, *.ent, *.cif,
+ * optionally gzipped) to .hesc files, e.g., to update an archive after a weekly PDB release or a codec change.
+ * <p>
+ * A manifest in the target directory (MANIFEST_FILE_NAME) lists the id, the CRC32 checksum of the source file, and
+ * the codec version of each encoded entry. Entries whose checksum and codec version match the manifest, and whose
+ * .hesc file exists, are skipped. The codec version includes the format version, the compression method,
+ * the coordinate and b factor scales, and StructureDeflator.ENCODER_VERSION, so that any change of the encoder
+ * output or of the encoder settings causes a full re-encoding.
+ * <p>
+ * The source files are encoded in parallel (see ParallelFileWalker), and each thread reuses its parser, deflator,
+ * and buffers for all of its entries.
+ * Each .hesc file is written to a temporary file and then renamed, so that a target file is either the old or the
+ * new version of an entry, even if the encoder is interrupted. The manifest is updated in the same way when all
+ * entries are done. Entries that fail are reported and not recorded in the manifest, so that they are retried.
+ * <p>
+ * Optionally, all entries are also written to a pack archive: a concatenation of the gzip compressed .hesc
+ * streams in the order of their ids, which can be read with the HescStructureReader.
+ * <p>
+ * Usage: HescArchiveEncoder [-method compressionMethod] [-precision xyzScale boScale] sourceDirectory targetDirectory [threads] [packFile]
+ *
+ * @author Peter Rose
+ *
+ */
+public class HescArchiveEncoder {
+	public static final String MANIFEST_FILE_NAME = "manifest.tsv";
+
+	private static final String USAGE = "Usage: HescArchiveEncoder [-method compressionMethod] [-precision xyzScale boScale] "
+			+ "sourceDirectory targetDirectory [threads] [packFile]";
+	private static final String[] SOURCE_EXTENSIONS = {".cif", ".pdb", ".ent"};
+
+	private File sourceDir;
+	private File targetDir;
+	private int threadCount;
+	private int compressionMethod = STANDARD_COMPRESSION;
+	private int xyzScale = XYZ_SCALE;
+	private int boScale = BO_SCALE;
+	private String codecVersion = getCodecVersion(STANDARD_COMPRESSION, XYZ_SCALE, BO_SCALE);
+
+	// manifest entries: id -> checksum \t codec version
+	private Map<String, String> manifest = new ConcurrentHashMap<String, String>();
+	private Map<String, String> sourceIds = new ConcurrentHashMap<String, String>();
+
+	private AtomicInteger encoded = new AtomicInteger();
+	private AtomicInteger skipped = new AtomicInteger();
+	private AtomicLong sourceBytes = new AtomicLong();
+	private AtomicLong hescBytes = new AtomicLong();
+	private ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * @param sourceDir root directory of the PDB and mmCIF files
+	 * @param targetDir directory of the .hesc files and the manifest
+	 * @param threadCount number of encoder threads
+	 */
+	public HescArchiveEncoder(File sourceDir, File targetDir, int threadCount) {
+		this.sourceDir = sourceDir;
+		this.targetDir = targetDir;
+		this.threadCount = threadCount;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int method = STANDARD_COMPRESSION;
+		int xyz = XYZ_SCALE;
+		int bo = BO_SCALE;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-method") && i + 1 < args.length) {
+				method = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-precision") && i + 2 < args.length) {
+				xyz = Integer.parseInt(args[++i]);
+				bo = Integer.parseInt(args[++i]);
+			} else {
+				System.out.println(USAGE);
+				return;
+			}
+		}
+		if (args.length - i < 2) {
+			System.out.println(USAGE);
+			return;
+		}
+		int threads = args.length - i > 2 ? Integer.parseInt(args[i + 2]) : Runtime.getRuntime().availableProcessors();
+		File packFile = args.length - i > 3 ? new File(args[i + 3]) : null;
+
+		HescArchiveEncoder encoder = new HescArchiveEncoder(new File(args[i]), new File(args[i + 1]), threads);
+		encoder.setCompressionMethod(method);
+		encoder.setPrecision(xyz, bo);
+		encoder.run();
+		if (packFile != null) {
+			encoder.writePack(packFile);
+		}
+	}
+
+	/**
+	 * Sets the compression method of the encoded entries. Reference-based compression (method 6) is not supported,
+	 * since the entries of an archive are encoded independently.
+	 * @param compressionMethod STANDARD_COMPRESSION (default), STREAMING_COMPRESSION, PACKED_COMPRESSION,
+	 * PROGRESSIVE_COMPRESSION, or PREDICTIVE_COMPRESSION
+	 */
+	public void setCompressionMethod(int compressionMethod) {
+		if (compressionMethod != STANDARD_COMPRESSION && compressionMethod != STREAMING_COMPRESSION
+				&& compressionMethod != PACKED_COMPRESSION && compressionMethod != PROGRESSIVE_COMPRESSION
+				&& compressionMethod != PREDICTIVE_COMPRESSION) {
+			throw new IllegalArgumentException("HescArchiveEncoder: unsupported compression method: " + compressionMethod);
+		}
+		this.compressionMethod = compressionMethod;
+		codecVersion = getCodecVersion(compressionMethod, xyzScale, boScale);
+	}
+
+	/**
+	 * Sets the precision of the encoded entries (see StructureDeflator.setPrecision).
+	 * @param xyzScale coordinate scale
+	 * @param boScale b factor and occupancy scale
+	 */
+	public void setPrecision(int xyzScale, int boScale) {
+		if (xyzScale <= 0 || boScale <= 0) {
+			throw new IllegalArgumentException("HescArchiveEncoder: invalid precision: coordinate scale: " + xyzScale + " b factor scale: " + boScale);
+		}
+		this.xyzScale = xyzScale;
+		this.boScale = boScale;
+		codecVersion = getCodecVersion(compressionMethod, xyzScale, boScale);
+	}
+
+	/**
+	 * @return the codec version that is recorded in the manifest for the current settings
+	 */
+	public String getCodecVersion() {
+		return codecVersion;
+	}
+
+	/**
+	 * Returns the codec version of entries encoded with the given settings by the current encoder.
+	 */
+	static String getCodecVersion(int compressionMethod, int xyzScale, int boScale) {
+		return MAJOR_VERSIONS[0] + "." + MINOR_VERSIONS[0] + "." + compressionMethod
+				+ "." + StructureDeflator.ENCODER_VERSION + "/" + xyzScale + "/" + boScale;
+	}
+
+	/**
+	 * Encodes all new and changed entries, updates the manifest, and prints a report.
+	 * @return number of failed entries
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int run() throws IOException, InterruptedException {
+		if (! sourceDir.isDirectory()) {
+			throw new IOException("HescArchiveEncoder: not a directory: " + sourceDir);
+		}
+		if (! targetDir.isDirectory() && ! targetDir.mkdirs()) {
+			throw new IOException("HescArchiveEncoder: cannot create directory: " + targetDir);
+		}
+		readManifest();
+
+		long start = System.nanoTime();
+		new ParallelFileWalker<Worker>(threadCount, failures) {
+			@Override
+			protected Worker createWorker() {
+				return new Worker();
+			}
+
+			@Override
+			protected String getName(File file) {
+				String id = getId(file);
+				if (id != null && sourceIds.put(id, file.getPath()) != null) {
+					failures.add(id + ": duplicate source file " + file);
+					return null;
+				}
+				return id;
+			}
+
+			@Override
+			protected void process(Worker worker, String id, File file) throws IOException {
+				worker.encode(id, file);
+			}
+		}.walk(sourceDir);
+		double seconds = (System.nanoTime() - start) / 1E9;
+
+		// entries without a source file are dropped from the manifest
+		manifest.keySet().retainAll(sourceIds.keySet());
+		writeManifest();
+
+		int entries = sourceIds.size();
+		System.out.printf("entries: %d, encoded: %d, skipped: %d, failed: %d%n", entries, encoded.get(), skipped.get(), failures.size());
+		System.out.printf("time: %.1f s, %.1f entries/s, %.1f MB/s source, %.1f MB .hesc written%n",
+				seconds, entries / seconds, sourceBytes.get() / seconds / 1E6, hescBytes.get() / 1E6);
+		for (String failure: failures) {
+			System.err.println("failed: " + failure);
+		}
+		return failures.size();
+	}
+
+	/**
+	 * Writes the .hesc files of all entries in the manifest to a pack archive.
+	 * @param packFile
+	 * @throws IOException
+	 */
+	public void writePack(File packFile) throws IOException {
+		String[] ids = manifest.keySet().toArray(new String[0]);
+		Arrays.sort(ids);
+
+		File temp = createTempFile(packFile);
+		byte[] buffer = new byte[65536];
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			for (String id: ids) {
+				InputStream in = new FileInputStream(getTargetFile(id));
+				try {
+					for (int n; (n = in.read(buffer)) > 0; ) {
+						out.write(buffer, 0, n);
+					}
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			out.close();
+		}
+		moveAtomically(temp, packFile);
+		System.out.printf("pack: %d entries, %.1f MB%n", ids.length, packFile.length() / 1E6);
+	}
+
+	/**
+	 * Returns the entry id of a PDB or mmCIF file, e.g., 1abc for 1abc.cif.gz and pdb1abc.ent.gz,
+	 * or null if the file is not a source file.
+	 */
+	static String getId(File file) {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		for (String extension: SOURCE_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				name = name.substring(0, name.length() - extension.length());
+				if (extension.equals(".ent") && name.startsWith("pdb")) {
+					name = name.substring(3);
+				}
+				return name.isEmpty() ? null : name;
+			}
+		}
+		return null;
+	}
+
+	private File getTargetFile(String id) {
+		return new File(targetDir, id + CODEC_FILE_EXTENSION);
+	}
+
+	private void readManifest() throws IOException {
+		manifest.clear();
+		File file = new File(targetDir, MANIFEST_FILE_NAME);
+		if (! file.exists()) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			for (String line; (line = reader.readLine()) != null; ) {
+				int tab = line.indexOf('\t');
+				if (tab > 0) {
+					manifest.put(line.substring(0, tab), line.substring(tab + 1));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void writeManifest() throws IOException {
+		File file = new File(targetDir, MANIFEST_FILE_NAME);
+		File temp = createTempFile(file);
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try {
+			for (Map.Entry<String, String> entry: new TreeMap<String, String>(manifest).entrySet()) {
+				writer.print(entry.getKey());
+				writer.print('\t');
+				writer.print(entry.getValue());
+				writer.print('\n');
+			}
+		} finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			temp.delete();
+			throw new IOException("HescArchiveEncoder: cannot write manifest: " + file);
+		}
+		moveAtomically(temp, file);
+	}
+
+	private static File createTempFile(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		return File.createTempFile(file.getName() + ".", ".tmp", dir);
+	}
+
+	private static void moveAtomically(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Worker holds the parsers, the deflator, and the buffers of one encoder thread.
+	 */
+	private class Worker {
+		private FileParsingParameters params = new FileParsingParameters();
+		private byte[] data = new byte[1 << 20];
+		private CRC32 crc = new CRC32();
+		private ByteArrayOutputStream hesc = new ByteArrayOutputStream(1 << 20);
+		private StructureDeflator deflator;
+		private BioJavaStructureDeflator adapter;
+
+		Worker() {
+			params.setAlignSeqRes(false);
+			createDeflator();
+		}
+
+		private void createDeflator() {
+			deflator = new StructureDeflator(hesc);
+			deflator.setCompressionMethod(compressionMethod);
+			deflator.setPrecision(xyzScale, boScale);
+			adapter = new BioJavaStructureDeflator(deflator);
+		}
+
+		void encode(String id, File file) throws IOException {
+			int length = readFile(file);
+			sourceBytes.addAndGet(length);
+			crc.reset();
+			crc.update(data, 0, length);
+			String entry = Long.toHexString(crc.getValue()) + "\t" + codecVersion;
+
+			File target = getTargetFile(id);
+			if (entry.equals(manifest.get(id)) && target.exists()) {
+				skipped.incrementAndGet();
+				return;
+			}
+
+			Structure structure = parse(file.getName().toLowerCase(), length);
+
+			hesc.reset();
+			try {
+				adapter.deflate(structure);
+				deflator.writeStructure();
+			} catch (RuntimeException e) {
+				// discard the partially collected structure
+				createDeflator();
+				throw e;
+			}
+
+			File temp = createTempFile(target);
+			OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 65536);
+			try {
+				hesc.writeTo(out);
+			} catch (IOException e) {
+				out.close();
+				temp.delete();
+				throw e;
+			}
+			out.close();
+			moveAtomically(temp, target);
+
+			manifest.put(id, entry);
+			hescBytes.addAndGet(target.length());
+			encoded.incrementAndGet();
+		}
+
+		private Structure parse(String name, int length) throws IOException {
+			InputStream in = new ByteArrayInputStream(data, 0, length);
+			if (name.endsWith(".gz")) {
+				in = new GZIPInputStream(in, 65536);
+				name = name.substring(0, name.length() - 3);
+			}
+			if (name.endsWith(".cif")) {
+				SimpleMMcifParser parser = new SimpleMMcifParser();
+				SimpleMMcifConsumer consumer = new SimpleMMcifConsumer();
+				consumer.setFileParsingParameters(params);
+				parser.addMMcifConsumer(consumer);
+				parser.parse(new BufferedReader(new InputStreamReader(in)));
+				return consumer.getStructure();
+			}
+			PDBFileParser parser = new PDBFileParser();
+			parser.setFileParsingParameters(params);
+			return parser.parsePDBFile(in);
+		}
+
+		private int readFile(File file) throws IOException {
+			long length = file.length();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("HescArchiveEncoder: file too large: " + file);
+			}
+			if (length > data.length) {
+				data = new byte[(int)length];
+			}
+			DataInputStream dis = new DataInputStream(new FileInputStream(file));
+			try {
+				dis.readFully(data, 0, (int)length);
+			} finally {
+				dis.close();
+			}
+			return (int)length;
+		}
+	}
+}
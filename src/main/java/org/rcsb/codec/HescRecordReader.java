@@ -0,0 +1,218 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.END;
+import static org.rcsb.codec.CodecConstants.MAGIC_NUMBER;
+import static org.rcsb.codec.CodecConstants.MAJOR_VERSIONS;
+import static org.rcsb.codec.CodecConstants.MINOR_VERSIONS;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HescRecordReader reads the record framing of an uncompressed HESC byte stream without decoding the records.
+ * It is used by tools that only need a few record types (e.g., indexing, statistics), and can skip
+ * the remaining records using the record length.
+ *
+ * A stream may contain several structures, each starting with its own header (e.g., a pack of structures
+ * written to a single gzip stream). Typical use:
+ * <pre>
+ *    HescRecordReader reader = HescRecordReader.open(file);
+ *    while (reader.readHeader()) {
+ *       byte recordId;
+ *       while ((recordId = reader.nextRecord()) != END) {
+ *          if (recordId == GINFO) {
+ *              DataInputStream in = reader.getDataInputStream();
+ *              ... read reader.getRecordLength() bytes
+ *          } else {
+ *              reader.skipRecord();
+ *          }
+ *       }
+ *    }
+ *    reader.close();
+ * </pre>
+ *
+ * @author Peter Rose
+ *
+ */
+public class HescRecordReader {
+	private DataInputStream inStream;
+
+	private byte majorVersion;
+	private byte minorVersion;
+	private int compressionMethod;
+
+	private byte recordId = END;
+	private int recordLength = 0;
+
+	/**
+	 * @param dataInputStream uncompressed HESC byte stream
+	 */
+	public HescRecordReader(DataInputStream dataInputStream) {
+		this.inStream = dataInputStream;
+	}
+
+	/**
+	 * Opens a gzip compressed .hesc file.
+	 * @param file
+	 * @return record reader
+	 * @throws IOException
+	 */
+	public static HescRecordReader open(File file) throws IOException {
+		InputStream in = new GZIPInputStream(new FileInputStream(file), 8192);
+		return new HescRecordReader(new DataInputStream(new BufferedInputStream(in)));
+	}
+
+	/**
+	 * Reads the header of the next structure.
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException if the header is invalid
+	 */
+	public boolean readHeader() throws IOException {
+		byte[] magic = new byte[MAGIC_NUMBER.length()];
+		int first = inStream.read();
+		if (first < 0) {
+			return false;
+		}
+		magic[0] = (byte)first;
+		inStream.readFully(magic, 1, magic.length - 1);
+		String magicNumber = new String(magic);
+		if (! magicNumber.equals(MAGIC_NUMBER)) {
+			throw new IOException("Invalid file format: magic number is: " + magicNumber +" Expected: " + MAGIC_NUMBER);
+		}
+
+		majorVersion = inStream.readByte();
+		minorVersion = inStream.readByte();
+
+		boolean validVersion = false;
+		for (int i = 0; i < MAJOR_VERSIONS.length; i++) {
+			if (majorVersion == MAJOR_VERSIONS[i] && minorVersion == MINOR_VERSIONS[i]) {
+				validVersion = true;
+				break;
+			}
+		}
+		if (! validVersion) {
+			throw new IOException("Invalid file format: version: " + majorVersion + "." + minorVersion);
+		}
+
+		compressionMethod = inStream.readByte();
+		recordId = END;
+		recordLength = 0;
+		return true;
+	}
+
+	/**
+	 * Reads the id and length of the next record. The data of the record must be read
+	 * or skipped before the next call to this method.
+	 * @return record id, END if the end of the structure has been reached
+	 * @throws IOException
+	 */
+	public byte nextRecord() throws IOException {
+		recordId = inStream.readByte();
+		if (recordId == END) {
+			recordLength = 0;
+		} else if (isShortRecord(recordId)) {
+			recordLength = inStream.readUnsignedByte();
+		} else {
+			recordLength = inStream.readInt();
+		}
+		return recordId;
+	}
+
+	/**
+	 * Skips the data of the current record.
+	 * @throws IOException
+	 */
+	public void skipRecord() throws IOException {
+		skipFully(recordLength);
+	}
+
+	/**
+	 * Skips the remaining records of the current structure, up to and including the END record. The data of the 
+	 * current record must have been read or skipped.
+	 * @throws IOException
+	 */
+	public void skipStructure() throws IOException {
+		while (nextRecord() != END) {
+			skipRecord();
+		}
+	}
+
+	/**
+	 * Skips n bytes of the current record.
+	 * @param n number of bytes
+	 * @throws IOException
+	 */
+	public void skipFully(int n) throws IOException {
+		while (n > 0) {
+			int skipped = inStream.skipBytes(n);
+			if (skipped <= 0) {
+				throw new EOFException("HescRecordReader: unexpected end of stream in record: " + (char)recordId);
+			}
+			n -= skipped;
+		}
+	}
+
+	/**
+	 * Returns true if the record length of the record is encoded as a single byte (lower case record ids).
+	 * @param recordId
+	 * @return true for records with a 1-byte record length
+	 */
+	public static boolean isShortRecord(byte recordId) {
+		return recordId >= 'a' && recordId <= 'z';
+	}
+
+	/**
+	 * @return the data input stream positioned at the data of the current record
+	 */
+	public DataInputStream getDataInputStream() {
+		return inStream;
+	}
+
+	/**
+	 * @return the id of the current record
+	 */
+	public byte getRecordId() {
+		return recordId;
+	}
+
+	/**
+	 * @return the length of the data of the current record in bytes
+	 */
+	public int getRecordLength() {
+		return recordLength;
+	}
+
+	/**
+	 * @return the majorVersion
+	 */
+	public byte getMajorVersion() {
+		return majorVersion;
+	}
+
+	/**
+	 * @return the minorVersion
+	 */
+	public byte getMinorVersion() {
+		return minorVersion;
+	}
+
+	/**
+	 * @return the compressionMethod
+	 */
+	public int getCompressionMethod() {
+		return compressionMethod;
+	}
+
+	public void close() throws IOException {
+		inStream.close();
+	}
+}
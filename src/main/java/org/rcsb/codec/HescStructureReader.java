@@ -0,0 +1,199 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.END;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HescStructureReader iterates over the structures of a stream that contains several concatenated HESC 
+ * structures, each starting with its own header (e.g., a weekly update written to a single gzip stream). 
+ * The reader only parses the record framing (see HescRecordReader) and returns the records of each structure 
+ * as an EncodedStructure, which can be decoded independently. 
+ * <p>
+ * The reader is thread-safe. nextBatch returns the next structures as a batch, so that worker threads can take
+ * batches of structures and decode them in parallel while the input is read by one thread at a time.
+ * On Java 8 or later, a parallel stream is created with a spliterator that splits off batches:
+ * <pre>
+ *    final HescStructureReader reader = HescStructureReader.open(file);
+ *    Spliterator&lt;EncodedStructure&gt; spliterator = new Spliterators.AbstractSpliterator&lt;EncodedStructure&gt;(Long.MAX_VALUE,
+ *          Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+ *       public boolean tryAdvance(Consumer&lt;? super EncodedStructure&gt; action) {
+ *          List&lt;EncodedStructure&gt; batch = nextBatch(1);
+ *          batch.forEach(action);
+ *          return ! batch.isEmpty();
+ *       }
+ *       public Spliterator&lt;EncodedStructure&gt; trySplit() {
+ *          List&lt;EncodedStructure&gt; batch = nextBatch(16);
+ *          return batch.isEmpty() ? null : batch.spliterator();
+ *       }
+ *       private List&lt;EncodedStructure&gt; nextBatch(int size) {
+ *          try {
+ *             return reader.nextBatch(size);
+ *          } catch (IOException e) {
+ *             throw new UncheckedIOException(e);
+ *          }
+ *       }
+ *    };
+ *    StreamSupport.stream(spliterator, true).forEach(structure -&gt; process(structure)); // process calls structure.inflate(inflator)
+ * </pre>
+ * Memory use does not depend on the length of the stream: structures that have been processed are not retained, 
+ * and at most one batch per worker thread is held in memory.
+ *
+ * @author Peter Rose
+ *
+ */
+public class HescStructureReader implements Iterator<EncodedStructure>, Closeable {
+	private HescRecordReader reader;
+	private EncodedStructure next = null;
+	private boolean endOfStream = false;
+	private long index = 0;
+
+	// buffer for the records of the current structure
+	private byte[] buffer = new byte[65536];
+	private int size = 0;
+
+	/**
+	 * @param dataInputStream uncompressed HESC byte stream
+	 */
+	public HescStructureReader(DataInputStream dataInputStream) {
+		this.reader = new HescRecordReader(dataInputStream);
+	}
+
+	/**
+	 * Opens a gzip compressed stream of HESC structures.
+	 * @param inputStream
+	 * @return structure reader
+	 * @throws IOException
+	 */
+	public static HescStructureReader open(InputStream inputStream) throws IOException {
+		InputStream in = new GZIPInputStream(inputStream, 8192);
+		return new HescStructureReader(new DataInputStream(new BufferedInputStream(in)));
+	}
+
+	/**
+	 * Opens a gzip compressed file of HESC structures.
+	 * @param file
+	 * @return structure reader
+	 * @throws IOException
+	 */
+	public static HescStructureReader open(File file) throws IOException {
+		return open(new FileInputStream(file));
+	}
+
+	/**
+	 * @return true if the stream contains another structure
+	 * @throws IllegalStateException if the stream cannot be read, with the IOException as the cause
+	 */
+	public synchronized boolean hasNext() {
+		if (next == null && ! endOfStream) {
+			try {
+				next = readStructure();
+			} catch (IOException e) {
+				throw new IllegalStateException("HescStructureReader: cannot read stream", e);
+			}
+		}
+		return next != null;
+	}
+
+	/**
+	 * @return the next structure
+	 * @throws NoSuchElementException if the end of the stream has been reached
+	 * @throws IllegalStateException if the stream cannot be read, with the IOException as the cause
+	 */
+	public synchronized EncodedStructure next() {
+		if (! hasNext()) {
+			throw new NoSuchElementException();
+		}
+		EncodedStructure structure = next;
+		next = null;
+		return structure;
+	}
+
+	/**
+	 * Returns the next structures of the stream, up to a maximum number.
+	 * @param maxSize maximum number of structures
+	 * @return the next structures, or an empty list at the end of the stream
+	 * @throws IOException if the stream cannot be read
+	 */
+	public synchronized List<EncodedStructure> nextBatch(int maxSize) throws IOException {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("HescStructureReader: invalid batch size: " + maxSize);
+		}
+		List<EncodedStructure> batch = new ArrayList<EncodedStructure>(Math.min(maxSize, 64));
+		if (next != null) {
+			batch.add(next);
+			next = null;
+		}
+		while (batch.size() < maxSize && ! endOfStream) {
+			EncodedStructure structure = readStructure();
+			if (structure != null) {
+				batch.add(structure);
+			}
+		}
+		return batch;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() throws IOException {
+		endOfStream = true;
+		reader.getDataInputStream().close();
+	}
+
+	/**
+	 * Reads the records of the next structure.
+	 * @return the structure, or null at the end of the stream
+	 * @throws IOException
+	 */
+	private EncodedStructure readStructure() throws IOException {
+		if (! reader.readHeader()) {
+			endOfStream = true;
+			return null;
+		}
+		size = 0;
+		byte recordId;
+		while ((recordId = reader.nextRecord()) != END) {
+			int length = reader.getRecordLength();
+			ensureCapacity(size + 5 + length);
+			buffer[size++] = recordId;
+			if (HescRecordReader.isShortRecord(recordId)) {
+				buffer[size++] = (byte)length;
+			} else {
+				buffer[size++] = (byte)(length >>> 24);
+				buffer[size++] = (byte)(length >>> 16);
+				buffer[size++] = (byte)(length >>> 8);
+				buffer[size++] = (byte)length;
+			}
+			reader.getDataInputStream().readFully(buffer, size, length);
+			size += length;
+		}
+		ensureCapacity(size + 1);
+		buffer[size++] = END;
+
+		return new EncodedStructure(index++, reader.getMajorVersion(), reader.getMinorVersion(),
+				reader.getCompressionMethod(), Arrays.copyOf(buffer, size));
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(capacity, 2*buffer.length));
+		}
+	}
+}
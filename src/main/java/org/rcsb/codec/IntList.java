@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive integers, to avoid boxing in the decoder.
+ *
+ * @author Peter Rose
+ *
+ */
+final class IntList {
+	private int[] values;
+	private int size = 0;
+
+	IntList() {
+		this(16);
+	}
+
+	IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, 2*size);
+		}
+		values[size++] = value;
+	}
+
+	int get(int index) {
+		return values[index];
+	}
+
+	void set(int index, int value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Returns the array that holds the values, which is valid up to size() until the next add.
+	 */
+	int[] array() {
+		return values;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,25 @@
+package org.rcsb.codec;
+
+/**
+ * Optional extension of the StructureInflatorInterface for the progressive layout (compression method 5). 
+ * If the inflator passed to the StructureInflator also implements this interface, each layer is reported as 
+ * soon as it has been decoded, as a structure of its own (setModelCount, setModelInfo, setChainInfo, setGroupInfo,
+ * setAtomInfo) that contains only the atoms of the layer. Chains and groups without atoms in the layer are omitted.
+ * The atoms keep the serial numbers of the complete structure, so that the atoms of later layers can be merged 
+ * into the groups of earlier layers. Bonds are reported with the layer of the atom that is decoded last.
+ * <p>
+ * Inflators that do not implement this interface receive the complete structure after the last layer.
+ * 
+ * @author Peter Rose
+ *
+ */
+public interface LayerInflatorInterface {
+	/**
+	 * Called before a layer is decoded.
+	 * @param layer BACKBONE_LAYER, SIDE_CHAIN_LAYER, or SOLVENT_LAYER
+	 * @param atomCount number of atoms in this layer (all models)
+	 * @return true to decode the layer, false to stop decoding. After decoding has been stopped, the remaining 
+	 * records of the structure are skipped without decoding them.
+	 */
+	boolean setLayerInfo(int layer, int atomCount);
+}
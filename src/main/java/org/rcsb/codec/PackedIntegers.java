@@ -0,0 +1,230 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * PackedIntegers encodes a list of integers as blocks of bit-packed zigzag values (compression method 4).
+ *
+ * Format:
+ * <pre>
+ * value count           : varint
+ * blocks of up to BLOCK_SIZE values:
+ *    bit width w        : 1 byte (0 - 32)
+ *    base               : varint (minimum zigzag value of the block)
+ *    packed values      : ceil(n*w/8) bytes, (zigzag(value) - base) using w bits per value, least significant bit first
+ * </pre>
+ * Zigzag encoding maps signed integers to unsigned integers (0, -1, 1, -2, 2 .. to 0, 1, 2, 3, 4 ..), so that
+ * small deltas of either sign use few bits. Subtracting the block minimum (frame of reference) reduces the bit width
+ * of blocks whose values are clustered away from zero. Varints use 7 bits per byte, with the high bit set
+ * on all but the last byte. Unpacking a block is a branch-free loop.
+ *
+ * @author Peter Rose
+ *
+ */
+final class PackedIntegers {
+	/**
+	 * Number of values per block.
+	 */
+	static final int BLOCK_SIZE = 128;
+
+	/**
+	 * Number of bytes that must be readable beyond the end of the packed data (see read).
+	 */
+	static final int PADDING = 8;
+
+	private PackedIntegers() {
+	}
+
+	/**
+	 * Writes count values as a packed integer stream.
+	 * @param values
+	 * @param count
+	 * @param out
+	 */
+	static void write(int[] values, int count, ByteArrayOutputStream out) {
+		writeVarint(count, out);
+		for (int start = 0; start < count; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, count - start);
+
+			long min = 0xFFFFFFFFL;
+			long max = 0;
+			for (int i = start; i < start + n; i++) {
+				long u = zigzagEncode(values[i]) & 0xFFFFFFFFL;
+				min = Math.min(min, u);
+				max = Math.max(max, u);
+			}
+			int width = 64 - Long.numberOfLeadingZeros(max - min);
+			out.write(width);
+			writeVarint((int)min, out);
+
+			long bits = 0;
+			int bitCount = 0;
+			for (int i = start; i < start + n; i++) {
+				long u = (zigzagEncode(values[i]) & 0xFFFFFFFFL) - min;
+				bits |= u << bitCount;
+				bitCount += width;
+				while (bitCount >= 8) {
+					out.write((int)bits);
+					bits >>>= 8;
+					bitCount -= 8;
+				}
+			}
+			if (bitCount > 0) {
+				out.write((int)bits);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of values of a packed integer stream.
+	 * @param data
+	 * @param offset start of the packed integer stream
+	 * @param end end of the packed integer stream (exclusive)
+	 * @return value count
+	 * @throws IOException if the stream is corrupt
+	 */
+	static int readCount(byte[] data, int offset, int end) throws IOException {
+		int count = readVarint(data, new int[]{offset}, end);
+		if (count < 0) {
+			throw new IOException("PackedIntegers: invalid value count: " + (count & 0xFFFFFFFFL));
+		}
+		return count;
+	}
+
+	/**
+	 * Reads a packed integer stream. The data array must contain PADDING bytes after the end of the stream.
+	 * @param data
+	 * @param offset start of the packed integer stream
+	 * @param end end of the packed integer stream (exclusive)
+	 * @param values array that receives the values, at least readCount(data, offset, end) long
+	 * @return value count
+	 * @throws IOException if the stream is corrupt, does not end at the end offset, or has more values than the array
+	 */
+	static int read(byte[] data, int offset, int end, int[] values) throws IOException {
+		int[] position = {offset};
+		int count = readCount(data, offset, end);
+		readVarint(data, position, end);
+		if (count > values.length) {
+			throw new IOException("PackedIntegers: value count: " + count + " exceeds capacity: " + values.length);
+		}
+
+		for (int start = 0; start < count; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, count - start);
+			int width = readWidth(data, position, end);
+			long base = readVarint(data, position, end) & 0xFFFFFFFFL;
+			long mask = (1L << width) - 1;
+			int blockOffset = position[0];
+			position[0] = checkBlock(blockOffset, n, width, end);
+
+			for (int i = 0; i < n; i++) {
+				int bit = i * width;
+				long word = readLong(data, blockOffset + (bit >>> 3));
+				long u = ((word >>> (bit & 7)) & mask) + base;
+				values[start + i] = zigzagDecode((int)u);
+			}
+		}
+		if (position[0] != end) {
+			throw new IOException("PackedIntegers: " + (end - position[0]) + " bytes after the end of the stream");
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of bits used by the packed values of a stream (the sum of the bit width times
+	 * the number of values of each block), without unpacking the values.
+	 * @param data
+	 * @param offset start of the packed integer stream
+	 * @param end end of the packed integer stream (exclusive)
+	 * @return number of bits
+	 * @throws IOException if the stream is corrupt
+	 */
+	static long readBitCount(byte[] data, int offset, int end) throws IOException {
+		int[] position = {offset};
+		int count = readCount(data, offset, end);
+		readVarint(data, position, end);
+		long bits = 0;
+
+		for (int start = 0; start < count; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, count - start);
+			int width = readWidth(data, position, end);
+			readVarint(data, position, end);
+			bits += (long)n * width;
+			position[0] = checkBlock(position[0], n, width, end);
+		}
+		return bits;
+	}
+
+	private static int readWidth(byte[] data, int[] position, int end) throws IOException {
+		if (position[0] >= end) {
+			throw new IOException("PackedIntegers: unexpected end of stream");
+		}
+		int width = data[position[0]++];
+		if (width < 0 || width > 32) {
+			throw new IOException("PackedIntegers: invalid bit width: " + width);
+		}
+		return width;
+	}
+
+	/**
+	 * Returns the end of the packed values of a block, and checks that it does not exceed the end of the stream.
+	 */
+	private static int checkBlock(int blockOffset, int n, int width, int end) throws IOException {
+		int blockEnd = blockOffset + (n * width + 7)/8;
+		if (blockEnd > end) {
+			throw new IOException("PackedIntegers: block exceeds the end of the stream by " + (blockEnd - end) + " bytes");
+		}
+		return blockEnd;
+	}
+
+	static int zigzagEncode(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	static int zigzagDecode(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	static void writeVarint(int value, ByteArrayOutputStream out) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(byte[] data, int[] position, int end) throws IOException {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (position[0] >= end) {
+				throw new IOException("PackedIntegers: unexpected end of stream");
+			}
+			if (shift > 28) {
+				throw new IOException("PackedIntegers: varint exceeds 32 bits");
+			}
+			b = data[position[0]++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Reads 8 bytes in little-endian order.
+	 */
+	private static long readLong(byte[] data, int offset) {
+		return (data[offset] & 0xFFL) |
+				((data[offset+1] & 0xFFL) << 8) |
+				((data[offset+2] & 0xFFL) << 16) |
+				((data[offset+3] & 0xFFL) << 24) |
+				((data[offset+4] & 0xFFL) << 32) |
+				((data[offset+5] & 0xFFL) << 40) |
+				((data[offset+6] & 0xFFL) << 48) |
+				((data[offset+7] & 0xFFL) << 56);
+	}
+}
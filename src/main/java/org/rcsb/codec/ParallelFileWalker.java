@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParallelFileWalker processes the files of a directory tree in parallel. Files are visited in the order of
+ * their names, and each accepted file is processed by a thread pool. The work queue is bounded, so that the
+ * directory walk does not run ahead of the threads, and each thread creates one worker (e.g., with its parser
+ * and buffers) that it reuses for all of its files. Files that fail are added to a failure queue with
+ * the cause of the failure.
+ * <p>
+ * Usage:
+ * <pre>
+ *    new ParallelFileWalker&lt;Worker&gt;(threadCount, failures) {
+ *       protected Worker createWorker() { return new Worker(); }
+ *       protected String getName(File file) { return file.getName().endsWith(".hesc") ? file.getPath() : null; }
+ *       protected void process(Worker worker, String name, File file) throws Exception { worker.process(file); }
+ *    }.walk(directory);
+ * </pre>
+ *
+ * @param <W> worker type
+ *
+ * @author Peter Rose
+ *
+ */
+abstract class ParallelFileWalker<W> {
+	private static final int QUEUE_SIZE_PER_THREAD = 4;
+
+	private final int threadCount;
+	private final Queue<String> failures;
+
+	private final ThreadLocal<W> workers = new ThreadLocal<W>() {
+		@Override
+		protected W initialValue() {
+			return createWorker();
+		}
+	};
+
+	/**
+	 * @param threadCount number of threads
+	 * @param failures thread-safe queue that receives the failures, e.g., "name: exception"
+	 */
+	ParallelFileWalker(int threadCount, Queue<String> failures) {
+		this.threadCount = threadCount;
+		this.failures = failures;
+	}
+
+	/**
+	 * Creates the worker of the calling thread.
+	 */
+	protected abstract W createWorker();
+
+	/**
+	 * Returns the name of a file that is processed, which is used in failure messages, or null if the file is skipped.
+	 * This method is called in the order of the walk from the walking thread.
+	 */
+	protected abstract String getName(File file);
+
+	/**
+	 * Processes a file with the worker of the calling thread.
+	 * @param worker
+	 * @param name name returned by getName
+	 * @param file
+	 * @throws Exception if the file cannot be processed
+	 */
+	protected abstract void process(W worker, String name, File file) throws Exception;
+
+	/**
+	 * Processes the files of a directory tree, and returns when all files are done.
+	 * @param dir
+	 * @throws InterruptedException
+	 */
+	void walk(File dir) throws InterruptedException {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threadCount * QUEUE_SIZE_PER_THREAD),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			submit(dir, executor);
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Processes a single file in the calling thread, unless it is skipped.
+	 * @param file
+	 */
+	void processFile(File file) {
+		String name = getName(file);
+		if (name != null) {
+			processFile(name, file);
+		}
+	}
+
+	private void submit(File dir, ThreadPoolExecutor executor) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			failures.add(dir + ": cannot list directory");
+			return;
+		}
+		Arrays.sort(files);
+		for (final File file: files) {
+			if (file.isDirectory()) {
+				submit(file, executor);
+				continue;
+			}
+			final String name = getName(file);
+			if (name == null) {
+				continue;
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					processFile(name, file);
+				}
+			});
+		}
+	}
+
+	private void processFile(String name, File file) {
+		try {
+			process(workers.get(), name, file);
+		} catch (Exception e) {
+			failures.add(name + ": " + e);
+		}
+	}
+}
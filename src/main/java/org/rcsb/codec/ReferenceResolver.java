@@ -0,0 +1,22 @@
+package org.rcsb.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ReferenceResolver locates the reference entry of a structure that is encoded as a difference to another
+ * entry (compression method 6, see CodecConstants.REFERENCE_COMPRESSION). Implementations may read references
+ * from a local directory (DirectoryReferenceResolver), a web service, or a cache.
+ * 
+ * @author Peter Rose
+ *
+ */
+public interface ReferenceResolver {
+	/**
+	 * Opens the HESC file of a reference entry.
+	 * @param referenceId id of the reference entry, as stored in the REFERENCE record
+	 * @return gzip compressed HESC byte stream, which is closed by the decoder
+	 * @throws IOException if the reference entry cannot be found or read
+	 */
+	InputStream open(String referenceId) throws IOException;
+}
@@ -0,0 +1,293 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.END;
+import static org.rcsb.codec.CodecConstants.PRECISION;
+import static org.rcsb.codec.CodecConstants.REFERENCE;
+import static org.rcsb.codec.CodecConstants.STRUCTURE;
+import static org.rcsb.codec.CodecConstants.SUMMARY;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SpatialSummary holds the SUMMARY record of a structure: the atom count, bounding box, and centroid of each model
+ * and of each chain of a model. The record precedes the topology and coordinate records, so that spatial queries
+ * (e.g., which chains have atoms within a box) can be answered without decoding the structure.
+ * <p>
+ * The SUMMARY record contains the model count (int), followed by the chain count (int) and the summary of each model,
+ * and the chain id (4 bytes) and the summary of each chain of the model. A summary consists of VALUE_COUNT integers:
+ * atom count, minimum x, y, z, maximum x, y, z, and centroid x, y, z, in units of the coordinate scale.
+ * The values of a model or chain without atoms are 0.
+ * <p>
+ * Usage:
+ * <pre>
+ *    HescRecordReader reader = HescRecordReader.open(file);
+ *    while (reader.readHeader()) {
+ *       SpatialSummary summary = SpatialSummary.read(reader); // null if the structure has no SUMMARY record
+ *       if (summary != null &amp;&amp; summary.intersects(0, box)) {
+ *          ...
+ *       }
+ *       reader.skipStructure();
+ *    }
+ *    reader.close();
+ * </pre>
+ *
+ * @author Peter Rose
+ *
+ */
+public final class SpatialSummary {
+	/**
+	 * Number of integer values of the summary of a model or chain.
+	 */
+	public static final int VALUE_COUNT = 10;
+
+	private final int xyzScale;
+	// index of the entry of each model, the entries of its chains follow
+	private final int[] modelEntries;
+	// chain id of each entry (null for models), and VALUE_COUNT values per entry
+	private final String[] chainIds;
+	private final int[] values;
+
+	private SpatialSummary(int xyzScale, int[] modelEntries, String[] chainIds, int[] values) {
+		this.xyzScale = xyzScale;
+		this.modelEntries = modelEntries;
+		this.chainIds = chainIds;
+		this.values = values;
+	}
+
+	/**
+	 * Reads the SUMMARY record of the first structure of a .hesc file.
+	 * @param file
+	 * @return summary, or null if the structure has no SUMMARY record
+	 * @throws IOException
+	 */
+	public static SpatialSummary read(File file) throws IOException {
+		HescRecordReader reader = HescRecordReader.open(file);
+		try {
+			if (! reader.readHeader()) {
+				throw new IOException("SpatialSummary: no structure in file: " + file);
+			}
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the records of the current structure up to the SUMMARY record. The SUMMARY record must precede
+	 * all records other than the PRECISION, REFERENCE, and STRUCTURE records, therefore reading stops at the
+	 * first other record. Its data are skipped, and the remaining records can be skipped with
+	 * HescRecordReader.skipStructure().
+	 * @param reader record reader, positioned after the header or after a record
+	 * @return summary, or null if the structure has no SUMMARY record
+	 * @throws IOException
+	 */
+	public static SpatialSummary read(HescRecordReader reader) throws IOException {
+		int xyzScale = XYZ_SCALE;
+		byte recordId;
+		while ((recordId = reader.nextRecord()) != END) {
+			DataInputStream in = reader.getDataInputStream();
+			if (recordId == PRECISION) {
+				xyzScale = in.readInt();
+				reader.skipFully(reader.getRecordLength() - 4);
+				if (xyzScale <= 0) {
+					throw new IOException("SpatialSummary: Invalid coordinate scale: " + xyzScale);
+				}
+			} else if (recordId == SUMMARY) {
+				return readSummaryRecord(in, xyzScale);
+			} else {
+				reader.skipRecord();
+				if (recordId != STRUCTURE && recordId != REFERENCE) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static SpatialSummary readSummaryRecord(DataInputStream in, int xyzScale) throws IOException {
+		int modelCount = in.readInt();
+		if (modelCount < 0) {
+			throw new IOException("SpatialSummary: Invalid model count: " + modelCount);
+		}
+		int[] modelEntries = new int[modelCount + 1];
+		List<String> chainIds = new ArrayList<String>();
+		IntList values = new IntList();
+		byte[] chainId = new byte[4];
+		for (int m = 0; m < modelCount; m++) {
+			modelEntries[m] = chainIds.size();
+			int chainCount = in.readInt();
+			if (chainCount < 0) {
+				throw new IOException("SpatialSummary: Invalid chain count: " + chainCount);
+			}
+			chainIds.add(null);
+			readValues(in, values);
+			for (int c = 0; c < chainCount; c++) {
+				in.readFully(chainId);
+				chainIds.add(new String(chainId).trim());
+				readValues(in, values);
+			}
+		}
+		modelEntries[modelCount] = chainIds.size();
+
+		return new SpatialSummary(xyzScale, modelEntries, chainIds.toArray(new String[chainIds.size()]),
+				Arrays.copyOf(values.array(), values.size()));
+	}
+
+	private static void readValues(DataInputStream in, IntList values) throws IOException {
+		for (int i = 0; i < VALUE_COUNT; i++) {
+			values.add(in.readInt());
+		}
+	}
+
+	/**
+	 * @return the number of models
+	 */
+	public int getModelCount() {
+		return modelEntries.length - 1;
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @return the number of chains of the model
+	 */
+	public int getChainCount(int model) {
+		return modelEntries[model + 1] - modelEntries[model] - 1;
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @param chain zero-based chain index within the model
+	 * @return the chain id, without padding
+	 */
+	public String getChainId(int model, int chain) {
+		return chainIds[getChainEntry(model, chain)];
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @return the number of atoms of the model
+	 */
+	public int getAtomCount(int model) {
+		return values[modelEntries[model] * VALUE_COUNT];
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @param chain zero-based chain index within the model
+	 * @return the number of atoms of the chain
+	 */
+	public int getAtomCount(int model, int chain) {
+		return values[getChainEntry(model, chain) * VALUE_COUNT];
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @return the bounding box of the model: minimum x, y, z, and maximum x, y, z in Angstroms
+	 */
+	public float[] getBoundingBox(int model) {
+		return getEntryBoundingBox(modelEntries[model]);
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @param chain zero-based chain index within the model
+	 * @return the bounding box of the chain: minimum x, y, z, and maximum x, y, z in Angstroms
+	 */
+	public float[] getBoundingBox(int model, int chain) {
+		return getEntryBoundingBox(getChainEntry(model, chain));
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @return the centroid x, y, z of the model in Angstroms
+	 */
+	public float[] getCentroid(int model) {
+		return getEntryCentroid(modelEntries[model]);
+	}
+
+	/**
+	 * @param model zero-based model index
+	 * @param chain zero-based chain index within the model
+	 * @return the centroid x, y, z of the chain in Angstroms
+	 */
+	public float[] getCentroid(int model, int chain) {
+		return getEntryCentroid(getChainEntry(model, chain));
+	}
+
+	/**
+	 * Returns true if the bounding box of a model intersects a box.
+	 * @param model zero-based model index
+	 * @param box minimum x, y, z, and maximum x, y, z in Angstroms
+	 * @return true if the model has atoms and its bounding box intersects the box
+	 */
+	public boolean intersects(int model, float[] box) {
+		return intersectsEntry(modelEntries[model], box);
+	}
+
+	/**
+	 * Returns true if the bounding box of a chain intersects a box.
+	 * @param model zero-based model index
+	 * @param chain zero-based chain index within the model
+	 * @param box minimum x, y, z, and maximum x, y, z in Angstroms
+	 * @return true if the chain has atoms and its bounding box intersects the box
+	 */
+	public boolean intersects(int model, int chain, float[] box) {
+		return intersectsEntry(getChainEntry(model, chain), box);
+	}
+
+	private boolean intersectsEntry(int entry, float[] box) {
+		int offset = entry * VALUE_COUNT;
+		if (values[offset] == 0) {
+			return false;
+		}
+		for (int d = 0; d < 3; d++) {
+			if (toAngstroms(values[offset + 1 + d]) > box[3 + d] || toAngstroms(values[offset + 4 + d]) < box[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private float[] getEntryBoundingBox(int entry) {
+		float[] box = new float[6];
+		int offset = entry * VALUE_COUNT + 1;
+		for (int i = 0; i < box.length; i++) {
+			box[i] = toAngstroms(values[offset + i]);
+		}
+		return box;
+	}
+
+	private float[] getEntryCentroid(int entry) {
+		float[] centroid = new float[3];
+		int offset = entry * VALUE_COUNT + 7;
+		for (int i = 0; i < centroid.length; i++) {
+			centroid[i] = toAngstroms(values[offset + i]);
+		}
+		return centroid;
+	}
+
+	/**
+	 * Converts a value in units of the coordinate scale to the nearest float in Angstroms. The division is done
+	 * in double precision, since a float reciprocal of the scale (e.g., 0.001f) is not exact, and a product
+	 * with it may differ from the coordinate (e.g., 401 * 0.01f = 4.0099998f instead of 4.01f).
+	 */
+	private float toAngstroms(int value) {
+		return (float)(value / (double) xyzScale);
+	}
+
+	private int getChainEntry(int model, int chain) {
+		if (chain < 0 || chain >= getChainCount(model)) {
+			throw new IndexOutOfBoundsException("SpatialSummary: chain index: " + chain);
+		}
+		return modelEntries[model] + 1 + chain;
+	}
+}
@@ -22,12 +22,39 @@ public abstract class StructureDecoder {
 	 * @throws IOException
 	 */
 	public static StructureDecoder getDecoder(byte majorVersion, byte minorVersion, int compressionMethod, DataInputStream dataInputStream, StructureInflatorInterface inflator) throws IOException {
-        if (majorVersion == 0 && minorVersion == 0 && compressionMethod == 1) {
+        if (majorVersion == 0 && minorVersion == 0 && compressionMethod == CodecConstants.STANDARD_COMPRESSION) {
 			return new StructureDecoderImpl1(dataInputStream, inflator);
 		}
+        if (majorVersion == 0 && minorVersion == 0 && (compressionMethod == CodecConstants.LOSSY_COMPRESSION || 
+        		compressionMethod == CodecConstants.STREAMING_COMPRESSION || compressionMethod == CodecConstants.PACKED_COMPRESSION ||
+        		compressionMethod == CodecConstants.PROGRESSIVE_COMPRESSION || compressionMethod == CodecConstants.REFERENCE_COMPRESSION ||
+        		compressionMethod == CodecConstants.PREDICTIVE_COMPRESSION)) {
+        	return new StructureDecoderImpl1(dataInputStream, inflator, compressionMethod);
+        }
         throw new IOException("StructureDecoder: invalid version or compression level: major version: " + 
 		majorVersion + " minor version: " + minorVersion + " compression level: " + compressionMethod);
 	}
 	
+	/**
+	 * Returns a structure decoder for supported versions and compression levels, which resolves the
+	 * reference entries of structures encoded as differences to another entry (REFERENCE_COMPRESSION).
+	 * @param majorVersion
+	 * @param minorVersion
+	 * @param compressionMethod
+	 * @param dataInputStream
+	 * @param inflator
+	 * @param resolver resolver for reference entries, or null
+	 * @return structure decoder
+	 * @throws IOException
+	 */
+	public static StructureDecoder getDecoder(byte majorVersion, byte minorVersion, int compressionMethod, DataInputStream dataInputStream, 
+			StructureInflatorInterface inflator, ReferenceResolver resolver) throws IOException {
+		StructureDecoder decoder = getDecoder(majorVersion, minorVersion, compressionMethod, dataInputStream, inflator);
+		if (decoder instanceof StructureDecoderImpl1) {
+			((StructureDecoderImpl1) decoder).setReferenceResolver(resolver);
+		}
+		return decoder;
+	}
+	
 	public abstract void decode() throws IOException;
 }
@@ -3,8 +3,10 @@
  */
 package org.rcsb.codec;
 
-import static org.rcsb.codec.CodecConstants.AMINO_ACID;
+import static org.rcsb.codec.CodecConstants.ANGLE_SCALE;
+import static org.rcsb.codec.CodecConstants.ASSEMBLY;
 import static org.rcsb.codec.CodecConstants.BFACTOR;
+import static org.rcsb.codec.CodecConstants.BOND;
 import static org.rcsb.codec.CodecConstants.BYTE2_INTEGER_MARKER;
 import static org.rcsb.codec.CodecConstants.BYTE2_ENCODED_MARKER;
 import static org.rcsb.codec.CodecConstants.BYTE4_SHORT_MARKER;
@@ -14,32 +16,43 @@ import static org.rcsb.codec.CodecConstants.SHORT_COORDINATE_TYPE;
 import static org.rcsb.codec.CodecConstants.INTEGER_COORDINATE_TYPE;
 import static org.rcsb.codec.CodecConstants.ENCODED_COORDINATE_TYPE;
 import static org.rcsb.codec.CodecConstants.BO_SCALE;
-import static org.rcsb.codec.CodecConstants.BO_PRECISION;
 import static org.rcsb.codec.CodecConstants.CHAIN;
 import static org.rcsb.codec.CodecConstants.COORD;
+import static org.rcsb.codec.CodecConstants.COPY;
 import static org.rcsb.codec.CodecConstants.END;
+import static org.rcsb.codec.CodecConstants.GEOMETRY;
 import static org.rcsb.codec.CodecConstants.GINFO;
 import static org.rcsb.codec.CodecConstants.GROUP;
-import static org.rcsb.codec.CodecConstants.HEAD;
+import static org.rcsb.codec.CodecConstants.LAYER;
+import static org.rcsb.codec.CodecConstants.LAYER_COUNT;
+import static org.rcsb.codec.CodecConstants.LOSSY_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.MATCH;
+import static org.rcsb.codec.CodecConstants.MAX_REFERENCE_DEPTH;
 import static org.rcsb.codec.CodecConstants.MODEL;
-import static org.rcsb.codec.CodecConstants.NUCLEOTIDE;
-import static org.rcsb.codec.CodecConstants.NUCLEOTIDE_BOND_LENGTH;
-import static org.rcsb.codec.CodecConstants.NUCLEOTIDE_TAIL_ATOM_NAME;
 import static org.rcsb.codec.CodecConstants.OCCUPANCY;
-import static org.rcsb.codec.CodecConstants.PEPTIDE_BOND_LENGTH;
-import static org.rcsb.codec.CodecConstants.PEPTIDE_TAIL_ATOM_NAME;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PRECISION;
+import static org.rcsb.codec.CodecConstants.PREDICTIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PROGRESSIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.REFERENCE;
+import static org.rcsb.codec.CodecConstants.REFERENCE_COMPRESSION;
 import static org.rcsb.codec.CodecConstants.SEQUENCE;
+import static org.rcsb.codec.CodecConstants.STREAMING_COMPRESSION;
 import static org.rcsb.codec.CodecConstants.STRUCTURE;
-import static org.rcsb.codec.CodecConstants.TAIL;
-import static org.rcsb.codec.CodecConstants.XYZ_PRECISION;
+import static org.rcsb.codec.CodecConstants.SUMMARY;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
- * StructureDecoderImpl1 decodes the data section of a High-Efficiency Structure Codec (HESC) encoded byte array (compression method 1). 
+ * StructureDecoderImpl1 decodes the data section of a High-Efficiency Structure Codec (HESC) encoded byte array (compression methods 1 - 7). 
  * The StructureInflatorInterface must be implemented to use this class.
  * 
  * The data section of HESC is a set of records, terminated by the END record.
@@ -48,11 +61,22 @@ import java.util.List;
  *                    +----------+---------------+---+---+---+---+---+---+---+--
  *                    |record id | record length | data ...
  *                    +----------+---------------+---+---+---+---+---+---+---+--
+ *  PRECISION         |        p |          byte | coordinate scale (int), b factor and occupancy scale (int)
  *  STRUCTURE         |        s |          byte | model count (int), homogeneousModel (boolean)
+ *  SUMMARY           |        S |           int | model count (int), [chain count (int), model summary, [chain id (4 bytes), chain summary]..].. 
+ *                    |          |               | (see SpatialSummary)
  *  MODEL             |        m |          byte | chain count (int)
  *  CHAIN             |        c |          byte | sequenceIndex (int), chain id (4 bytes), groupCount (int)
  *  GROUP             |        g |          byte | groupIndex (int), [groupNumber (int)]
  *  GINFO             |        I |           int | atomCount (short), flag (1 byte), group information (len - 4*atomCount - 3 bytes), bond information (4*atomCount shorts)
+ *  BOND              |        B |           int | template bond count (int), [template index (int), atom index 1 (short), atom index 2 (short), bond order (byte)]..,
+ *                    |          |               | structure bond count (int), [atom index 1 (int), atom index 2 (int), bond order (byte)]..
+ *  ASSEMBLY          |        A |           int | operator count (int), [operator id length (byte), operator id, rotation matrix (9 doubles, row-major), 
+ *                    |          |               | translation vector (3 doubles), chain count (int), [chain index (int)]..]..
+ *  REFERENCE         |        r |          byte | id of the reference entry (len bytes)
+ *  COPY              |        k |          byte | chain index in reference entry (int), index of first group in the chain (int), group count (int)
+ *  MATCH             |        M |           int | matched reference atom of each atom, encoded as packed integer stream
+ *  GEOMETRY          |        G |           int | template index (int), bond angle of each atom (atomCount shorts), torsion angle of each atom (atomCount shorts)
  *  SEQUENCE          |        Q |           int | sequence string using 1-letter codes (note, this record is not used currently)
  *  COORD             |        X |           int | atom coordinates encoded as list of integers and shorts
  *  BFACTOR           |        T |           int | b factors encoded as list of integer and shorts
@@ -63,6 +87,85 @@ import java.util.List;
  *     Lower case record ids use 1 byte for the record length 
  *     Upper case record ids use 4 bytes (int) for the record length
  *     Data items in [ ] are optional, the record length will indicate if these data are present
+ *     The PRECISION record is optional for compression method 1 (default scales: XYZ_SCALE, BO_SCALE) and
+ *     required for compression method 2 (lossy compression). If present, it must be the first record, since
+ *     the standard polymer bond lengths of the group templates depend on the coordinate scale.
+ *     The optional SUMMARY record follows the STRUCTURE record. It is not used for decoding, but can be read
+ *     with SpatialSummary without decoding the structure.
+ *     
+ *  Bonds:
+ *     The bond information of a GINFO record is a bond tree: for each atom, the index of an earlier atom of the group that 
+ *     it is bonded to (or -1) and the bond length. Head atoms are bonded to the tail atom of the preceding group if the
+ *     HEAD and TAIL flags are set. The optional BOND record contains all other bonds: template bonds (e.g., ring closures)
+ *     apply to every group that uses the template, and must follow the GINFO record of the template. Structure bonds 
+ *     (e.g., disulfide bonds) use zero-based atom indices within a model and apply to every model.
+ *     Bonds are reported to inflators that implement the BondInflatorInterface.
+ *     
+ *  Assemblies:
+ *     The optional ASSEMBLY record contains the operators that generate a biological assembly (e.g., a virus capsid)
+ *     from the asymmetric unit, which is the only part stored in the file. Each operator applies to a list of chains,
+ *     identified by their zero-based index within a model. The record must precede the COORD record (compression 
+ *     methods 1, 2, and 4) or the first MODEL record (compression method 3). Inflators that implement the 
+ *     AssemblyInflatorInterface receive the copies of the operators they accept after the last chain of each model.
+ *     
+ *  Record order:
+ *     Compression methods 1 and 2 store all topology records before the coordinates:
+ *        [p] s [S] m.. (c I.. g..).. [B] [A] [T] [O] X e
+ *     The complete topology must be kept in memory until the COORD record is decoded.
+ *     
+ *     Compression method 3 (streaming) interleaves topology and coordinates in chain-sized chunks. 
+ *     Each model record is followed by the chunks of its chains. A chunk contains the group templates
+ *     that are used for the first time in the chain, and the b factors, occupancies, and coordinates of 
+ *     the atoms of the chain only:
+ *        [p] s [S] [A] (m (c I.. g.. [B] [T] [O] X)..).. e
+ *     Atoms are passed to the inflator as soon as the COORD record of a chunk has been read, and only the 
+ *     group templates are kept across chunks, so that memory use is bounded by the size of the largest chain.
+ *     The BOND record of a chunk contains the template bonds of the templates defined in the chunk. Structure bonds
+ *     are reported after the last chunk of each model, therefore they belong to the BOND record of the first chunk.
+ *     The homogeneousModel flag is ignored for this method.
+ *     
+ *  Progressive layout:
+ *     Compression method 5 uses the topology records of method 1, followed by one chunk per layer:
+ *        [p] s [S] m.. (c I.. g..).. [B] (l [T] [O] X).. e
+ *     The LAYER record contains the layer number (byte). The layers (BACKBONE_LAYER, SIDE_CHAIN_LAYER, SOLVENT_LAYER) 
+ *     must appear in this order; trailing layers without atoms may be omitted. The BFACTOR, OCCUPANCY, and 
+ *     COORD records of a chunk contain packed integer streams (see below) for the atoms of the layer, in the order of 
+ *     the complete structure. The delta of an atom refers to its reference atom, if the reference atom belongs 
+ *     to the same or a previous layer (folded with the bond length, as for method 4), otherwise to the previous atom 
+ *     of the layer in the same chain (not folded). Inflators that implement the LayerInflatorInterface receive 
+ *     each layer as soon as its COORD record has been decoded and may stop decoding after any layer.
+ *     The ASSEMBLY record is ignored for this method.
+ *     
+ *  Reference-based encoding:
+ *     Compression method 6 encodes a structure as a difference to a reference entry:
+ *        [p] r s [S] m.. (c I.. (g|k)..).. [B] [A] M [T] [O] X e
+ *     The reference entry is obtained from the ReferenceResolver and decoded first (it may itself use method 6, but 
+ *     not methods 3 or 5, and must use the same precision). The group templates of the reference precede the templates 
+ *     of the GINFO records, so that GROUP records can refer to both. COPY records append a range of groups of a 
+ *     reference chain to the current chain (chains are numbered across all models of the reference).
+ *     The MATCH record contains one value per atom: 0 if the atom has no match, otherwise zigzag(r - e) + 1, 
+ *     where r is the index of the matched atom among all atoms of the reference, and e is one more than the index 
+ *     of the previously matched atom (0 for the first match). The MATCH, BFACTOR, OCCUPANCY, and COORD records contain 
+ *     packed integer streams. Coordinates (3 values per atom) and b factors of matched atoms are differences to the 
+ *     matched atom, those of other atoms are differences to the previous atom of the chain.
+ *     
+ *  Packed integer streams:
+ *     Compression method 4 uses the record order of method 1, but the COORD, BFACTOR, and OCCUPANCY records
+ *     contain packed integer streams (see PackedIntegers). The COORD record contains three values per atom:
+ *     deltaX, deltaY, and deltaZ folded with the bond length to the reference atom (see BitEncoder.toFoldedZ).
+ *     
+ *  Predictive encoding:
+ *     Compression method 7 uses the records of method 4. A GEOMETRY record may follow the GINFO record of a template:
+ *        [p] s [S] m.. (c (I [G])..  g..).. [B] [A] [T] [O] X e
+ *     It contains the bond angle and torsion angle (in degrees * ANGLE_SCALE) of each atom relative to its three 
+ *     ancestors in the bond tree (a bond angle of 0 means the atom is not predicted). The position of a predicted atom 
+ *     is computed from the bond length, bond angle, and torsion angle (see GroupTemplate.predict), and the COORD record 
+ *     contains the differences to the predicted position, without folding. All other atoms are encoded as for method 4.
+ *     
+ *  Filters:
+ *     A StructureFilter (setFilter) is evaluated once per group template, and the result is kept as a mask of accepted
+ *     atoms. Chains without accepted atoms are skipped in the coordinate streams without being converted or reported,
+ *     and the remaining chains are compacted to the accepted atoms before the conversion to floating point numbers.
  *                                  
  * @author Peter Rose
  *
@@ -75,7 +178,6 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 	private byte[] b2 = new byte[2];
 	private byte[] b3 = new byte[3];
 	private byte[] b4 = new byte[4];
-	private int[] buffer = new int[4];
 
 	private int modelCount = 0;
 	private int sequenceIndex = 0;
@@ -84,51 +186,255 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 	private int intType = 4;
 	private int byteOffset = 0;
 	
+	// position of the next chain, group, and atom to be decoded
+	private int chainIndex = 0;
+	private int groupIndex = 0;
+	private int atomIndex = 0;
+	private int atomSerialNumber = 0;
+	private int modelNumber = 0;
+	
+	// integer coordinates, b factors, and occupancies of the atoms of the current chain
+	private int[] x = new int[INITIAL_CHAIN_SIZE];
+	private int[] y = new int[INITIAL_CHAIN_SIZE];
+	private int[] z = new int[INITIAL_CHAIN_SIZE];
+	private int[] b = new int[INITIAL_CHAIN_SIZE];
+	private int[] o = new int[INITIAL_CHAIN_SIZE];
+	
+	// float coordinates, b factors, and occupancies of the atoms of the current chain
+	private float[] xf = new float[INITIAL_CHAIN_SIZE];
+	private float[] yf = new float[INITIAL_CHAIN_SIZE];
+	private float[] zf = new float[INITIAL_CHAIN_SIZE];
+	private float[] bf = new float[INITIAL_CHAIN_SIZE];
+	private float[] of = new float[INITIAL_CHAIN_SIZE];
+	
+	// encoded coordinates of the current chain: encoded value, bond length, atom index, and decoded deltas
+	private int[] encodedWords = new int[INITIAL_CHAIN_SIZE];
+	private int[] encodedDistances = new int[INITIAL_CHAIN_SIZE];
+	private int[] encodedAtoms = new int[INITIAL_CHAIN_SIZE];
+	private int[] encodedX = new int[INITIAL_CHAIN_SIZE];
+	private int[] encodedY = new int[INITIAL_CHAIN_SIZE];
+	private int[] encodedZ = new int[INITIAL_CHAIN_SIZE];
+	
+	private byte[] byteBuffer = new byte[0];
+	private BulkDecoder bulkDecoder = BulkDecoder.getInstance();
+	
 	private boolean homogeneousModel = false;
 	private List<String> sequences = new ArrayList<String>();
-	private List<Integer> sequenceIndices = new ArrayList<Integer>();
+	private IntList sequenceIndices = new IntList();
 	private List<String> chainIds = null;
-	private List<Integer> chainCounts = new ArrayList<Integer>();
-	private List<Integer> groupCounts = null;
-	private List<Integer> groupIndices = new ArrayList<Integer>();
-	private List<Integer> groupNumbers = new ArrayList<Integer>();
-	private List<String[]> groupInfo = new ArrayList<String[]>();
-	private List<int[]> bondInfo = new ArrayList<int[]>();
-	private List<Byte> flagInfo = new ArrayList<Byte>();
-	private List<Integer> bFactors = new ArrayList<Integer>();
+	private IntList chainCounts = new IntList();
+	private IntList groupCounts = null;
+	private IntList groupIndices = new IntList(1024);
+	private IntList groupNumbers = new IntList(1024);
+	private List<GroupTemplate> templates = new ArrayList<GroupTemplate>();
+	private int[] bFactors = null;
 	private int[] occupancy = null;
 	
 	private boolean useBfactor = false;
 	private boolean useOccupancy = false;
+	
+	private boolean lossy = false;
+	private boolean streaming = false;
+	private boolean packed = false;
+	private boolean progressive = false;
+	private boolean referenced = false;
+	private boolean predictive = false;
+	private int[] predicted = new int[3];
+	
+	// coordinate values of a packed COORD record and the index of the next value
+	private int[] coordValues = null;
+	private int coordIndex = 0;
+	private boolean hasPrecision = false;
+	private int xyzScale = XYZ_SCALE;
+	private int boScale = BO_SCALE;
+	private float xyzPrecision = 1.0f/XYZ_SCALE;
+	private float boPrecision = 1.0f/BO_SCALE;
 
 	private StructureInflatorInterface inflator;
+	private BondInflatorInterface bondInflator = null;
+	
+	// bonds between atoms of a model (BOND record): pairs of zero-based atom indices and bond orders
+	private IntList structureBonds = new IntList();
+	private IntList structureBondOrders = new IntList();
+	
+	// number of chains of the current model and number of chains decoded (streaming layout)
+	private int modelChainCount = 0;
+	private int chainsDecoded = 0;
+	
+	// assembly operators (ASSEMBLY record): id, rotation matrix and translation vector, and indices of the chains of a model
+	private AssemblyInflatorInterface assemblyInflator = null;
+	private List<String> operatorIds = new ArrayList<String>();
+	private List<double[]> operatorMatrices = new ArrayList<double[]>();
+	private List<int[]> operatorChains = new ArrayList<int[]>();
+	
+	// decoded chains of the current model, retained for the assembly copies: chain ids, index of the first group
+	// and number of groups, index of the first atom and number of atoms, and the groups and float data of the atoms
+	private List<String> modelChainIds = new ArrayList<String>();
+	private IntList modelChainGroups = new IntList();
+	private IntList modelChainGroupCounts = new IntList();
+	private IntList modelChainAtoms = new IntList();
+	private IntList modelChainAtomCounts = new IntList();
+	private IntList modelTemplateIndices = new IntList();
+	private IntList modelGroupNumbers = new IntList();
+	private int modelAtomCount = 0;
+	private float[] modelX = new float[0];
+	private float[] modelY = new float[0];
+	private float[] modelZ = new float[0];
+	private float[] modelB = new float[0];
+	private float[] modelO = new float[0];
+	
+	// progressive layout: current layer, index of the first chain and first atom of each model, index of the 
+	// first group of each chain, number of atoms in each layer, and the integer coordinates, b factors, 
+	// occupancies, and layers of all atoms of the structure
+	private LayerInflatorInterface layerInflator = null;
+	private int layer = -1;
+	private boolean stopped = false;
+	private int[] modelChainStarts = null;
+	private int[] modelAtomStarts = null;
+	private IntList chainGroupStarts = null;
+	private int[] layerAtomCounts = new int[LAYER_COUNT];
+	private int[] structureX = null;
+	private int[] structureY = null;
+	private int[] structureZ = null;
+	private int[] structureB = null;
+	private int[] structureO = null;
+	private byte[] atomLayers = null;
+	
+	// reference-based encoding: resolver and depth of the reference chain, decoder of the reference entry and 
+	// index of the first group of each of its chains, reference atom matches of the MATCH record, and the 
+	// reference atom that is expected to match next
+	private ReferenceResolver referenceResolver = null;
+	private int referenceDepth = 0;
+	private StructureDecoderImpl1 reference = null;
+	private IntList referenceChainGroupStarts = null;
+	private int[] matchValues = null;
+	private int matchIndex = 0;
+	private int nextReferenceAtom = 0;
+	
+	// integer coordinates and b factors of all decoded atoms, captured if this structure is a reference entry
+	private boolean capture = false;
+	private IntList capturedX = null;
+	private IntList capturedY = null;
+	private IntList capturedZ = null;
+	private IntList capturedB = null;
 
-	private static final int MAX_GROUP_SIZE = 1024;
+	// filter: accepted atoms of each group template (null if the group is rejected), the number of accepted atoms
+	// of each template in each layer, and the accepted atoms of the current model (by serial number - 1)
+	private StructureFilter filter = null;
+	private boolean[][] templateMasks = new boolean[0][];
+	private int[][] templateAcceptedCounts = new int[0][];
+	private boolean modelAccepted = true;
+	private BitSet acceptedAtoms = new BitSet();
+	
+	// value and atom counts of the integer streams (HescAnalyzer), or null
+	private DecoderStatistics statistics = null;
+	
+	private static final int INITIAL_CHAIN_SIZE = 1024;
 
 	public StructureDecoderImpl1(DataInputStream dataInputStream, StructureInflatorInterface inflator) {
 		this.inStream = dataInputStream;
 		this.inflator = inflator;
+		if (inflator instanceof BondInflatorInterface) {
+			this.bondInflator = (BondInflatorInterface) inflator;
+		}
+		if (inflator instanceof AssemblyInflatorInterface) {
+			this.assemblyInflator = (AssemblyInflatorInterface) inflator;
+		}
+		if (inflator instanceof LayerInflatorInterface) {
+			this.layerInflator = (LayerInflatorInterface) inflator;
+		}
+	}
+	
+	/**
+	 * @param dataInputStream
+	 * @param inflator
+	 * @param compressionMethod STANDARD_COMPRESSION, LOSSY_COMPRESSION, STREAMING_COMPRESSION, PACKED_COMPRESSION, PROGRESSIVE_COMPRESSION,
+	 * REFERENCE_COMPRESSION, or PREDICTIVE_COMPRESSION
+	 */
+	public StructureDecoderImpl1(DataInputStream dataInputStream, StructureInflatorInterface inflator, int compressionMethod) {
+		this(dataInputStream, inflator);
+		this.lossy = compressionMethod == LOSSY_COMPRESSION;
+		this.streaming = compressionMethod == STREAMING_COMPRESSION;
+		this.progressive = compressionMethod == PROGRESSIVE_COMPRESSION;
+		this.referenced = compressionMethod == REFERENCE_COMPRESSION;
+		this.predictive = compressionMethod == PREDICTIVE_COMPRESSION;
+		this.packed = compressionMethod == PACKED_COMPRESSION || progressive || referenced || predictive;
+	}
+	
+	/**
+	 * Sets the resolver for the reference entry of a structure encoded with REFERENCE_COMPRESSION.
+	 * @param referenceResolver
+	 */
+	public void setReferenceResolver(ReferenceResolver referenceResolver) {
+		this.referenceResolver = referenceResolver;
+	}
+	
+	/**
+	 * Sets a filter for the models, chains, groups, and atoms that are passed to the inflator.
+	 * @param filter filter, or null to pass all atoms
+	 */
+	public void setFilter(StructureFilter filter) {
+		this.filter = filter;
+	}
+	
+	/**
+	 * Sets the statistics that count the values of the integer streams (compression methods 1 - 3).
+	 * @param statistics statistics, or null
+	 */
+	void setStatistics(DecoderStatistics statistics) {
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * @return the factor that converts x, y, and z coordinates to integers
+	 */
+	public int getXyzScale() {
+		return xyzScale;
+	}
+
+	/**
+	 * @return the factor that converts b factors and occupancies to integers
+	 */
+	public int getBoScale() {
+		return boScale;
 	}
 	
 	/**
 	 * Decodes the structure from the passed in dataInputStream. It reads each record and fills 
 	 * in the data structures provided by the StructureInflatorInterface implementation. Decoding
-	 * stops when the END record id is encountered. Call decode() only once, or it will attempt
-	 * to ready beyond the end of the dataInputStream.
+	 * stops when the END record id is encountered. If a LayerInflatorInterface stops decoding, the
+	 * remaining records are skipped up to the END record, so that the input stream is positioned at
+	 * the next structure. Call decode() only once, or it will attempt to ready beyond the end of the
+	 * dataInputStream.
 	 */
 	public void decode() throws IOException {	
 		modelCount = 0;
+		modelNumber = 0;
 		chainCount = 0;
 		homogeneousModel = false;
 		
 		byte recordId = 0;
+		boolean firstRecord = true;
 		
-		while ((recordId = inStream.readByte()) != END) {
+		while (! stopped && (recordId = inStream.readByte()) != END) {
+			if (lossy && ! hasPrecision && recordId != PRECISION) {
+				throw new IOException("StructureDecoder: PRECISION record required for lossy compression, found: " + recordId);
+			}
 
 			switch (recordId) {
+			case PRECISION:
+				// the precision applies to all values, it must follow the header
+				if (! firstRecord) {
+					throw new IOException("StructureDecoder: PRECISION record must be the first record");
+				}
+				readPrecisionRecord();
+				break;
 			case STRUCTURE:
 				readStructureRecord();
 				break;
+			case SUMMARY:
+				skipRecord(inStream.readInt());
+				break;
 			case MODEL:
 				readModelRecord();
 				break;
@@ -144,18 +450,66 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 			case GINFO:
 				readGInfoRecord();
 				break;
+			case GEOMETRY:
+				readGeometryRecord();
+				break;
 			case COORD:
 				readCoordRecord();
 				break;
 			case BFACTOR:
 				readBFactorRecord();
 				break;
+			case BOND:
+				readBondRecord();
+				break;
+			case ASSEMBLY:
+				readAssemblyRecord();
+				break;
+			case LAYER:
+				readLayerRecord();
+				break;
+			case REFERENCE:
+				readReferenceRecord();
+				break;
+			case COPY:
+				readCopyRecord();
+				break;
+			case MATCH:
+				matchValues = readPackedRecord(matchValues, getPackedAtomCount());
+				break;
 			case OCCUPANCY:
 				readOccupancyRecord();
 				break;
 			default:
 				throw new IOException("StructureDecoder: Invalid record: " + recordId);
 			}
+			firstRecord = false;
+		}
+		
+		if (stopped) {
+			skipRemainingRecords();
+		} else if (progressive) {
+			finishLayers();
+		}
+	}
+	
+	/**
+	 * Skips the records after a stopped layer up to and including the END record, using their record lengths.
+	 */
+	private void skipRemainingRecords() throws IOException {
+		byte recordId;
+		while ((recordId = inStream.readByte()) != END) {
+			skipRecord(HescRecordReader.isShortRecord(recordId) ? inStream.readUnsignedByte() : inStream.readInt());
+		}
+	}
+	
+	private void skipRecord(int len) throws IOException {
+		while (len > 0) {
+			int skipped = inStream.skipBytes(len);
+			if (skipped <= 0) {
+				throw new IOException("StructureDecoder: Unexpected end of record");
+			}
+			len -= skipped;
 		}
 	}
 	
@@ -165,17 +519,45 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 		sequences.add(sequence);
 	}
 
+	private void readPrecisionRecord() throws IOException {
+		inStream.skipBytes(1);
+		xyzScale = inStream.readInt();
+		boScale = inStream.readInt();
+		if (xyzScale <= 0 || boScale <= 0) {
+			throw new IOException("StructureDecoder: Invalid precision: coordinate scale: " + xyzScale + " b factor scale: " + boScale);
+		}
+		xyzPrecision = 1.0f/xyzScale;
+		boPrecision = 1.0f/boScale;
+		hasPrecision = true;
+	}
+
 	private void readStructureRecord() throws IOException {
 		inStream.skipBytes(1);
 		modelCount = inStream.readInt();	
 		homogeneousModel = inStream.readBoolean();
-		chainIds = new ArrayList<String>(chainCount);
-		groupCounts = new ArrayList<Integer>(chainCount);
+		chainIds = new ArrayList<String>();
+		groupCounts = new IntList();
+		if (streaming) {
+			inflator.setModelCount(getAcceptedModelCount());
+		}
 	}
 	
 	private void readModelRecord() throws IOException {
 		inStream.skipBytes(1);
-		chainCounts.add(inStream.readInt());
+		int count = inStream.readInt();
+		if (streaming) {
+			// the chains of this model follow as chunks
+			atomSerialNumber = 0;
+			modelChainCount = count;
+			chainsDecoded = 0;
+			modelAccepted = filter == null || filter.acceptModel(modelNumber);
+			if (modelAccepted) {
+				inflator.setModelInfo(modelNumber, count);
+			}
+			modelNumber++;
+		} else {
+			chainCounts.add(count);
+		}
 	}
 	
 	private void readChainRecord() throws IOException {
@@ -191,8 +573,7 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 	
 	private void readGroupRecord() throws IOException {
 		int len = inStream.readByte();
-		int groupIndex = inStream.readInt();
-		groupIndices.add(groupIndex);
+		groupIndices.add(inStream.readInt());
 
 		if (len == 8) {
 			groupNumber = inStream.readInt();
@@ -209,54 +590,403 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 		len -= 4*aCount + 3;
 		byte flags = inStream.readByte();	
 		String[] info = readGroupInfo(len);
-		int[] bondList = new int[aCount*2];
-		for (int bl = 0; bl < aCount*2; bl++) {
-			bondList[bl] = (int)inStream.readShort();
+		int[] references = new int[aCount];
+		int[] bondLengths = new int[aCount];
+		for (int i = 0; i < aCount; i++) {
+			references[i] = inStream.readShort();
+		}
+		for (int i = 0; i < aCount; i++) {
+			bondLengths[i] = inStream.readShort();
+		}
+		
+		String[] atomNames = new String[aCount];
+		String[] elements = new String[aCount];
+		char[] altLocs = new char[aCount];
+		for (int i = 0, index = 2; i < aCount; i++) {
+			atomNames[i] = info[index++];
+			elements[i] = info[index++];
+			altLocs[i] = info[index++].charAt(0);
+		}
+		templates.add(new GroupTemplate(info[0], info[1].charAt(0), flags, atomNames, elements, altLocs, references, bondLengths, xyzScale));
+	}
+	
+	private void readGeometryRecord() throws IOException {
+		int len = inStream.readInt();
+		int index = inStream.readInt();
+		if (index < 0 || index >= templates.size()) {
+			throw new IOException("StructureDecoder: GEOMETRY record for invalid group template: " + index);
+		}
+		GroupTemplate template = templates.get(index);
+		int atomCount = template.atomCount;
+		if (len != 4 + 4 * atomCount) {
+			throw new IOException("StructureDecoder: Invalid GEOMETRY record length: " + len);
+		}
+		int[] angles = new int[atomCount];
+		int[] torsions = new int[atomCount];
+		for (int i = 0; i < atomCount; i++) {
+			angles[i] = inStream.readShort();
+		}
+		for (int i = 0; i < atomCount; i++) {
+			torsions[i] = inStream.readShort();
+		}
+		template.setGeometry(angles, torsions, ANGLE_SCALE);
+	}
+	
+	private void readBondRecord() throws IOException {
+		inStream.skipBytes(4);
+		int templateBondCount = inStream.readInt();
+		for (int i = 0; i < templateBondCount; i++) {
+			int templateIndex = inStream.readInt();
+			int atom1 = inStream.readShort();
+			int atom2 = inStream.readShort();
+			byte order = inStream.readByte();
+			if (templateIndex >= templates.size()) {
+				throw new IOException("StructureDecoder: BOND record references undefined group template: " + templateIndex);
+			}
+			GroupTemplate template = templates.get(templateIndex);
+			if (atom1 < 0 || atom1 >= template.atomCount || atom2 < 0 || atom2 >= template.atomCount) {
+				throw new IOException("StructureDecoder: BOND record references undefined atom of group template: " + templateIndex);
+			}
+			template.addBond(atom1, atom2, order);
+		}
+		int structureBondCount = inStream.readInt();
+		for (int i = 0; i < structureBondCount; i++) {
+			structureBonds.add(inStream.readInt());
+			structureBonds.add(inStream.readInt());
+			structureBondOrders.add(inStream.readByte());
+		}
+	}
+	
+	private void readAssemblyRecord() throws IOException {
+		inStream.skipBytes(4);
+		int operatorCount = inStream.readInt();
+		for (int i = 0; i < operatorCount; i++) {
+			int idLength = inStream.readUnsignedByte();
+			operatorIds.add(readFixedLengthString(idLength));
+			double[] matrix = new double[12];
+			for (int j = 0; j < matrix.length; j++) {
+				matrix[j] = inStream.readDouble();
+			}
+			operatorMatrices.add(matrix);
+			int[] chains = new int[inStream.readInt()];
+			for (int j = 0; j < chains.length; j++) {
+				chains[j] = inStream.readInt();
+				if (chains[j] < 0) {
+					throw new IOException("StructureDecoder: Invalid chain index in ASSEMBLY record: " + chains[j]);
+				}
+			}
+			operatorChains.add(chains);
+		}
+	}
+	
+	private void readLayerRecord() throws IOException {
+		inStream.skipBytes(1);
+		int next = inStream.readByte();
+		if (next != layer + 1 || next >= LAYER_COUNT) {
+			throw new IOException("StructureDecoder: Invalid layer: " + next + " after layer: " + layer);
+		}
+		layer = next;
+		if (layer == 0) {
+			prepareLayers();
+		}
+		if (layerInflator != null && ! layerInflator.setLayerInfo(layer, layerAtomCounts[layer])) {
+			stopped = true;
+		}
+	}
+	
+	private void readReferenceRecord() throws IOException {
+		int len = inStream.readUnsignedByte();
+		String referenceId = readFixedLengthString(len);
+		if (! referenced || reference != null || chainIds != null || ! templates.isEmpty()) {
+			throw new IOException("StructureDecoder: REFERENCE record must precede the topology records of a reference-based compression");
+		}
+		if (referenceResolver == null) {
+			throw new IOException("StructureDecoder: No reference resolver for reference entry: " + referenceId);
+		}
+		if (referenceDepth >= MAX_REFERENCE_DEPTH) {
+			throw new IOException("StructureDecoder: Too many nested references: " + referenceId);
+		}
+		
+		reference = decodeReference(referenceId, referenceResolver, referenceDepth + 1);
+		if (reference.xyzScale != xyzScale || reference.boScale != boScale) {
+			throw new IOException("StructureDecoder: Precision of reference entry " + referenceId + " differs");
+		}
+		// the group templates of the reference are shared, new templates are appended
+		templates.addAll(reference.templates);
+		referenceChainGroupStarts = new IntList(reference.chainIds.size());
+		for (int c = 0, g = 0; c < reference.chainIds.size(); c++) {
+			referenceChainGroupStarts.add(g);
+			g += reference.groupCounts.get(c);
+		}
+	}
+	
+	/**
+	 * Decodes a reference entry and captures its topology, integer coordinates, and b factors. The StructureDeflator
+	 * uses the captured data to encode a structure relative to the reference entry.
+	 * @param referenceId
+	 * @param referenceResolver
+	 * @param referenceDepth number of references that lead to this reference entry (1 for the reference of a structure)
+	 * @return decoder of the reference entry
+	 * @throws IOException
+	 */
+	static StructureDecoderImpl1 decodeReference(String referenceId, ReferenceResolver referenceResolver, int referenceDepth) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(referenceResolver.open(referenceId), 8192);
+		HescRecordReader reader = new HescRecordReader(new DataInputStream(new BufferedInputStream(in)));
+		try {
+			if (! reader.readHeader()) {
+				throw new IOException("StructureDecoder: Empty reference entry: " + referenceId);
+			}
+			int method = reader.getCompressionMethod();
+			if (method == STREAMING_COMPRESSION || method == PROGRESSIVE_COMPRESSION) {
+				throw new IOException("StructureDecoder: Unsupported compression method of reference entry " + referenceId + ": " + method);
+			}
+			StructureDecoderImpl1 decoder = (StructureDecoderImpl1) getDecoder(reader.getMajorVersion(), reader.getMinorVersion(), 
+					method, reader.getDataInputStream(), new NullInflator());
+			decoder.referenceResolver = referenceResolver;
+			decoder.referenceDepth = referenceDepth;
+			decoder.capture = true;
+			decoder.capturedX = new IntList(1024);
+			decoder.capturedY = new IntList(1024);
+			decoder.capturedZ = new IntList(1024);
+			decoder.capturedB = new IntList(1024);
+			decoder.decode();
+			return decoder;
+		} finally {
+			reader.close();
+		}
+	}
+	
+	// topology and captured atoms of a decoded reference entry (see decodeReference)
+
+	List<GroupTemplate> getTemplates() {
+		return templates;
+	}
+
+	int getModelCount() {
+		return modelCount;
+	}
+
+	/**
+	 * @return true if the chains, group indices, and group numbers of the first model apply to all models
+	 */
+	boolean isHomogeneousModel() {
+		return homogeneousModel;
+	}
+
+	/**
+	 * @return chain count of each MODEL record
+	 */
+	IntList getChainCounts() {
+		return chainCounts;
+	}
+
+	List<String> getChainIds() {
+		return chainIds;
+	}
+
+	IntList getGroupCounts() {
+		return groupCounts;
+	}
+
+	IntList getGroupIndices() {
+		return groupIndices;
+	}
+
+	IntList getGroupNumbers() {
+		return groupNumbers;
+	}
+
+	/**
+	 * @return integer coordinates and b factors (x, y, z, b) of all atoms, in the order of the MATCH record
+	 */
+	IntList[] getCapturedAtoms() {
+		return new IntList[] {capturedX, capturedY, capturedZ, capturedB};
+	}
+
+	private void readCopyRecord() throws IOException {
+		inStream.skipBytes(1);
+		int chain = inStream.readInt();
+		int firstGroup = inStream.readInt();
+		int count = inStream.readInt();
+		if (reference == null) {
+			throw new IOException("StructureDecoder: COPY record without REFERENCE record");
+		}
+		if (chain < 0 || chain >= reference.chainIds.size() || firstGroup < 0 || count < 0 ||
+				firstGroup + count > reference.groupCounts.get(chain)) {
+			throw new IOException("StructureDecoder: COPY record references undefined groups of chain: " + chain);
+		}
+		int start = referenceChainGroupStarts.get(chain) + firstGroup;
+		for (int j = start; j < start + count; j++) {
+			groupIndices.add(reference.groupIndices.get(j));
+			groupNumber = reference.groupNumbers.get(j);
+			groupNumbers.add(groupNumber);
 		}
-		groupInfo.add(info);
-		bondInfo.add(bondList);
-		flagInfo.add(flags);
 	}
 	
 	private void readBFactorRecord() throws IOException {
+		if (packed) {
+			bFactors = readPackedRecord(bFactors, getPackedAtomCount());
+			useBfactor = true;
+			return;
+		}
 		int len = inStream.readInt();
+		// each value uses at least 2 bytes
+		bFactors = ensureCapacity(bFactors, len/2);
 		byteOffset = 0;
 		intType = 4;
+		if (statistics != null) {
+			statistics.setStream(BFACTOR);
+		}
+		int n = 0;
 		while (byteOffset < len) {
-			int val = readNextInt();
-			bFactors.add(val);
+			bFactors[n++] = readNextInt();
 		}
 		useBfactor = true;
 	}
 	
 	private void readOccupancyRecord() throws IOException {
+		if (packed) {
+			occupancy = readPackedRecord(occupancy, getPackedAtomCount());
+			useOccupancy = true;
+			return;
+		}
 		int len = inStream.readInt();	
 		int n = len/2;
-		occupancy = new int[n];
-		for (int i = 0; i < n; i++) {
-			occupancy[i] = inStream.readShort();
+		occupancy = ensureCapacity(occupancy, n);
+		if (byteBuffer.length < len) {
+			byteBuffer = new byte[len];
 		}
+		inStream.readFully(byteBuffer, 0, len);
+		bulkDecoder.widenShorts(byteBuffer, occupancy, n);
 		useOccupancy = true;
 	}
+	
+	/**
+	 * Reads a record that contains a packed integer stream (compression methods 4 - 7).
+	 * @param values array to be reused, if large enough
+	 * @param valueCount expected number of values
+	 * @return array that contains the values
+	 * @throws IOException if the stream does not contain the expected number of values or is corrupt
+	 */
+	private int[] readPackedRecord(int[] values, int valueCount) throws IOException {
+		int len = inStream.readInt();
+		if (len < 0) {
+			throw new IOException("StructureDecoder: Invalid record length: " + len);
+		}
+		if (byteBuffer.length < len + PackedIntegers.PADDING) {
+			byteBuffer = new byte[len + PackedIntegers.PADDING];
+		}
+		inStream.readFully(byteBuffer, 0, len);
+		int count = PackedIntegers.readCount(byteBuffer, 0, len);
+		if (count != valueCount) {
+			throw new IOException("StructureDecoder: Invalid value count: " + count + ", expected: " + valueCount);
+		}
+		values = ensureCapacity(values, count);
+		PackedIntegers.read(byteBuffer, 0, len, values);
+		return values;
+	}
+	
+	/**
+	 * Returns the number of atoms of the packed BFACTOR, OCCUPANCY, MATCH, and COORD records: the atoms of 
+	 * the current layer (progressive layout), or the atoms of all models.
+	 * @return atom count
+	 * @throws IOException
+	 */
+	private int getPackedAtomCount() throws IOException {
+		if (progressive) {
+			if (layer < 0) {
+				throw new IOException("StructureDecoder: packed record without LAYER record");
+			}
+			return layerAtomCounts[layer];
+		}
+		
+		int[] chainGroupStarts = new int[chainIds.size()];
+		for (int c = 0, g = 0; c < chainGroupStarts.length; c++) {
+			chainGroupStarts[c] = g;
+			g += groupCounts.get(c);
+		}
+		long atomCount = 0;
+		for (int m = 0, c = 0; m < modelCount; m++) {
+			int firstChain = homogeneousModel ? 0 : c;
+			int chainCount = chainCounts.get(homogeneousModel ? 0 : m);
+			if (firstChain + chainCount > chainGroupStarts.length) {
+				throw new IOException("StructureDecoder: Invalid chain count: " + chainCount + " in model: " + m);
+			}
+			for (int i = firstChain; i < firstChain + chainCount; i++) {
+				for (int j = chainGroupStarts[i]; j < chainGroupStarts[i] + groupCounts.get(i); j++) {
+					atomCount += templates.get(groupIndices.get(j)).atomCount;
+				}
+			}
+			c += chainCount;
+		}
+		// three coordinate values per atom must not overflow the value count
+		if (atomCount > Integer.MAX_VALUE/3) {
+			throw new IOException("StructureDecoder: Invalid atom count: " + atomCount);
+		}
+		return (int)atomCount;
+	}
+	
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		if (array == null || array.length < capacity) {
+			return new int[capacity];
+		}
+		return array;
+	}
 
 	private void readCoordRecord() throws IOException {
-		inStream.skipBytes(4);
-		int[] x = new int[MAX_GROUP_SIZE];
-		int[] y = new int[MAX_GROUP_SIZE];
-		int[] z = new int[MAX_GROUP_SIZE];
-		int[] b = new int[MAX_GROUP_SIZE];
-
-		inflator.setModelCount(modelCount);
+		if (packed) {
+			coordValues = readPackedRecord(coordValues, 3 * getPackedAtomCount());
+			coordIndex = 0;
+			matchIndex = 0;
+			nextReferenceAtom = 0;
+			if (referenced && matchValues == null) {
+				throw new IOException("StructureDecoder: MATCH record required for reference-based compression");
+			}
+		} else {
+			inStream.skipBytes(4);
+		}
 		
 		byteOffset = 0;
 		intType = 4;
+		if (statistics != null) {
+			statistics.setStream(COORD);
+		}
+		
+		if (progressive) {
+			if (layer < 0) {
+				throw new IOException("StructureDecoder: COORD record without LAYER record");
+			}
+			decodeLayer(layer);
+			if (layerInflator != null) {
+				setLayer(layer);
+			}
+			useBfactor = false;
+			useOccupancy = false;
+			return;
+		}
+		
+		if (streaming) {
+			// a COORD record completes a chain chunk: decode the atoms of this chain and
+			// release all chain specific data. Only the group templates are retained.
+			chainIndex = 0;
+			groupIndex = 0;
+			atomIndex = 0;
+			decodeChain();
+			clearChain();
+			if (++chainsDecoded == modelChainCount) {
+				finishModel();
+			}
+			return;
+		}
 
-		int chainIndex = 0;
-		int groupIndex = 0;
-		int atomIndex = 0;
+		inflator.setModelCount(getAcceptedModelCount());
+
+		chainIndex = 0;
+		groupIndex = 0;
+		atomIndex = 0;
 
 		for (int m = 0; m < modelCount; m++) {
-			int atomSerialNumber = 0;
+			atomSerialNumber = 0;
 			if (homogeneousModel) {
 				chainIndex = 0;
 				groupIndex = 0;
@@ -265,141 +995,992 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 			    chainCount = chainCounts.get(m);
 			}
 			
-			inflator.setModelInfo(m, chainCount);
+			modelAccepted = filter == null || filter.acceptModel(m);
+			if (modelAccepted) {
+				inflator.setModelInfo(m, getAcceptedChainCount(chainIndex, groupIndex, chainCount));
+			}
 
 			for (int i = 0; i < chainCount; i++) {	
-				// integer atom coordinates and b-factor
-				int xOffset = 0;
-				int yOffset = 0;
-				int zOffset = 0;
-				int bOffset = 0;
-				
-				// integer atom coordinates and b-factor for the 
-				// polymer tail atom from the previous group (residue)
-				int xTail = 0;
-				int yTail = 0;
-				int zTail = 0;
-				int bTail = 0;
-				boolean hasTail = false;
-						
-				String chainId = chainIds.get(chainIndex);
-				int seqIndex = sequenceIndices.get(chainIndex); // not used currently
-				int groupCount = groupCounts.get(chainIndex);
-				
-				inflator.setChainInfo(chainId, groupCount);
-				chainIndex++;
-
-				for (int j = 0; j < groupCount; j++) {
-					groupNumber = groupNumbers.get(groupIndex);
-					int gIndex = groupIndices.get(groupIndex);
-					groupIndex++;
+				decodeChain();
+			}
+			finishModel();
+		}
+	}
+	
+	/**
+	 * Decodes the atoms of the chain at chainIndex. The groups of the chain start at groupIndex, 
+	 * and the b factors and occupancies of the atoms start at atomIndex. All three indices are
+	 * advanced past the decoded chain. The chain is decoded in passes over arrays that hold
+	 * all atoms of the chain, so that the unpacking of encoded coordinates and the float conversion 
+	 * run as bulk operations (see BulkDecoder). The passes use the precomputed data of the group
+	 * templates and do not allocate any objects, except when the arrays need to grow.
+	 * @throws IOException
+	 */
+	private void decodeChain() throws IOException {
+		String chainId = chainIds.get(chainIndex);
+		int groupCount = groupCounts.get(chainIndex);
+		chainIndex++;
+		
+		int atomCount = 0;
+		for (int j = 0; j < groupCount; j++) {
+			atomCount += templates.get(groupIndices.get(groupIndex + j)).atomCount;
+		}
+		ensureChainCapacity(atomCount);
+		
+		int acceptedGroupCount = groupCount;
+		if (filter != null) {
+			acceptedGroupCount = isAccepted(chainId) ? getAcceptedGroupCount(groupIndices, groupIndex, groupCount, -1) : 0;
+			if (acceptedGroupCount == 0 && ! capture) {
+				skipChain(groupCount, atomCount);
+				skipGroups(chainId, groupCount, atomCount);
+				return;
+			}
+		}
+		if (acceptedGroupCount > 0 || filter == null) {
+			inflator.setChainInfo(chainId, acceptedGroupCount);
+		}
+		
+		if (referenced) {
+			readMatchedCoordinates(atomCount);
+		} else {
+			int encodedCount = readCoordinateDeltas(groupCount);
 
-					String[] info = groupInfo.get(gIndex);
-					int[] bondList = bondInfo.get(gIndex);
-					int atomCount = bondList.length/2;
-					byte flags = flagInfo.get(gIndex);
+			// unpack the encoded coordinates and copy them to the atoms they belong to
+			bulkDecoder.unpackEncoded(encodedWords, encodedDistances, encodedX, encodedY, encodedZ, encodedCount);
+			for (int i = 0; i < encodedCount; i++) {
+				int a = encodedAtoms[i];
+				x[a] = encodedX[i];
+				y[a] = encodedY[i];
+				z[a] = encodedZ[i];
+			}
 
-					boolean isAminoAcid = (flags & AMINO_ACID) != 0;
-					boolean isNucleotide = (flags & NUCLEOTIDE) != 0;
+			addReferenceCoordinates(groupCount);
+		}
+		
+		if (capture) {
+			for (int a = 0; a < atomCount; a++) {
+				capturedX.add(x[a]);
+				capturedY.add(y[a]);
+				capturedZ.add(z[a]);
+				capturedB.add(b[a]);
+			}
+		}
+		
+		if (filter != null) {
+			if (acceptedGroupCount == 0) {
+				// captured for reference-based decoding, but not reported
+				skipGroups(chainId, groupCount, atomCount);
+				return;
+			}
+			// only the accepted atoms are converted and reported
+			atomCount = compactChain(groupCount);
+		}
+		
+		bulkDecoder.toFloat(x, xyzPrecision, xf, atomCount);
+		bulkDecoder.toFloat(y, xyzPrecision, yf, atomCount);
+		bulkDecoder.toFloat(z, xyzPrecision, zf, atomCount);
+		bulkDecoder.toFloat(b, boPrecision, bf, atomCount);
+		bulkDecoder.toFloat(o, boPrecision, of, atomCount);
+		
+		if (assemblyInflator != null && ! operatorIds.isEmpty()) {
+			retainChain(chainId, groupCount, atomCount);
+		}
+		
+		setGroups(groupIndices, groupNumbers, groupIndex, groupCount);
+		groupIndex += groupCount;
+	}
+	
+	/**
+	 * Reports the groups and atoms of a chain. The coordinates, b factors, and occupancies of the atoms
+	 * are taken from the float chain arrays, which contain only the accepted atoms if a filter is set.
+	 * @param templateIndices group template index of each group
+	 * @param numbers group number of each group
+	 * @param firstGroup index of the first group of the chain in templateIndices and numbers
+	 * @param groupCount number of groups in the chain
+	 */
+	private void setGroups(IntList templateIndices, IntList numbers, int firstGroup, int groupCount) {
+		int a = 0;
+		// serial number of the polymer tail atom of the previous group, or 0
+		int tailSerialNumber = 0;
+		for (int j = firstGroup; j < firstGroup + groupCount; j++) {
+			int number = numbers.get(j);
+			int templateIndex = templateIndices.get(j);
+			GroupTemplate template = templates.get(templateIndex);
+			
+			String[] atomNames = template.atomNames;
+			String[] elements = template.elements;
+			char[] altLocs = template.altLocs;
+			
+			int firstSerialNumber = atomSerialNumber + 1;
+			if (filter != null) {
+				boolean[] mask = getTemplateMask(templateIndex);
+				int acceptedCount = templateAcceptedCounts[templateIndex][LAYER_COUNT];
+				if (acceptedCount > 0) {
+					inflator.setGroupInfo(template.groupName, number, template.insertionCode, template.polymerType, acceptedCount);
+					for (int k = 0; k < template.atomCount; k++) {
+						if (mask[k]) {
+							inflator.setAtomInfo(atomNames[k], firstSerialNumber + k, altLocs[k], xf[a], yf[a], zf[a], of[a], bf[a], elements[k]);
+							acceptedAtoms.set(firstSerialNumber + k - 1);
+							a++;
+						}
+					}
+				}
+				atomSerialNumber += template.atomCount;
+				if (bondInflator != null && acceptedCount > 0) {
+					setGroupBonds(template, firstSerialNumber, template.hasHead ? tailSerialNumber : 0, -1, mask);
+				}
+				tailSerialNumber = template.hasTail && template.tailAtomIndex >= 0 && acceptedCount > 0 && mask[template.tailAtomIndex] ? 
+						firstSerialNumber + template.tailAtomIndex : 0;
+				continue;
+			}
+			
+			inflator.setGroupInfo(template.groupName, number, template.insertionCode, template.polymerType, template.atomCount);
+			
+			for (int k = 0; k < template.atomCount; k++, a++) {
+				atomSerialNumber++;
+				inflator.setAtomInfo(atomNames[k], atomSerialNumber, altLocs[k], xf[a], yf[a], zf[a], of[a], bf[a], elements[k]);
+			}
+			
+			if (bondInflator != null) {
+				setGroupBonds(template, firstSerialNumber, template.hasHead ? tailSerialNumber : 0, -1, null);
+			}
+			tailSerialNumber = template.hasTail && template.tailAtomIndex >= 0 ? firstSerialNumber + template.tailAtomIndex : 0;
+		}
+	}
+	
+	/**
+	 * Returns the number of models accepted by the filter.
+	 */
+	private int getAcceptedModelCount() {
+		if (filter == null) {
+			return modelCount;
+		}
+		int count = 0;
+		for (int m = 0; m < modelCount; m++) {
+			if (filter.acceptModel(m)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of chains of a model that contain accepted atoms.
+	 * @param firstChain index of the first chain of the model
+	 * @param firstGroup index of the first group of the first chain
+	 * @param chainCount number of chains of the model
+	 */
+	private int getAcceptedChainCount(int firstChain, int firstGroup, int chainCount) {
+		if (filter == null) {
+			return chainCount;
+		}
+		int count = 0;
+		for (int i = firstChain; i < firstChain + chainCount; i++) {
+			int groupCount = groupCounts.get(i);
+			if (isAccepted(chainIds.get(i)) && getAcceptedGroupCount(groupIndices, firstGroup, groupCount, -1) > 0) {
+				count++;
+			}
+			firstGroup += groupCount;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns true if the current model and a chain are accepted by the filter.
+	 */
+	private boolean isAccepted(String chainId) {
+		return filter == null || (modelAccepted && filter.acceptChain(chainId.trim()));
+	}
+	
+	/**
+	 * Returns the number of groups of a chain that contain accepted atoms of a layer.
+	 * @param templateIndices group template index of each group
+	 * @param firstGroup index of the first group of the chain
+	 * @param groupCount number of groups of the chain
+	 * @param layer layer, or -1 for all atoms
+	 */
+	private int getAcceptedGroupCount(IntList templateIndices, int firstGroup, int groupCount, int layer) {
+		int count = 0;
+		for (int j = firstGroup; j < firstGroup + groupCount; j++) {
+			if (getAcceptedAtomCount(templateIndices.get(j), layer) > 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of accepted atoms of a group template in a layer.
+	 * @param templateIndex
+	 * @param layer layer, or -1 for all atoms
+	 */
+	private int getAcceptedAtomCount(int templateIndex, int layer) {
+		if (filter == null) {
+			return getLayerAtomCount(templates.get(templateIndex), layer);
+		}
+		getTemplateMask(templateIndex);
+		return templateAcceptedCounts[templateIndex][layer < 0 ? LAYER_COUNT : layer];
+	}
+	
+	/**
+	 * Returns the accepted atoms of a group template. The filter is evaluated once per template, the accepted
+	 * atom counts per layer (and in total, at index LAYER_COUNT) are stored in templateAcceptedCounts.
+	 * @param templateIndex
+	 * @return accepted atoms
+	 */
+	private boolean[] getTemplateMask(int templateIndex) {
+		if (templateIndex >= templateMasks.length) {
+			int capacity = Math.max(templateIndex + 1, 2 * templateMasks.length);
+			templateMasks = Arrays.copyOf(templateMasks, capacity);
+			templateAcceptedCounts = Arrays.copyOf(templateAcceptedCounts, capacity);
+		}
+		boolean[] mask = templateMasks[templateIndex];
+		if (mask == null) {
+			GroupTemplate template = templates.get(templateIndex);
+			mask = new boolean[template.atomCount];
+			int[] counts = new int[LAYER_COUNT + 1];
+			String groupName = template.groupName.trim();
+			if (filter.acceptGroup(groupName, template.polymerType)) {
+				for (int k = 0; k < template.atomCount; k++) {
+					mask[k] = filter.acceptAtom(groupName, template.polymerType, template.trimmedAtomNames[k], 
+							template.elements[k], template.altLocs[k]);
+					if (mask[k]) {
+						counts[template.layers[k]]++;
+						counts[LAYER_COUNT]++;
+					}
+				}
+			}
+			templateMasks[templateIndex] = mask;
+			templateAcceptedCounts[templateIndex] = counts;
+		}
+		return mask;
+	}
+	
+	/**
+	 * Moves the accepted atoms of a chain to the beginning of the integer chain arrays.
+	 * @param groupCount number of groups of the chain
+	 * @return number of accepted atoms
+	 */
+	private int compactChain(int groupCount) {
+		int n = 0;
+		for (int j = groupIndex, a = 0; j < groupIndex + groupCount; j++) {
+			int templateIndex = groupIndices.get(j);
+			boolean[] mask = getTemplateMask(templateIndex);
+			for (int k = 0; k < mask.length; k++, a++) {
+				if (mask[k]) {
+					x[n] = x[a];
+					y[n] = y[a];
+					z[n] = z[a];
+					b[n] = b[a];
+					o[n] = o[a];
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * Advances the serial numbers and the group index past a chain that is not reported. The groups of the chain 
+	 * are retained without atoms, so that the chain keeps its serial numbers in the assembly copies.
+	 * @param chainId
+	 * @param groupCount number of groups of the chain
+	 * @param atomCount number of atoms of the chain
+	 */
+	private void skipGroups(String chainId, int groupCount, int atomCount) {
+		if (assemblyInflator != null && ! operatorIds.isEmpty()) {
+			retainChain(chainId, groupCount, 0);
+		}
+		atomSerialNumber += atomCount;
+		groupIndex += groupCount;
+	}
+	
+	/**
+	 * Advances the coordinate, b factor, and occupancy streams past a chain that is not reported. 
+	 * @param groupCount number of groups of the chain
+	 * @param atomCount number of atoms of the chain
+	 * @throws IOException
+	 */
+	private void skipChain(int groupCount, int atomCount) throws IOException {
+		if (referenced) {
+			// the match values must be decoded to locate the next matched atom
+			readMatchedCoordinates(atomCount);
+			return;
+		}
+		if (packed) {
+			coordIndex += 3 * atomCount;
+		} else {
+			readCoordinateDeltas(groupCount);
+		}
+		atomIndex += atomCount;
+	}
+	
+	/**
+	 * Keeps a copy of the groups and float data of a decoded chain, so that the chain can be 
+	 * transformed by the assembly operators after the last chain of the model has been decoded.
+	 */
+	private void retainChain(String chainId, int groupCount, int atomCount) {
+		modelChainIds.add(chainId);
+		modelChainGroups.add(modelTemplateIndices.size());
+		modelChainGroupCounts.add(groupCount);
+		modelChainAtoms.add(modelAtomCount);
+		modelChainAtomCounts.add(atomCount);
+		for (int j = groupIndex; j < groupIndex + groupCount; j++) {
+			modelTemplateIndices.add(groupIndices.get(j));
+			modelGroupNumbers.add(groupNumbers.get(j));
+		}
+		
+		int capacity = modelAtomCount + atomCount;
+		if (capacity > modelX.length) {
+			capacity = Math.max(capacity, 2*modelX.length);
+			modelX = Arrays.copyOf(modelX, capacity);
+			modelY = Arrays.copyOf(modelY, capacity);
+			modelZ = Arrays.copyOf(modelZ, capacity);
+			modelB = Arrays.copyOf(modelB, capacity);
+			modelO = Arrays.copyOf(modelO, capacity);
+		}
+		System.arraycopy(xf, 0, modelX, modelAtomCount, atomCount);
+		System.arraycopy(yf, 0, modelY, modelAtomCount, atomCount);
+		System.arraycopy(zf, 0, modelZ, modelAtomCount, atomCount);
+		System.arraycopy(bf, 0, modelB, modelAtomCount, atomCount);
+		System.arraycopy(of, 0, modelO, modelAtomCount, atomCount);
+		modelAtomCount += atomCount;
+	}
+	
+	/**
+	 * Releases the chains retained for the assembly copies of the previous model.
+	 */
+	private void clearModel() {
+		modelChainIds.clear();
+		modelChainGroups.clear();
+		modelChainGroupCounts.clear();
+		modelChainAtoms.clear();
+		modelChainAtomCounts.clear();
+		modelTemplateIndices.clear();
+		modelGroupNumbers.clear();
+		modelAtomCount = 0;
+	}
+	
+	/**
+	 * Completes a model: reports the structure bonds and the assembly copies of the chains of the model.
+	 */
+	private void finishModel() {
+		if (modelAccepted) {
+			setStructureBonds();
+			setAssemblyCopies();
+		}
+		clearModel();
+		acceptedAtoms.clear();
+	}
+	
+	/**
+	 * Reports the copies of the chains of the current model that are generated by the assembly operators 
+	 * the inflator accepts. The transformations are applied to the retained float coordinates in bulk, one chain 
+	 * at a time.
+	 */
+	private void setAssemblyCopies() {
+		if (assemblyInflator == null) {
+			return;
+		}
+		int chainCount = modelChainIds.size();
+		for (int i = 0; i < operatorIds.size(); i++) {
+			double[] matrix = operatorMatrices.get(i);
+			int[] chains = operatorChains.get(i);
+			int count = 0;
+			for (int c : chains) {
+				if (c < chainCount && getRetainedGroupCount(c) > 0) {
+					count++;
+				}
+			}
+			if (! assemblyInflator.setOperatorInfo(operatorIds.get(i), matrix, count)) {
+				continue;
+			}
+			for (int c : chains) {
+				if (c >= chainCount) {
+					continue;
+				}
+				int start = modelChainAtoms.get(c);
+				int atomCount = modelChainAtomCounts.get(c);
+				int groupCount = modelChainGroupCounts.get(c);
+				int acceptedGroupCount = getRetainedGroupCount(c);
+				if (acceptedGroupCount == 0) {
+					// skipped chains keep their serial numbers
+					for (int j = modelChainGroups.get(c); j < modelChainGroups.get(c) + groupCount; j++) {
+						atomSerialNumber += templates.get(modelTemplateIndices.get(j)).atomCount;
+					}
+					continue;
+				}
+				ensureChainCapacity(atomCount);
+				bulkDecoder.transform(matrix, modelX, modelY, modelZ, start, xf, yf, zf, atomCount);
+				System.arraycopy(modelB, start, bf, 0, atomCount);
+				System.arraycopy(modelO, start, of, 0, atomCount);
 				
-					boolean hasHead =  (flags & HEAD) != 0;
-					if (! hasTail) {
-						xTail = 0;
-						yTail = 0;
-						zTail = 0;
-						bTail = 0;
+				inflator.setChainInfo(modelChainIds.get(c), acceptedGroupCount);
+				setGroups(modelTemplateIndices, modelGroupNumbers, modelChainGroups.get(c), groupCount);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of groups of a retained chain that contain accepted atoms.
+	 * @param chain index of the retained chain
+	 */
+	private int getRetainedGroupCount(int chain) {
+		int groupCount = modelChainGroupCounts.get(chain);
+		if (filter == null) {
+			return groupCount;
+		}
+		if (! isAccepted(modelChainIds.get(chain))) {
+			return 0;
+		}
+		return getAcceptedGroupCount(modelTemplateIndices, modelChainGroups.get(chain), groupCount, -1);
+	}
+	
+	/**
+	 * Reports the bonds of a group: the bond tree, the additional bonds of the template, and the polymer bond to
+	 * the previous group.
+	 * @param template group template
+	 * @param firstSerialNumber serial number of the first atom of the group
+	 * @param tailSerialNumber serial number of the tail atom of the previous group, or 0 if the group is not linked
+	 * @param layer report only the bonds completed by the atoms of this layer (progressive layout), or -1 for all bonds
+	 * @param mask atoms accepted by the filter, or null for all atoms
+	 */
+	private void setGroupBonds(GroupTemplate template, int firstSerialNumber, int tailSerialNumber, int layer, boolean[] mask) {
+		byte[] layers = template.layers;
+		if (tailSerialNumber > 0 && template.atomCount > 0 && (layer < 0 || layers[0] == layer) && (mask == null || mask[0])) {
+			bondInflator.setBondInfo(tailSerialNumber, firstSerialNumber, 1);
+		}
+		int[] references = template.references;
+		for (int k = 0; k < template.atomCount; k++) {
+			int reference = references[k];
+			if (reference >= 0 && (layer < 0 || Math.max(layers[reference], layers[k]) == layer) && 
+					(mask == null || (mask[reference] && mask[k]))) {
+				bondInflator.setBondInfo(firstSerialNumber + reference, firstSerialNumber + k, BondInflatorInterface.UNKNOWN_BOND_ORDER);
+			}
+		}
+		int[] bonds = template.bonds;
+		for (int i = 0; i < template.bondOrders.length; i++) {
+			int atom1 = bonds[2*i];
+			int atom2 = bonds[2*i+1];
+			if ((layer < 0 || Math.max(layers[atom1], layers[atom2]) == layer) &&
+					(mask == null || (mask[atom1] && mask[atom2]))) {
+				bondInflator.setBondInfo(firstSerialNumber + atom1, firstSerialNumber + atom2, template.bondOrders[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Reports the bonds between arbitrary atoms of the current model (BOND record). 
+	 * Bonds to atoms beyond the last atom of the model are ignored.
+	 */
+	private void setStructureBonds() {
+		if (bondInflator == null) {
+			return;
+		}
+		for (int i = 0; i < structureBondOrders.size(); i++) {
+			int serialNumber1 = structureBonds.get(2*i) + 1;
+			int serialNumber2 = structureBonds.get(2*i+1) + 1;
+			if (filter != null && ! (acceptedAtoms.get(serialNumber1 - 1) && acceptedAtoms.get(serialNumber2 - 1))) {
+				continue;
+			}
+			if (serialNumber1 <= atomSerialNumber && serialNumber2 <= atomSerialNumber) {
+				bondInflator.setBondInfo(serialNumber1, serialNumber2, structureBondOrders.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Reads the coordinate deltas of the atoms of a chain into the x, y, z arrays. Encoded values are 
+	 * collected, together with the bond length and the atom index, to be unpacked in bulk.
+	 * @param groupCount number of groups in the chain
+	 * @return number of encoded values
+	 * @throws IOException
+	 */
+	private int readCoordinateDeltas(int groupCount) throws IOException {
+		int encodedCount = 0;
+		boolean hasTail = false;
+		
+		for (int j = 0, a = 0; j < groupCount; j++) {
+			GroupTemplate template = templates.get(groupIndices.get(groupIndex + j));
+			int[] references = template.references;
+			int[] bondLengths = template.bondLengths;
+			
+			// the head atom (atom 0) is bonded to the tail atom of the previous group
+			boolean linked = template.hasHead && hasTail;
+			
+			for (int k = 0; k < template.atomCount; k++, a++) {
+				if (packed) {
+					x[a] = coordValues[coordIndex++];
+					y[a] = coordValues[coordIndex++];
+					if (predictive && template.isPredicted(k)) {
+						// residual to the predicted position
+						z[a] = coordValues[coordIndex++];
+					} else {
+						z[a] = BitEncoder.fromFoldedZ(getBondLength(template, k, linked), x[a], y[a], coordValues[coordIndex++]);
 					}
+					continue;
+				}
+				int v = readNextInt();
+				if (intType == ENCODED_COORDINATE_TYPE) {
+					int bondLength = getBondLength(template, k, linked);
+					encodedWords[encodedCount] = v;
+					encodedDistances[encodedCount] = bondLength;
+					encodedAtoms[encodedCount] = a;
+					encodedCount++;
+					if (statistics != null) {
+						statistics.countAtom(bondLength, true, 0, 0, 0);
+					}
+				} else {
+					x[a] = v;
+					y[a] = readNextInt();
+					z[a] = readNextInt();
+					if (statistics != null) {
+						statistics.countAtom(getBondLength(template, k, linked), false, x[a], y[a], z[a]);
+					}
+				}
+			}
+			hasTail = template.hasTail;
+		}
+		return encodedCount;
+	}
+	
+	/**
+	 * Returns the length of the bond between atom k of a group and its reference atom.
+	 * @param template group template
+	 * @param k atom index
+	 * @param linked true if the group is linked to the tail atom of the previous group
+	 * @return bond length, or 0 if the atom has no reference atom
+	 */
+	private static int getBondLength(GroupTemplate template, int k, boolean linked) {
+		if (template.references[k] >= 0) {
+			return template.bondLengths[k];
+		} else if (k == 0 && linked) {
+			return template.headBondLength;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Converts the coordinate deltas of the atoms of a chain to integer coordinates by adding the coordinates 
+	 * of the reference atoms, and sets the integer b factors and occupancies.
+	 * @param groupCount number of groups in the chain
+	 */
+	private void addReferenceCoordinates(int groupCount) {
+		// integer atom coordinates and b-factor
+		int xOffset = 0;
+		int yOffset = 0;
+		int zOffset = 0;
+		int bOffset = 0;
+
+		// integer atom coordinates and b-factor for the 
+		// polymer tail atom from the previous group (residue)
+		int xTail = 0;
+		int yTail = 0;
+		int zTail = 0;
+		int bTail = 0;
+		boolean hasTail = false;
+		
+		for (int j = 0, a = 0; j < groupCount; j++) {
+			GroupTemplate template = templates.get(groupIndices.get(groupIndex + j));
+			int[] references = template.references;
+			int tailAtomIndex = template.tailAtomIndex;
+			
+			boolean linked = template.hasHead && hasTail;
+			if (! hasTail) {
+				xTail = 0;
+				yTail = 0;
+				zTail = 0;
+				bTail = 0;
+			}
+			
+			// index of the first atom of this group in the chain arrays
+			int start = a;
 
-					int index = 0;
-					String groupName = info[index++];
-					char insertionCode = info[index++].charAt(0);
+			for (int k = 0; k < template.atomCount; k++, a++) {
+				int reference = references[k];
+				if (reference >= 0) {
+					// use coordinates from a previous atom in this group
+					xOffset = x[start + reference];
+					yOffset = y[start + reference];
+					zOffset = z[start + reference];
+					bOffset = b[start + reference];
+				} else if (k == 0 && linked) {
+					xOffset = xTail;
+					yOffset = yTail;
+					zOffset = zTail;
+					bOffset = bTail;
+				}
+				if (predictive && template.isPredicted(k)) {
+					template.predict(k, x, y, z, start, predicted);
+					xOffset = predicted[0];
+					yOffset = predicted[1];
+					zOffset = predicted[2];
+				}
 
-					int polymerType = 0;
-					if (isAminoAcid) {
-						polymerType = 1;
-					} else if (isNucleotide) {
-						polymerType = 2;
-					} 
-					
-					inflator.setGroupInfo(groupName, groupNumber, insertionCode, polymerType, atomCount);
-
-					// no group is larger than MAX_GROUP_SIZE, but
-					// just in case that ever changes, accommodate large sizes
-					if (atomCount > MAX_GROUP_SIZE) {
-						x = new int[atomCount];
-						y = new int[atomCount];
-						z = new int[atomCount];
-						b = new int[atomCount];
-					}
+				xOffset += x[a];
+				yOffset += y[a];
+				zOffset += z[a];
+				if (useBfactor) {
+					bOffset += bFactors[atomIndex];
+				}
+				o[a] = useOccupancy ? occupancy[atomIndex] : boScale;
+				atomIndex++;
 
-					for (int k = 0; k < atomCount; k++) {
-						String atomName = info[index++];
-						String atomNameTrimmed = atomName.trim();
-						String element = info[index++];
-						char altLoc = info[index++].charAt(0);
+				x[a] = xOffset;
+				y[a] = yOffset;
+				z[a] = zOffset;
+				b[a] = bOffset;
+
+				if (k == tailAtomIndex) {
+					xTail = xOffset;
+					yTail = yOffset;
+					zTail = zOffset;
+					bTail = bOffset;
+				}			
+			}
 
+			hasTail = template.hasTail;
+		}
+	}
+	
+	/**
+	 * Computes the index of the first chain and first atom of each model, the index of the first group of each 
+	 * chain, and the layer of each atom, and allocates the integer arrays for all atoms of the structure (progressive layout).
+	 */
+	private void prepareLayers() {
+		modelChainStarts = new int[modelCount];
+		modelAtomStarts = new int[modelCount + 1];
+		chainGroupStarts = new IntList(chainIds.size());
+		for (int c = 0, g = 0; c < chainIds.size(); c++) {
+			chainGroupStarts.add(g);
+			g += groupCounts.get(c);
+		}
+		
+		int atomCount = 0;
+		for (int m = 0, c = 0; m < modelCount; m++) {
+			modelChainStarts[m] = homogeneousModel ? 0 : c;
+			modelAtomStarts[m] = atomCount;
+			int chainCount = chainCounts.get(homogeneousModel ? 0 : m);
+			for (int i = modelChainStarts[m]; i < modelChainStarts[m] + chainCount; i++) {
+				int firstGroup = chainGroupStarts.get(i);
+				for (int j = firstGroup; j < firstGroup + groupCounts.get(i); j++) {
+					atomCount += templates.get(groupIndices.get(j)).atomCount;
+				}
+			}
+			c += chainCount;
+		}
+		modelAtomStarts[modelCount] = atomCount;
+		
+		structureX = new int[atomCount];
+		structureY = new int[atomCount];
+		structureZ = new int[atomCount];
+		structureB = new int[atomCount];
+		structureO = new int[atomCount];
+		atomLayers = new byte[atomCount];
+		
+		for (int m = 0, a = 0; m < modelCount; m++) {
+			int chainCount = chainCounts.get(homogeneousModel ? 0 : m);
+			for (int i = modelChainStarts[m]; i < modelChainStarts[m] + chainCount; i++) {
+				int firstGroup = chainGroupStarts.get(i);
+				for (int j = firstGroup; j < firstGroup + groupCounts.get(i); j++) {
+					GroupTemplate template = templates.get(groupIndices.get(j));
+					System.arraycopy(template.layers, 0, atomLayers, a, template.atomCount);
+					a += template.atomCount;
+					for (int l = 0; l < LAYER_COUNT; l++) {
+						layerAtomCounts[l] += template.layerAtomCounts[l];
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Decodes the integer coordinates, b factors, and occupancies of the atoms of a layer (progressive layout). 
+	 * The deltas of an atom refer to its reference atom, if the reference atom belongs to this or a previous layer, 
+	 * or to the tail atom of the previous group for a linked head atom. Otherwise, they refer to the previous atom 
+	 * of the layer in the same chain. Atoms of later layers are never referenced, so that each layer can be decoded 
+	 * once the previous layers are available.
+	 * @param layer
+	 * @throws IOException
+	 */
+	private void decodeLayer(int layer) throws IOException {
+		atomIndex = 0;
+		for (int m = 0; m < modelCount; m++) {
+			int chainCount = chainCounts.get(homogeneousModel ? 0 : m);
+			int a = modelAtomStarts[m];
+			for (int i = modelChainStarts[m]; i < modelChainStarts[m] + chainCount; i++) {
+				int firstGroup = chainGroupStarts.get(i);
+				// index of the previous atom of this layer in the chain, and of the tail atom of the previous group
+				int previous = -1;
+				int tail = -1;
+				for (int j = firstGroup; j < firstGroup + groupCounts.get(i); j++) {
+					GroupTemplate template = templates.get(groupIndices.get(j));
+					byte[] layers = template.layers;
+					int[] references = template.references;
+					int start = a;
+					
+					for (int k = 0; k < template.atomCount; k++, a++) {
+						if (layers[k] != layer) {
+							continue;
+						}
+						int reference = previous;
 						int bondLength = 0;
-						if (bondList[k] >=0) {
-							bondLength = bondList[atomCount+k];
-						} else if (k == 0 && hasHead && hasTail) {
-							if (isAminoAcid) {
-								bondLength = PEPTIDE_BOND_LENGTH;
-							} else if (isNucleotide) {
-								bondLength = NUCLEOTIDE_BOND_LENGTH;
-							}
+						if (references[k] >= 0 && layers[references[k]] <= layer) {
+							reference = start + references[k];
+							bondLength = template.bondLengths[k];
+						} else if (k == 0 && template.hasHead && tail >= 0) {
+							reference = tail;
+							bondLength = template.headBondLength;
 						}
-
-						int[] xyz = decodeCoords(bondLength);
 						
-						if (bondList[k] >=0) {
-							// use coordinates from a previous atom in this group
-							int reference = bondList[k];
-							xOffset = x[reference];
-							yOffset = y[reference];
-							zOffset = z[reference];
-							bOffset = b[reference];
-						} else if (k == 0 && hasTail && hasHead) {
-							xOffset = xTail;
-							yOffset = yTail;
-							zOffset = zTail;
-							bOffset = bTail;
+						int dx = coordValues[coordIndex++];
+						int dy = coordValues[coordIndex++];
+						int dz = BitEncoder.fromFoldedZ(bondLength, dx, dy, coordValues[coordIndex++]);
+						int db = useBfactor ? bFactors[atomIndex] : 0;
+						if (reference >= 0) {
+							structureX[a] = structureX[reference] + dx;
+							structureY[a] = structureY[reference] + dy;
+							structureZ[a] = structureZ[reference] + dz;
+							structureB[a] = structureB[reference] + db;
+						} else {
+							structureX[a] = dx;
+							structureY[a] = dy;
+							structureZ[a] = dz;
+							structureB[a] = db;
 						}
-
-						xOffset += xyz[0];
-						yOffset += xyz[1];
-						zOffset += xyz[2];
-						if (useBfactor) {
-							bOffset += bFactors.get(atomIndex);
+						structureO[a] = useOccupancy ? occupancy[atomIndex] : boScale;
+						atomIndex++;
+						previous = a;
+					}
+					tail = template.hasTail && template.tailAtomIndex >= 0 ? start + template.tailAtomIndex : -1;
+				}
+			}
+		}
+		if (atomIndex != layerAtomCounts[layer]) {
+			throw new IOException("StructureDecoder: Invalid atom count in layer: " + layer);
+		}
+	}
+	
+	/**
+	 * Checks that all layers that contain atoms have been decoded, and reports the complete structure to 
+	 * inflators that do not implement the LayerInflatorInterface (progressive layout).
+	 * @throws IOException
+	 */
+	private void finishLayers() throws IOException {
+		if (layer < 0) {
+			prepareLayers();
+		}
+		for (int l = layer + 1; l < LAYER_COUNT; l++) {
+			if (layerAtomCounts[l] > 0) {
+				throw new IOException("StructureDecoder: Missing layer: " + l);
+			}
+		}
+		if (layerInflator == null) {
+			setLayer(-1);
+		}
+	}
+	
+	/**
+	 * Reports the atoms of a layer to the inflator (progressive layout). Chains and groups without atoms in the 
+	 * layer (or without accepted atoms, if a filter is set) are omitted. Atoms keep the serial numbers of the 
+	 * complete structure.
+	 * @param layer layer to be reported, or -1 for all atoms
+	 */
+	private void setLayer(int layer) {
+		inflator.setModelCount(getAcceptedModelCount());
+		for (int m = 0; m < modelCount; m++) {
+			modelAccepted = filter == null || filter.acceptModel(m);
+			if (! modelAccepted) {
+				continue;
+			}
+			int firstChain = modelChainStarts[m];
+			int chainCount = chainCounts.get(homogeneousModel ? 0 : m);
+			acceptedAtoms.clear();
+			
+			int layerChainCount = 0;
+			for (int i = firstChain; i < firstChain + chainCount; i++) {
+				if (getLayerGroupCount(i, layer) > 0) {
+					layerChainCount++;
+				}
+			}
+			inflator.setModelInfo(m, layerChainCount);
+			
+			int modelStart = modelAtomStarts[m];
+			int a = modelStart;
+			for (int i = firstChain; i < firstChain + chainCount; i++) {
+				int firstGroup = chainGroupStarts.get(i);
+				int groupCount = groupCounts.get(i);
+				int layerGroupCount = getLayerGroupCount(i, layer);
+				if (layerGroupCount > 0) {
+					inflator.setChainInfo(chainIds.get(i), layerGroupCount);
+				}
+				
+				// serial number of the polymer tail atom of the previous group, or 0
+				int tailSerialNumber = 0;
+				boolean chainAccepted = isAccepted(chainIds.get(i));
+				for (int j = firstGroup; j < firstGroup + groupCount; j++) {
+					int templateIndex = groupIndices.get(j);
+					GroupTemplate template = templates.get(templateIndex);
+					boolean[] mask = filter == null ? null : getTemplateMask(templateIndex);
+					int firstSerialNumber = a - modelStart + 1;
+					if (! chainAccepted) {
+						a += template.atomCount;
+						continue;
+					}
+					int layerAtomCount = getAcceptedAtomCount(templateIndex, layer);
+					if (layerAtomCount > 0) {
+						inflator.setGroupInfo(template.groupName, groupNumbers.get(j), template.insertionCode, template.polymerType, 
+								layerAtomCount);
+						for (int k = 0; k < template.atomCount; k++) {
+							if ((layer < 0 || template.layers[k] == layer) && (mask == null || mask[k])) {
+								inflator.setAtomInfo(template.atomNames[k], firstSerialNumber + k, template.altLocs[k],
+										structureX[a+k] * xyzPrecision, structureY[a+k] * xyzPrecision, structureZ[a+k] * xyzPrecision, 
+										structureO[a+k] * boPrecision, structureB[a+k] * boPrecision, template.elements[k]);
+							}
 						}
-
-						int occ = BO_SCALE;
-						if (useOccupancy) {
-							occ = occupancy[atomIndex];
+					}
+					if (mask != null) {
+						for (int k = 0; k < template.atomCount; k++) {
+							if (mask[k]) {
+								acceptedAtoms.set(firstSerialNumber + k - 1);
+							}
 						}
-						atomIndex++;
-						atomSerialNumber++;
-
-						x[k] = xOffset;
-						y[k] = yOffset;
-						z[k] = zOffset;
-						b[k] = bOffset;
-
-						inflator.setAtomInfo(atomName, atomSerialNumber, altLoc, xOffset*XYZ_PRECISION, yOffset*XYZ_PRECISION, zOffset*XYZ_PRECISION, occ*BO_PRECISION, bOffset*BO_PRECISION, element);
-
-						if ((isAminoAcid && atomNameTrimmed.equals(PEPTIDE_TAIL_ATOM_NAME) || (isNucleotide && atomNameTrimmed.equals(NUCLEOTIDE_TAIL_ATOM_NAME)))) {
-							xTail = xOffset;
-							yTail = yOffset;
-							zTail = zOffset;
-							bTail = bOffset;
-						}			
 					}
-					
-					hasTail =  (flags & TAIL) != 0;
+					if (bondInflator != null) {
+						setGroupBonds(template, firstSerialNumber, template.hasHead ? tailSerialNumber : 0, layer, mask);
+					}
+					tailSerialNumber = template.hasTail && template.tailAtomIndex >= 0 && (mask == null || mask[template.tailAtomIndex]) ? 
+							firstSerialNumber + template.tailAtomIndex : 0;
+					a += template.atomCount;
 				}
 			}
+			
+			if (bondInflator != null) {
+				setLayerStructureBonds(modelStart, modelAtomStarts[m+1] - modelStart, layer);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of groups of a chain that contain atoms of a layer.
+	 * @param chain chain index
+	 * @param layer layer, or -1 for all atoms
+	 */
+	private int getLayerGroupCount(int chain, int layer) {
+		if (! isAccepted(chainIds.get(chain))) {
+			return 0;
+		}
+		return getAcceptedGroupCount(groupIndices, chainGroupStarts.get(chain), groupCounts.get(chain), layer);
+	}
+	
+	private static int getLayerAtomCount(GroupTemplate template, int layer) {
+		return layer < 0 ? template.atomCount : template.layerAtomCounts[layer];
+	}
+	
+	/**
+	 * Reports the structure bonds of a model (BOND record) that are completed by the atoms of a layer (progressive layout).
+	 * @param modelStart index of the first atom of the model
+	 * @param modelAtomCount number of atoms of the model
+	 * @param layer layer, or -1 for all bonds
+	 */
+	private void setLayerStructureBonds(int modelStart, int modelAtomCount, int layer) {
+		for (int i = 0; i < structureBondOrders.size(); i++) {
+			int atom1 = structureBonds.get(2*i);
+			int atom2 = structureBonds.get(2*i+1);
+			if (atom1 >= modelAtomCount || atom2 >= modelAtomCount) {
+				continue;
+			}
+			if (filter != null && ! (acceptedAtoms.get(atom1) && acceptedAtoms.get(atom2))) {
+				continue;
+			}
+			if (layer < 0 || Math.max(atomLayers[modelStart + atom1], atomLayers[modelStart + atom2]) == layer) {
+				bondInflator.setBondInfo(atom1 + 1, atom2 + 1, structureBondOrders.get(i));
+			}
 		}
 	}
 	
+	/**
+	 * Sets the integer coordinates, b factors, and occupancies of the atoms of a chain (reference-based encoding). 
+	 * The values of an atom that matches an atom of the reference entry are differences to the matched atom,
+	 * otherwise they are differences to the previous atom of the chain.
+	 * @param atomCount number of atoms in the chain
+	 * @throws IOException if an atom is matched to an atom that does not exist in the reference entry
+	 */
+	private void readMatchedCoordinates(int atomCount) throws IOException {
+		IntList referenceX = reference.capturedX;
+		IntList referenceY = reference.capturedY;
+		IntList referenceZ = reference.capturedZ;
+		IntList referenceB = reference.capturedB;
+		int referenceAtomCount = referenceX.size();
+		
+		for (int a = 0; a < atomCount; a++) {
+			int match = matchValues[matchIndex++];
+			int dx = coordValues[coordIndex++];
+			int dy = coordValues[coordIndex++];
+			int dz = coordValues[coordIndex++];
+			int db = useBfactor ? bFactors[atomIndex] : 0;
+			if (match > 0) {
+				int r = nextReferenceAtom + PackedIntegers.zigzagDecode(match - 1);
+				if (r < 0 || r >= referenceAtomCount) {
+					throw new IOException("StructureDecoder: Invalid reference atom: " + r);
+				}
+				x[a] = referenceX.get(r) + dx;
+				y[a] = referenceY.get(r) + dy;
+				z[a] = referenceZ.get(r) + dz;
+				b[a] = referenceB.get(r) + db;
+				nextReferenceAtom = r + 1;
+			} else if (a > 0) {
+				x[a] = x[a-1] + dx;
+				y[a] = y[a-1] + dy;
+				z[a] = z[a-1] + dz;
+				b[a] = b[a-1] + db;
+			} else {
+				x[a] = dx;
+				y[a] = dy;
+				z[a] = dz;
+				b[a] = db;
+			}
+			o[a] = useOccupancy ? occupancy[atomIndex] : boScale;
+			atomIndex++;
+		}
+	}
+	
+	private void ensureChainCapacity(int atomCount) {
+		if (atomCount <= x.length) {
+			return;
+		}
+		int capacity = Math.max(atomCount, 2*x.length);
+		x = new int[capacity];
+		y = new int[capacity];
+		z = new int[capacity];
+		b = new int[capacity];
+		o = new int[capacity];
+		xf = new float[capacity];
+		yf = new float[capacity];
+		zf = new float[capacity];
+		bf = new float[capacity];
+		of = new float[capacity];
+		encodedWords = new int[capacity];
+		encodedDistances = new int[capacity];
+		encodedAtoms = new int[capacity];
+		encodedX = new int[capacity];
+		encodedY = new int[capacity];
+		encodedZ = new int[capacity];
+	}
+	
+	/**
+	 * Releases the data of a decoded chain chunk (streaming layout).
+	 */
+	private void clearChain() {
+		sequenceIndices.clear();
+		chainIds.clear();
+		groupCounts.clear();
+		groupIndices.clear();
+		groupNumbers.clear();
+		useBfactor = false;
+		useOccupancy = false;
+	}
+	
 	/**
 	 * Returns the next integer from the dataInputStream and sets its type (intType):
 	 *  SHORT_COORDINATE_TYPE: the integer values are decoded as shorts (2 byte signed integers)
@@ -454,34 +2035,12 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 			break;
 		}
 
+		if (statistics != null) {
+			statistics.countValue(intType);
+		}
 		return v;
 	}
 	
-	/**
-	 * Returns the integer coordinates of an atom decoded from the dataInputStream. 
-	 * The coordinates represented deltas to the coordinates of a previous reference atom. 
-	 * If the integer is of type ENCODED_COORDINATE_TYPE, then the deltaX, deltaY, and deltaZ
-	 * coordinates are decoded from a single integer, using the standard bond length as a parameter.
-	 * @param bondLength standard bond length
-	 * @return array representing the deltaX, deltaY, and deltaZ coordinates of an atom
-	 * @throws IOException
-	 */
-	private int[] decodeCoords(int bondLength) throws IOException {
-		int v = readNextInt();
-		if (intType == ENCODED_COORDINATE_TYPE) {
-			// decodes the deltaX (buffer[0]), deltaY (buffer[1]), and deltaZ (buffer[2]) coordinates
-			// from a single 32-bit integer value, using the standard bond length as a parameter
-			BitEncoder.fromInt(v, bondLength, b4, buffer);
-		} else {
-			// decodes the deltaX (buffer[0]), deltaY (buffer[1]), and deltaZ (buffer[2]) coordinates
-			// from three integer values
-			buffer[0] = v;
-			buffer[1] = readNextInt();
-			buffer[2] = readNextInt();
-		}
-		return buffer;
-	}
-
 	/**
 	 * Returns a string representing the information of a group (residue), including
 	 * group name, insertion code, atom name (4-character PDB atom name, may include spaces), 
@@ -509,6 +2068,27 @@ public class StructureDecoderImpl1 extends StructureDecoder {
 		return info;
 	}
 
+	/**
+	 * Inflator that ignores all data (used to decode reference entries).
+	 */
+	private static class NullInflator implements StructureInflatorInterface {
+		public void setModelCount(int modelCount) {
+		}
+
+		public void setModelInfo(int modelNumber, int chainCount) {
+		}
+
+		public void setChainInfo(String chainId, int groupCount) {
+		}
+
+		public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+		}
+
+		public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId, 
+				float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+		}
+	}
+	
 	private String readFixedLengthString(int length) throws IOException {
 		byte[] bytes = new byte[length];
 		inStream.read(bytes);
@@ -0,0 +1,1986 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.AMINO_ACID;
+import static org.rcsb.codec.CodecConstants.ANGLE_SCALE;
+import static org.rcsb.codec.CodecConstants.ASSEMBLY;
+import static org.rcsb.codec.CodecConstants.BFACTOR;
+import static org.rcsb.codec.CodecConstants.BOND;
+import static org.rcsb.codec.CodecConstants.BO_SCALE;
+import static org.rcsb.codec.CodecConstants.BYTE2_ENCODED_MARKER;
+import static org.rcsb.codec.CodecConstants.BYTE2_INTEGER_MARKER;
+import static org.rcsb.codec.CodecConstants.BYTE2_MAX_VALUE;
+import static org.rcsb.codec.CodecConstants.BYTE2_MIN_VALUE;
+import static org.rcsb.codec.CodecConstants.BYTE4_ENCODED_MARKER;
+import static org.rcsb.codec.CodecConstants.BYTE4_INTEGER_MARKER;
+import static org.rcsb.codec.CodecConstants.BYTE4_SHORT_MARKER;
+import static org.rcsb.codec.CodecConstants.CHAIN;
+import static org.rcsb.codec.CodecConstants.COORD;
+import static org.rcsb.codec.CodecConstants.COPY;
+import static org.rcsb.codec.CodecConstants.ENCODED_COORDINATE_TYPE;
+import static org.rcsb.codec.CodecConstants.END;
+import static org.rcsb.codec.CodecConstants.GEOMETRY;
+import static org.rcsb.codec.CodecConstants.GINFO;
+import static org.rcsb.codec.CodecConstants.GROUP;
+import static org.rcsb.codec.CodecConstants.HEAD;
+import static org.rcsb.codec.CodecConstants.INTEGER_COORDINATE_TYPE;
+import static org.rcsb.codec.CodecConstants.LAYER;
+import static org.rcsb.codec.CodecConstants.LAYER_COUNT;
+import static org.rcsb.codec.CodecConstants.LOSSY_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.MAGIC_NUMBER;
+import static org.rcsb.codec.CodecConstants.MAJOR_VERSIONS;
+import static org.rcsb.codec.CodecConstants.MATCH;
+import static org.rcsb.codec.CodecConstants.MINOR_VERSIONS;
+import static org.rcsb.codec.CodecConstants.MODEL;
+import static org.rcsb.codec.CodecConstants.NON_POLYMER;
+import static org.rcsb.codec.CodecConstants.NUCLEOTIDE;
+import static org.rcsb.codec.CodecConstants.NUCLEOTIDE_HEAD_ATOM_NAME;
+import static org.rcsb.codec.CodecConstants.OCCUPANCY;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PEPTIDE_HEAD_ATOM_NAME;
+import static org.rcsb.codec.CodecConstants.PRECISION;
+import static org.rcsb.codec.CodecConstants.PREDICTIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PROGRESSIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.REFERENCE;
+import static org.rcsb.codec.CodecConstants.REFERENCE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.SHORT_COORDINATE_TYPE;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STREAMING_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STRUCTURE;
+import static org.rcsb.codec.CodecConstants.SUMMARY;
+import static org.rcsb.codec.CodecConstants.TAIL;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * StructureDeflator encodes structures in the HESC format (compression method 1 - 7, see setCompressionMethod
+ * and setPrecision). It implements the StructureInflatorInterface, so that it accepts a structure through the same callbacks that the decoder
+ * issues, e.g., from a parser adapter or directly from a StructureInflator (re-encoding). After the last atom
+ * of a structure, writeStructure() writes the structure to the output stream. Several structures can be written
+ * to the same stream; they can be read with StructureInflator.readNext() or the HescStructureReader.
+ * <p>
+ * Usage:
+ * <pre>
+ *    StructureDeflator deflator = StructureDeflator.open(file);
+ *    deflator.setModelCount(..), deflator.setModelInfo(..), deflator.setChainInfo(..) ..
+ *    deflator.writeStructure();
+ *    deflator.close();
+ * </pre>
+ * The atoms of a structure are collected as integers, and the records are encoded into buffers that are reused
+ * for all structures, so that memory use is proportional to the largest structure. Each structure is passed to
+ * the output stream with a single write call.
+ * <p>
+ * Group templates are identified by group name, insertion code, polymer type, and the names, elements, and alternative
+ * location ids of their atoms. The bond tree and the atom order of a new template minimize the encoded size of the
+ * first group that uses the template (see createTemplate), and the atoms of all groups are passed to the decoder in the
+ * atom order of their template. Coordinate deltas are encoded as a single BitEncoder value if the decoded value
+ * reproduces the delta exactly, otherwise as 2 or 4 byte integers (compression methods 1 and 2), or as packed integer
+ * streams (compression methods 4 and 7, see PackedIntegers). Serial numbers are not stored, the decoder numbers
+ * atoms sequentially within each model.
+ * <p>
+ * Bonds passed to setBondInfo (BondInflatorInterface) are encoded in a BOND record, unless the decoder reports them
+ * from the bond tree of a group template or as polymer bonds (see collectBonds). The operators of a biological
+ * assembly (addAssemblyOperator) are encoded in an ASSEMBLY record, except for compression method 5, which does not
+ * support assemblies.
+ * <p>
+ * Each structure starts with a SUMMARY record (see SpatialSummary), so that spatial queries can be answered
+ * from the first records of a file. Structures with a precision other than the default (see setPrecision) are
+ * preceded by a PRECISION record.
+ * <p>
+ * For compression method 3, the topology and coordinate records of each chain form a chunk, so that the decoder
+ * keeps only one chain in memory. The encoder still collects the complete structure before writing it.
+ * <p>
+ * For compression method 5, the atoms are written in layers (see GroupTemplate), up to the last layer with atoms.
+ * <p>
+ * For compression method 6, the structure is encoded as a difference to a reference entry (see setReference), which
+ * is decoded first. Groups whose group name, insertion code, polymer type, and atoms are those of a group template of
+ * the reference use that template and its atom order. Runs of groups that appear in the same order in the reference
+ * chain with the same chain id are copied from the reference (COPY record). An atom matches the atom of the reference 
+ * with the same model, chain id, group number, insertion code, group name, atom name, and alternative location id.
+ * <p>
+ * For compression method 7, the bond angle and torsion angle of each template atom are the averages over all groups
+ * that use the template. An atom is predicted from this geometry only if the residuals of all its groups are smaller
+ * than the deltas to the reference atom.
+ *
+ * @author Peter Rose
+ *
+ */
+public class StructureDeflator implements StructureInflatorInterface, BondInflatorInterface, Closeable {
+	/**
+	 * Maximum distance in Angstroms between an atom and its reference atom in the bond tree of a group template.
+	 * Atoms without a preceding atom within this distance are encoded relative to the previous atom.
+	 */
+	public static final double MAX_BOND_DISTANCE = 2.0;
+
+	/**
+	 * Version of the encoder, incremented whenever the encoded output for the same input changes.
+	 */
+	public static final int ENCODER_VERSION = 3;
+
+	/**
+	 * Minimum number of groups copied by a COPY record, which is larger than two GROUP records.
+	 */
+	private static final int MIN_COPY_LENGTH = 3;
+
+	private OutputStream outStream;
+	private int compressionMethod = STANDARD_COMPRESSION;
+	private int xyzScale = XYZ_SCALE;
+	private int boScale = BO_SCALE;
+	private String referenceId = null;
+	private ReferenceResolver referenceResolver = null;
+
+	// topology of the current structure: chains of each model, groups of each chain, atoms of each group
+	private int modelCount = 0;
+	private IntList modelChainStarts = new IntList();
+	private List<String> chainIds = new ArrayList<String>();
+	private IntList chainGroupStarts = new IntList();
+	private IntList groupTemplates = new IntList(1024);
+	private IntList groupNumbers = new IntList(1024);
+	private IntList groupAtomStarts = new IntList(1024);
+
+	// integer coordinates, b factors, and occupancies of all atoms of the current structure
+	private IntList x = new IntList(4096);
+	private IntList y = new IntList(4096);
+	private IntList z = new IntList(4096);
+	private IntList b = new IntList(4096);
+	private IntList o = new IntList(4096);
+	private IntList serialNumbers = new IntList(4096);
+
+	// bonds of the current structure: model index and serial numbers of the atoms, and bond order
+	private IntList bondAtoms = new IntList();
+	private IntList bondOrders = new IntList();
+
+	// group that is being collected
+	private boolean inGroup = false;
+	private String groupName;
+	private char insertionCode;
+	private int polymerType;
+	private List<String> atomNames = new ArrayList<String>();
+	private List<String> elements = new ArrayList<String>();
+	private StringBuilder altLocs = new StringBuilder();
+	private StringBuilder key = new StringBuilder();
+
+	// group templates of the current structure, in the order of their GINFO records
+	private List<GroupTemplate> templates = new ArrayList<GroupTemplate>();
+	// key of each group template, and the indices of the group templates by the hash code of their key
+	private List<String> templateKeys = new ArrayList<String>();
+	private Map<Integer, IntList> templateIndices = new HashMap<Integer, IntList>();
+	private List<int[]> templateOrders = new ArrayList<int[]>();
+	// number of group templates whose GINFO record has been written, and the index of each group template in 
+	// the encoded structure (-1 until its GINFO record has been written, unless it is a template of the reference entry)
+	private int templatesWritten = 0;
+	private IntList templateNumbers = new IntList();
+
+	// BOND record: template index, atom indices, and order of each template bond, and 
+	// model-relative atom indices and order of each structure bond
+	private IntList templateBonds = new IntList();
+	private IntList structureBonds = new IntList();
+
+	// ASSEMBLY record: id, matrix, and chain indices of each operator
+	private List<String> operatorIds = new ArrayList<String>();
+	private List<double[]> operatorMatrices = new ArrayList<double[]>();
+	private List<int[]> operatorChains = new ArrayList<int[]>();
+
+	// reference entry of the current structure (compression method 6): decoded reference entry, index of the 
+	// first chain of each model and of the first group of each chain, and the index of each atom by match key
+	private StructureDecoderImpl1 reference = null;
+	private IntList referenceModelChainStarts = new IntList();
+	private IntList referenceChainGroupStarts = new IntList();
+	private Map<String, Integer> referenceAtoms = new HashMap<String, Integer>();
+
+	// buffers that are reused for all structures
+	private ByteArrayOutputStream structureBytes = new ByteArrayOutputStream(65536);
+	private DataOutputStream structureOut = new DataOutputStream(structureBytes);
+	private IntegerStream coordStream = new IntegerStream();
+	private IntegerStream bFactorStream = new IntegerStream();
+	private IntList coordValues = new IntList(4096);
+	private IntList bFactorValues = new IntList(4096);
+	private IntList occupancyValues = new IntList(4096);
+	private IntList matchValues = new IntList(4096);
+	private ByteArrayOutputStream packedBytes = new ByteArrayOutputStream(65536);
+	private List<int[]> templateAngles = new ArrayList<int[]>();
+	private List<int[]> templateTorsions = new ArrayList<int[]>();
+	private int[] predicted = new int[3];
+	private int[] encoded = new int[1];
+	private int[] decoded = new int[4];
+	private int[] permuted = new int[64];
+
+	// first error in the callbacks of the current structure
+	private String error = null;
+
+	/**
+	 * @param outputStream output stream, usually a GZIPOutputStream, since .hesc files are gzip compressed
+	 */
+	public StructureDeflator(OutputStream outputStream) {
+		this.outStream = outputStream;
+	}
+
+	/**
+	 * Writes gzip compressed structures to a channel, e.g., a FileChannel.
+	 * @param channel
+	 * @throws IOException
+	 */
+	public StructureDeflator(WritableByteChannel channel) throws IOException {
+		this(new GZIPOutputStream(Channels.newOutputStream(channel), 65536));
+	}
+
+	/**
+	 * Creates a .hesc file.
+	 * @param file
+	 * @return structure deflator
+	 * @throws IOException
+	 */
+	public static StructureDeflator open(File file) throws IOException {
+		return new StructureDeflator(new GZIPOutputStream(new FileOutputStream(file), 65536));
+	}
+
+	/**
+	 * Sets the compression method of the following structures.
+	 * @param compressionMethod STANDARD_COMPRESSION (default), STREAMING_COMPRESSION, PACKED_COMPRESSION, 
+	 * PROGRESSIVE_COMPRESSION, REFERENCE_COMPRESSION (requires setReference), or PREDICTIVE_COMPRESSION
+	 */
+	public void setCompressionMethod(int compressionMethod) {
+		if (compressionMethod != STANDARD_COMPRESSION && compressionMethod != STREAMING_COMPRESSION
+				&& compressionMethod != PACKED_COMPRESSION && compressionMethod != PROGRESSIVE_COMPRESSION
+				&& compressionMethod != REFERENCE_COMPRESSION && compressionMethod != PREDICTIVE_COMPRESSION) {
+			throw new IllegalArgumentException("StructureDeflator: unsupported compression method: " + compressionMethod);
+		}
+		this.compressionMethod = compressionMethod;
+	}
+
+	/**
+	 * Sets the precision of the following structures. Coordinates are rounded to multiples of 1/xyzScale Angstroms,
+	 * b factors and occupancies to multiples of 1/boScale. Structures with a precision other than the default
+	 * (XYZ_SCALE, BO_SCALE) start with a PRECISION record, and are written with compression method 2 (lossy compression)
+	 * instead of compression method 1.
+	 * @param xyzScale coordinate scale
+	 * @param boScale b factor and occupancy scale
+	 */
+	public void setPrecision(int xyzScale, int boScale) {
+		if (xyzScale <= 0 || boScale <= 0) {
+			throw new IllegalArgumentException("StructureDeflator: invalid precision: coordinate scale: " + xyzScale + " b factor scale: " + boScale);
+		}
+		this.xyzScale = xyzScale;
+		this.boScale = boScale;
+	}
+
+	/**
+	 * Sets the reference entry of the following structures for REFERENCE_COMPRESSION. The reference entry is 
+	 * decoded for each structure. It must not use compression method 3 or 5, and must have the precision of the structures.
+	 * @param referenceId id of the reference entry, up to 255 characters, which the decoder passes to its resolver
+	 * @param referenceResolver resolver that opens the reference entry
+	 */
+	public void setReference(String referenceId, ReferenceResolver referenceResolver) {
+		if (referenceId.length() > 255) {
+			throw new IllegalArgumentException("StructureDeflator: reference id longer than 255 characters: " + referenceId);
+		}
+		this.referenceId = referenceId;
+		this.referenceResolver = referenceResolver;
+	}
+
+	public void setModelCount(int modelCount) {
+		// the number of models is determined by the setModelInfo calls
+	}
+
+	public void setModelInfo(int modelNumber, int chainCount) {
+		endGroup();
+		modelCount++;
+		modelChainStarts.add(chainIds.size());
+	}
+
+	public void setChainInfo(String chainId, int groupCount) {
+		endGroup();
+		if (modelCount == 0) {
+			setError("chain " + chainId + " outside of a model");
+			return;
+		}
+		chainIds.add(chainId);
+		chainGroupStarts.add(groupTemplates.size());
+	}
+
+	public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+		endGroup();
+		if (chainIds.isEmpty()) {
+			setError("group " + groupName + " outside of a chain");
+			return;
+		}
+		if (groupName.length() > 3) {
+			setError("group name longer than 3 characters: " + groupName);
+		}
+		this.groupName = groupName;
+		this.insertionCode = insertionCode;
+		this.polymerType = polymerType;
+		groupNumbers.add(groupNumber);
+		groupAtomStarts.add(x.size());
+		inGroup = true;
+	}
+
+	public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+			float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+		if (! inGroup) {
+			setError("atom " + atomName + " outside of a group");
+			return;
+		}
+		atomNames.add(atomName);
+		elements.add(element == null ? "" : element.trim());
+		altLocs.append(alternativeLocationId);
+		this.x.add((int)Math.round((double)x * xyzScale));
+		this.y.add((int)Math.round((double)y * xyzScale));
+		this.z.add((int)Math.round((double)z * xyzScale));
+		this.b.add((int)Math.round((double)temperatureFactor * boScale));
+		this.o.add((int)Math.round((double)occupancy * boScale));
+		serialNumbers.add(serialNumber);
+	}
+
+	/**
+	 * Adds a bond between two atoms of the current model, identified by the serial numbers passed to setAtomInfo.
+	 * Bonds to unknown serial numbers are ignored.
+	 */
+	public void setBondInfo(int atomSerialNumber1, int atomSerialNumber2, int bondOrder) {
+		if (modelCount == 0) {
+			setError("bond outside of a model");
+			return;
+		}
+		bondAtoms.add(modelCount - 1);
+		bondAtoms.add(atomSerialNumber1);
+		bondAtoms.add(atomSerialNumber2);
+		bondOrders.add(bondOrder);
+	}
+
+	/**
+	 * Adds an operator of a biological assembly to the current structure (ASSEMBLY record, see AssemblyInflatorInterface).
+	 * The operator generates copies of chains of the asymmetric unit, which is the structure passed to the deflator.
+	 * @param operatorId operator id, up to 255 characters
+	 * @param matrix rotation matrix (row-major, elements 0 - 8) and translation vector (elements 9 - 11)
+	 * @param chainIndices zero-based indices of the chains within each model that the operator is applied to
+	 */
+	public void addAssemblyOperator(String operatorId, double[] matrix, int[] chainIndices) {
+		if (operatorId.length() > 255) {
+			throw new IllegalArgumentException("StructureDeflator: operator id longer than 255 characters: " + operatorId);
+		}
+		if (matrix.length != 12) {
+			throw new IllegalArgumentException("StructureDeflator: operator matrix requires 12 elements, found: " + matrix.length);
+		}
+		for (int chain: chainIndices) {
+			if (chain < 0) {
+				throw new IllegalArgumentException("StructureDeflator: invalid chain index: " + chain);
+			}
+		}
+		operatorIds.add(operatorId);
+		operatorMatrices.add(matrix.clone());
+		operatorChains.add(chainIndices.clone());
+	}
+
+	/**
+	 * Writes the structure that has been passed in through the callbacks since the last call,
+	 * and resets the deflator for the next structure.
+	 * @throws IOException if the structure cannot be encoded or written
+	 */
+	public void writeStructure() throws IOException {
+		endGroup();
+		try {
+			if (error != null) {
+				throw new IOException("StructureDeflator: " + error);
+			}
+			encodeStructure();
+			structureBytes.writeTo(outStream);
+		} finally {
+			clear();
+		}
+	}
+
+	/**
+	 * Finishes and closes the output stream.
+	 */
+	public void close() throws IOException {
+		outStream.close();
+	}
+
+	/**
+	 * Completes the group that is being collected and assigns its group template.
+	 */
+	private void endGroup() {
+		if (! inGroup) {
+			return;
+		}
+		inGroup = false;
+		int start = groupAtomStarts.get(groupAtomStarts.size() - 1);
+		int atomCount = atomNames.size();
+
+		byte flags = getFlags();
+		key.setLength(0);
+		key.append(groupName).append('\t').append(insertionCode).append('\t').append(flags);
+		for (int i = 0; i < atomCount; i++) {
+			key.append('\t').append(atomNames.get(i)).append(' ').append(elements.get(i)).append(' ').append(altLocs.charAt(i));
+		}
+
+		int index = getTemplateIndex();
+		if (index < 0) {
+			index = templates.size();
+			templates.add(createTemplate(flags, start));
+			addTemplateKey(index);
+		}
+		groupTemplates.add(index);
+		reorderAtoms(start, templateOrders.get(index));
+
+		atomNames.clear();
+		elements.clear();
+		altLocs.setLength(0);
+	}
+
+	/**
+	 * Returns the index of the group template whose key equals the key of the group that is being collected,
+	 * or -1. The key is compared without creating a String for each group.
+	 */
+	private int getTemplateIndex() {
+		IntList indices = templateIndices.get(getKeyHashCode());
+		if (indices != null) {
+			for (int i = 0; i < indices.size(); i++) {
+				if (templateKeys.get(indices.get(i)).contentEquals(key)) {
+					return indices.get(i);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the key of the group that is being collected as the key of a new group template.
+	 */
+	private void addTemplateKey(int index) {
+		templateKeys.add(key.toString());
+		int hashCode = getKeyHashCode();
+		IntList indices = templateIndices.get(hashCode);
+		if (indices == null) {
+			indices = new IntList(1);
+			templateIndices.put(hashCode, indices);
+		}
+		indices.add(index);
+	}
+
+	/**
+	 * Returns the hash code of the key, as String.hashCode() would return it.
+	 */
+	private int getKeyHashCode() {
+		int hashCode = 0;
+		for (int i = 0; i < key.length(); i++) {
+			hashCode = 31 * hashCode + key.charAt(i);
+		}
+		return hashCode;
+	}
+
+	/**
+	 * Returns the polymer flags of the group that is being collected. Polymer groups have a head flag if the
+	 * first atom is the polymer head atom, and a tail flag if they contain the polymer tail atom.
+	 */
+	private byte getFlags() {
+		if (polymerType != 1 && polymerType != 2) {
+			return NON_POLYMER;
+		}
+		byte flags = polymerType == 1 ? AMINO_ACID : NUCLEOTIDE;
+		String headAtomName = polymerType == 1 ? PEPTIDE_HEAD_ATOM_NAME : NUCLEOTIDE_HEAD_ATOM_NAME;
+		if (! atomNames.isEmpty() && atomNames.get(0).trim().equals(headAtomName)) {
+			flags |= HEAD;
+		}
+		if (GroupTemplate.getTailAtomIndex(flags, atomNames) >= 0) {
+			flags |= TAIL;
+		}
+		return flags;
+	}
+
+	/**
+	 * Creates the group template for the group that is being collected, and the order of its atoms in the template.
+	 * The bond tree is a minimum spanning tree over the encoded size of the coordinate deltas (Prim's algorithm),
+	 * rooted at the first atom. Atoms are ordered as they are added to the tree, so that each atom follows its
+	 * reference atom. Among atoms of equal cost, the atom with the lower index is added first, and the closer
+	 * reference atom is chosen, so that the source order is kept where it does not increase the size.
+	 * Since the decoder reports the bond tree as bonds, only atom pairs within MAX_BOND_DISTANCE are edges of the tree.
+	 * An atom that is not bonded to any preceding atom refers to the previous atom, and the next such atom
+	 * is the one with the smallest delta to the previous atom.
+	 * @param flags polymer flags
+	 * @param start index of the first atom of the group
+	 * @return group template
+	 */
+	private GroupTemplate createTemplate(byte flags, int start) {
+		int atomCount = atomNames.size();
+		int[] order = new int[atomCount];
+		int[] references = new int[atomCount];
+		int[] bondLengths = new int[atomCount];
+		long maxDistance = Math.round(MAX_BOND_DISTANCE * xyzScale);
+		long maxDistanceSquared = maxDistance * maxDistance;
+
+		// cost, reference atom, and squared distance of the cheapest tree edge of each atom
+		int[] costs = new int[atomCount];
+		int[] parents = new int[atomCount];
+		long[] distances = new long[atomCount];
+		int[] positions = new int[atomCount];
+		boolean[] added = new boolean[atomCount];
+		Arrays.fill(costs, Integer.MAX_VALUE);
+		Arrays.fill(parents, -1);
+
+		int previous = -1;
+		for (int n = 0; n < atomCount; n++) {
+			int next = -1;
+			if (n == 0) {
+				next = 0;
+			} else {
+				for (int i = 0; i < atomCount; i++) {
+					if (! added[i] && (next < 0 || costs[i] < costs[next])) {
+						next = i;
+					}
+				}
+				if (parents[next] < 0) {
+					// no bonded atom left, continue with the atom that is cheapest to encode relative to the previous atom
+					next = -1;
+					int min = Integer.MAX_VALUE;
+					for (int i = 0; i < atomCount; i++) {
+						if (! added[i]) {
+							int cost = getDeltaSize(start + previous, start + i, 0);
+							if (cost < min) {
+								min = cost;
+								next = i;
+							}
+						}
+					}
+				}
+			}
+
+			added[next] = true;
+			positions[next] = n;
+			order[n] = next;
+			if (parents[next] >= 0) {
+				references[n] = positions[parents[next]];
+				bondLengths[n] = (int)Math.round(Math.sqrt(distances[next]));
+			} else {
+				references[n] = -1;
+			}
+			previous = next;
+
+			for (int i = 0; i < atomCount; i++) {
+				if (added[i]) {
+					continue;
+				}
+				long d2 = distanceSquared(start + next, start + i);
+				if (d2 > maxDistanceSquared) {
+					continue;
+				}
+				int cost = getDeltaSize(start + next, start + i, (int)Math.round(Math.sqrt(d2)));
+				if (cost < costs[i] || (cost == costs[i] && d2 < distances[i])) {
+					costs[i] = cost;
+					parents[i] = next;
+					distances[i] = d2;
+				}
+			}
+		}
+		templateOrders.add(order);
+
+		String[] names = formatAtomNames();
+		String[] templateNames = new String[atomCount];
+		String[] templateElements = new String[atomCount];
+		char[] templateAltLocs = new char[atomCount];
+		for (int n = 0; n < atomCount; n++) {
+			templateNames[n] = names[order[n]];
+			templateElements[n] = elements.get(order[n]);
+			templateAltLocs[n] = altLocs.charAt(order[n]);
+		}
+
+		return new GroupTemplate(groupName, insertionCode, flags, templateNames, templateElements, templateAltLocs,
+				references, bondLengths, xyzScale);
+	}
+
+	/**
+	 * Returns the number of bytes of the coordinate delta of atom j relative to atom i: 4 bytes if it is encoded
+	 * as a BitEncoder value with the given bond length, otherwise 6 or 12 bytes for three 2 or 4 byte integers.
+	 */
+	private int getDeltaSize(int i, int j, int bondLength) {
+		int dx = x.get(j) - x.get(i);
+		int dy = y.get(j) - y.get(i);
+		int dz = z.get(j) - z.get(i);
+		if (isEncodable(dx, dy, dz, bondLength)) {
+			return 4;
+		}
+		if (isShort(dx) && isShort(dy) && isShort(dz)) {
+			return 6;
+		}
+		return 12;
+	}
+
+	/**
+	 * Reorders the atoms of the last group in the order of its group template.
+	 * @param start index of the first atom of the group
+	 * @param order source index of each template atom
+	 */
+	private void reorderAtoms(int start, int[] order) {
+		reorder(x, start, order);
+		reorder(y, start, order);
+		reorder(z, start, order);
+		reorder(b, start, order);
+		reorder(o, start, order);
+		reorder(serialNumbers, start, order);
+	}
+
+	private void reorder(IntList values, int start, int[] order) {
+		if (permuted.length < order.length) {
+			permuted = new int[order.length];
+		}
+		for (int n = 0; n < order.length; n++) {
+			permuted[n] = values.get(start + order[n]);
+		}
+		for (int n = 0; n < order.length; n++) {
+			values.set(start + n, permuted[n]);
+		}
+	}
+
+	private long distanceSquared(int i, int j) {
+		long dx = x.get(i) - x.get(j);
+		long dy = y.get(i) - y.get(j);
+		long dz = z.get(i) - z.get(j);
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	/**
+	 * Returns the 4-character atom names of the group that is being collected. Names with less than 4 characters
+	 * are aligned as in PDB files: names of atoms with a 1-letter element symbol start in the second column.
+	 */
+	private String[] formatAtomNames() {
+		String[] names = new String[atomNames.size()];
+		for (int i = 0; i < names.length; i++) {
+			String name = atomNames.get(i);
+			if (name.length() < 4 && elements.get(i).length() == 1 && ! name.startsWith(" ")) {
+				name = " " + name;
+			}
+			names[i] = pad(name, 4);
+		}
+		return names;
+	}
+
+	/**
+	 * Encodes the current structure into structureBytes.
+	 * @throws IOException
+	 */
+	private void encodeStructure() throws IOException {
+		structureBytes.reset();
+		DataOutputStream out = structureOut;
+
+		// the standard method can only represent the default precision
+		boolean defaultPrecision = xyzScale == XYZ_SCALE && boScale == BO_SCALE;
+		out.writeBytes(MAGIC_NUMBER);
+		out.writeByte(MAJOR_VERSIONS[0]);
+		out.writeByte(MINOR_VERSIONS[0]);
+		out.writeByte(compressionMethod == STANDARD_COMPRESSION && ! defaultPrecision ? LOSSY_COMPRESSION : compressionMethod);
+
+		if (! defaultPrecision) {
+			out.writeByte(PRECISION);
+			out.writeByte(8);
+			out.writeInt(xyzScale);
+			out.writeInt(boScale);
+		}
+
+		boolean streaming = compressionMethod == STREAMING_COMPRESSION;
+		boolean progressive = compressionMethod == PROGRESSIVE_COMPRESSION;
+		if (progressive && ! operatorIds.isEmpty()) {
+			throw new IOException("StructureDeflator: assembly operators are not supported by the progressive layout");
+		}
+		boolean predictive = compressionMethod == PREDICTIVE_COMPRESSION;
+		boolean packed = compressionMethod == PACKED_COMPRESSION || predictive;
+		boolean referenced = compressionMethod == REFERENCE_COMPRESSION;
+		if (predictive) {
+			computeGeometry();
+		}
+
+		templateNumbers.clear();
+		for (int t = 0; t < templates.size(); t++) {
+			templateNumbers.add(-1);
+		}
+		if (referenced) {
+			if (referenceId == null) {
+				throw new IOException("StructureDeflator: no reference entry for reference-based compression");
+			}
+			resolveReference();
+			out.writeByte(REFERENCE);
+			out.writeByte(referenceId.length());
+			out.writeBytes(referenceId);
+		}
+
+		// the homogeneousModel flag is ignored by the streaming layout
+		boolean homogeneousModel = ! streaming && isHomogeneous();
+		out.writeByte(STRUCTURE);
+		out.writeByte(5);
+		out.writeInt(modelCount);
+		out.writeBoolean(homogeneousModel);
+
+		writeSummaryRecord();
+		collectBonds();
+		if (referenced) {
+			matchReferenceBonds();
+		}
+		templatesWritten = 0;
+
+		if (streaming) {
+			// one chunk per chain, the structure bonds are part of the first chunk
+			writeAssemblyRecord();
+			for (int m = 0; m < modelCount; m++) {
+				writeModelRecord(m);
+				for (int c = modelChainStarts.get(m); c < getChainEnd(m); c++) {
+					int firstTemplate = templatesWritten;
+					writeChainRecords(c, false);
+					writeBondRecord(firstTemplate, templatesWritten, c == 0);
+					encodeCoordinates(false, c, c + 1);
+					writeCoordinateRecords(false, getAtomStart(c), getAtomStart(c + 1));
+				}
+			}
+			out.writeByte(END);
+			return;
+		}
+
+		for (int m = 0; m < modelCount; m++) {
+			writeModelRecord(m);
+		}
+
+		// topology: the chains of the first model only, if all models are identical
+		int topologyChainEnd = homogeneousModel ? getChainEnd(0) : chainIds.size();
+		for (int c = 0; c < topologyChainEnd; c++) {
+			writeChainRecords(c, predictive);
+		}
+		writeBondRecord(0, templates.size(), true);
+
+		if (referenced) {
+			writeAssemblyRecord();
+			encodeMatches();
+			writePackedRecord(MATCH, matchValues);
+			writePackedRecord(BFACTOR, bFactorValues);
+			writePackedRecord(OCCUPANCY, o);
+			writePackedRecord(COORD, coordValues);
+			out.writeByte(END);
+			return;
+		}
+
+		if (progressive) {
+			// the layers up to the last layer with atoms
+			int layerEnd = 0;
+			for (GroupTemplate template: templates) {
+				for (int l = layerEnd; l < LAYER_COUNT; l++) {
+					if (template.layerAtomCounts[l] > 0) {
+						layerEnd = l + 1;
+					}
+				}
+			}
+			for (int l = 0; l < layerEnd; l++) {
+				out.writeByte(LAYER);
+				out.writeByte(1);
+				out.writeByte(l);
+				encodeLayer(l);
+				writePackedRecord(BFACTOR, bFactorValues);
+				writePackedRecord(OCCUPANCY, occupancyValues);
+				writePackedRecord(COORD, coordValues);
+			}
+			out.writeByte(END);
+			return;
+		}
+
+		writeAssemblyRecord();
+		encodeCoordinates(packed, 0, chainIds.size());
+		writeCoordinateRecords(packed, 0, x.size());
+
+		out.writeByte(END);
+	}
+
+	private void writeModelRecord(int model) throws IOException {
+		structureOut.writeByte(MODEL);
+		structureOut.writeByte(4);
+		structureOut.writeInt(getChainEnd(model) - modelChainStarts.get(model));
+	}
+
+	/**
+	 * Writes the CHAIN record and the GROUP records of a chain. The GINFO record (and the GEOMETRY record for
+	 * compression method 7) of a group template precedes the GROUP record of its first group. For compression
+	 * method 6, runs of at least MIN_COPY_LENGTH groups of the reference chain are written as COPY records instead.
+	 * @param chain chain index
+	 * @param predictive true for compression method 7
+	 */
+	private void writeChainRecords(int chain, boolean predictive) throws IOException {
+		DataOutputStream out = structureOut;
+		out.writeByte(CHAIN);
+		out.writeByte(12);
+		out.writeInt(-1); // no SEQUENCE record
+		out.writeBytes(pad(chainIds.get(chain), 4));
+		out.writeInt(getGroupEnd(chain) - chainGroupStarts.get(chain));
+
+		int referenceChain = reference != null ? getReferenceChain(chain) : -1;
+		int[] referenceGroups = referenceChain >= 0 ? getReferenceGroups(chain, referenceChain) : null;
+		int firstGroup = chainGroupStarts.get(chain);
+		int previousNumber = 0;
+		for (int g = firstGroup; g < getGroupEnd(chain); g++) {
+			if (referenceGroups != null) {
+				int copyCount = getCopyCount(referenceGroups, g - firstGroup);
+				if (copyCount >= MIN_COPY_LENGTH) {
+					out.writeByte(COPY);
+					out.writeByte(12);
+					out.writeInt(referenceChain);
+					out.writeInt(referenceGroups[g - firstGroup]);
+					out.writeInt(copyCount);
+					g += copyCount - 1;
+					previousNumber = groupNumbers.get(g);
+					continue;
+				}
+			}
+
+			int templateIndex = groupTemplates.get(g);
+			// new templates are numbered in the order of their first use, which is the order of the GINFO records,
+			// after the templates of the reference entry
+			if (templateNumbers.get(templateIndex) < 0) {
+				templateNumbers.set(templateIndex, getReferenceTemplateCount() + templatesWritten);
+				writeGInfoRecord(templates.get(templateIndex));
+				if (predictive) {
+					writeGeometryRecord(templateIndex);
+				}
+				templatesWritten++;
+			}
+			int templateNumber = templateNumbers.get(templateIndex);
+			int number = groupNumbers.get(g);
+			out.writeByte(GROUP);
+			if (number == previousNumber + 1) {
+				out.writeByte(4);
+				out.writeInt(templateNumber);
+			} else {
+				out.writeByte(8);
+				out.writeInt(templateNumber);
+				out.writeInt(number);
+			}
+			previousNumber = number;
+		}
+	}
+
+	/**
+	 * Returns the number of consecutive groups of a chain, starting at group i, that are consecutive groups of the reference chain.
+	 * @param referenceGroups index of the matching group of the reference chain for each group of the chain, or -1
+	 * @param i index of the first group in the chain
+	 */
+	private static int getCopyCount(int[] referenceGroups, int i) {
+		if (referenceGroups[i] < 0) {
+			return 0;
+		}
+		int n = 1;
+		while (i + n < referenceGroups.length && referenceGroups[i + n] == referenceGroups[i] + n) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Writes the BFACTOR, OCCUPANCY, and COORD records of a range of atoms, whose values have been encoded by encodeCoordinates.
+	 * Packed integer streams contain all atoms of the structure.
+	 * @param packed true for compression methods 4 and 7
+	 * @param start index of the first atom
+	 * @param end index after the last atom
+	 */
+	private void writeCoordinateRecords(boolean packed, int start, int end) throws IOException {
+		if (packed) {
+			writePackedRecord(BFACTOR, bFactorValues);
+			writePackedRecord(OCCUPANCY, o);
+			writePackedRecord(COORD, coordValues);
+			return;
+		}
+		DataOutputStream out = structureOut;
+		out.writeByte(BFACTOR);
+		out.writeInt(bFactorStream.size());
+		bFactorStream.writeTo(out);
+
+		out.writeByte(OCCUPANCY);
+		out.writeInt(2 * (end - start));
+		for (int i = start; i < end; i++) {
+			out.writeShort(o.get(i));
+		}
+
+		out.writeByte(COORD);
+		out.writeInt(coordStream.size());
+		coordStream.writeTo(out);
+	}
+
+	/**
+	 * Writes the SUMMARY record: the atom count, bounding box, and centroid of each model, followed by those
+	 * of the chains of the model.
+	 */
+	private void writeSummaryRecord() throws IOException {
+		int length = 4;
+		for (int m = 0; m < modelCount; m++) {
+			length += 4 + SpatialSummary.VALUE_COUNT * 4 + (getChainEnd(m) - modelChainStarts.get(m)) * (4 + SpatialSummary.VALUE_COUNT * 4);
+		}
+		DataOutputStream out = structureOut;
+		out.writeByte(SUMMARY);
+		out.writeInt(length);
+		out.writeInt(modelCount);
+		for (int m = 0; m < modelCount; m++) {
+			int firstChain = modelChainStarts.get(m);
+			int chainEnd = getChainEnd(m);
+			out.writeInt(chainEnd - firstChain);
+			writeSummary(getAtomStart(firstChain), getAtomStart(chainEnd));
+			for (int c = firstChain; c < chainEnd; c++) {
+				out.writeBytes(pad(chainIds.get(c), 4));
+				writeSummary(getAtomStart(c), getAtomStart(c + 1));
+			}
+		}
+	}
+
+	/**
+	 * Writes the atom count, the bounding box, and the centroid (rounded) of a range of atoms.
+	 * @param start index of the first atom
+	 * @param end index after the last atom
+	 */
+	private void writeSummary(int start, int end) throws IOException {
+		int[] min = {0, 0, 0};
+		int[] max = {0, 0, 0};
+		long[] sum = {0, 0, 0};
+		IntList[] xyz = {x, y, z};
+		for (int d = 0; d < 3; d++) {
+			if (start < end) {
+				min[d] = Integer.MAX_VALUE;
+				max[d] = Integer.MIN_VALUE;
+			}
+			for (int i = start; i < end; i++) {
+				int v = xyz[d].get(i);
+				min[d] = Math.min(min[d], v);
+				max[d] = Math.max(max[d], v);
+				sum[d] += v;
+			}
+		}
+		DataOutputStream out = structureOut;
+		out.writeInt(end - start);
+		for (int d = 0; d < 3; d++) {
+			out.writeInt(min[d]);
+		}
+		for (int d = 0; d < 3; d++) {
+			out.writeInt(max[d]);
+		}
+		for (int d = 0; d < 3; d++) {
+			out.writeInt(start < end ? (int)Math.round((double)sum[d] / (end - start)) : 0);
+		}
+	}
+
+	/**
+	 * Returns the index of the first atom of a chain, or the number of atoms for the chain index after the last chain.
+	 * @param chain chain index
+	 */
+	private int getAtomStart(int chain) {
+		int group = chain < chainIds.size() ? chainGroupStarts.get(chain) : groupTemplates.size();
+		return group < groupAtomStarts.size() ? groupAtomStarts.get(group) : x.size();
+	}
+
+	/**
+	 * Converts the bonds of the current structure into the template bonds and structure bonds of the BOND record.
+	 * Bonds of the bond tree of a group template and polymer bonds between linked groups are reported by the decoder
+	 * without a BOND record, their bond orders are not stored. Other bonds within a group become template bonds if
+	 * all groups that use the template have the bond, otherwise they become structure bonds, like bonds between groups.
+	 * Since structure bonds apply to every model, the structure bonds of all models are merged.
+	 */
+	private void collectBonds() {
+		templateBonds.clear();
+		structureBonds.clear();
+		if (bondOrders.size() == 0) {
+			return;
+		}
+
+		// atom index of each serial number within a model, model of each atom, and group of each atom
+		Map<Long, Integer> atomIndices = new HashMap<Long, Integer>();
+		int[] modelAtomStarts = new int[modelCount + 1];
+		for (int m = 0; m < modelCount; m++) {
+			modelAtomStarts[m] = getAtomStart(modelChainStarts.get(m));
+			modelAtomStarts[m + 1] = getAtomStart(getChainEnd(m));
+			for (int a = modelAtomStarts[m]; a < modelAtomStarts[m + 1]; a++) {
+				atomIndices.put(getAtomKey(m, serialNumbers.get(a)), a);
+			}
+		}
+		int[] atomGroups = new int[x.size()];
+		int[] templateGroupCounts = new int[templates.size()];
+		for (int g = 0; g < groupTemplates.size(); g++) {
+			int end = g + 1 < groupAtomStarts.size() ? groupAtomStarts.get(g + 1) : x.size();
+			Arrays.fill(atomGroups, groupAtomStarts.get(g), end, g);
+			templateGroupCounts[groupTemplates.get(g)]++;
+		}
+		boolean[] chainStarts = new boolean[groupTemplates.size() + 1];
+		for (int c = 0; c < chainIds.size(); c++) {
+			chainStarts[chainGroupStarts.get(c)] = true;
+		}
+
+		// resolve the bonds, and count the groups that have each bond within a template
+		int bondCount = bondOrders.size();
+		int[] bondIndices = new int[2 * bondCount];
+		Set<Long> groupBonds = new HashSet<Long>();
+		Map<Long, Integer> templateBondCounts = new HashMap<Long, Integer>();
+		for (int i = 0; i < bondCount; i++) {
+			int model = bondAtoms.get(3*i);
+			Integer a1 = atomIndices.get(getAtomKey(model, bondAtoms.get(3*i+1)));
+			Integer a2 = atomIndices.get(getAtomKey(model, bondAtoms.get(3*i+2)));
+			if (a1 == null || a2 == null || a1.intValue() == a2.intValue() || isImplicitBond(a1, a2, atomGroups, chainStarts)) {
+				bondIndices[2*i] = -1;
+				continue;
+			}
+			bondIndices[2*i] = Math.min(a1, a2);
+			bondIndices[2*i+1] = Math.max(a1, a2);
+			int g = atomGroups[a1];
+			if (g == atomGroups[a2]) {
+				long key = getTemplateBondKey(groupTemplates.get(g), bondIndices[2*i] - groupAtomStarts.get(g), bondIndices[2*i+1] - groupAtomStarts.get(g));
+				if (groupBonds.add(((long)g << 32) | (key & 0xFFFFFFFFL))) {
+					Integer count = templateBondCounts.get(key);
+					templateBondCounts.put(key, count == null ? 1 : count + 1);
+				}
+			}
+		}
+
+		Map<Long, Integer> templateBondOrders = new LinkedHashMap<Long, Integer>();
+		Map<Long, Integer> structureBondOrders = new LinkedHashMap<Long, Integer>();
+		for (int i = 0; i < bondCount; i++) {
+			int a1 = bondIndices[2*i];
+			int a2 = bondIndices[2*i+1];
+			if (a1 < 0) {
+				continue;
+			}
+			int order = bondOrders.get(i);
+			int g = atomGroups[a1];
+			if (g == atomGroups[a2]) {
+				int t = groupTemplates.get(g);
+				long key = getTemplateBondKey(t, a1 - groupAtomStarts.get(g), a2 - groupAtomStarts.get(g));
+				if (templateBondCounts.get(key) == templateGroupCounts[t]) {
+					if (! templateBondOrders.containsKey(key)) {
+						templateBondOrders.put(key, order);
+					}
+					continue;
+				}
+			}
+			int model = bondAtoms.get(3*i);
+			long key = ((long)(a1 - modelAtomStarts[model]) << 32) | (a2 - modelAtomStarts[model]);
+			if (! structureBondOrders.containsKey(key)) {
+				structureBondOrders.put(key, order);
+			}
+		}
+
+		for (Map.Entry<Long, Integer> entry: templateBondOrders.entrySet()) {
+			long key = entry.getKey();
+			templateBonds.add((int)(key >>> 32));
+			templateBonds.add((int)((key >>> 16) & 0xFFFF));
+			templateBonds.add((int)(key & 0xFFFF));
+			templateBonds.add(entry.getValue());
+		}
+		for (Map.Entry<Long, Integer> entry: structureBondOrders.entrySet()) {
+			long key = entry.getKey();
+			structureBonds.add((int)(key >>> 32));
+			structureBonds.add((int)key);
+			structureBonds.add(entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns true if the decoder reports a bond between two atoms without a BOND record: a bond of the bond tree
+	 * of a group template, or the polymer bond between the tail atom of a group and the head atom of the next group.
+	 */
+	private boolean isImplicitBond(int a1, int a2, int[] atomGroups, boolean[] chainStarts) {
+		int first = Math.min(a1, a2);
+		int second = Math.max(a1, a2);
+		int g1 = atomGroups[first];
+		int g2 = atomGroups[second];
+		if (g1 == g2) {
+			int[] references = templates.get(groupTemplates.get(g1)).references;
+			int start = groupAtomStarts.get(g1);
+			return references[second - start] == first - start;
+		}
+		GroupTemplate previous = templates.get(groupTemplates.get(g1));
+		return g2 == g1 + 1 && ! chainStarts[g2] && previous.hasTail && templates.get(groupTemplates.get(g2)).hasHead
+				&& first - groupAtomStarts.get(g1) == previous.tailAtomIndex && second == groupAtomStarts.get(g2);
+	}
+
+	private static long getAtomKey(int model, int serialNumber) {
+		return ((long)model << 32) | (serialNumber & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the key of a bond between two atoms of a group template (atom1 &lt; atom2).
+	 */
+	private static long getTemplateBondKey(int templateIndex, int atom1, int atom2) {
+		return ((long)templateIndex << 32) | (atom1 << 16) | atom2;
+	}
+
+	/**
+	 * Writes the BOND record, if there are template bonds or structure bonds to write. The decoder adds the bonds
+	 * of a BOND record to those of the group templates, so each template bond is written only once.
+	 * @param firstTemplate index of the first group template whose bonds are written
+	 * @param templateEnd index after the last group template whose bonds are written
+	 * @param withStructureBonds true to write the structure bonds
+	 */
+	private void writeBondRecord(int firstTemplate, int templateEnd, boolean withStructureBonds) throws IOException {
+		int templateBondCount = 0;
+		for (int i = 0; i < templateBonds.size(); i += 4) {
+			if (templateBonds.get(i) >= firstTemplate && templateBonds.get(i) < templateEnd) {
+				templateBondCount++;
+			}
+		}
+		int structureBondCount = withStructureBonds ? structureBonds.size() / 3 : 0;
+		if (templateBondCount == 0 && structureBondCount == 0) {
+			return;
+		}
+		DataOutputStream out = structureOut;
+		out.writeByte(BOND);
+		out.writeInt(8 + 9 * templateBondCount + 9 * structureBondCount);
+		out.writeInt(templateBondCount);
+		for (int i = 0; i < templateBonds.size(); i += 4) {
+			if (templateBonds.get(i) >= firstTemplate && templateBonds.get(i) < templateEnd) {
+				out.writeInt(templateNumbers.get(templateBonds.get(i)));
+				out.writeShort(templateBonds.get(i+1));
+				out.writeShort(templateBonds.get(i+2));
+				out.writeByte(templateBonds.get(i+3));
+			}
+		}
+		out.writeInt(structureBondCount);
+		for (int i = 0; i < structureBondCount; i++) {
+			out.writeInt(structureBonds.get(3*i));
+			out.writeInt(structureBonds.get(3*i+1));
+			out.writeByte(structureBonds.get(3*i+2));
+		}
+	}
+
+	/**
+	 * Writes the ASSEMBLY record, if operators have been added to the structure.
+	 */
+	private void writeAssemblyRecord() throws IOException {
+		if (operatorIds.isEmpty()) {
+			return;
+		}
+		int length = 4;
+		for (int i = 0; i < operatorIds.size(); i++) {
+			length += 1 + operatorIds.get(i).length() + 12 * 8 + 4 + 4 * operatorChains.get(i).length;
+		}
+		DataOutputStream out = structureOut;
+		out.writeByte(ASSEMBLY);
+		out.writeInt(length);
+		out.writeInt(operatorIds.size());
+		for (int i = 0; i < operatorIds.size(); i++) {
+			out.writeByte(operatorIds.get(i).length());
+			out.writeBytes(operatorIds.get(i));
+			for (double value: operatorMatrices.get(i)) {
+				out.writeDouble(value);
+			}
+			int[] chains = operatorChains.get(i);
+			out.writeInt(chains.length);
+			for (int chain: chains) {
+				out.writeInt(chain);
+			}
+		}
+	}
+
+	private void writeGInfoRecord(GroupTemplate template) throws IOException {
+		DataOutputStream out = structureOut;
+		int atomCount = template.atomCount;
+		out.writeByte(GINFO);
+		out.writeInt(7 + 11 * atomCount);
+		out.writeShort(atomCount);
+		out.writeByte(template.flags);
+		out.writeBytes(pad(template.groupName, 3));
+		out.writeByte(template.insertionCode);
+		for (int i = 0; i < atomCount; i++) {
+			out.writeBytes(template.atomNames[i]);
+			out.writeBytes(pad(template.elements[i], 2));
+			out.writeByte(template.altLocs[i]);
+		}
+		for (int i = 0; i < atomCount; i++) {
+			out.writeShort(template.references[i]);
+		}
+		for (int i = 0; i < atomCount; i++) {
+			out.writeShort(template.bondLengths[i]);
+		}
+	}
+
+	/**
+	 * Writes the GEOMETRY record of a template, if it has predicted atoms (compression method 7).
+	 */
+	private void writeGeometryRecord(int templateIndex) throws IOException {
+		GroupTemplate template = templates.get(templateIndex);
+		int atomCount = template.atomCount;
+		boolean hasPrediction = false;
+		for (int k = 0; k < atomCount; k++) {
+			hasPrediction |= template.isPredicted(k);
+		}
+		if (! hasPrediction) {
+			return;
+		}
+		DataOutputStream out = structureOut;
+		out.writeByte(GEOMETRY);
+		out.writeInt(4 + 4 * atomCount);
+		out.writeInt(templateIndex);
+		int[] angles = templateAngles.get(templateIndex);
+		int[] torsions = templateTorsions.get(templateIndex);
+		for (int k = 0; k < atomCount; k++) {
+			out.writeShort(template.isPredicted(k) ? angles[k] : 0);
+		}
+		for (int k = 0; k < atomCount; k++) {
+			out.writeShort(template.isPredicted(k) ? torsions[k] : 0);
+		}
+	}
+
+	private void writePackedRecord(byte recordId, IntList values) throws IOException {
+		packedBytes.reset();
+		PackedIntegers.write(values.array(), values.size(), packedBytes);
+		structureOut.writeByte(recordId);
+		structureOut.writeInt(packedBytes.size());
+		packedBytes.writeTo(structureOut);
+	}
+
+	/**
+	 * Computes the bond angles and torsion angles of the group templates (compression method 7) as the averages over
+	 * all groups, and keeps the prediction of an atom only if it reduces the number of significant bits of the encoded values.
+	 */
+	private void computeGeometry() {
+		templateAngles.clear();
+		templateTorsions.clear();
+		int templateCount = templates.size();
+		double[][] angleSums = new double[templateCount][];
+		double[][] cosSums = new double[templateCount][];
+		double[][] sinSums = new double[templateCount][];
+		int[][] counts = new int[templateCount][];
+		for (int t = 0; t < templateCount; t++) {
+			int atomCount = templates.get(t).atomCount;
+			angleSums[t] = new double[atomCount];
+			cosSums[t] = new double[atomCount];
+			sinSums[t] = new double[atomCount];
+			counts[t] = new int[atomCount];
+		}
+
+		for (int g = 0; g < groupTemplates.size(); g++) {
+			int t = groupTemplates.get(g);
+			GroupTemplate template = templates.get(t);
+			int start = groupAtomStarts.get(g);
+			int[] references = template.references;
+			for (int k = 0; k < template.atomCount; k++) {
+				int c = references[k];
+				int b = c >= 0 ? references[c] : -1;
+				int a = b >= 0 ? references[b] : -1;
+				if (a < 0) {
+					continue;
+				}
+				double angle = getAngle(start + b, start + c, start + k);
+				double torsion = getTorsion(start + a, start + b, start + c, start + k);
+				if (Double.isNaN(angle) || Double.isNaN(torsion)) {
+					continue;
+				}
+				angleSums[t][k] += angle;
+				cosSums[t][k] += Math.cos(torsion);
+				sinSums[t][k] += Math.sin(torsion);
+				counts[t][k]++;
+			}
+		}
+
+		for (int t = 0; t < templateCount; t++) {
+			int atomCount = templates.get(t).atomCount;
+			int[] angles = new int[atomCount];
+			int[] torsions = new int[atomCount];
+			for (int k = 0; k < atomCount; k++) {
+				if (counts[t][k] > 0) {
+					angles[k] = Math.max(1, (int)Math.round(Math.toDegrees(angleSums[t][k] / counts[t][k]) * ANGLE_SCALE));
+					torsions[k] = (int)Math.round(Math.toDegrees(Math.atan2(sinSums[t][k], cosSums[t][k])) * ANGLE_SCALE);
+				}
+			}
+			templateAngles.add(angles);
+			templateTorsions.add(torsions);
+			templates.get(t).setGeometry(angles, torsions, ANGLE_SCALE);
+		}
+
+		// compare the significant bits of the residuals and of the deltas of all groups
+		long[][] residualBits = new long[templateCount][];
+		long[][] deltaBits = new long[templateCount][];
+		for (int t = 0; t < templateCount; t++) {
+			residualBits[t] = new long[templates.get(t).atomCount];
+			deltaBits[t] = new long[templates.get(t).atomCount];
+		}
+		for (int g = 0; g < groupTemplates.size(); g++) {
+			int t = groupTemplates.get(g);
+			GroupTemplate template = templates.get(t);
+			int start = groupAtomStarts.get(g);
+			for (int k = 0; k < template.atomCount; k++) {
+				if (! template.isPredicted(k)) {
+					continue;
+				}
+				int a = start + k;
+				template.predict(k, x.array(), y.array(), z.array(), start, predicted);
+				residualBits[t][k] += getBits(x.get(a) - predicted[0]) + getBits(y.get(a) - predicted[1]) + getBits(z.get(a) - predicted[2]);
+
+				int r = start + template.references[k];
+				int dx = x.get(a) - x.get(r);
+				int dy = y.get(a) - y.get(r);
+				int dz = z.get(a) - z.get(r);
+				deltaBits[t][k] += getBits(dx) + getBits(dy) + getBits(BitEncoder.toFoldedZ(template.bondLengths[k], dx, dy, dz));
+			}
+		}
+		for (int t = 0; t < templateCount; t++) {
+			int[] angles = templateAngles.get(t);
+			for (int k = 0; k < angles.length; k++) {
+				if (residualBits[t][k] >= deltaBits[t][k]) {
+					angles[k] = 0;
+				}
+			}
+			templates.get(t).setGeometry(angles, templateTorsions.get(t), ANGLE_SCALE);
+		}
+	}
+
+	/**
+	 * Returns the angle between the atoms i, j, and k in radians, with j at the vertex.
+	 */
+	private double getAngle(int i, int j, int k) {
+		double ux = x.get(i) - x.get(j);
+		double uy = y.get(i) - y.get(j);
+		double uz = z.get(i) - z.get(j);
+		double vx = x.get(k) - x.get(j);
+		double vy = y.get(k) - y.get(j);
+		double vz = z.get(k) - z.get(j);
+		double cos = (ux*vx + uy*vy + uz*vz) / Math.sqrt((ux*ux + uy*uy + uz*uz) * (vx*vx + vy*vy + vz*vz));
+		return Math.acos(Math.max(-1, Math.min(1, cos)));
+	}
+
+	/**
+	 * Returns the dihedral angle between the planes i, j, k and j, k, l in radians.
+	 */
+	private double getTorsion(int i, int j, int k, int l) {
+		double b1x = x.get(j) - x.get(i);
+		double b1y = y.get(j) - y.get(i);
+		double b1z = z.get(j) - z.get(i);
+		double b2x = x.get(k) - x.get(j);
+		double b2y = y.get(k) - y.get(j);
+		double b2z = z.get(k) - z.get(j);
+		double b3x = x.get(l) - x.get(k);
+		double b3y = y.get(l) - y.get(k);
+		double b3z = z.get(l) - z.get(k);
+
+		double n1x = b1y*b2z - b1z*b2y;
+		double n1y = b1z*b2x - b1x*b2z;
+		double n1z = b1x*b2y - b1y*b2x;
+		double n2x = b2y*b3z - b2z*b3y;
+		double n2y = b2z*b3x - b2x*b3z;
+		double n2z = b2x*b3y - b2y*b3x;
+
+		double b2Length = Math.sqrt(b2x*b2x + b2y*b2y + b2z*b2z);
+		double mx = (b2y*n1z - b2z*n1y) / b2Length;
+		double my = (b2z*n1x - b2x*n1z) / b2Length;
+		double mz = (b2x*n1y - b2y*n1x) / b2Length;
+
+		return Math.atan2(mx*n2x + my*n2y + mz*n2z, n1x*n2x + n1y*n2y + n1z*n2z);
+	}
+
+	/**
+	 * Returns the number of significant bits of a zigzag encoded value.
+	 */
+	private static int getBits(int value) {
+		return 32 - Integer.numberOfLeadingZeros(PackedIntegers.zigzagEncode(value));
+	}
+
+	/**
+	 * Encodes the coordinate deltas and b factor deltas of the atoms of a range of chains. This is the inverse of the decoder:
+	 * the delta of an atom refers to its reference atom in the group template, to the tail atom of the previous
+	 * group for a linked polymer head atom, or otherwise to the previous atom of the chain. For compression
+	 * methods 4 and 7, the values are collected for packed integer streams, and the coordinates of predicted atoms 
+	 * (method 7) refer to the predicted position instead.
+	 * @param packed true for compression methods 4 and 7
+	 * @param firstChain index of the first chain
+	 * @param chainEnd index after the last chain
+	 * @throws IOException
+	 */
+	private void encodeCoordinates(boolean packed, int firstChain, int chainEnd) throws IOException {
+		coordStream.reset();
+		bFactorStream.reset();
+		coordValues.clear();
+		bFactorValues.clear();
+
+		for (int c = firstChain; c < chainEnd; c++) {
+			int xOffset = 0;
+			int yOffset = 0;
+			int zOffset = 0;
+			int bOffset = 0;
+			int xTail = 0;
+			int yTail = 0;
+			int zTail = 0;
+			int bTail = 0;
+			boolean hasTail = false;
+
+			for (int g = chainGroupStarts.get(c); g < getGroupEnd(c); g++) {
+				GroupTemplate template = templates.get(groupTemplates.get(g));
+				int start = groupAtomStarts.get(g);
+				boolean linked = template.hasHead && hasTail;
+				if (! hasTail) {
+					xTail = 0;
+					yTail = 0;
+					zTail = 0;
+					bTail = 0;
+				}
+
+				for (int k = 0; k < template.atomCount; k++) {
+					int a = start + k;
+					int reference = template.references[k];
+					int bondLength = 0;
+					if (reference >= 0) {
+						xOffset = x.get(start + reference);
+						yOffset = y.get(start + reference);
+						zOffset = z.get(start + reference);
+						bOffset = b.get(start + reference);
+						bondLength = template.bondLengths[k];
+					} else if (k == 0 && linked) {
+						xOffset = xTail;
+						yOffset = yTail;
+						zOffset = zTail;
+						bOffset = bTail;
+						bondLength = template.headBondLength;
+					}
+
+					if (! packed) {
+						writeDelta(x.get(a) - xOffset, y.get(a) - yOffset, z.get(a) - zOffset, bondLength);
+						bFactorStream.writeValue(b.get(a) - bOffset);
+					} else if (template.isPredicted(k)) {
+						template.predict(k, x.array(), y.array(), z.array(), start, predicted);
+						coordValues.add(x.get(a) - predicted[0]);
+						coordValues.add(y.get(a) - predicted[1]);
+						coordValues.add(z.get(a) - predicted[2]);
+						bFactorValues.add(b.get(a) - bOffset);
+					} else {
+						int dx = x.get(a) - xOffset;
+						int dy = y.get(a) - yOffset;
+						int dz = z.get(a) - zOffset;
+						coordValues.add(dx);
+						coordValues.add(dy);
+						coordValues.add(BitEncoder.toFoldedZ(bondLength, dx, dy, dz));
+						bFactorValues.add(b.get(a) - bOffset);
+					}
+
+					xOffset = x.get(a);
+					yOffset = y.get(a);
+					zOffset = z.get(a);
+					bOffset = b.get(a);
+
+					if (k == template.tailAtomIndex) {
+						xTail = xOffset;
+						yTail = yOffset;
+						zTail = zOffset;
+						bTail = bOffset;
+					}
+				}
+				hasTail = template.hasTail;
+			}
+		}
+	}
+
+	/**
+	 * Encodes the coordinate deltas, b factor deltas, and occupancies of the atoms of a layer (compression method 5) 
+	 * as the inverse of StructureDecoderImpl1.decodeLayer. The delta of an atom refers to its reference atom, if the 
+	 * reference atom belongs to this or a previous layer, to the tail atom of the previous group for a linked polymer
+	 * head atom, or otherwise to the previous atom of the layer in the same chain. Atoms of later layers are not 
+	 * available to the decoder, their values are 0.
+	 * @param layer
+	 */
+	private void encodeLayer(int layer) {
+		coordValues.clear();
+		bFactorValues.clear();
+		occupancyValues.clear();
+
+		for (int c = 0; c < chainIds.size(); c++) {
+			// index of the previous atom of this layer in the chain, and of the tail atom of the previous group
+			int previous = -1;
+			int tail = -1;
+			boolean tailDecoded = false;
+			for (int g = chainGroupStarts.get(c); g < getGroupEnd(c); g++) {
+				GroupTemplate template = templates.get(groupTemplates.get(g));
+				byte[] layers = template.layers;
+				int[] references = template.references;
+				int start = groupAtomStarts.get(g);
+
+				for (int k = 0; k < template.atomCount; k++) {
+					if (layers[k] != layer) {
+						continue;
+					}
+					int a = start + k;
+					int reference = previous;
+					int bondLength = 0;
+					if (references[k] >= 0 && layers[references[k]] <= layer) {
+						reference = start + references[k];
+						bondLength = template.bondLengths[k];
+					} else if (k == 0 && template.hasHead && tail >= 0) {
+						reference = tailDecoded ? tail : -1;
+						bondLength = template.headBondLength;
+					}
+
+					int dx = x.get(a) - (reference >= 0 ? x.get(reference) : 0);
+					int dy = y.get(a) - (reference >= 0 ? y.get(reference) : 0);
+					int dz = z.get(a) - (reference >= 0 ? z.get(reference) : 0);
+					coordValues.add(dx);
+					coordValues.add(dy);
+					coordValues.add(BitEncoder.toFoldedZ(bondLength, dx, dy, dz));
+					bFactorValues.add(b.get(a) - (reference >= 0 ? b.get(reference) : 0));
+					occupancyValues.add(o.get(a));
+					previous = a;
+				}
+				tail = template.hasTail && template.tailAtomIndex >= 0 ? start + template.tailAtomIndex : -1;
+				tailDecoded = tail >= 0 && layers[template.tailAtomIndex] <= layer;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the reference entry (compression method 6), and replaces each group template whose group name, 
+	 * insertion code, flags, and atoms are those of a template of the reference by that template. The atoms of the
+	 * groups are reordered into the atom order of the reference template, and the template is not written again.
+	 * @throws IOException if the reference entry cannot be decoded, or its precision differs
+	 */
+	private void resolveReference() throws IOException {
+		reference = StructureDecoderImpl1.decodeReference(referenceId, referenceResolver, 1);
+		if (reference.getXyzScale() != xyzScale || reference.getBoScale() != boScale) {
+			throw new IOException("StructureDeflator: precision of reference entry " + referenceId + " differs");
+		}
+
+		// templates of the reference by the names, elements, and alternative location ids of their atoms
+		List<GroupTemplate> referenceTemplates = reference.getTemplates();
+		Map<String, Integer> referenceTemplateIndices = new HashMap<String, Integer>();
+		for (int t = referenceTemplates.size() - 1; t >= 0; t--) {
+			referenceTemplateIndices.put(getTemplateMatchKey(referenceTemplates.get(t)), t);
+		}
+		// group template that replaces each reference template, if two templates only differ in their atom order
+		Map<Integer, Integer> replacedTemplates = new HashMap<Integer, Integer>();
+		for (int t = 0; t < templates.size(); t++) {
+			GroupTemplate template = templates.get(t);
+			Integer index = referenceTemplateIndices.get(getTemplateMatchKey(template));
+			if (index == null) {
+				continue;
+			}
+			GroupTemplate referenceTemplate = referenceTemplates.get(index);
+			int[] order = getAtomOrder(template, referenceTemplate);
+			Integer replaced = replacedTemplates.get(index);
+			for (int g = 0; g < groupTemplates.size(); g++) {
+				if (groupTemplates.get(g) == t) {
+					reorderAtoms(groupAtomStarts.get(g), order);
+					if (replaced != null) {
+						groupTemplates.set(g, replaced);
+					}
+				}
+			}
+			if (replaced == null) {
+				templates.set(t, referenceTemplate);
+				templateNumbers.set(t, index);
+				replacedTemplates.put(index, t);
+			}
+		}
+
+		// first chain of each model, first group of each chain, and the atoms of all models of the reference
+		List<String> referenceChainIds = reference.getChainIds();
+		IntList groupCounts = reference.getGroupCounts();
+		IntList groupIndices = reference.getGroupIndices();
+		IntList numbers = reference.getGroupNumbers();
+		IntList chainCounts = reference.getChainCounts();
+		boolean homogeneous = reference.isHomogeneousModel();
+		for (int c = 0, g = 0; c < referenceChainIds.size(); c++) {
+			referenceChainGroupStarts.add(g);
+			g += groupCounts.get(c);
+		}
+		for (int m = 0, c = 0, atom = 0; m < reference.getModelCount(); m++) {
+			int firstChain = homogeneous ? 0 : c;
+			int chainCount = chainCounts.get(homogeneous ? 0 : m);
+			referenceModelChainStarts.add(firstChain);
+			for (int i = firstChain; i < firstChain + chainCount; i++) {
+				String chainId = referenceChainIds.get(i).trim();
+				int firstGroup = referenceChainGroupStarts.get(i);
+				for (int j = firstGroup; j < firstGroup + groupCounts.get(i); j++) {
+					GroupTemplate template = referenceTemplates.get(groupIndices.get(j));
+					for (int k = 0; k < template.atomCount; k++, atom++) {
+						String key = getAtomMatchKey(m, chainId, numbers.get(j), template, k);
+						if (! referenceAtoms.containsKey(key)) {
+							referenceAtoms.put(key, atom);
+						}
+					}
+				}
+			}
+			c += chainCount;
+		}
+	}
+
+	/**
+	 * Returns the key by which group templates are matched with the templates of the reference entry: the group name, 
+	 * insertion code, flags, and the sorted names, elements, and alternative location ids of the atoms.
+	 */
+	private static String getTemplateMatchKey(GroupTemplate template) {
+		List<String> atoms = new ArrayList<String>(template.atomCount);
+		for (int k = 0; k < template.atomCount; k++) {
+			atoms.add(getAtomLabel(template, k));
+		}
+		Collections.sort(atoms);
+		StringBuilder sb = new StringBuilder();
+		sb.append(template.groupName.trim()).append('\t').append(template.insertionCode).append('\t').append(template.flags);
+		for (String atom: atoms) {
+			sb.append('\t').append(atom);
+		}
+		return sb.toString();
+	}
+
+	private static String getAtomLabel(GroupTemplate template, int k) {
+		return template.atomNames[k] + ' ' + template.elements[k].trim() + ' ' + template.altLocs[k];
+	}
+
+	/**
+	 * Returns the index of each atom of a reference template in a group template with the same atoms.
+	 */
+	private static int[] getAtomOrder(GroupTemplate template, GroupTemplate referenceTemplate) {
+		int[] order = new int[template.atomCount];
+		boolean[] used = new boolean[template.atomCount];
+		for (int n = 0; n < order.length; n++) {
+			String label = getAtomLabel(referenceTemplate, n);
+			for (int k = 0; k < used.length; k++) {
+				if (! used[k] && getAtomLabel(template, k).equals(label)) {
+					used[k] = true;
+					order[n] = k;
+					break;
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Returns the key by which atoms are matched with the atoms of the reference entry.
+	 */
+	private static String getAtomMatchKey(int model, String chainId, int groupNumber, GroupTemplate template, int k) {
+		return model + "\t" + chainId + "\t" + groupNumber + template.insertionCode + "\t" + template.groupName.trim() 
+				+ "\t" + template.atomNames[k] + template.altLocs[k];
+	}
+
+	/**
+	 * Removes the template bonds of reference templates that the decoder adds from the reference entry. A reference 
+	 * template with a bond that is not a bond of all its groups in this structure is written as a new template, 
+	 * with all its template bonds.
+	 */
+	private void matchReferenceBonds() {
+		Map<Long, Integer> bonds = new HashMap<Long, Integer>();
+		for (int i = 0; i < templateBonds.size(); i += 4) {
+			bonds.put(getTemplateBondKey(templateBonds.get(i), templateBonds.get(i+1), templateBonds.get(i+2)), templateBonds.get(i+3));
+		}
+		Set<Long> referenceBonds = new HashSet<Long>();
+		for (int t = 0; t < templates.size(); t++) {
+			if (templateNumbers.get(t) < 0) {
+				continue;
+			}
+			GroupTemplate template = templates.get(t);
+			for (int i = 0; i < template.bondOrders.length; i++) {
+				int atom1 = Math.min(template.bonds[2*i], template.bonds[2*i+1]);
+				int atom2 = Math.max(template.bonds[2*i], template.bonds[2*i+1]);
+				long key = getTemplateBondKey(t, atom1, atom2);
+				Integer order = bonds.get(key);
+				if (order == null || order != template.bondOrders[i]) {
+					templateNumbers.set(t, -1);
+					break;
+				}
+				referenceBonds.add(key);
+			}
+		}
+
+		IntList bondValues = new IntList(templateBonds.size());
+		for (int i = 0; i < templateBonds.size(); i += 4) {
+			int t = templateBonds.get(i);
+			if (templateNumbers.get(t) < 0 || ! referenceBonds.contains(getTemplateBondKey(t, templateBonds.get(i+1), templateBonds.get(i+2)))) {
+				for (int j = i; j < i + 4; j++) {
+					bondValues.add(templateBonds.get(j));
+				}
+			}
+		}
+		templateBonds = bondValues;
+	}
+
+	private int getReferenceTemplateCount() {
+		return reference != null ? reference.getTemplates().size() : 0;
+	}
+
+	/**
+	 * Returns the index of the reference chain with the chain id of a chain: a chain of the same model, or of the 
+	 * first model, if the reference has fewer models.
+	 * @param chain chain index
+	 * @return reference chain index, or -1 if there is no such chain
+	 */
+	private int getReferenceChain(int chain) {
+		int model = 0;
+		while (model + 1 < modelCount && modelChainStarts.get(model + 1) <= chain) {
+			model++;
+		}
+		if (model >= reference.getModelCount()) {
+			model = 0;
+		}
+		List<String> referenceChainIds = reference.getChainIds();
+		int firstChain = referenceModelChainStarts.get(model);
+		int chainCount = reference.getChainCounts().get(reference.isHomogeneousModel() ? 0 : model);
+		String chainId = chainIds.get(chain).trim();
+		for (int i = firstChain; i < firstChain + chainCount; i++) {
+			if (referenceChainIds.get(i).trim().equals(chainId)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the group of a reference chain with the group template and group number of each group 
+	 * of a chain, or -1 for groups without a match.
+	 * @param chain chain index
+	 * @param referenceChain reference chain index
+	 */
+	private int[] getReferenceGroups(int chain, int referenceChain) {
+		IntList groupIndices = reference.getGroupIndices();
+		IntList numbers = reference.getGroupNumbers();
+		int firstReferenceGroup = referenceChainGroupStarts.get(referenceChain);
+		Map<Long, Integer> groups = new HashMap<Long, Integer>();
+		for (int j = reference.getGroupCounts().get(referenceChain) - 1; j >= 0; j--) {
+			int index = firstReferenceGroup + j;
+			groups.put(((long)groupIndices.get(index) << 32) | (numbers.get(index) & 0xFFFFFFFFL), j);
+		}
+
+		int firstGroup = chainGroupStarts.get(chain);
+		int[] referenceGroups = new int[getGroupEnd(chain) - firstGroup];
+		for (int i = 0; i < referenceGroups.length; i++) {
+			int templateNumber = templateNumbers.get(groupTemplates.get(firstGroup + i));
+			Integer j = groups.get(((long)templateNumber << 32) | (groupNumbers.get(firstGroup + i) & 0xFFFFFFFFL));
+			referenceGroups[i] = templateNumber >= 0 && j != null ? j : -1;
+		}
+		return referenceGroups;
+	}
+
+	/**
+	 * Encodes the MATCH values, coordinate deltas, and b factor deltas of all atoms (compression method 6) as the 
+	 * inverse of StructureDecoderImpl1.readMatchedCoordinates. The deltas of an atom that matches an atom of the 
+	 * reference entry refer to the matched atom, otherwise to the previous atom of the chain.
+	 */
+	private void encodeMatches() {
+		matchValues.clear();
+		coordValues.clear();
+		bFactorValues.clear();
+		IntList[] captured = reference.getCapturedAtoms();
+		IntList[] atoms = {x, y, z, b};
+
+		int next = 0;
+		for (int m = 0; m < modelCount; m++) {
+			for (int c = modelChainStarts.get(m); c < getChainEnd(m); c++) {
+				String chainId = chainIds.get(c).trim();
+				int chainStart = getAtomStart(c);
+				for (int g = chainGroupStarts.get(c); g < getGroupEnd(c); g++) {
+					GroupTemplate template = templates.get(groupTemplates.get(g));
+					int start = groupAtomStarts.get(g);
+					for (int k = 0; k < template.atomCount; k++) {
+						int a = start + k;
+						// the deltas refer to the matched atom, the previous atom of the chain, or the origin
+						IntList[] offsets = atoms;
+						int offset = a > chainStart ? a - 1 : -1;
+						Integer match = referenceAtoms.get(getAtomMatchKey(m, chainId, groupNumbers.get(g), template, k));
+						if (match != null) {
+							matchValues.add(PackedIntegers.zigzagEncode(match - next) + 1);
+							next = match + 1;
+							offsets = captured;
+							offset = match;
+						} else {
+							matchValues.add(0);
+						}
+						coordValues.add(x.get(a) - (offset >= 0 ? offsets[0].get(offset) : 0));
+						coordValues.add(y.get(a) - (offset >= 0 ? offsets[1].get(offset) : 0));
+						coordValues.add(z.get(a) - (offset >= 0 ? offsets[2].get(offset) : 0));
+						bFactorValues.add(b.get(a) - (offset >= 0 ? offsets[3].get(offset) : 0));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a coordinate delta as a BitEncoder value, if the bond length is known and the value
+	 * is decoded without loss, otherwise as three integers.
+	 */
+	private void writeDelta(int dx, int dy, int dz, int bondLength) throws IOException {
+		if (isEncodable(dx, dy, dz, bondLength)) {
+			coordStream.writeEncoded(encoded[0]);
+			return;
+		}
+		coordStream.writeValue(dx);
+		coordStream.writeValue(dy);
+		coordStream.writeValue(dz);
+	}
+
+	/**
+	 * Returns true if a coordinate delta can be encoded as a BitEncoder value (encoded[0]), i.e., the bond length
+	 * is known, the decoded value reproduces the delta exactly, and the value is not a marker.
+	 */
+	private boolean isEncodable(int dx, int dy, int dz, int bondLength) {
+		if (bondLength <= 0 || ! BitEncoder.toInt(bondLength, dx, dy, dz, encoded)) {
+			return false;
+		}
+		int value = encoded[0];
+		BitEncoder.fromInt(value, bondLength, decoded);
+		return decoded[0] == dx && decoded[1] == dy && decoded[2] == dz &&
+				value != BYTE4_SHORT_MARKER && value != BYTE4_INTEGER_MARKER && value != BYTE4_ENCODED_MARKER;
+	}
+
+	private static boolean isShort(int value) {
+		return value >= BYTE2_MIN_VALUE && value <= BYTE2_MAX_VALUE;
+	}
+
+	/**
+	 * Returns true if all models have the same chains and groups.
+	 */
+	private boolean isHomogeneous() {
+		if (modelCount < 2) {
+			return false;
+		}
+		int chainCount = getChainEnd(0);
+		for (int m = 1; m < modelCount; m++) {
+			int firstChain = modelChainStarts.get(m);
+			if (getChainEnd(m) - firstChain != chainCount) {
+				return false;
+			}
+			for (int c = 0; c < chainCount; c++) {
+				int other = firstChain + c;
+				int groupCount = getGroupEnd(c) - chainGroupStarts.get(c);
+				if (! chainIds.get(c).equals(chainIds.get(other)) || getGroupEnd(other) - chainGroupStarts.get(other) != groupCount) {
+					return false;
+				}
+				for (int g = 0; g < groupCount; g++) {
+					int g1 = chainGroupStarts.get(c) + g;
+					int g2 = chainGroupStarts.get(other) + g;
+					if (groupTemplates.get(g1) != groupTemplates.get(g2) || groupNumbers.get(g1) != groupNumbers.get(g2)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private int getChainEnd(int model) {
+		return model + 1 < modelCount ? modelChainStarts.get(model + 1) : chainIds.size();
+	}
+
+	private int getGroupEnd(int chain) {
+		return chain + 1 < chainIds.size() ? chainGroupStarts.get(chain + 1) : groupTemplates.size();
+	}
+
+	private void setError(String message) {
+		if (error == null) {
+			error = message;
+		}
+	}
+
+	private void clear() {
+		modelCount = 0;
+		modelChainStarts.clear();
+		chainIds.clear();
+		chainGroupStarts.clear();
+		groupTemplates.clear();
+		groupNumbers.clear();
+		groupAtomStarts.clear();
+		x.clear();
+		y.clear();
+		z.clear();
+		b.clear();
+		o.clear();
+		serialNumbers.clear();
+		bondAtoms.clear();
+		bondOrders.clear();
+		operatorIds.clear();
+		operatorMatrices.clear();
+		operatorChains.clear();
+		inGroup = false;
+		atomNames.clear();
+		elements.clear();
+		altLocs.setLength(0);
+		templates.clear();
+		templateKeys.clear();
+		templateIndices.clear();
+		templateOrders.clear();
+		templatesWritten = 0;
+		templateNumbers.clear();
+		reference = null;
+		referenceModelChainStarts.clear();
+		referenceChainGroupStarts.clear();
+		referenceAtoms.clear();
+		templateAngles.clear();
+		templateTorsions.clear();
+		error = null;
+	}
+
+	private static String pad(String s, int length) {
+		if (s.length() >= length) {
+			return s.substring(0, length);
+		}
+		StringBuilder sb = new StringBuilder(length);
+		sb.append(s);
+		while (sb.length() < length) {
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * IntegerStream writes a list of integers in the format read by StructureDecoderImpl1.readNextInt:
+	 * 2-byte or 4-byte integers and BitEncoder values, with markers that switch between these types.
+	 * A stream starts with the INTEGER_COORDINATE_TYPE.
+	 */
+	private static final class IntegerStream {
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream(65536);
+		private DataOutputStream out = new DataOutputStream(bytes);
+		private int type = INTEGER_COORDINATE_TYPE;
+
+		void reset() {
+			bytes.reset();
+			type = INTEGER_COORDINATE_TYPE;
+		}
+
+		void writeValue(int value) throws IOException {
+			if (isShort(value)) {
+				setType(SHORT_COORDINATE_TYPE);
+				out.writeShort(value);
+			} else {
+				setType(INTEGER_COORDINATE_TYPE);
+				out.writeInt(value);
+			}
+		}
+
+		void writeEncoded(int value) throws IOException {
+			setType(ENCODED_COORDINATE_TYPE);
+			out.writeInt(value);
+		}
+
+		private void setType(int newType) throws IOException {
+			if (newType == type) {
+				return;
+			}
+			if (type == SHORT_COORDINATE_TYPE) {
+				out.writeShort(newType == INTEGER_COORDINATE_TYPE ? BYTE2_INTEGER_MARKER : BYTE2_ENCODED_MARKER);
+			} else if (newType == SHORT_COORDINATE_TYPE) {
+				out.writeInt(BYTE4_SHORT_MARKER);
+			} else {
+				out.writeInt(newType == INTEGER_COORDINATE_TYPE ? BYTE4_INTEGER_MARKER : BYTE4_ENCODED_MARKER);
+			}
+			type = newType;
+		}
+
+		int size() {
+			return bytes.size();
+		}
+
+		void writeTo(OutputStream outputStream) throws IOException {
+			bytes.writeTo(outputStream);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.rcsb.codec.CodecConstants.HEAVY_WATER_GROUP_NAME;
+import static org.rcsb.codec.CodecConstants.WATER_GROUP_NAME;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * StructureFilter selects the models, chains, groups, and atoms that the decoder passes to the inflator
+ * (see StructureInflator.setFilter and EncodedStructure.inflate). Atoms that are not accepted are not converted to floating point numbers
+ * and are not reported, and chains without accepted atoms are skipped. Atoms keep the serial numbers of the
+ * complete model, and bonds are reported only between accepted atoms.
+ * <p>
+ * The group and atom predicates are evaluated once per group template and structure, not once per atom,
+ * therefore they may only depend on their arguments. The chain and model predicates are evaluated once per chain
+ * and model. Subclasses can override the accept methods for other predicates.
+ * <p>
+ * Usage:
+ * <pre>
+ *    StructureFilter filter = new StructureFilter().setPolymerTypes(1).excludeHydrogens().setAlternativeLocation('A');
+ *    StructureInflator inflator = new StructureInflator(builder);
+ *    inflator.setFilter(filter);
+ *    inflator.read("4HHB.hesc");
+ * </pre>
+ * Note, for compression method 3 (streaming), the chain count passed to setModelInfo is the number of chains
+ * before filtering, since the model is reported before its chains have been read.
+ *
+ * @author Peter Rose
+ *
+ */
+public class StructureFilter {
+	private Set<Integer> modelNumbers = null;
+	private Set<String> chainIds = null;
+	private boolean[] polymerTypes = null;
+	private Set<String> excludedGroupNames = new HashSet<String>();
+	private Set<String> excludedElements = new HashSet<String>();
+	private char alternativeLocation = 0;
+
+	/**
+	 * Accepts only the given models.
+	 * @param modelNumbers model numbers as passed to setModelInfo (0 for the first model)
+	 * @return this filter
+	 */
+	public StructureFilter setModels(int... modelNumbers) {
+		this.modelNumbers = new HashSet<Integer>();
+		for (int modelNumber: modelNumbers) {
+			this.modelNumbers.add(modelNumber);
+		}
+		return this;
+	}
+
+	/**
+	 * Accepts only the chains with the given chain ids.
+	 * @param chainIds
+	 * @return this filter
+	 */
+	public StructureFilter setChainIds(String... chainIds) {
+		this.chainIds = new HashSet<String>();
+		for (String chainId: chainIds) {
+			this.chainIds.add(chainId.trim());
+		}
+		return this;
+	}
+
+	/**
+	 * Accepts only groups of the given polymer types.
+	 * @param polymerTypes 1: amino acid, 2: nucleotide, 0: other (as passed to setGroupInfo)
+	 * @return this filter
+	 * @throws IllegalArgumentException if a polymer type is not 0, 1, or 2
+	 */
+	public StructureFilter setPolymerTypes(int... polymerTypes) {
+		boolean[] accepted = new boolean[3];
+		for (int polymerType: polymerTypes) {
+			if (polymerType < 0 || polymerType >= accepted.length) {
+				throw new IllegalArgumentException("StructureFilter: invalid polymer type: " + polymerType);
+			}
+			accepted[polymerType] = true;
+		}
+		this.polymerTypes = accepted;
+		return this;
+	}
+
+	/**
+	 * Rejects the groups with the given names, e.g., "HOH".
+	 * @param groupNames
+	 * @return this filter
+	 */
+	public StructureFilter excludeGroups(String... groupNames) {
+		excludedGroupNames.addAll(Arrays.asList(groupNames));
+		return this;
+	}
+
+	/**
+	 * Rejects water molecules (WATER_GROUP_NAME, HEAVY_WATER_GROUP_NAME).
+	 * @return this filter
+	 */
+	public StructureFilter excludeWater() {
+		return excludeGroups(WATER_GROUP_NAME, HEAVY_WATER_GROUP_NAME);
+	}
+
+	/**
+	 * Rejects atoms of the given elements (upper case symbols, e.g., "H", "FE").
+	 * @param elements
+	 * @return this filter
+	 */
+	public StructureFilter excludeElements(String... elements) {
+		excludedElements.addAll(Arrays.asList(elements));
+		return this;
+	}
+
+	/**
+	 * Rejects hydrogen and deuterium atoms.
+	 * @return this filter
+	 */
+	public StructureFilter excludeHydrogens() {
+		return excludeElements("H", "D");
+	}
+
+	/**
+	 * Accepts only atoms without an alternative location and atoms at the given alternative location.
+	 * @param alternativeLocationId e.g., 'A'
+	 * @return this filter
+	 */
+	public StructureFilter setAlternativeLocation(char alternativeLocationId) {
+		this.alternativeLocation = alternativeLocationId;
+		return this;
+	}
+
+	/**
+	 * @param modelNumber model number as passed to setModelInfo
+	 * @return true if the model is accepted
+	 */
+	public boolean acceptModel(int modelNumber) {
+		return modelNumbers == null || modelNumbers.contains(modelNumber);
+	}
+
+	/**
+	 * @param chainId chain id, without padding
+	 * @return true if the chain is accepted
+	 */
+	public boolean acceptChain(String chainId) {
+		return chainIds == null || chainIds.contains(chainId);
+	}
+
+	/**
+	 * @param groupName group name, without padding
+	 * @param polymerType 1: amino acid, 2: nucleotide, 0: other
+	 * @return true if the group is accepted
+	 */
+	public boolean acceptGroup(String groupName, int polymerType) {
+		if (polymerTypes != null && ! polymerTypes[polymerType]) {
+			return false;
+		}
+		return ! excludedGroupNames.contains(groupName);
+	}
+
+	/**
+	 * Returns true if an atom of an accepted group is accepted.
+	 * @param groupName group name, without padding
+	 * @param polymerType 1: amino acid, 2: nucleotide, 0: other
+	 * @param atomName atom name, without padding
+	 * @param element element symbol
+	 * @param alternativeLocationId
+	 * @return true if the atom is accepted
+	 */
+	public boolean acceptAtom(String groupName, int polymerType, String atomName, String element, char alternativeLocationId) {
+		if (alternativeLocation != 0 && alternativeLocationId != ' ' && alternativeLocationId != 0
+				&& alternativeLocationId != alternativeLocation) {
+			return false;
+		}
+		return ! excludedElements.contains(element);
+	}
+}
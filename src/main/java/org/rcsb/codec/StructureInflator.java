@@ -38,6 +38,8 @@ import static org.rcsb.codec.CodecConstants.*;
 public class StructureInflator {	
 	private DataInputStream inStream;
 	private StructureInflatorInterface inflator;
+	private ReferenceResolver referenceResolver = null;
+	private StructureFilter filter = null;
 	
 	private byte majorVersion;
 	private byte minorVersion;
@@ -51,6 +53,23 @@ public class StructureInflator {
 		this.inflator = inflator;
 	}
 	
+	/**
+	 * Sets the resolver for the reference entries of structures that are encoded as differences 
+	 * to another entry (compression method 6).
+	 * @param referenceResolver
+	 */
+	public void setReferenceResolver(ReferenceResolver referenceResolver) {
+		this.referenceResolver = referenceResolver;
+	}
+	
+	/**
+	 * Sets a filter for the models, chains, groups, and atoms that are passed to the inflator.
+	 * @param filter filter, or null to pass all atoms
+	 */
+	public void setFilter(StructureFilter filter) {
+		this.filter = filter;
+	}
+	
 	/**
 	 * @return the fileSize
 	 */
@@ -193,7 +212,10 @@ public class StructureInflator {
 	}
 	
 	private void readData() throws IOException {
-		StructureDecoder decoder = StructureDecoder.getDecoder(minorVersion, majorVersion, compressionMethod, inStream, inflator);
+		StructureDecoder decoder = StructureDecoder.getDecoder(minorVersion, majorVersion, compressionMethod, inStream, inflator, referenceResolver);
+		if (filter != null && decoder instanceof StructureDecoderImpl1) {
+			((StructureDecoderImpl1) decoder).setFilter(filter);
+		}
 		decoder.decode();
 	}
 	
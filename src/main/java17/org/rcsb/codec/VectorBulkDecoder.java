@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorBulkDecoder implements the bulk operations of the BulkDecoder with the Vector API (JDK 17 or later,
+ * incubator module jdk.incubator.vector). It is part of the multi-release jar (META-INF/versions/17) and is
+ * loaded by BulkDecoder.getInstance() if available. The results are identical to the scalar implementation:
+ * the z coordinate is computed with double precision square roots and rounded like Math.round.
+ *
+ * @author Peter Rose
+ *
+ */
+final class VectorBulkDecoder extends BulkDecoder {
+	private static final VectorSpecies<Integer> INT = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> FLOAT = VectorSpecies.of(float.class, INT.vectorShape());
+	private static final VectorSpecies<Short> SHORT = VectorSpecies.of(short.class, VectorShape.forBitSize(INT.vectorBitSize()/2));
+	private static final VectorSpecies<Double> DOUBLE = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> HALF_INT = VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLE.vectorBitSize()/2));
+
+	@Override
+	void widenShorts(byte[] src, int[] dst, int count) {
+		int i = 0;
+		int bound = SHORT.loopBound(count);
+		for (; i < bound; i += SHORT.length()) {
+			ShortVector s = ShortVector.fromByteArray(SHORT, src, 2*i, ByteOrder.BIG_ENDIAN);
+			s.convertShape(VectorOperators.S2I, INT, 0).reinterpretAsInts().intoArray(dst, i);
+		}
+		for (int j = 2*i; i < count; i++, j += 2) {
+			dst[i] = (short)((src[j] << 8) | (src[j+1] & 0xFF));
+		}
+	}
+
+	@Override
+	void unpackEncoded(int[] words, int[] distances, int[] x, int[] y, int[] z, int count) {
+		// unpack the x, y, and residual lanes (z holds the residual until the second loop)
+		int i = 0;
+		int bound = INT.loopBound(count);
+		for (; i < bound; i += INT.length()) {
+			IntVector w = IntVector.fromArray(INT, words, i);
+			zigzag(w.and(0xFFF)).intoArray(x, i);
+			zigzag(w.lanewise(VectorOperators.LSHR, 12).and(0xFFF)).intoArray(y, i);
+			zigzag(w.lanewise(VectorOperators.LSHR, 24).and(0x7F)).intoArray(z, i);
+		}
+		for (; i < count; i++) {
+			int w = words[i];
+			x[i] = zigzag(w & 0xFFF);
+			y[i] = zigzag((w >>> 12) & 0xFFF);
+			z[i] = zigzag((w >>> 24) & 0x7F);
+		}
+
+		// dz = round(sqrt(d*d - dx*dx - dy*dy)) - residual, negated if the sign bit is set
+		i = 0;
+		bound = HALF_INT.loopBound(count);
+		for (; i < bound; i += HALF_INT.length()) {
+			IntVector dx = IntVector.fromArray(HALF_INT, x, i);
+			IntVector dy = IntVector.fromArray(HALF_INT, y, i);
+			IntVector d = IntVector.fromArray(HALF_INT, distances, i);
+			IntVector r = d.mul(d).sub(dx.mul(dx)).sub(dy.mul(dy));
+			DoubleVector root = ((DoubleVector) r.convertShape(VectorOperators.I2D, DOUBLE, 0)).sqrt().add(0.5);
+			IntVector dz = ((IntVector) root.convertShape(VectorOperators.D2I, HALF_INT, 0)).sub(IntVector.fromArray(HALF_INT, z, i));
+			VectorMask<Integer> negative = IntVector.fromArray(HALF_INT, words, i).lt(0);
+			dz.blend(dz.neg(), negative).intoArray(z, i);
+		}
+		for (; i < count; i++) {
+			int d = distances[i];
+			int dz = (int)Math.round(Math.sqrt(d*d - x[i]*x[i] - y[i]*y[i])) - z[i];
+			z[i] = words[i] < 0 ? -dz : dz;
+		}
+	}
+
+	@Override
+	void toFloat(int[] src, float factor, float[] dst, int count) {
+		int i = 0;
+		int bound = INT.loopBound(count);
+		for (; i < bound; i += INT.length()) {
+			IntVector v = IntVector.fromArray(INT, src, i);
+			((FloatVector) v.convertShape(VectorOperators.I2F, FLOAT, 0)).mul(factor).intoArray(dst, i);
+		}
+		for (; i < count; i++) {
+			dst[i] = src[i] * factor;
+		}
+	}
+
+	private static IntVector zigzag(IntVector n) {
+		return n.lanewise(VectorOperators.LSHR, 1).lanewise(VectorOperators.XOR, n.and(1).neg());
+	}
+
+	private static int zigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+}
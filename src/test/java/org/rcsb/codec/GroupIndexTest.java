@@ -0,0 +1,382 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.rcsb.codec.CodecConstants.BO_SCALE;
+import static org.rcsb.codec.CodecConstants.COPY;
+import static org.rcsb.codec.CodecConstants.END;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.rcsb.codec.GroupIndex.Posting;
+import org.rcsb.codec.StructureDeflatorTest.Generator;
+import org.rcsb.codec.StructureDeflatorTest.MemoryResolver;
+
+/**
+ * Tests the GroupIndex on directories of .hesc files: queries, incremental updates, removal of entries and packs,
+ * index files, and entries with reference-based compression. The expected postings of an entry are
+ * computed from the structure that has been encoded.
+ *
+ * @author Peter Rose
+ *
+ */
+public class GroupIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Generator entry1 = new Generator(1, 2, 12, XYZ_SCALE, BO_SCALE, 1);
+	private final Generator entry2 = new Generator(2, 1, 7, XYZ_SCALE, BO_SCALE, 2);
+	private final Generator pack1 = new Generator(1, 1, 5, XYZ_SCALE, BO_SCALE, 3);
+	private final Generator pack2 = new Generator(1, 3, 4, XYZ_SCALE, BO_SCALE, 4);
+
+	@Test
+	public void testQuery() throws Exception {
+		File dir = createEntries();
+		GroupIndex index = new GroupIndex();
+		assertEquals(3, index.update(dir));
+
+		assertEquals(4, index.getEntryCount());
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("ALA", "GLY", "HOH", "SER")), index.getGroupNames());
+		assertEquals(getOccurrences(entry1), getPostings(index, "1ABC"));
+		assertEquals(getOccurrences(entry2), getPostings(index, "2ABC"));
+		assertEquals(getOccurrences(pack1), getPostings(index, "PACK/1"));
+		assertEquals(getOccurrences(pack2), getPostings(index, "PACK/2"));
+		assertEquals("4 A", getPostings(index, "2ABC").get("SER"));
+		assertTrue(index.query("HEM").isEmpty());
+
+		// files that have not been modified are not scanned again
+		assertEquals(0, index.update(dir));
+		assertEquals(4, index.getEntryCount());
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		File dir = createEntries();
+		GroupIndex index = new GroupIndex();
+		index.update(dir);
+
+		File file = new File(dir, "2ABC.hesc");
+		long modified = file.lastModified();
+		write(file, deflateLigand());
+		file.setLastModified(modified - 10000);
+		File packFile = new File(dir, "PACK.hesc");
+		modified = packFile.lastModified();
+		write(packFile, StructureDeflatorTest.deflate(pack2, STANDARD_COMPRESSION));
+		packFile.setLastModified(modified - 10000);
+		assertEquals(2, index.update(dir));
+
+		assertEquals(3, index.getEntryCount());
+		assertEquals(Collections.singletonMap("HEM", "1 A"), getPostings(index, "2ABC"));
+		assertEquals(getOccurrences(entry1), getPostings(index, "1ABC"));
+		// the pack has been replaced by a single entry
+		assertEquals(getOccurrences(pack2), getPostings(index, "PACK"));
+		assertTrue(getPostings(index, "PACK/1").isEmpty());
+		assertTrue(getPostings(index, "PACK/2").isEmpty());
+		assertEquals(1, index.query("HEM").size());
+		assertEquals(2, index.query("GLY").size());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		File dir = createEntries();
+		write(new File(dir, "3ABC.hesc"), deflateLigand());
+		GroupIndex index = new GroupIndex();
+		index.update(dir);
+		assertTrue(index.getGroupNames().contains("HEM"));
+
+		index.remove("PACK/1");
+		assertEquals(4, index.getEntryCount());
+		assertTrue(getPostings(index, "PACK/1").isEmpty());
+		assertEquals(getOccurrences(pack2), getPostings(index, "PACK/2"));
+
+		// groups without postings are removed
+		index.remove("3ABC");
+		assertFalse(index.getGroupNames().contains("HEM"));
+		assertTrue(index.query("HEM").isEmpty());
+
+		index.remove("PACK");
+		index.remove("XXXX");
+		assertEquals(2, index.getEntryCount());
+		assertEquals(getOccurrences(entry1), getPostings(index, "1ABC"));
+		assertEquals(getOccurrences(entry2), getPostings(index, "2ABC"));
+
+		// removed files are scanned again
+		assertEquals(2, index.update(dir));
+		assertEquals(5, index.getEntryCount());
+		assertEquals(getOccurrences(pack1), getPostings(index, "PACK/1"));
+		assertEquals(Collections.singletonMap("HEM", "1 A"), getPostings(index, "3ABC"));
+	}
+
+	@Test
+	public void testReadWrite() throws Exception {
+		File dir = createEntries();
+		GroupIndex index = new GroupIndex();
+		index.update(dir);
+		index.remove("PACK/1");
+		File indexFile = new File(folder.getRoot(), "index.hesi");
+		index.write(indexFile);
+
+		GroupIndex copy = GroupIndex.read(indexFile);
+		assertEquals(getPostings(index), getPostings(copy));
+		assertEquals(3, copy.getEntryCount());
+		assertEquals(0, copy.update(dir));
+
+		// the postings of the entries that have been read can be removed
+		index.remove("1ABC");
+		copy.remove("1ABC");
+		index.remove("PACK");
+		copy.remove("PACK");
+		assertEquals(getPostings(index), getPostings(copy));
+		assertEquals(1, copy.getEntryCount());
+	}
+
+	@Test
+	public void testReadVersion0() throws Exception {
+		File indexFile = new File(folder.getRoot(), "index.hesi");
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(indexFile)));
+		out.writeBytes(GroupIndex.INDEX_MAGIC_NUMBER);
+		out.writeByte(0);
+		out.writeInt(1);
+		out.writeUTF("1ABC");
+		out.writeLong(1000);
+		out.writeInt(1);
+		out.writeUTF("HEM");
+		out.writeInt(1);
+		out.writeInt(0);
+		out.writeInt(2);
+		out.writeShort(2);
+		out.writeUTF("A");
+		out.writeUTF("B");
+		out.close();
+
+		GroupIndex index = GroupIndex.read(indexFile);
+		assertEquals(1, index.getEntryCount());
+		assertEquals(Collections.singletonMap("HEM", "2 A,B"), getPostings(index, "1ABC"));
+		index.remove("1ABC");
+		assertTrue(index.getGroupNames().isEmpty());
+	}
+
+	@Test
+	public void testReferenceCompression() throws Exception {
+		MemoryResolver resolver = new MemoryResolver();
+		resolver.put("E0", StructureDeflatorTest.deflate(new Generator(1, 2, 20, XYZ_SCALE, BO_SCALE, 12), STANDARD_COMPRESSION));
+		resolver.put("E1", StructureDeflatorTest.deflate(new Generator(1, 2, 20, XYZ_SCALE, BO_SCALE, 13), "E0", resolver));
+		Generator generator = new Generator(2, 3, 20, XYZ_SCALE, BO_SCALE, 14);
+		byte[] data = StructureDeflatorTest.deflate(generator, "E1", resolver);
+		// groups are copied from the reference entry
+		assertTrue(countRecords(data, COPY) > 0);
+
+		File dir = createEntries();
+		write(new File(dir, "E2.hesc"), data);
+		GroupIndex index = new GroupIndex();
+		index.setReferenceResolver(resolver);
+		assertEquals(4, index.update(dir));
+		assertEquals(5, index.getEntryCount());
+		assertTrue(index.getSkippedEntryIds().isEmpty());
+		assertEquals(getOccurrences(generator), getPostings(index, "E2"));
+	}
+
+	@Test
+	public void testSkippedEntries() throws Exception {
+		MemoryResolver resolver = new MemoryResolver();
+		resolver.put("E0", StructureDeflatorTest.deflate(new Generator(1, 2, 20, XYZ_SCALE, BO_SCALE, 12), STANDARD_COMPRESSION));
+		File dir = createEntries();
+		File file = new File(dir, "E1.hesc");
+		write(file, StructureDeflatorTest.deflate(new Generator(1, 2, 20, XYZ_SCALE, BO_SCALE, 13), "E0", resolver));
+
+		GroupIndex index = new GroupIndex();
+		assertEquals(3, index.update(dir));
+		assertEquals(4, index.getEntryCount());
+		assertEquals(Arrays.asList("E1"), index.getSkippedEntryIds());
+
+		// a skipped entry is not scanned again: the corrupted file would fail
+		long modified = file.lastModified();
+		write(file, new byte[] {1, 2, 3});
+		file.setLastModified(modified);
+		assertEquals(0, index.update(dir));
+		assertEquals(Arrays.asList("E1"), index.getSkippedEntryIds());
+
+		// skipped entries are recorded in the index file
+		File indexFile = new File(folder.getRoot(), "index.hesi");
+		index.write(indexFile);
+		GroupIndex copy = GroupIndex.read(indexFile);
+		assertEquals(Arrays.asList("E1"), copy.getSkippedEntryIds());
+		assertEquals(4, copy.getEntryCount());
+		assertEquals(0, copy.update(dir));
+
+		index.remove("E1");
+		assertTrue(index.getSkippedEntryIds().isEmpty());
+	}
+
+	/**
+	 * Creates a directory with the entries 1ABC and 2ABC, and a pack with two structures.
+	 */
+	private File createEntries() throws IOException {
+		File dir = folder.newFolder("entries");
+		write(new File(dir, "1ABC.hesc"), StructureDeflatorTest.deflate(entry1, STANDARD_COMPRESSION));
+		write(new File(dir, "2ABC.hesc"), StructureDeflatorTest.deflate(entry2, PACKED_COMPRESSION));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		pack1.generate(deflator);
+		deflator.writeStructure();
+		pack2.generate(deflator);
+		deflator.writeStructure();
+		deflator.close();
+		write(new File(dir, "PACK.hesc"), bytes.toByteArray());
+
+		// files without the .hesc extension are ignored
+		write(new File(dir, "README"), new byte[0]);
+		return dir;
+	}
+
+	/**
+	 * Encodes a structure with a single HEM group in chain A.
+	 */
+	private static byte[] deflateLigand() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		deflator.setModelCount(1);
+		deflator.setModelInfo(0, 1);
+		deflator.setChainInfo("A", 1);
+		deflator.setGroupInfo("HEM", 201, ' ', 0, 2);
+		deflator.setAtomInfo("FE", 1, ' ', 1.0f, 2.0f, 3.0f, 1.0f, 20.0f, "FE");
+		deflator.setAtomInfo("NA", 2, ' ', 2.0f, 2.0f, 3.0f, 1.0f, 20.0f, "N");
+		deflator.writeStructure();
+		deflator.close();
+		return bytes.toByteArray();
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int countRecords(byte[] data, byte recordId) throws IOException {
+		HescRecordReader reader = new HescRecordReader(new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data))));
+		int count = 0;
+		try {
+			while (reader.readHeader()) {
+				byte id;
+				while ((id = reader.nextRecord()) != END) {
+					if (id == recordId) {
+						count++;
+					}
+					reader.skipRecord();
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the expected postings of a structure as "count chainIds" by group name.
+	 */
+	private static Map<String, String> getOccurrences(Generator generator) {
+		final Map<String, Integer> counts = new TreeMap<String, Integer>();
+		final Map<String, Set<String>> chainIds = new LinkedHashMap<String, Set<String>>();
+		generator.generate(new StructureInflatorInterface() {
+			private String chainId;
+
+			public void setModelCount(int modelCount) {
+			}
+
+			public void setModelInfo(int modelNumber, int chainCount) {
+			}
+
+			public void setChainInfo(String chainId, int groupCount) {
+				this.chainId = chainId;
+			}
+
+			public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+				Integer count = counts.get(groupName);
+				counts.put(groupName, count == null ? 1 : count + 1);
+				if (! chainIds.containsKey(groupName)) {
+					chainIds.put(groupName, new LinkedHashSet<String>());
+				}
+				chainIds.get(groupName).add(chainId);
+			}
+
+			public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+					float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+			}
+		});
+		Map<String, String> occurrences = new TreeMap<String, String>();
+		for (String groupName: counts.keySet()) {
+			occurrences.put(groupName, format(counts.get(groupName), chainIds.get(groupName)));
+		}
+		return occurrences;
+	}
+
+	/**
+	 * Returns the postings of an entry as "count chainIds" by group name.
+	 */
+	private static Map<String, String> getPostings(GroupIndex index, String entryId) {
+		Map<String, String> postings = new TreeMap<String, String>();
+		for (String groupName: index.getGroupNames()) {
+			for (Posting p: index.query(groupName)) {
+				if (p.getEntryId().equals(entryId)) {
+					postings.put(groupName, format(p.getCount(), Arrays.asList(p.getChainIds())));
+				}
+			}
+		}
+		return postings;
+	}
+
+	/**
+	 * Returns all postings as "entryId count chainIds" by group name.
+	 */
+	private static Map<String, List<String>> getPostings(GroupIndex index) {
+		Map<String, List<String>> postings = new TreeMap<String, List<String>>();
+		for (String groupName: index.getGroupNames()) {
+			List<String> list = new ArrayList<String>();
+			for (Posting p: index.query(groupName)) {
+				list.add(p.getEntryId() + " " + format(p.getCount(), Arrays.asList(p.getChainIds())));
+			}
+			postings.put(groupName, list);
+		}
+		return postings;
+	}
+
+	private static String format(int count, Iterable<String> chainIds) {
+		StringBuilder sb = new StringBuilder();
+		for (String chainId: chainIds) {
+			sb.append(sb.length() == 0 ? "" : ",").append(chainId);
+		}
+		return count + " " + sb;
+	}
+}
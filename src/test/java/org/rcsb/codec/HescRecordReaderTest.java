@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.rcsb.codec.CodecConstants.BO_SCALE;
+import static org.rcsb.codec.CodecConstants.CHAIN;
+import static org.rcsb.codec.CodecConstants.COORD;
+import static org.rcsb.codec.CodecConstants.END;
+import static org.rcsb.codec.CodecConstants.GINFO;
+import static org.rcsb.codec.CodecConstants.GROUP;
+import static org.rcsb.codec.CodecConstants.MAJOR_VERSIONS;
+import static org.rcsb.codec.CodecConstants.MINOR_VERSIONS;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STRUCTURE;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.rcsb.codec.StructureDeflatorTest.Generator;
+
+/**
+ * Tests the HescRecordReader on an uncompressed stream of two structures encoded by the StructureDeflator.
+ *
+ * @author Peter Rose
+ *
+ */
+public class HescRecordReaderTest {
+	// both structures have a single model, so that each chain has a CHAIN record
+	private final Generator structure1 = new Generator(1, 2, 12, XYZ_SCALE, BO_SCALE, 1);
+	private final Generator structure2 = new Generator(1, 1, 7, XYZ_SCALE, BO_SCALE, 2);
+
+	@Test
+	public void testRecords() throws Exception {
+		HescRecordReader reader = open(deflate());
+		assertRecords(reader, structure1, STANDARD_COMPRESSION);
+		assertRecords(reader, structure2, PACKED_COMPRESSION);
+		assertFalse(reader.readHeader());
+		reader.close();
+	}
+
+	@Test
+	public void testSkipStructure() throws Exception {
+		HescRecordReader reader = open(deflate());
+		assertTrue(reader.readHeader());
+		reader.skipStructure();
+		assertEquals(END, reader.getRecordId());
+
+		// the data of the current record is read before the next record
+		assertTrue(reader.readHeader());
+		assertEquals(STRUCTURE, reader.nextRecord());
+		assertEquals(5, reader.getRecordLength());
+		assertEquals(1, reader.getDataInputStream().readInt());
+		reader.skipFully(1);
+		reader.skipStructure();
+		assertFalse(reader.readHeader());
+		reader.close();
+	}
+
+	@Test
+	public void testShortRecords() {
+		assertTrue(HescRecordReader.isShortRecord(CHAIN));
+		assertTrue(HescRecordReader.isShortRecord(GROUP));
+		assertFalse(HescRecordReader.isShortRecord(GINFO));
+		assertFalse(HescRecordReader.isShortRecord(COORD));
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidMagicNumber() throws Exception {
+		byte[] data = deflate();
+		data[3] = 'X';
+		open(data).readHeader();
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncatedStream() throws Exception {
+		byte[] data = deflate();
+		HescRecordReader reader = open(Arrays.copyOf(data, data.length / 4));
+		while (reader.readHeader()) {
+			reader.skipStructure();
+		}
+	}
+
+	/**
+	 * Reads the records of a structure, and checks the header, the record framing, and the number of CHAIN and GROUP records.
+	 */
+	private static void assertRecords(HescRecordReader reader, Generator generator, int compressionMethod) throws IOException {
+		assertTrue(reader.readHeader());
+		assertEquals(MAJOR_VERSIONS[0], reader.getMajorVersion());
+		assertEquals(MINOR_VERSIONS[0], reader.getMinorVersion());
+		assertEquals(compressionMethod, reader.getCompressionMethod());
+
+		int chainCount = 0;
+		int groupCount = 0;
+		byte recordId;
+		while ((recordId = reader.nextRecord()) != END) {
+			assertEquals(recordId, reader.getRecordId());
+			if (recordId == CHAIN) {
+				chainCount++;
+			} else if (recordId == GROUP) {
+				groupCount++;
+			}
+			reader.skipRecord();
+		}
+		assertEquals(0, reader.getRecordLength());
+		// amino acid chains and a water chain
+		assertEquals(generator.chainCount + 1, chainCount);
+		assertEquals(generator.chainCount * generator.groupCount + generator.groupCount / 2, groupCount);
+	}
+
+	private static HescRecordReader open(byte[] data) {
+		return new HescRecordReader(new DataInputStream(new ByteArrayInputStream(data)));
+	}
+
+	/**
+	 * Encodes the two structures into a single uncompressed stream.
+	 */
+	private byte[] deflate() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(bytes);
+		deflator.setCompressionMethod(STANDARD_COMPRESSION);
+		structure1.generate(deflator);
+		deflator.writeStructure();
+		deflator.setCompressionMethod(PACKED_COMPRESSION);
+		structure2.generate(deflator);
+		deflator.writeStructure();
+		deflator.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.rcsb.codec.CodecConstants.BO_SCALE;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import org.rcsb.codec.StructureDeflatorTest.Generator;
+import org.rcsb.codec.StructureDeflatorTest.Recorder;
+
+/**
+ * Tests the HescStructureReader on streams of concatenated structures: sequential iteration, batches,
+ * parallel decoding of batches, and truncated streams.
+ *
+ * @author Peter Rose
+ *
+ */
+public class HescStructureReaderTest {
+	private static final int STRUCTURE_COUNT = 10;
+
+	@Test
+	public void testIterator() throws Exception {
+		List<Generator> generators = createGenerators();
+		HescStructureReader reader = HescStructureReader.open(new ByteArrayInputStream(deflate(generators, true)));
+		try {
+			for (int i = 0; i < STRUCTURE_COUNT; i++) {
+				assertTrue(reader.hasNext());
+				EncodedStructure structure = reader.next();
+				assertEquals(i, structure.getIndex());
+				assertEquals(i % 2 == 0 ? STANDARD_COMPRESSION : PACKED_COMPRESSION, structure.getCompressionMethod());
+				assertEquals(generators.get(i).record(), inflate(structure));
+				assertEquals(generators.get(i).modelCount, structure.getSpatialSummary().getModelCount());
+			}
+			assertFalse(reader.hasNext());
+			try {
+				reader.next();
+				fail("NoSuchElementException expected");
+			} catch (NoSuchElementException e) {
+				// end of stream
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testBatches() throws Exception {
+		HescStructureReader reader = HescStructureReader.open(new ByteArrayInputStream(deflate(createGenerators(), true)));
+		try {
+			// a structure that has been read ahead by hasNext is the first structure of the next batch
+			assertTrue(reader.hasNext());
+			assertEquals(Arrays.asList(0L, 1L, 2L, 3L), getIndices(reader.nextBatch(4)));
+			assertEquals(Arrays.asList(4L, 5L, 6L, 7L), getIndices(reader.nextBatch(4)));
+			assertEquals(8L, reader.next().getIndex());
+			assertEquals(Arrays.asList(9L), getIndices(reader.nextBatch(4)));
+			assertTrue(reader.nextBatch(4).isEmpty());
+			assertFalse(reader.hasNext());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testParallelBatches() throws Exception {
+		final List<Generator> generators = createGenerators();
+		final HescStructureReader reader = HescStructureReader.open(new ByteArrayInputStream(deflate(generators, true)));
+		final Map<Long, List<String>> results = new ConcurrentHashMap<Long, List<String>>();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						int count = 0;
+						for (List<EncodedStructure> batch; ! (batch = reader.nextBatch(2)).isEmpty(); ) {
+							for (EncodedStructure structure: batch) {
+								results.put(structure.getIndex(), inflate(structure));
+								count++;
+							}
+						}
+						return count;
+					}
+				}));
+			}
+			int count = 0;
+			for (Future<Integer> future: futures) {
+				count += future.get();
+			}
+			assertEquals(STRUCTURE_COUNT, count);
+		} finally {
+			executor.shutdown();
+			reader.close();
+		}
+
+		// the structures decoded in parallel equal the structures decoded sequentially
+		for (int i = 0; i < STRUCTURE_COUNT; i++) {
+			assertEquals(generators.get(i).record(), results.get((long) i));
+		}
+	}
+
+	@Test
+	public void testTruncatedStream() throws Exception {
+		byte[] data = deflate(createGenerators(), false);
+		HescStructureReader reader = new HescStructureReader(new DataInputStream(
+				new ByteArrayInputStream(Arrays.copyOf(data, data.length - 10))));
+		for (int i = 0; i < STRUCTURE_COUNT - 1; i++) {
+			assertEquals(i, reader.next().getIndex());
+		}
+		try {
+			reader.hasNext();
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof EOFException);
+		}
+		reader.close();
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncatedBatch() throws Exception {
+		byte[] data = deflate(createGenerators(), false);
+		HescStructureReader reader = new HescStructureReader(new DataInputStream(
+				new ByteArrayInputStream(Arrays.copyOf(data, data.length - 10))));
+		try {
+			reader.nextBatch(STRUCTURE_COUNT);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBatchSize() throws Exception {
+		new HescStructureReader(new DataInputStream(new ByteArrayInputStream(new byte[0]))).nextBatch(0);
+	}
+
+	private static List<Generator> createGenerators() {
+		List<Generator> generators = new ArrayList<Generator>();
+		for (int i = 0; i < STRUCTURE_COUNT; i++) {
+			generators.add(new Generator(1 + i % 2, 1 + i % 3, 5 + i, XYZ_SCALE, BO_SCALE, 40 + i));
+		}
+		return generators;
+	}
+
+	/**
+	 * Encodes the structures into a single stream, alternating between two compression methods.
+	 * @param gzip true for a gzip compressed stream
+	 */
+	private static byte[] deflate(List<Generator> generators, boolean gzip) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes;
+		StructureDeflator deflator = new StructureDeflator(out);
+		for (int i = 0; i < generators.size(); i++) {
+			deflator.setCompressionMethod(i % 2 == 0 ? STANDARD_COMPRESSION : PACKED_COMPRESSION);
+			generators.get(i).generate(deflator);
+			deflator.writeStructure();
+		}
+		deflator.close();
+		return bytes.toByteArray();
+	}
+
+	private static List<String> inflate(EncodedStructure structure) throws IOException {
+		Recorder recorder = new Recorder();
+		structure.inflate(recorder);
+		return recorder.getRecords();
+	}
+
+	private static List<Long> getIndices(List<EncodedStructure> structures) {
+		List<Long> indices = new ArrayList<Long>();
+		for (EncodedStructure structure: structures) {
+			indices.add(structure.getIndex());
+		}
+		return indices;
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the packed integer streams (see PackedIntegers), for value counts that fill a partial block.
+ *
+ * @author Peter Rose
+ *
+ */
+public class PackedIntegersTest {
+	private static final int[] COUNTS = {0, 1, 127, 128, 129, 255, 300};
+
+	@Test
+	public void testSmallValues() throws IOException {
+		Random random = new Random(1);
+		for (int count: COUNTS) {
+			int[] values = new int[count];
+			for (int i = 0; i < count; i++) {
+				values[i] = random.nextInt(200) - 100;
+			}
+			assertRoundTrip(values);
+		}
+	}
+
+	@Test
+	public void testLargeValues() throws IOException {
+		Random random = new Random(2);
+		for (int count: COUNTS) {
+			int[] values = new int[count];
+			for (int i = 0; i < count; i++) {
+				values[i] = random.nextInt();
+			}
+			if (count > 1) {
+				values[0] = Integer.MIN_VALUE;
+				values[count - 1] = Integer.MAX_VALUE;
+			}
+			assertRoundTrip(values);
+		}
+	}
+
+	@Test
+	public void testConstantValues() throws IOException {
+		for (int count: COUNTS) {
+			int[] values = new int[count];
+			Arrays.fill(values, 1000);
+			byte[] data = write(values);
+			assertRoundTrip(values);
+			assertEquals(0, PackedIntegers.readBitCount(data, 0, data.length - PackedIntegers.PADDING));
+		}
+	}
+
+	@Test
+	public void testTruncatedStream() throws IOException {
+		int[] values = new int[129];
+		Arrays.fill(values, 1, values.length, 7);
+		byte[] data = write(values);
+		int end = data.length - PackedIntegers.PADDING;
+		try {
+			PackedIntegers.read(data, 0, end - 1, new int[values.length]);
+			fail("truncated stream");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testInsufficientCapacity() throws IOException {
+		byte[] data = write(new int[130]);
+		try {
+			PackedIntegers.read(data, 0, data.length - PackedIntegers.PADDING, new int[129]);
+			fail("value count exceeds capacity");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void assertRoundTrip(int[] values) throws IOException {
+		byte[] data = write(values);
+		int end = data.length - PackedIntegers.PADDING;
+		assertEquals(values.length, PackedIntegers.readCount(data, 0, end));
+		int[] decoded = new int[values.length];
+		assertEquals(values.length, PackedIntegers.read(data, 0, end, decoded));
+		assertArrayEquals(values, decoded);
+	}
+
+	/**
+	 * Returns a packed integer stream, followed by PADDING bytes.
+	 */
+	private static byte[] write(int[] values) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PackedIntegers.write(values, values.length, bytes);
+		return Arrays.copyOf(bytes.toByteArray(), bytes.size() + PackedIntegers.PADDING);
+	}
+}
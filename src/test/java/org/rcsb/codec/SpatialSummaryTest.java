@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.rcsb.codec.CodecConstants.PROGRESSIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STREAMING_COMPRESSION;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests the SUMMARY record: a structure is encoded with the StructureDeflator, and its summary is read
+ * with SpatialSummary.read without decoding the structure.
+ *
+ * @author Peter Rose
+ *
+ */
+public class SpatialSummaryTest {
+	// coordinates are multiples of the precision
+	private static final int XYZ_SCALE = 100;
+	private static final int BO_SCALE = 10;
+
+	@Test
+	public void testStandardCompression() throws Exception {
+		assertSummary(STANDARD_COMPRESSION);
+	}
+
+	@Test
+	public void testStreamingCompression() throws Exception {
+		assertSummary(STREAMING_COMPRESSION);
+	}
+
+	@Test
+	public void testProgressiveCompression() throws Exception {
+		assertSummary(PROGRESSIVE_COMPRESSION);
+	}
+
+	@Test
+	public void testIntersects() throws Exception {
+		SpatialSummary summary = read(deflate(STANDARD_COMPRESSION));
+
+		// the maximum x coordinate of chain A is 4.01f, not 401 * 0.01f
+		assertTrue(summary.intersects(0, 0, new float[] {4.01f, 2.0f, 3.0f, 5.0f, 5.0f, 5.0f}));
+		assertFalse(summary.intersects(0, 0, new float[] {4.02f, 2.0f, 3.0f, 5.0f, 5.0f, 5.0f}));
+		assertTrue(summary.intersects(0, 0, new float[] {-1.0f, -1.25f, -3.0f, 1.0f, 0.0f, -2.0f}));
+		assertFalse(summary.intersects(0, 0, new float[] {-1.0f, -1.26f, -3.0f, 1.0f, -1.26f, -2.0f}));
+
+		// an empty chain does not intersect any box
+		assertFalse(summary.intersects(0, 1, new float[] {-100, -100, -100, 100, 100, 100}));
+
+		assertTrue(summary.intersects(0, new float[] {9.99f, 9.99f, 9.99f, 20.0f, 20.0f, 20.0f}));
+		assertFalse(summary.intersects(1, new float[] {9.99f, 9.99f, 9.99f, 20.0f, 20.0f, 20.0f}));
+		assertTrue(summary.intersects(1, 0, new float[] {-3.0f, 1.0f, 1.0f, -3.0f, 1.0f, 1.0f}));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInvalidChain() throws Exception {
+		read(deflate(STANDARD_COMPRESSION)).getAtomCount(1, 1);
+	}
+
+	private static void assertSummary(int compressionMethod) throws IOException {
+		SpatialSummary summary = read(deflate(compressionMethod));
+
+		assertEquals(2, summary.getModelCount());
+		assertEquals(3, summary.getChainCount(0));
+		assertEquals(1, summary.getChainCount(1));
+
+		assertEquals(4, summary.getAtomCount(0));
+		assertArrayEquals(new float[] {1.0f, -1.25f, -2.0f, 10.0f, 10.0f, 10.0f}, summary.getBoundingBox(0), 0);
+		assertArrayEquals(new float[] {4.38f, 2.81f, 2.94f}, summary.getCentroid(0), 0);
+
+		assertEquals("A", summary.getChainId(0, 0));
+		assertEquals(3, summary.getAtomCount(0, 0));
+		assertArrayEquals(new float[] {1.0f, -1.25f, -2.0f, 4.01f, 2.0f, 3.0f}, summary.getBoundingBox(0, 0), 0);
+		assertArrayEquals(new float[] {2.5f, 0.42f, 0.58f}, summary.getCentroid(0, 0), 0);
+
+		// the values of an empty chain are 0
+		assertEquals("B", summary.getChainId(0, 1));
+		assertEquals(0, summary.getAtomCount(0, 1));
+		assertArrayEquals(new float[6], summary.getBoundingBox(0, 1), 0);
+		assertArrayEquals(new float[3], summary.getCentroid(0, 1), 0);
+
+		assertEquals("W", summary.getChainId(0, 2));
+		assertEquals(1, summary.getAtomCount(0, 2));
+		assertArrayEquals(new float[] {10.0f, 10.0f, 10.0f, 10.0f, 10.0f, 10.0f}, summary.getBoundingBox(0, 2), 0);
+		assertArrayEquals(new float[] {10.0f, 10.0f, 10.0f}, summary.getCentroid(0, 2), 0);
+
+		assertEquals(2, summary.getAtomCount(1));
+		assertArrayEquals(new float[] {-5.0f, 0.0f, 0.0f, -3.0f, 1.0f, 1.0f}, summary.getBoundingBox(1), 0);
+		assertArrayEquals(new float[] {-4.0f, 0.5f, 0.5f}, summary.getCentroid(1), 0);
+		assertEquals("A", summary.getChainId(1, 0));
+		assertEquals(2, summary.getAtomCount(1, 0));
+		assertArrayEquals(summary.getBoundingBox(1), summary.getBoundingBox(1, 0), 0);
+	}
+
+	/**
+	 * Reads the summary of the only structure of the data, and checks that the remaining records can be skipped.
+	 */
+	private static SpatialSummary read(byte[] data) throws IOException {
+		HescRecordReader reader = new HescRecordReader(new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data))));
+		try {
+			assertTrue(reader.readHeader());
+			SpatialSummary summary = SpatialSummary.read(reader);
+			reader.skipStructure();
+			assertFalse(reader.readHeader());
+			return summary;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Encodes a structure with two models. The first model has a chain A, an empty chain B, and a water chain W,
+	 * the second model has a chain A.
+	 */
+	private static byte[] deflate(int compressionMethod) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		deflator.setCompressionMethod(compressionMethod);
+		deflator.setPrecision(XYZ_SCALE, BO_SCALE);
+		deflator.setModelCount(2);
+
+		deflator.setModelInfo(0, 3);
+		deflator.setChainInfo("A", 1);
+		deflator.setGroupInfo("SER", 1, ' ', 1, 3);
+		deflator.setAtomInfo("N", 1, ' ', 1.0f, 2.0f, 3.0f, 1.0f, 20.0f, "N");
+		deflator.setAtomInfo("CA", 2, ' ', 2.5f, -1.25f, 0.75f, 1.0f, 20.0f, "C");
+		deflator.setAtomInfo("C", 3, ' ', 4.01f, 0.5f, -2.0f, 1.0f, 20.0f, "C");
+		deflator.setChainInfo("B", 0);
+		deflator.setChainInfo("W", 1);
+		deflator.setGroupInfo("HOH", 101, ' ', 0, 1);
+		deflator.setAtomInfo("O", 4, ' ', 10.0f, 10.0f, 10.0f, 1.0f, 30.0f, "O");
+
+		deflator.setModelInfo(1, 1);
+		deflator.setChainInfo("A", 1);
+		deflator.setGroupInfo("GLY", 1, ' ', 1, 2);
+		deflator.setAtomInfo("N", 1, ' ', -5.0f, 0.0f, 0.0f, 1.0f, 20.0f, "N");
+		deflator.setAtomInfo("CA", 2, ' ', -3.0f, 1.0f, 1.0f, 1.0f, 20.0f, "C");
+
+		deflator.writeStructure();
+		deflator.close();
+		return bytes.toByteArray();
+	}
+}
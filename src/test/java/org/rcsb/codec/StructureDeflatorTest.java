@@ -0,0 +1,758 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.rcsb.codec.CodecConstants.BO_SCALE;
+import static org.rcsb.codec.CodecConstants.LAYER_COUNT;
+import static org.rcsb.codec.CodecConstants.LOSSY_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.MAX_REFERENCE_DEPTH;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PREDICTIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PROGRESSIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.REFERENCE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STREAMING_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Round-trip tests of the StructureDeflator: synthetic structures are encoded and decoded with the
+ * StructureInflator, and the decoded structure is compared with the original one.
+ *
+ * @author Peter Rose
+ *
+ */
+public class StructureDeflatorTest {
+
+	@Test
+	public void testStandardCompression() throws Exception {
+		assertRoundTrip(new Generator(2, 3, 20, XYZ_SCALE, BO_SCALE, 1), STANDARD_COMPRESSION);
+	}
+
+	@Test
+	public void testStreamingCompression() throws Exception {
+		assertRoundTrip(new Generator(3, 3, 20, XYZ_SCALE, BO_SCALE, 7), STREAMING_COMPRESSION);
+	}
+
+	@Test
+	public void testStreamingChunks() throws Exception {
+		// models with different chains, an empty chain, and a polymer chain that follows another polymer chain
+		Recorder expected = new Recorder();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		deflator.setCompressionMethod(STREAMING_COMPRESSION);
+		StructureInflatorInterface[] inflators = {expected, deflator};
+		for (StructureInflatorInterface inflator: inflators) {
+			inflator.setModelCount(2);
+			inflator.setModelInfo(0, 3);
+			addChain(inflator, "A", 3, 1);
+			inflator.setChainInfo("E", 0);
+			addChain(inflator, "B", 2, 13);
+			inflator.setModelInfo(1, 1);
+			addChain(inflator, "C", 4, 1);
+		}
+		deflator.writeStructure();
+		deflator.close();
+		assertEquals(expected.getRecords(), inflate(bytes.toByteArray()));
+	}
+
+	@Test
+	public void testPackedCompression() throws Exception {
+		// 3 chains of 25 groups and 12 waters per model: the value counts are not multiples of the block size
+		assertRoundTrip(new Generator(2, 3, 25, XYZ_SCALE, BO_SCALE, 6), PACKED_COMPRESSION);
+	}
+
+	@Test
+	public void testProgressiveCompression() throws Exception {
+		assertRoundTrip(new Generator(2, 2, 20, XYZ_SCALE, BO_SCALE, 9), PROGRESSIVE_COMPRESSION);
+	}
+
+	@Test
+	public void testProgressiveLayers() throws Exception {
+		Generator generator = new Generator(2, 2, 20, XYZ_SCALE, BO_SCALE, 10);
+		byte[] data = deflate(generator, PROGRESSIVE_COMPRESSION);
+		List<String> atoms = getAtomRecords(generator.record());
+		List<String> backbone = new ArrayList<String>();
+		for (String atom: atoms) {
+			if (atom.startsWith("atom N ") || atom.startsWith("atom CA ") || atom.startsWith("atom C ")) {
+				backbone.add(atom);
+			}
+		}
+
+		// all layers: the atoms of the layers add up to the structure
+		LayerRecorder recorder = new LayerRecorder(LAYER_COUNT);
+		new StructureInflator(recorder).read(data);
+		assertEquals(Arrays.asList(0, 1, 2), recorder.layers);
+		List<String> layerAtoms = getAtomRecords(recorder.getRecords());
+		Collections.sort(layerAtoms);
+		assertEquals(atoms, layerAtoms);
+
+		// stop after the backbone layer
+		recorder = new LayerRecorder(1);
+		new StructureInflator(recorder).read(data);
+		assertEquals(Arrays.asList(0, 1), recorder.layers);
+		assertEquals(backbone, getAtomRecords(recorder.getRecords()));
+	}
+
+	@Test
+	public void testProgressiveStop() throws Exception {
+		// the records after a stopped layer are skipped, so that the next structure of the stream can be decoded
+		Generator generator = new Generator(2, 2, 20, XYZ_SCALE, BO_SCALE, 10);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		deflator.setCompressionMethod(PROGRESSIVE_COMPRESSION);
+		for (int i = 0; i < 2; i++) {
+			generator.generate(deflator);
+			deflator.writeStructure();
+		}
+		deflator.close();
+
+		HescRecordReader reader = new HescRecordReader(new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+		assertTrue(reader.readHeader());
+		LayerRecorder layerRecorder = new LayerRecorder(1);
+		StructureDecoder.getDecoder(reader.getMajorVersion(), reader.getMinorVersion(), reader.getCompressionMethod(),
+				reader.getDataInputStream(), layerRecorder).decode();
+		assertEquals(Arrays.asList(0, 1), layerRecorder.layers);
+
+		assertTrue(reader.readHeader());
+		Recorder recorder = new Recorder();
+		StructureDecoder.getDecoder(reader.getMajorVersion(), reader.getMinorVersion(), reader.getCompressionMethod(),
+				reader.getDataInputStream(), recorder).decode();
+		assertEquals(generator.record(), recorder.getRecords());
+		assertFalse(reader.readHeader());
+	}
+
+	@Test(expected = IOException.class)
+	public void testProgressiveAssembly() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		deflator.setCompressionMethod(PROGRESSIVE_COMPRESSION);
+		new Generator(1, 1, 5, XYZ_SCALE, BO_SCALE, 11).generate(deflator);
+		deflator.addAssemblyOperator("1", new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0}, new int[]{0});
+		deflator.writeStructure();
+	}
+
+	@Test
+	public void testPredictiveCompression() throws Exception {
+		assertRoundTrip(new Generator(1, 2, 40, XYZ_SCALE, BO_SCALE, 2), PREDICTIVE_COMPRESSION);
+	}
+
+	@Test
+	public void testLossyCompression() throws Exception {
+		Generator generator = new Generator(1, 2, 20, 100, 10, 3);
+		byte[] data = deflate(generator, STANDARD_COMPRESSION, 100, 10);
+		assertEquals(LOSSY_COMPRESSION, getCompressionMethod(data));
+		assertEquals(generator.record(), inflate(data));
+	}
+
+	@Test
+	public void testPredictivePrecision() throws Exception {
+		Generator generator = new Generator(1, 1, 30, 100, 10, 4);
+		byte[] data = deflate(generator, PREDICTIVE_COMPRESSION, 100, 10);
+		assertEquals(PREDICTIVE_COMPRESSION, getCompressionMethod(data));
+		assertEquals(generator.record(), inflate(data));
+	}
+
+	@Test
+	public void testBonds() throws Exception {
+		Generator generator = new Generator(2, 2, 30, XYZ_SCALE, BO_SCALE, 5);
+		Recorder expected = new Recorder();
+		generator.generate(expected);
+
+		byte[] data = deflate(generator, STANDARD_COMPRESSION);
+		Recorder recorder = new Recorder();
+		new StructureInflator(recorder).read(data);
+		assertEquals(expected.getRecords(), recorder.getRecords());
+
+		// all bonds are decoded with their bond order, except for bonds of the bond tree, which are added
+		Map<String, Integer> bonds = recorder.getBonds();
+		for (Map.Entry<String, Integer> bond: expected.getBonds().entrySet()) {
+			assertEquals(bond.getKey(), bond.getValue(), bonds.get(bond.getKey()));
+		}
+		for (Map.Entry<String, Integer> bond: bonds.entrySet()) {
+			if (bond.getValue() != BondInflatorInterface.UNKNOWN_BOND_ORDER) {
+				assertEquals(bond.getKey(), bond.getValue(), expected.getBonds().get(bond.getKey()));
+			}
+		}
+
+		// re-encoding the decoded structure reproduces the bonds
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		new StructureInflator(deflator).read(data);
+		deflator.writeStructure();
+		deflator.close();
+		Recorder reencoded = new Recorder();
+		new StructureInflator(reencoded).read(bytes.toByteArray());
+		assertEquals(recorder.getRecords(), reencoded.getRecords());
+		assertEquals(bonds, reencoded.getBonds());
+	}
+
+	@Test
+	public void testAssembly() throws Exception {
+		Generator generator = new Generator(1, 2, 10, XYZ_SCALE, BO_SCALE, 8);
+		double[] identity = {1, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0};
+		double[] rotation = {0, -1, 0, 1, 0, 0, 0, 0, 1, 10, 0, -5};
+		int[] allChains = {0, 1, 2};
+		int[] secondChain = {1};
+
+		// the copies follow the last chain of the model
+		AssemblyRecorder expected = new AssemblyRecorder();
+		generator.generate(expected);
+		expected.setOperatorInfo("1", identity, allChains.length);
+		generator.generate(new ChainTransformer(expected, allChains, identity));
+		expected.setOperatorInfo("2", rotation, secondChain.length);
+		generator.generate(new ChainTransformer(expected, secondChain, rotation));
+
+		int[] methods = {STANDARD_COMPRESSION, STREAMING_COMPRESSION, PACKED_COMPRESSION, PREDICTIVE_COMPRESSION};
+		for (int method: methods) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+			deflator.setCompressionMethod(method);
+			generator.generate(deflator);
+			deflator.addAssemblyOperator("1", identity, allChains);
+			deflator.addAssemblyOperator("2", rotation, secondChain);
+			deflator.writeStructure();
+			deflator.close();
+
+			AssemblyRecorder recorder = new AssemblyRecorder();
+			new StructureInflator(recorder).read(bytes.toByteArray());
+			assertEquals("method " + method, expected.getRecords(), recorder.getRecords());
+		}
+	}
+
+	@Test
+	public void testReferenceCompression() throws Exception {
+		// the structure has more models and chains than the reference, and different coordinates
+		MemoryResolver resolver = new MemoryResolver();
+		resolver.put("REF", deflate(new Generator(1, 2, 20, XYZ_SCALE, BO_SCALE, 12), STANDARD_COMPRESSION));
+		Generator generator = new Generator(2, 3, 20, XYZ_SCALE, BO_SCALE, 13);
+		byte[] data = deflate(generator, "REF", resolver);
+		assertEquals(REFERENCE_COMPRESSION, getCompressionMethod(data));
+
+		Recorder expected = new Recorder();
+		generator.generate(expected);
+		Recorder recorder = new Recorder();
+		StructureInflator inflator = new StructureInflator(recorder);
+		inflator.setReferenceResolver(resolver);
+		inflator.read(data);
+		assertEquals(expected.getRecords(), recorder.getRecords());
+		Map<String, Integer> bonds = recorder.getBonds();
+		for (Map.Entry<String, Integer> bond: expected.getBonds().entrySet()) {
+			assertEquals(bond.getKey(), bond.getValue(), bonds.get(bond.getKey()));
+		}
+		for (Map.Entry<String, Integer> bond: bonds.entrySet()) {
+			if (bond.getValue() != BondInflatorInterface.UNKNOWN_BOND_ORDER) {
+				assertEquals(bond.getKey(), bond.getValue(), expected.getBonds().get(bond.getKey()));
+			}
+		}
+	}
+
+	@Test
+	public void testReferenceCopy() throws Exception {
+		// a structure encoded relative to itself consists of COPY records and matches with zero deltas
+		Generator generator = new Generator(2, 2, 30, XYZ_SCALE, BO_SCALE, 14);
+		MemoryResolver resolver = new MemoryResolver();
+		resolver.put("REF", deflate(generator, PACKED_COMPRESSION));
+		byte[] data = deflate(generator, "REF", resolver);
+		assertEquals(generator.record(), inflate(data, resolver));
+		assertTrue(data.length < resolver.get("REF").length / 2);
+	}
+
+	@Test
+	public void testReferenceDepth() throws Exception {
+		// a chain of MAX_REFERENCE_DEPTH references can be decoded
+		MemoryResolver resolver = new MemoryResolver();
+		Generator generator = createReferences(resolver, MAX_REFERENCE_DEPTH);
+		assertEquals(generator.record(), inflate(resolver.get("E" + MAX_REFERENCE_DEPTH), resolver));
+	}
+
+	@Test(expected = IOException.class)
+	public void testReferenceDepthLimit() throws Exception {
+		MemoryResolver resolver = new MemoryResolver();
+		createReferences(resolver, MAX_REFERENCE_DEPTH);
+		deflate(new Generator(1, 1, 5, XYZ_SCALE, BO_SCALE, 99), "E" + MAX_REFERENCE_DEPTH, resolver);
+	}
+
+	@Test(expected = IOException.class)
+	public void testReferenceDepthLimitDecoder() throws Exception {
+		// encoded relative to an entry without references, decoded with a chain of MAX_REFERENCE_DEPTH references
+		MemoryResolver resolver = new MemoryResolver();
+		createReferences(resolver, MAX_REFERENCE_DEPTH);
+		MemoryResolver shallowResolver = new MemoryResolver();
+		shallowResolver.put("E" + MAX_REFERENCE_DEPTH, resolver.get("E0"));
+		byte[] data = deflate(new Generator(1, 1, 5, XYZ_SCALE, BO_SCALE, 99), "E" + MAX_REFERENCE_DEPTH, shallowResolver);
+		inflate(data, resolver);
+	}
+
+	@Test(expected = IOException.class)
+	public void testReferencePrecision() throws Exception {
+		MemoryResolver resolver = new MemoryResolver();
+		resolver.put("REF", deflate(new Generator(1, 1, 5, 100, 10, 15), STANDARD_COMPRESSION, 100, 10));
+		deflate(new Generator(1, 1, 5, XYZ_SCALE, BO_SCALE, 15), "REF", resolver);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidAssemblyOperator() {
+		new StructureDeflator(new ByteArrayOutputStream()).addAssemblyOperator("1", new double[9], new int[]{0});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPrecision() {
+		new StructureDeflator(new ByteArrayOutputStream()).setPrecision(0, BO_SCALE);
+	}
+
+	/**
+	 * Encodes a structure with the given compression method and checks that the decoder reproduces its records
+	 * and the bond order of each of its bonds.
+	 */
+	private static void assertRoundTrip(Generator generator, int compressionMethod) throws Exception {
+		byte[] data = deflate(generator, compressionMethod);
+		assertEquals(compressionMethod, getCompressionMethod(data));
+		Recorder expected = new Recorder();
+		generator.generate(expected);
+		Recorder recorder = new Recorder();
+		new StructureInflator(recorder).read(data);
+		assertEquals(expected.getRecords(), recorder.getRecords());
+		for (Map.Entry<String, Integer> bond: expected.getBonds().entrySet()) {
+			assertEquals(bond.getKey(), bond.getValue(), recorder.getBonds().get(bond.getKey()));
+		}
+	}
+
+	/**
+	 * Returns the sorted atom records of a list of records.
+	 */
+	private static List<String> getAtomRecords(List<String> records) {
+		List<String> atoms = new ArrayList<String>();
+		for (String record: records) {
+			if (record.startsWith("atom ")) {
+				atoms.add(record);
+			}
+		}
+		Collections.sort(atoms);
+		return atoms;
+	}
+
+	/**
+	 * Adds a chain of GLY groups along the x axis, at a y coordinate given by the first serial number.
+	 */
+	private static void addChain(StructureInflatorInterface inflator, String chainId, int groupCount, int firstSerial) {
+		String[] atomNames = {"N", "CA", "C", "O"};
+		inflator.setChainInfo(chainId, groupCount);
+		for (int g = 0; g < groupCount; g++) {
+			inflator.setGroupInfo("GLY", g + 1, ' ', 1, atomNames.length);
+			for (int i = 0; i < atomNames.length; i++) {
+				float x = 6 * g + 1.5f * i;
+				inflator.setAtomInfo(atomNames[i], firstSerial + 4 * g + i, ' ', x, firstSerial, i % 2, 1.0f, 20.0f + i, atomNames[i].substring(0, 1));
+			}
+		}
+	}
+
+	/**
+	 * Encodes a structure with the given compression method.
+	 */
+	static byte[] deflate(Generator generator, int compressionMethod) throws IOException {
+		return deflate(generator, compressionMethod, XYZ_SCALE, BO_SCALE);
+	}
+
+	/**
+	 * Encodes a structure with the given compression method and precision.
+	 */
+	static byte[] deflate(Generator generator, int compressionMethod, int xyzScale, int boScale) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		deflator.setCompressionMethod(compressionMethod);
+		deflator.setPrecision(xyzScale, boScale);
+		generator.generate(deflator);
+		deflator.writeStructure();
+		deflator.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Encodes a structure relative to a reference entry (compression method 6).
+	 */
+	static byte[] deflate(Generator generator, String referenceId, ReferenceResolver resolver) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+		deflator.setCompressionMethod(REFERENCE_COMPRESSION);
+		deflator.setReference(referenceId, resolver);
+		generator.generate(deflator);
+		deflator.writeStructure();
+		deflator.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Creates the entries E0 - En, where each entry Ei (i &gt; 0) is encoded relative to the entry Ei-1.
+	 * @return the generator of the entry En
+	 */
+	private static Generator createReferences(MemoryResolver resolver, int n) throws IOException {
+		Generator generator = new Generator(1, 1, 5, XYZ_SCALE, BO_SCALE, 20);
+		resolver.put("E0", deflate(generator, STANDARD_COMPRESSION));
+		for (int i = 1; i <= n; i++) {
+			generator = new Generator(1, 1, 5, XYZ_SCALE, BO_SCALE, 20 + i);
+			resolver.put("E" + i, deflate(generator, "E" + (i - 1), resolver));
+		}
+		return generator;
+	}
+
+	/**
+	 * Decodes a structure and returns its records (see Recorder).
+	 */
+	static List<String> inflate(byte[] data) throws Exception {
+		Recorder recorder = new Recorder();
+		new StructureInflator(recorder).read(data);
+		return recorder.getRecords();
+	}
+
+	/**
+	 * Decodes a structure that may refer to the entries of a resolver, and returns its records (see Recorder).
+	 */
+	static List<String> inflate(byte[] data, ReferenceResolver resolver) throws Exception {
+		Recorder recorder = new Recorder();
+		StructureInflator inflator = new StructureInflator(recorder);
+		inflator.setReferenceResolver(resolver);
+		inflator.read(data);
+		return recorder.getRecords();
+	}
+
+	/**
+	 * Returns the compression method in the header of the first structure.
+	 */
+	static int getCompressionMethod(byte[] data) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+		try {
+			byte[] header = new byte[7];
+			int n = 0;
+			while (n < header.length) {
+				n += in.read(header, n, header.length - n);
+			}
+			return header[6];
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Generates a synthetic structure: chains of amino acids whose atoms are about 1.5 Angstroms apart, followed
+	 * by a chain of water molecules, in each model. Coordinates, b factors, and occupancies are multiples of the
+	 * precision, so that they are reproduced exactly.
+	 */
+	static final class Generator {
+		private static final String[] GROUP_NAMES = {"ALA", "GLY", "SER"};
+		private static final String[][] ATOM_NAMES = {
+			{"N", "CA", "C", "O", "CB"},
+			{"N", "CA", "C", "O"},
+			{"N", "CA", "C", "O", "CB", "OG"}
+		};
+
+		final int modelCount;
+		final int chainCount;
+		final int groupCount;
+		private final int xyzScale;
+		private final int boScale;
+		private final long seed;
+
+		Generator(int modelCount, int chainCount, int groupCount, int xyzScale, int boScale, long seed) {
+			this.modelCount = modelCount;
+			this.chainCount = chainCount;
+			this.groupCount = groupCount;
+			this.xyzScale = xyzScale;
+			this.boScale = boScale;
+			this.seed = seed;
+		}
+
+		/**
+		 * Returns the records of the structure, as they are expected from the decoder.
+		 */
+		List<String> record() {
+			Recorder recorder = new Recorder();
+			generate(recorder);
+			return recorder.getRecords();
+		}
+
+		/**
+		 * Passes the structure to an inflator. Inflators that implement the BondInflatorInterface also receive
+		 * bonds: bonds between consecutive atoms of a group (unknown bond order), polymer bonds, a bond within
+		 * all SER groups, a bond within the fourth group of each chain, and a bond between the first two chains.
+		 * Since the chains extend along the x axis, only consecutive atoms are close enough to be part of the
+		 * bond tree of a group template.
+		 */
+		void generate(StructureInflatorInterface inflator) {
+			BondInflatorInterface bondInflator = inflator instanceof BondInflatorInterface ? (BondInflatorInterface) inflator : null;
+			Random random = new Random(seed);
+			inflator.setModelCount(modelCount);
+			for (int m = 0; m < modelCount; m++) {
+				int serial = 1;
+				int[] chainBondAtoms = new int[chainCount];
+				inflator.setModelInfo(m, chainCount + 1);
+				for (int c = 0; c < chainCount; c++) {
+					inflator.setChainInfo(String.valueOf((char)('A' + c)), groupCount);
+					double[] position = {c * 20, m * 2, 0};
+					int tail = 0;
+					for (int g = 0; g < groupCount; g++) {
+						int type = g % GROUP_NAMES.length;
+						String[] atomNames = ATOM_NAMES[type];
+						int first = serial;
+						// a gap in the group numbers, and an insertion code
+						int number = g < 10 ? g + 1 : g + 5;
+						char insertionCode = g == 7 ? 'A' : ' ';
+						inflator.setGroupInfo(GROUP_NAMES[type], number, insertionCode, 1, atomNames.length);
+						for (int i = 0; i < atomNames.length; i++) {
+							move(position, i == 0 ? 1.33 : 1.5, random);
+							char altLoc = g == 5 && i == 4 ? 'A' : ' ';
+							setAtomInfo(inflator, atomNames[i], serial++, altLoc, position, random);
+						}
+						if (bondInflator == null) {
+							continue;
+						}
+						for (int i = 1; i < atomNames.length; i++) {
+							bondInflator.setBondInfo(first + i - 1, first + i, BondInflatorInterface.UNKNOWN_BOND_ORDER);
+						}
+						if (tail > 0) {
+							bondInflator.setBondInfo(tail, first, 1);
+						}
+						if (GROUP_NAMES[type].equals("SER")) {
+							bondInflator.setBondInfo(first + 5, first, 2);
+						}
+						if (g == 3) {
+							bondInflator.setBondInfo(first + 1, first + 4, 1);
+						}
+						tail = first + 2;
+						if (g == 2) {
+							chainBondAtoms[c] = first + 1;
+						}
+					}
+				}
+				inflator.setChainInfo("W", groupCount / 2);
+				for (int g = 0; g < groupCount / 2; g++) {
+					inflator.setGroupInfo("HOH", 1000 + g, ' ', 0, 1);
+					double[] position = {random.nextDouble() * 50, random.nextDouble() * 50, random.nextDouble() * 50};
+					setAtomInfo(inflator, "O", serial++, ' ', position, random);
+				}
+				if (bondInflator != null && chainCount > 1 && groupCount > 2) {
+					bondInflator.setBondInfo(chainBondAtoms[0], chainBondAtoms[1], 1);
+				}
+			}
+		}
+
+		private void setAtomInfo(StructureInflatorInterface inflator, String atomName, int serial, char altLoc,
+				double[] position, Random random) {
+			float occupancy = altLoc == ' ' ? 1.0f : round(random.nextDouble(), boScale);
+			float bFactor = round(10 + random.nextDouble() * 40, boScale);
+			inflator.setAtomInfo(atomName, serial, altLoc, round(position[0], xyzScale), round(position[1], xyzScale),
+					round(position[2], xyzScale), occupancy, bFactor, atomName.substring(0, 1));
+		}
+
+		private static void move(double[] position, double distance, Random random) {
+			double dx = 2 + Math.abs(random.nextGaussian());
+			double dy = random.nextGaussian();
+			double dz = random.nextGaussian();
+			double scale = distance / Math.sqrt(dx*dx + dy*dy + dz*dz);
+			position[0] += dx * scale;
+			position[1] += dy * scale;
+			position[2] += dz * scale;
+		}
+
+		private static float round(double value, int scale) {
+			return (float)Math.round(value * scale) / scale;
+		}
+	}
+
+	/**
+	 * Resolves reference entries from gzip compressed HESC data in memory.
+	 */
+	static final class MemoryResolver implements ReferenceResolver {
+		private final Map<String, byte[]> entries = new HashMap<String, byte[]>();
+
+		void put(String referenceId, byte[] data) {
+			entries.put(referenceId, data);
+		}
+
+		byte[] get(String referenceId) {
+			return entries.get(referenceId);
+		}
+
+		public InputStream open(String referenceId) throws IOException {
+			byte[] data = entries.get(referenceId);
+			if (data == null) {
+				throw new IOException("unknown reference entry: " + referenceId);
+			}
+			return new ByteArrayInputStream(data);
+		}
+	}
+
+	/**
+	 * Passes the chains with the given indices to a recorder, with coordinates transformed by an assembly operator,
+	 * as they are reported by the decoder.
+	 */
+	static final class ChainTransformer implements StructureInflatorInterface {
+		private final Recorder recorder;
+		private final int[] chains;
+		private final double[] m;
+		private int chainIndex = -1;
+		private boolean accepted = false;
+
+		ChainTransformer(Recorder recorder, int[] chains, double[] matrix) {
+			this.recorder = recorder;
+			this.chains = chains;
+			this.m = matrix;
+		}
+
+		public void setModelCount(int modelCount) {
+		}
+
+		public void setModelInfo(int modelNumber, int chainCount) {
+		}
+
+		public void setChainInfo(String chainId, int groupCount) {
+			accepted = Arrays.binarySearch(chains, ++chainIndex) >= 0;
+			if (accepted) {
+				recorder.setChainInfo(chainId, groupCount);
+			}
+		}
+
+		public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+			if (accepted) {
+				recorder.setGroupInfo(groupName, groupNumber, insertionCode, polymerType, atomCount);
+			}
+		}
+
+		public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+				float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+			if (accepted) {
+				recorder.setAtomInfo(atomName, serialNumber, alternativeLocationId,
+						(float)(m[0]*x + m[1]*y + m[2]*z + m[9]),
+						(float)(m[3]*x + m[4]*y + m[5]*z + m[10]),
+						(float)(m[6]*x + m[7]*y + m[8]*z + m[11]),
+						occupancy, temperatureFactor, element);
+			}
+		}
+	}
+
+	/**
+	 * Records the assembly operators and the copies of the chains.
+	 */
+	static final class AssemblyRecorder extends Recorder implements AssemblyInflatorInterface {
+		public boolean setOperatorInfo(String operatorId, double[] matrix, int chainCount) {
+			add("operator " + operatorId + " " + Arrays.toString(matrix) + " " + chainCount);
+			return true;
+		}
+	}
+
+	/**
+	 * Records the layers of a structure (compression method 5), and stops decoding after a given number of layers.
+	 */
+	static final class LayerRecorder extends Recorder implements LayerInflatorInterface {
+		final List<Integer> layers = new ArrayList<Integer>();
+		private final int layerCount;
+
+		LayerRecorder(int layerCount) {
+			this.layerCount = layerCount;
+		}
+
+		public boolean setLayerInfo(int layer, int atomCount) {
+			layers.add(layer);
+			return layer < layerCount;
+		}
+	}
+
+	/**
+	 * Records the callbacks of a structure as strings. Serial numbers are not recorded, since the decoder numbers
+	 * atoms sequentially, and the atoms of each group are sorted, since the encoder orders them by group template.
+	 * Bonds are recorded separately, with the atoms identified by model, chain id, group number, atom name, and
+	 * alternative location id.
+	 */
+	static class Recorder implements StructureInflatorInterface, BondInflatorInterface {
+		private final List<String> records = new ArrayList<String>();
+		private final List<String> atoms = new ArrayList<String>();
+		private final Map<String, Integer> bonds = new TreeMap<String, Integer>();
+		private final Map<String, String> atomLabels = new HashMap<String, String>();
+		private int modelNumber;
+		private String chainId;
+		private String groupLabel;
+
+		public void setModelCount(int modelCount) {
+			add("structure " + modelCount);
+		}
+
+		public void setModelInfo(int modelNumber, int chainCount) {
+			add("model " + modelNumber + " " + chainCount);
+			this.modelNumber = modelNumber;
+		}
+
+		public void setChainInfo(String chainId, int groupCount) {
+			add("chain " + chainId.trim() + " " + groupCount);
+			this.chainId = chainId.trim();
+		}
+
+		public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+			add("group " + groupName + " " + groupNumber + " '" + insertionCode + "' " + polymerType + " " + atomCount);
+			groupLabel = chainId + "/" + groupNumber + insertionCode;
+		}
+
+		public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+				float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+			atoms.add(String.format(Locale.US, "atom %s '%c' %.3f %.3f %.3f %.2f %.2f %s", atomName.trim(),
+					alternativeLocationId, x, y, z, occupancy, temperatureFactor, element.trim()));
+			atomLabels.put(modelNumber + ":" + serialNumber, groupLabel + "/" + atomName.trim() + alternativeLocationId);
+		}
+
+		public void setBondInfo(int atomSerialNumber1, int atomSerialNumber2, int bondOrder) {
+			// atoms of earlier layers (compression method 5) are reported with an earlier setModelInfo call
+			String label1 = atomLabels.get(modelNumber + ":" + atomSerialNumber1);
+			String label2 = atomLabels.get(modelNumber + ":" + atomSerialNumber2);
+			if (label1.compareTo(label2) > 0) {
+				String label = label1;
+				label1 = label2;
+				label2 = label;
+			}
+			bonds.put(modelNumber + " " + label1 + " " + label2, bondOrder);
+		}
+
+		void add(String record) {
+			flushAtoms();
+			records.add(record);
+		}
+
+		List<String> getRecords() {
+			flushAtoms();
+			return records;
+		}
+
+		/**
+		 * @return the bond order of each bond, by model and atoms
+		 */
+		Map<String, Integer> getBonds() {
+			return bonds;
+		}
+
+		private void flushAtoms() {
+			Collections.sort(atoms);
+			records.addAll(atoms);
+			atoms.clear();
+		}
+	}
+}
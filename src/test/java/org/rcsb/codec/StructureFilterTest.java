@@ -0,0 +1,429 @@
+/**
+ *
+ */
+package org.rcsb.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.rcsb.codec.CodecConstants.BO_SCALE;
+import static org.rcsb.codec.CodecConstants.PACKED_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PREDICTIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.PROGRESSIVE_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STANDARD_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.STREAMING_COMPRESSION;
+import static org.rcsb.codec.CodecConstants.XYZ_SCALE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import org.rcsb.codec.StructureDeflatorTest.Generator;
+
+/**
+ * Tests the StructureFilter: a structure is decoded with a filter, and the result is compared with the
+ * unfiltered structure, to which the filter has been applied afterwards (see FilterOracle). The records include
+ * the serial numbers, the bonds, and the assembly copies, and the comparison covers all compression methods.
+ *
+ * @author Peter Rose
+ *
+ */
+public class StructureFilterTest {
+	private static final int[] METHODS = {STANDARD_COMPRESSION, STREAMING_COMPRESSION, PACKED_COMPRESSION,
+		PROGRESSIVE_COMPRESSION, PREDICTIVE_COMPRESSION};
+	// the progressive layout (compression method 5) does not support assemblies
+	private static final int[] ASSEMBLY_METHODS = {STANDARD_COMPRESSION, STREAMING_COMPRESSION, PACKED_COMPRESSION,
+		PREDICTIVE_COMPRESSION};
+	private static final double[] IDENTITY = {1, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0};
+	private static final double[] ROTATION = {0, -1, 0, 1, 0, 0, 0, 0, 1, 10, 0, -5};
+
+	@Test
+	public void testHeavyAtoms() throws Exception {
+		assertFilter(new StructureFilter().excludeHydrogens(), METHODS, false);
+	}
+
+	@Test
+	public void testPolymerTypes() throws Exception {
+		assertFilter(new StructureFilter().setPolymerTypes(1), METHODS, false);
+	}
+
+	@Test
+	public void testWater() throws Exception {
+		assertFilter(new StructureFilter().excludeWater(), METHODS, false);
+	}
+
+	@Test
+	public void testAlternativeLocation() throws Exception {
+		assertFilter(new StructureFilter().setAlternativeLocation('A'), METHODS, false);
+	}
+
+	@Test
+	public void testModelsAndChains() throws Exception {
+		assertFilter(new StructureFilter().setModels(1).setChainIds("B", "W"), METHODS, false);
+	}
+
+	@Test
+	public void testCombined() throws Exception {
+		assertFilter(new StructureFilter().setChainIds("A", "C").excludeHydrogens().setAlternativeLocation('A')
+				.excludeGroups("SER"), METHODS, false);
+	}
+
+	@Test
+	public void testAssembly() throws Exception {
+		// the first operator copies a rejected chain only
+		assertFilter(new StructureFilter().setChainIds("B", "W").excludeHydrogens(), ASSEMBLY_METHODS, true);
+		assertFilter(new StructureFilter().setModels(0).setPolymerTypes(1, 2), ASSEMBLY_METHODS, true);
+	}
+
+	@Test
+	public void testNoFilter() throws Exception {
+		assertFilter(new StructureFilter(), METHODS, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPolymerType() {
+		new StructureFilter().setPolymerTypes(1, 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativePolymerType() {
+		new StructureFilter().setPolymerTypes(-1);
+	}
+
+	/**
+	 * Encodes a structure with three chains, water, and hydrogen atoms with each compression method, and compares
+	 * the structure decoded with the filter with the result of the FilterOracle.
+	 * @param assembly true to add assembly operators
+	 */
+	private static void assertFilter(StructureFilter filter, int[] methods, boolean assembly) throws Exception {
+		Generator generator = new Generator(2, 3, 12, XYZ_SCALE, BO_SCALE, 30);
+		for (int method: methods) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			StructureDeflator deflator = new StructureDeflator(new GZIPOutputStream(bytes));
+			deflator.setCompressionMethod(method);
+			generator.generate(new HydrogenAdder(deflator));
+			if (assembly) {
+				deflator.addAssemblyOperator("1", IDENTITY, new int[] {0});
+				deflator.addAssemblyOperator("2", ROTATION, new int[] {0, 1, 3});
+			}
+			deflator.writeStructure();
+			deflator.close();
+			byte[] data = bytes.toByteArray();
+
+			FilterOracle oracle = new FilterOracle();
+			new StructureInflator(oracle).read(data);
+			FilterRecorder expected = new FilterRecorder();
+			oracle.replay(filter, method == STREAMING_COMPRESSION, expected);
+
+			FilterRecorder recorder = new FilterRecorder();
+			StructureInflator inflator = new StructureInflator(recorder);
+			inflator.setFilter(filter);
+			inflator.read(data);
+
+			assertEquals("method " + method, expected.records, recorder.records);
+			assertEquals("method " + method, expected.bonds, recorder.bonds);
+			assertTrue("method " + method, ! recorder.bonds.isEmpty() || expected.records.size() < 10);
+		}
+	}
+
+	/**
+	 * Adds a hydrogen atom to each group except water. The hydrogen atoms of every fourth group have the
+	 * alternative location id 'B'. Serial numbers and bonds are renumbered accordingly.
+	 */
+	static final class HydrogenAdder implements StructureInflatorInterface, BondInflatorInterface {
+		private final StructureDeflator deflator;
+		private final Map<Integer, Integer> serialNumbers = new HashMap<Integer, Integer>();
+		private int serialNumber;
+		private int groupNumber;
+		private int remainingAtoms;
+
+		HydrogenAdder(StructureDeflator deflator) {
+			this.deflator = deflator;
+		}
+
+		public void setModelCount(int modelCount) {
+			deflator.setModelCount(modelCount);
+		}
+
+		public void setModelInfo(int modelNumber, int chainCount) {
+			deflator.setModelInfo(modelNumber, chainCount);
+			serialNumbers.clear();
+			serialNumber = 0;
+		}
+
+		public void setChainInfo(String chainId, int groupCount) {
+			deflator.setChainInfo(chainId, groupCount);
+		}
+
+		public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+			this.groupNumber = groupNumber;
+			remainingAtoms = groupName.equals("HOH") ? -1 : atomCount;
+			deflator.setGroupInfo(groupName, groupNumber, insertionCode, polymerType, remainingAtoms < 0 ? atomCount : atomCount + 1);
+		}
+
+		public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+				float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+			serialNumbers.put(serialNumber, ++this.serialNumber);
+			deflator.setAtomInfo(atomName, this.serialNumber, alternativeLocationId, x, y, z, occupancy, temperatureFactor, element);
+			if (--remainingAtoms == 0) {
+				char altLoc = groupNumber % 4 == 0 ? 'B' : ' ';
+				deflator.setAtomInfo("H", ++this.serialNumber, altLoc, x + 1.0f, y, z, altLoc == ' ' ? 1.0f : 0.5f,
+						temperatureFactor, "H");
+			}
+		}
+
+		public void setBondInfo(int atomSerialNumber1, int atomSerialNumber2, int bondOrder) {
+			deflator.setBondInfo(serialNumbers.get(atomSerialNumber1), serialNumbers.get(atomSerialNumber2), bondOrder);
+		}
+	}
+
+	/**
+	 * Records the callbacks in the order of the calls, including the serial numbers, and the bonds
+	 * by model, serial numbers, and bond order.
+	 */
+	static final class FilterRecorder implements StructureInflatorInterface, BondInflatorInterface, AssemblyInflatorInterface {
+		final List<String> records = new ArrayList<String>();
+		final Set<String> bonds = new TreeSet<String>();
+		private int modelNumber;
+
+		public void setModelCount(int modelCount) {
+			records.add("structure " + modelCount);
+		}
+
+		public void setModelInfo(int modelNumber, int chainCount) {
+			records.add("model " + modelNumber + " " + chainCount);
+			this.modelNumber = modelNumber;
+		}
+
+		public void setChainInfo(String chainId, int groupCount) {
+			records.add("chain " + chainId.trim() + " " + groupCount);
+		}
+
+		public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+			records.add("group " + groupName + " " + groupNumber + " '" + insertionCode + "' " + polymerType + " " + atomCount);
+		}
+
+		public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+				float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+			records.add(String.format(Locale.US, "atom %d %s '%c' %.3f %.3f %.3f %.2f %.2f %s", serialNumber, atomName.trim(),
+					alternativeLocationId, x, y, z, occupancy, temperatureFactor, element.trim()));
+		}
+
+		public void setBondInfo(int atomSerialNumber1, int atomSerialNumber2, int bondOrder) {
+			bonds.add(modelNumber + " " + Math.min(atomSerialNumber1, atomSerialNumber2) + " "
+					+ Math.max(atomSerialNumber1, atomSerialNumber2) + " " + bondOrder);
+		}
+
+		public boolean setOperatorInfo(String operatorId, double[] matrix, int chainCount) {
+			records.add("operator " + operatorId + " " + Arrays.toString(matrix) + " " + chainCount);
+			return true;
+		}
+	}
+
+	/**
+	 * Collects an unfiltered structure as it is reported by the decoder, and applies a filter afterwards:
+	 * models and chains that are not accepted are omitted, as are groups and chains without accepted atoms,
+	 * and the counts are adjusted. Atoms keep their serial numbers, and only bonds between accepted atoms are kept.
+	 */
+	static final class FilterOracle implements StructureInflatorInterface, BondInflatorInterface, AssemblyInflatorInterface {
+		private int modelCount;
+		private final List<Model> models = new ArrayList<Model>();
+		private Model model;
+		private Chain chain;
+		private Group group;
+
+		public void setModelCount(int modelCount) {
+			this.modelCount = modelCount;
+		}
+
+		public void setModelInfo(int modelNumber, int chainCount) {
+			model = new Model(modelNumber, chainCount);
+			models.add(model);
+		}
+
+		public void setChainInfo(String chainId, int groupCount) {
+			chain = new Chain(chainId, null, null);
+			model.chains.add(chain);
+		}
+
+		public void setGroupInfo(String groupName, int groupNumber, char insertionCode, int polymerType, int atomCount) {
+			group = new Group(groupName, groupNumber, insertionCode, polymerType);
+			chain.groups.add(group);
+		}
+
+		public void setAtomInfo(String atomName, int serialNumber, char alternativeLocationId,
+				float x, float y, float z, float occupancy, float temperatureFactor, String element) {
+			group.atoms.add(new Atom(atomName, serialNumber, alternativeLocationId, new float[] {x, y, z, occupancy, temperatureFactor}, element));
+		}
+
+		public void setBondInfo(int atomSerialNumber1, int atomSerialNumber2, int bondOrder) {
+			model.bonds.add(new int[] {atomSerialNumber1, atomSerialNumber2, bondOrder});
+		}
+
+		public boolean setOperatorInfo(String operatorId, double[] matrix, int chainCount) {
+			// the chains that follow an operator are its copies
+			model.chains.add(new Chain(null, operatorId, matrix));
+			return true;
+		}
+
+		/**
+		 * Passes the structure to an inflator with the filter applied.
+		 * @param streaming true for compression method 3, where the chain count of a model is not filtered
+		 */
+		void replay(StructureFilter filter, boolean streaming, FilterRecorder inflator) {
+			int acceptedModelCount = 0;
+			for (int m = 0; m < modelCount; m++) {
+				if (filter.acceptModel(m)) {
+					acceptedModelCount++;
+				}
+			}
+			inflator.setModelCount(acceptedModelCount);
+
+			for (Model model: models) {
+				if (! filter.acceptModel(model.number)) {
+					continue;
+				}
+				Set<Integer> acceptedAtoms = new HashSet<Integer>();
+				List<List<Group>> acceptedGroups = new ArrayList<List<Group>>();
+				for (Chain chain: model.chains) {
+					acceptedGroups.add(getAcceptedGroups(filter, chain));
+				}
+
+				int chainCount = 0;
+				for (int i = 0; i < model.chains.size() && model.chains.get(i).operatorId == null; i++) {
+					if (! acceptedGroups.get(i).isEmpty()) {
+						chainCount++;
+					}
+				}
+				inflator.setModelInfo(model.number, streaming ? model.chainCount : chainCount);
+
+				for (int i = 0; i < model.chains.size(); i++) {
+					Chain chain = model.chains.get(i);
+					if (chain.operatorId != null) {
+						int copyCount = 0;
+						for (int j = i + 1; j < model.chains.size() && model.chains.get(j).operatorId == null; j++) {
+							if (! acceptedGroups.get(j).isEmpty()) {
+								copyCount++;
+							}
+						}
+						inflator.setOperatorInfo(chain.operatorId, chain.matrix, copyCount);
+						continue;
+					}
+					if (acceptedGroups.get(i).isEmpty()) {
+						continue;
+					}
+					inflator.setChainInfo(chain.chainId, acceptedGroups.get(i).size());
+					for (Group group: acceptedGroups.get(i)) {
+						List<Atom> atoms = getAcceptedAtoms(filter, group);
+						inflator.setGroupInfo(group.groupName, group.groupNumber, group.insertionCode, group.polymerType, atoms.size());
+						for (Atom atom: atoms) {
+							inflator.setAtomInfo(atom.atomName, atom.serialNumber, atom.altLoc, atom.values[0], atom.values[1],
+									atom.values[2], atom.values[3], atom.values[4], atom.element);
+							acceptedAtoms.add(atom.serialNumber);
+						}
+					}
+				}
+
+				for (int[] bond: model.bonds) {
+					if (acceptedAtoms.contains(bond[0]) && acceptedAtoms.contains(bond[1])) {
+						inflator.setBondInfo(bond[0], bond[1], bond[2]);
+					}
+				}
+			}
+		}
+
+		private static List<Group> getAcceptedGroups(StructureFilter filter, Chain chain) {
+			List<Group> groups = new ArrayList<Group>();
+			if (chain.operatorId != null || ! filter.acceptChain(chain.chainId.trim())) {
+				return groups;
+			}
+			for (Group group: chain.groups) {
+				if (! getAcceptedAtoms(filter, group).isEmpty()) {
+					groups.add(group);
+				}
+			}
+			return groups;
+		}
+
+		private static List<Atom> getAcceptedAtoms(StructureFilter filter, Group group) {
+			List<Atom> atoms = new ArrayList<Atom>();
+			String groupName = group.groupName.trim();
+			if (! filter.acceptGroup(groupName, group.polymerType)) {
+				return atoms;
+			}
+			for (Atom atom: group.atoms) {
+				if (filter.acceptAtom(groupName, group.polymerType, atom.atomName.trim(), atom.element, atom.altLoc)) {
+					atoms.add(atom);
+				}
+			}
+			return atoms;
+		}
+
+		private static final class Model {
+			final int number;
+			final int chainCount;
+			final List<Chain> chains = new ArrayList<Chain>();
+			final List<int[]> bonds = new ArrayList<int[]>();
+
+			Model(int number, int chainCount) {
+				this.number = number;
+				this.chainCount = chainCount;
+			}
+		}
+
+		private static final class Chain {
+			final String chainId;
+			final String operatorId;
+			final double[] matrix;
+			final List<Group> groups = new ArrayList<Group>();
+
+			Chain(String chainId, String operatorId, double[] matrix) {
+				this.chainId = chainId;
+				this.operatorId = operatorId;
+				this.matrix = matrix;
+			}
+		}
+
+		private static final class Group {
+			final String groupName;
+			final int groupNumber;
+			final char insertionCode;
+			final int polymerType;
+			final List<Atom> atoms = new ArrayList<Atom>();
+
+			Group(String groupName, int groupNumber, char insertionCode, int polymerType) {
+				this.groupName = groupName;
+				this.groupNumber = groupNumber;
+				this.insertionCode = insertionCode;
+				this.polymerType = polymerType;
+			}
+		}
+
+		private static final class Atom {
+			final String atomName;
+			final int serialNumber;
+			final char altLoc;
+			// x, y, z, occupancy, temperature factor
+			final float[] values;
+			final String element;
+
+			Atom(String atomName, int serialNumber, char altLoc, float[] values, String element) {
+				this.atomName = atomName;
+				this.serialNumber = serialNumber;
+				this.altLoc = altLoc;
+				this.values = values;
+				this.element = element;
+			}
+		}
+	}
+}